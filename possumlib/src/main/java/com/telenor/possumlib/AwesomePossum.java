@@ -11,6 +11,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
 import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
@@ -27,19 +28,23 @@ import com.telenor.possumlib.constants.Constants;
 import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.constants.Messaging;
 import com.telenor.possumlib.exceptions.GatheringNotAuthorizedException;
+import com.telenor.possumlib.functionality.PossumHttpClient;
+import com.telenor.possumlib.functionality.ProgressiveAuthentication;
 import com.telenor.possumlib.interfaces.IPossumMessage;
 import com.telenor.possumlib.interfaces.IPossumTrust;
+import com.telenor.possumlib.models.TrustScoreCache;
 import com.telenor.possumlib.services.CollectionService;
 import com.telenor.possumlib.services.DataUploadService;
 import com.telenor.possumlib.services.SendUserIdService;
+import com.telenor.possumlib.services.StandbyService;
 import com.telenor.possumlib.services.VerificationService;
+import com.telenor.possumlib.utils.FileUtil;
 import com.telenor.possumlib.utils.Has;
 import com.telenor.possumlib.utils.Send;
+import com.telenor.possumlib.utils.StorageQuota;
 
 import net.danlew.android.joda.JodaTimeAndroid;
 
-import org.joda.time.DateTime;
-
 import java.util.ArrayList;
 import java.util.List;
 
@@ -64,13 +69,27 @@ public final class AwesomePossum {
     private static BroadcastReceiver trustReceiver;
     private static JsonParser parser;
     private static BroadcastReceiver serviceMessageReceiver;
+    private static BroadcastReceiver networkReceiver;
+    private static boolean hadNetwork;
+    private static String uploadUserId;
+    private static String uploadIdentityPoolId;
     private static final String tag = AwesomePossum.class.getName();
     private static List<IPossumTrust> trustListeners = new ArrayList<>();
     private static List<IPossumMessage> messageListeners = new ArrayList<>();
     private static SharedPreferences preferences;
     private static boolean isListening;
     private static JsonObject latestTrustScore;
-    private static DateTime lastAuthenticated;
+    private static final TrustScoreCache trustScoreCache = new TrustScoreCache(TrustScoreCache.DEFAULT_TTL_MILLI,
+            TrustScoreCache.DEFAULT_MAX_STALE_MILLI, Constants.AUTHENTICATION_TIME);
+    private static String trustScoreUserId;
+    private static int connectTimeout = PossumHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLI;
+    private static int readTimeout = PossumHttpClient.DEFAULT_READ_TIMEOUT_MILLI;
+    private static boolean warmConnection = true;
+    private static int windowMilli;
+    private static float confidenceThreshold = ProgressiveAuthentication.DEFAULT_CONFIDENCE_THRESHOLD;
+    private static boolean earlyCompletion = true;
+    private static final int[] scoredDetectors = {DetectorType.Accelerometer, DetectorType.Gyroscope, DetectorType.Audio,
+            DetectorType.Wifi, DetectorType.Bluetooth, DetectorType.Position, DetectorType.Image};
 
     private static void init(@NonNull Context context) {
         if (initComplete) return;
@@ -92,38 +111,59 @@ public final class AwesomePossum {
                 handleServiceIntent(context, intent);
             }
         };
+        networkReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                handleNetworkChange(context);
+            }
+        };
+        hadNetwork = Has.network(context);
         context.registerReceiver(trustReceiver, new IntentFilter(Messaging.POSSUM_TRUST));
         context.registerReceiver(serviceMessageReceiver, new IntentFilter(Messaging.POSSUM_MESSAGE));
+        context.registerReceiver(networkReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Retries the uploads held back for want of a network, or backed off after failing, when the
+     * network comes back. Only once an upload has been started, since it needs the ids.
+     */
+    private static void handleNetworkChange(Context context) {
+        boolean hasNetwork = Has.network(context);
+        boolean regained = hasNetwork && !hadNetwork;
+        hadNetwork = hasNetwork;
+        if (regained && uploadUserId != null && FileUtil.retryQueue(context).pending() > 0) {
+            Log.i(tag, "Network regained, retrying upload");
+            startUpload(context, uploadUserId, uploadIdentityPoolId);
+        }
     }
 
     private static void handleTrustIntent(Intent intent) {
         String message = intent.getStringExtra("message");
+        String uniqueUserId = intent.getStringExtra("uniqueUserId");
+        boolean interim = intent.getBooleanExtra("interim", false);
         JsonObject object = (JsonObject)parser.parse(message);
         latestTrustScore = new JsonObject();
         latestTrustScore.add("trustScore", object.get("trustscore").getAsJsonObject());
+        latestTrustScore.addProperty("interim", interim);
         JsonObject sensors = object.get("sensors").getAsJsonObject();
-        latestTrustScore.add("accelerometer", sensors.get("accelerometer").getAsJsonObject());
-        latestTrustScore.add("gyroscope", sensors.get("gyroscope").getAsJsonObject());
-        latestTrustScore.add("sound", sensors.get("sound").getAsJsonObject());
-        latestTrustScore.add("network", sensors.get("network").getAsJsonObject());
-        latestTrustScore.add("bluetooth", sensors.get("bluetooth").getAsJsonObject());
-        latestTrustScore.add("position", sensors.get("position").getAsJsonObject());
-        latestTrustScore.add("image", sensors.get("image").getAsJsonObject());
-        notifyTrustChange(DetectorType.Accelerometer, latestTrustScore("accelerometer"), latestStatus("accelerometer"));
-        notifyTrustChange(DetectorType.Gyroscope, latestTrustScore("gyroscope"), latestStatus("gyroscope"));
-        notifyTrustChange(DetectorType.Audio, latestTrustScore("sound"), latestStatus("sound"));
-        notifyTrustChange(DetectorType.Wifi, latestTrustScore("network"), latestStatus("network"));
-        notifyTrustChange(DetectorType.Bluetooth, latestTrustScore("bluetooth"), latestStatus("bluetooth"));
-        notifyTrustChange(DetectorType.Position, latestTrustScore("position"), latestStatus("position"));
-        notifyTrustChange(DetectorType.Image, latestTrustScore("image"), latestStatus("image"));
+        // The score of a window of a progressive authentication may lack sensors without data
+        for (int detectorType : scoredDetectors) {
+            String name = detectorNameByType(detectorType);
+            if (sensors.get(name) != null && sensors.get(name).isJsonObject()) {
+                latestTrustScore.add(name, sensors.get(name).getAsJsonObject());
+                notifyTrustChange(detectorType, latestTrustScore(name), latestStatus(name));
+            }
+        }
 
         for (IPossumTrust listener: trustListeners) {
             listener.changeInCombinedTrust(latestTrustScore("trustScore"), latestStatus("trustScore"));
         }
-        lastAuthenticated = DateTime.now();
+        if (!interim && uniqueUserId != null) {
+            trustScoreCache.authenticationFinished(uniqueUserId, latestTrustScore, System.currentTimeMillis());
+            trustScoreUserId = uniqueUserId;
+        }
     }
 
-
     public static String latestStatus(@NonNull String detector) {
         return latestTrustScore.get(detector).getAsJsonObject().get("status").getAsString();
     }
@@ -184,25 +224,170 @@ public final class AwesomePossum {
      * @param uniqueUserId     the users unique identifier
      * @param url     the absolute url it will communicate with
      * @param apiKey     the key used to send to the rest api
-     * @param forceAttempt should it attempt to authenticate no matter what, let this be true
-     * @return true if it starts an attempt, false if too little time has passed
-     * or it is already running
+     * @param forceAttempt should it attempt to authenticate even if the cached score is fresh, let
+     *                     this be true. An authentication already running is still joined.
+     * @return true if it starts an attempt, false if the cached score is fresh or an attempt for
+     * the user is already running, whose score the trust listeners will get
      */
     public static boolean authenticate(@NonNull Context context, @NonNull String uniqueUserId, @NonNull String url, @NonNull String apiKey, boolean forceAttempt) {
         init(context);
         // TODO: Should this be a separate method or should it be part of the "listen" method?
-        if (forceAttempt || (lastAuthenticated == null || lastAuthenticated.plusMinutes(2).isBeforeNow())) {
+        // Joined for as long as the recording and the post may take, in case the end is never heard of
+        trustScoreCache.setInFlightTimeout(Constants.AUTHENTICATION_TIME + connectTimeout + readTimeout);
+        if (trustScoreCache.startAuthentication(uniqueUserId, System.currentTimeMillis(), forceAttempt)) {
             Intent intent = new Intent(context, CollectionService.class);
             intent.putExtra("url", url);
             intent.putExtra("uniqueUserId", uniqueUserId);
             intent.putExtra("authenticating", true);
             intent.putExtra("apiKey", apiKey);
+            intent.putExtra("connectTimeout", connectTimeout);
+            intent.putExtra("readTimeout", readTimeout);
+            intent.putExtra("warmConnection", warmConnection);
+            intent.putExtra("windowMilli", windowMilli);
+            intent.putExtra("confidenceThreshold", confidenceThreshold);
+            intent.putExtra("earlyCompletion", earlyCompletion);
             context.startService(intent);
             return true;
         } else return false;
     }
 
+    /**
+     * Sets up the http requests of the library: the authentication and the reset of data. Both
+     * reuse keep-alive connections. Default is 15 seconds to connect, 30 seconds between reads of
+     * the response, and warming the connection when an authentication starts so that it is open
+     * when the data is posted.
+     *
+     * @param connectTimeoutMilli time allowed for opening a connection
+     * @param readTimeoutMilli    time allowed between two reads of the response
+     * @param warmBeforeAuthentication whether to open the connection when authentication starts
+     */
+    public static void setHttpOptions(int connectTimeoutMilli, int readTimeoutMilli, boolean warmBeforeAuthentication) {
+        PossumHttpClient.shared().setTimeouts(connectTimeoutMilli, readTimeoutMilli);
+        connectTimeout = connectTimeoutMilli;
+        readTimeout = readTimeoutMilli;
+        warmConnection = warmBeforeAuthentication;
+    }
+
+    /**
+     * Sets how long the trust score of a user answers authenticate(). A score younger than the
+     * time to live is fresh, and authenticate() does not start an attempt. An older score is
+     * stale: latestTrustScore() still gives it, marked "stale", but authenticate() starts an
+     * attempt to replace it. Once older than the max staleness it is no longer given. Default is
+     * 2 minutes to live and 30 minutes max staleness.
+     *
+     * @param ttlMilli      how long a score is fresh
+     * @param maxStaleMilli how long a score is given at all, at least the time to live
+     */
+    public static void setTrustScoreCache(long ttlMilli, long maxStaleMilli) {
+        trustScoreCache.setPolicy(ttlMilli, maxStaleMilli);
+    }
+
+    /**
+     * How the authentications asked for were answered: by a fresh score ("hits"), by a stale
+     * score while starting an attempt ("staleHits"), by starting an attempt for want of a score
+     * ("misses"), by a forced attempt ("forced") or by joining the attempt running ("joined"),
+     * with the hit rate over the ones not forced
+     *
+     * @return jsonObject with the statistics of the trust score cache
+     */
+    public static JsonObject trustScoreCacheStatistics() {
+        return trustScoreCache.toJson();
+    }
+
+    /**
+     * The cached trust score of a user, in the same form as latestTrustScore(), with its "age"
+     * in milliseconds and whether it is "stale"
+     *
+     * @param uniqueUserId the users unique identifier
+     * @return the score, null if there is none or it is older than the max staleness
+     */
+    public static JsonObject cachedTrustScore(@NonNull String uniqueUserId) {
+        return trustScoreCache.get(uniqueUserId, System.currentTimeMillis());
+    }
+
+    /**
+     * Makes authenticate() progressive: instead of posting all data when the authentication time
+     * is up, the data gathered is posted every window over one connection, and the score of each
+     * window is given to the trust listeners as it arrives, marked "interim" in latestTrustScore()
+     * until the last. Once the confidence of the server reaches the threshold, the authentication
+     * ends at once with that score. The confidence is the "confidence" of the trustscore the server
+     * responds with, from 0 to 1, or its "score" if it gives none. Default is a window of 0, posting
+     * all data at the end, and a threshold of ProgressiveAuthentication.DEFAULT_CONFIDENCE_THRESHOLD.
+     *
+     * @param windowMilli         time between two windows, 0 to turn progressive authentication off
+     * @param confidenceThreshold the confidence of the server at which the authentication ends, from
+     *                            0 to 1, above 1 to always post every window
+     */
+    public static void setProgressiveAuthentication(int windowMilli, float confidenceThreshold) {
+        if (windowMilli < 0) {
+            throw new IllegalArgumentException("Invalid window:" + windowMilli);
+        }
+        AwesomePossum.windowMilli = windowMilli;
+        AwesomePossum.confidenceThreshold = confidenceThreshold;
+    }
+
+    /**
+     * Lets authenticate() end as soon as every detector has gathered enough for a score, instead
+     * of always recording for the authentication time, which is then only the deadline. Detectors
+     * that are unavailable are not waited for. The Messaging.AUTH_DONE message holds a jsonObject
+     * with the time every detector took. Default is true.
+     *
+     * @param enabled whether the authentication may end early
+     */
+    public static void setEarlyCompletion(boolean enabled) {
+        earlyCompletion = enabled;
+    }
+
+    /**
+     * Keeps the accelerometer, gyroscope, bluetooth and network detectors running in standby,
+     * holding their data of the last window in memory. While it runs, authenticate() for the same
+     * user is answered from that data at once, instead of starting all detectors and recording for
+     * the authentication time. Should the standby hold less than the window, as when it was just
+     * started, the authentication waits up to topUpMilli for it to fill. The memory held never
+     * exceeds memoryBudget; what it costs is reported with requestStandbyStatus.
+     *
+     * @param context      a valid android context
+     * @param uniqueUserId the users unique identifier
+     * @param windowMilli  how much recent data to hold, default is the authentication time
+     * @param memoryBudget the most bytes the data may hold
+     * @param topUpMilli   the longest an authentication waits for the window to fill, 0 to never wait
+     */
+    public static void startStandby(@NonNull Context context, @NonNull String uniqueUserId, long windowMilli, long memoryBudget, long topUpMilli) {
+        if (windowMilli <= 0 || memoryBudget <= 0 || topUpMilli < 0) {
+            throw new IllegalArgumentException("Invalid standby:" + windowMilli + ", " + memoryBudget + ", " + topUpMilli);
+        }
+        Intent intent = new Intent(context, StandbyService.class);
+        intent.putExtra("uniqueUserId", uniqueUserId);
+        intent.putExtra("windowMilli", windowMilli);
+        intent.putExtra("memoryBudget", memoryBudget);
+        intent.putExtra("topUpMilli", topUpMilli);
+        context.startService(intent);
+    }
+
+    /**
+     * Stops the standby, dropping the data it holds
+     *
+     * @param context a valid android context
+     */
+    public static void stopStandby(@NonNull Context context) {
+        context.stopService(new Intent(context, StandbyService.class));
+    }
+
+    /**
+     * Sends a request to the standby, if it is running, for its status. It is sent back as a
+     * Messaging.STANDBY_STATUS message with a jsonObject holding the window, how much of it is
+     * covered, the bytes held, the peak, the memory budget and the chunks dropped to keep within it.
+     *
+     * @param context a valid android context
+     */
+    public static void requestStandbyStatus(@NonNull Context context) {
+        Intent intent = new Intent(Messaging.POSSUM_MESSAGE);
+        intent.putExtra(Messaging.POSSUM_MESSAGE_TYPE, Messaging.REQUEST_STANDBY);
+        context.sendBroadcast(intent);
+    }
+
     public static void resetMyData(@NonNull String uniqueUserId, @NonNull String url, @NonNull String apiKey, @NonNull JsonArray detectors) {
+        trustScoreCache.invalidate(uniqueUserId);
         new ResetDataAsync(uniqueUserId, apiKey, detectors).execute(url);
     }
 
@@ -220,6 +405,13 @@ public final class AwesomePossum {
                 editor.putString(Constants.TEMP_UNIQUE_USER_ID, null);
                 editor.apply();
                 break;
+            case Messaging.AUTH_FAILED:
+                // Lets the next authenticate() start a new attempt instead of joining this one
+                String failedUserId = intent.getStringExtra(Messaging.POSSUM_MESSAGE);
+                if (failedUserId != null) {
+                    trustScoreCache.authenticationFinished(failedUserId, null, System.currentTimeMillis());
+                }
+                break;
             case Messaging.POSSUM_TERMINATE:
                 Log.d(tag, "Found that the AwesomePossum should be terminated. Initialize shutdown procedure");
                 editor = preferences.edit();
@@ -360,6 +552,8 @@ public final class AwesomePossum {
      */
     public static boolean startUpload(@NonNull Context context, @NonNull String uniqueUserId, @NonNull String identityPoolId) {
         if (preferences == null) return false;
+        uploadUserId = uniqueUserId;
+        uploadIdentityPoolId = identityPoolId;
         Intent intent = new Intent(context, DataUploadService.class);
         intent.putExtra("uniqueUserId", uniqueUserId);
         intent.putExtra("identityPoolId", identityPoolId);
@@ -404,6 +598,89 @@ public final class AwesomePossum {
         Log.i(tag, "Is learning now set to:" + isLearning);
     }
 
+    /**
+     * The metrics of the latest upload runs, oldest first. Each run has the number of files
+     * completed, failed, canceled and retried, the bytes sent, the duration, the throughput in
+     * bytes per second and the per-file latency statistics in milliseconds. The metrics of a run,
+     * with a list of its files, are also sent as a Messaging.UPLOAD_METRICS message when it ends.
+     *
+     * @param context a valid android context
+     * @return jsonArray of runs
+     */
+    public static JsonArray uploadHistory(@NonNull Context context) {
+        return FileUtil.uploadHistory(context).runs();
+    }
+
+    /**
+     * The latest upload runs summed up: runs, files, bytes, throughput over the time spent
+     * uploading and the mean and max per-file latency
+     *
+     * @param context a valid android context
+     * @return jsonObject with the aggregate of the upload history
+     */
+    public static JsonObject uploadStatistics(@NonNull Context context) {
+        return FileUtil.uploadHistory(context).summary();
+    }
+
+    /**
+     * Limits the space the data waiting for upload may take. When the limit is reached, or the
+     * device runs low on space, staged data is deleted in the order given by the eviction policy.
+     *
+     * @param context        a valid android context
+     * @param globalBudget   the most bytes all detectors' data may take together, 0 for no limit
+     * @param minFreeSpace   the free space in bytes to always leave on the device
+     * @param evictionPolicy a constant from EvictionPolicy
+     */
+    public static void setStorageQuota(@NonNull Context context, long globalBudget, long minFreeSpace, int evictionPolicy) {
+        StorageQuota quota = FileUtil.storageQuota(context);
+        quota.setGlobalBudget(globalBudget);
+        quota.setMinFreeSpace(minFreeSpace);
+        quota.setPolicy(evictionPolicy);
+    }
+
+    /**
+     * Chooses the format the accelerometer, gyroscope or magnetometer stores its samples in. The
+     * binary formats are smaller and cheaper to write than the default text zip, and are uploaded
+     * with the extension ".bin". Takes effect when the detector next starts a segment.
+     *
+     * @param context       a valid android context
+     * @param detectorType  a constant from DetectorType
+     * @param storageFormat a constant from StorageFormat, default is StorageFormat.TEXT_ZIP
+     */
+    public static void setStorageFormat(@NonNull Context context, int detectorType, int storageFormat) {
+        FileUtil.detectorSettings(context).setStorageFormat(detectorType, storageFormat);
+    }
+
+    /**
+     * Lets the accelerometer, gyroscope or magnetometer write its binary records to a memory
+     * mapped region of the segment file instead of a file stream, so a write is a memory copy
+     * with no system call. The region is allocated in full when a segment starts. Only used with
+     * StorageFormat.BINARY and StorageFormat.GORILLA. Takes effect when the detector next starts a
+     * segment. Default is false.
+     *
+     * @param context      a valid android context
+     * @param detectorType a constant from DetectorType
+     * @param enabled      whether binary records should be memory mapped
+     */
+    public static void setMemoryMapped(@NonNull Context context, int detectorType, boolean enabled) {
+        FileUtil.detectorSettings(context).setMemoryMapped(detectorType, enabled);
+    }
+
+    /**
+     * Lets the sensor hardware of the accelerometer, gyroscope or magnetometer hold its samples in
+     * its FIFO queue and deliver them together, instead of waking the device for every sample,
+     * which saves battery while gathering. Samples then arrive up to the time it takes to fill the
+     * queue late. Never used while authenticating, or on sensors without a FIFO queue. Takes
+     * effect when the detector next starts listening. Default is false.
+     *
+     * @param context      a valid android context
+     * @param detectorType a constant from DetectorType
+     * @param enabled      whether the sensor should batch its samples
+     */
+    public static void setSensorBatching(@NonNull Context context, int detectorType, boolean enabled) {
+        FileUtil.detectorSettings(context).setBatching(detectorType, enabled);
+    }
+
     /**
      * Sends a request to the service (if it is listening) that you want an update on the sensors
      * status. To receive it you will need to startListening for a Broadcast event with the action
@@ -571,11 +848,23 @@ public final class AwesomePossum {
     }
 
     /**
-     * Yields a jsonObject containing all the latest trustScores received along with a timestamp
+     * Yields a jsonObject containing all the latest trustScores received along with a timestamp.
+     * A final score is given from the trust score cache, with its "age" and whether it is
+     * "stale", until it is older than the max staleness.
      *
-     * @return
+     * @return jsonObject with the combined score under "trustScore" and the score of every
+     * detector under its name, all scores 0 if none has been received
      */
     public static JsonObject latestTrustScore() {
+        if (latestTrustScore != null && trustScoreUserId != null && !latestTrustScore.get("interim").getAsBoolean()) {
+            JsonObject cached = trustScoreCache.get(trustScoreUserId, System.currentTimeMillis());
+            if (cached != null) {
+                return cached;
+            }
+            // Too old to be given
+            latestTrustScore = null;
+            trustScoreUserId = null;
+        }
         if (latestTrustScore == null) {
             latestTrustScore = new JsonObject();
             JsonObject emptyObject = new JsonObject();
@@ -3,9 +3,30 @@ package com.telenor.possumlib.abstractdetectors;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.telenor.possumlib.models.DetectorWindow;
+import com.telenor.possumlib.models.DoubleBufferedSamples;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.models.RunningStatistics;
+import com.telenor.possumlib.models.SensorSampleBuffer;
+import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.WriterCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /***
  * AbstractAndroidDetector class that handles all detecting of sensor changes from the android
@@ -16,6 +37,17 @@ public abstract class AbstractAndroidDetector extends AbstractDetector {
     protected Sensor sensor;
     private final boolean isEnabled;
     SensorManager sensorManager;
+    private static final long WRITE_TIMEOUT_MILLI = 20000;
+    /**
+     * In-memory representation of the x/y/z samples received. Used instead of sessionValues so
+     * that no json is created for each event, only when the samples are stored or sent. Storing
+     * swaps the buffers and writes the full one on a background thread.
+     */
+    private final DoubleBufferedSamples buffers = new DoubleBufferedSamples();
+    private ExecutorService writer;
+    private final RunningStatistics flushLatency = new RunningStatistics();
+    private final RunningStatistics flushQueueDepth = new RunningStatistics();
+    private long droppedSamples;
 
     /**
      * Constructor for all android sensor detectors. Note that it is abstract, requiring you to extend it
@@ -77,4 +109,221 @@ public abstract class AbstractAndroidDetector extends AbstractDetector {
     public boolean isAvailable() {
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * The samples buffered in memory since last store. New samples must be added to the buffer
+     * returned here, and only from the thread events are delivered on.
+     *
+     * @return the buffer holding the samples
+     */
+    public SensorSampleBuffer samples() {
+        return buffers.active();
+    }
+
+    @Override
+    protected boolean hasSessionValues() {
+        return !samples().isEmpty() || super.hasSessionValues();
+    }
+
+    @Override
+    protected int valueCount() {
+        return samples().size() + super.valueCount();
+    }
+
+    @Override
+    protected void storeData(@NonNull File file) {
+        if (isAuthenticating) return;
+        flushSamples(file);
+        super.storeData(file);
+    }
+
+    /**
+     * Swaps the sample buffers and lets the background writer store the full one. Returns at once
+     * regardless of how long the write takes. Only one buffer is written at a time: should the
+     * previous one still be in the writer, the samples are dropped and counted instead of queueing
+     * up more buffers, so a stalled disk can not make the detector hold ever more memory.
+     *
+     * @param file file to store the samples in
+     */
+    protected void flushSamples(@NonNull final File file) {
+        if (samples().isEmpty()) return;
+        final SensorSampleBuffer full = buffers.trySwap();
+        if (full == null) {
+            droppedSamples += samples().size();
+            Log.w(tag, "Dropped " + samples().size() + " samples of " + detectorName() + ", previous write not done");
+            samples().clear();
+            return;
+        }
+        final long swapped = SystemClock.elapsedRealtime();
+        flushQueueDepth.add(buffers.pending());
+        inBackground(new Runnable() {
+            @Override
+            public void run() {
+                boolean locked = false;
+                try {
+                    lock();
+                    locked = true;
+                    writeSamples(file, full);
+                } catch (Exception e) {
+                    Log.e(tag, "Failed to store samples of " + detectorName() + ":", e);
+                } finally {
+                    if (locked) {
+                        unlock();
+                    }
+                    // Given back even if the lock timed out, else no buffer is ever swapped again
+                    buffers.release(full);
+                    flushLatency.add(SystemClock.elapsedRealtime() - swapped);
+                }
+            }
+        });
+    }
+
+    /**
+     * Persists a full buffer of samples. Called on the background writer, holding the lock. Override
+     * to store the samples elsewhere.
+     *
+     * @param file   the file the samples were stored for
+     * @param buffer the samples to write, must not be kept after returning
+     * @throws IOException if the write fails
+     */
+    protected void writeSamples(@NonNull File file, @NonNull SensorSampleBuffer buffer) throws IOException {
+        FileUtil.storeSamples(file, buffer);
+    }
+
+    /**
+     * Runs a task on the detectors background writer. Tasks run one at a time in the order they
+     * were given, after all samples flushed before them.
+     *
+     * @param task the task to run
+     */
+    protected synchronized void inBackground(@NonNull Runnable task) {
+        if (writer == null || writer.isShutdown()) {
+            writer = Executors.newSingleThreadExecutor();
+        }
+        writer.execute(task);
+    }
+
+    /**
+     * Waits for the background writer to finish all the writes given to it so far. Must not be
+     * called while holding the lock, since the writes need it.
+     *
+     * @return true if all writes completed in time
+     */
+    protected boolean awaitWrites() {
+        Future<?> marker;
+        synchronized (this) {
+            if (writer == null || writer.isShutdown()) {
+                return true;
+            }
+            marker = writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+        try {
+            marker.get(WRITE_TIMEOUT_MILLI, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(tag, "Pending writes of " + detectorName() + " did not complete:", e);
+        }
+        return false;
+    }
+
+    /**
+     * Milliseconds from a buffer is swapped out until it is written, including time waiting in
+     * the queue
+     *
+     * @return statistics over the flush latency
+     */
+    public RunningStatistics flushLatency() {
+        return flushLatency;
+    }
+
+    /**
+     * Number of buffers waiting to be or being written, measured each time one is swapped out
+     *
+     * @return statistics over the queue depth of the writer
+     */
+    public RunningStatistics flushQueueDepth() {
+        return flushQueueDepth;
+    }
+
+    /**
+     * Number of samples dropped because the previous buffer was still being written when the
+     * next was to be stored
+     *
+     * @return dropped samples since the detector was created
+     */
+    public long droppedSamples() {
+        return droppedSamples;
+    }
+
+    @Override
+    public void prepareUpload() {
+        awaitWrites();
+        super.prepareUpload();
+    }
+
+    @Override
+    public void terminate() {
+        super.terminate();
+        awaitWrites();
+        synchronized (this) {
+            if (writer != null) {
+                writer.shutdown();
+            }
+        }
+        WriterCache.close(storedData());
+    }
+
+    @Override
+    public JsonArray jsonData() {
+        JsonArray outputArr = super.jsonData();
+        SensorSampleBuffer samples = samples();
+        for (int i = 0; i < samples.size(); i++) {
+            outputArr.add(samples.toJsonArray(i));
+        }
+        return outputArr;
+    }
+
+    @Override
+    protected DetectorWindow cutWindow() {
+        List<JsonArray> values = cutSessionValues();
+        if (samples().isEmpty()) return new DetectorWindow(detectorName(), values);
+        // The samples are handed over in their buffer, as when flushing to file
+        return new DetectorWindow(detectorName(), values, buffers.swap(), buffers);
+    }
+
+    @Override
+    protected void writeJsonValues(@NonNull JsonWriter writer) throws IOException {
+        super.writeJsonValues(writer);
+        SensorSampleBuffer samples = samples();
+        for (int i = 0; i < samples.size(); i++) {
+            samples.writeJson(i, writer);
+        }
+    }
+
+    @Override
+    public JsonObject toJson() {
+        JsonObject object = super.toJson();
+        SensorSampleBuffer samples = samples();
+        object.addProperty("bufferedSamples", samples.size());
+        object.addProperty("bufferCapacity", samples.capacity());
+        object.addProperty("bufferBytes", samples.memoryFootprint());
+        object.addProperty("bufferGrowths", samples.growths());
+        object.addProperty("pendingWrites", buffers.pending());
+        object.add("flushLatency", flushLatency.toJson());
+        object.add("flushQueueDepth", flushQueueDepth.toJson());
+        object.addProperty("droppedSamples", droppedSamples);
+        return object;
+    }
+
+    @Override
+    public void clearData() {
+        super.clearData();
+        samples().clear();
+    }
+}
@@ -1,22 +1,44 @@
 package com.telenor.possumlib.abstractdetectors;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.os.Build;
+import android.os.Looper;
 import android.os.SystemClock;
+import android.util.Log;
 
+import com.google.gson.JsonObject;
 import com.telenor.possumlib.changeevents.MetaDataChangeEvent;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.models.RunningStatistics;
+import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.SensorThreads;
 
 import org.joda.time.DateTime;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 public abstract class AbstractAndroidRegularDetector extends AbstractAndroidDetector implements SensorEventListener {
     private static final int MIN_INTERVAL_MILLI = 50;
     private static final int MIN_INTERVAL_MICRO = MIN_INTERVAL_MILLI * 1000;
     private static final long MIN_INTERVAL_NANO = MIN_INTERVAL_MICRO * 1000;
+    /**
+     * Events delivered closer together than this are counted as part of the same batch
+     */
+    private static final long BATCH_GAP_MILLI = MIN_INTERVAL_MILLI / 2;
+    private static final long FLUSH_TIMEOUT_MILLI = 1000;
+    private static final long DRAIN_TIMEOUT_MILLI = 1000;
     private long lastRecord;
+    private final RunningStatistics batchSizes = new RunningStatistics();
+    private long lastDelivery;
+    private int currentBatch;
+    private SensorEventListener batchListener;
+    private volatile CountDownLatch flushLatch;
 
     /**
      * Constructor for regular android sensor detectors
@@ -37,6 +59,73 @@ public abstract class AbstractAndroidRegularDetector extends AbstractAndroidDete
         }
     }
 
+    /**
+     * The number of samples per second requested from the sensor
+     *
+     * @return samples per second
+     */
+    public int sampleRate() {
+        return 1000 / MIN_INTERVAL_MILLI;
+    }
+
+    /**
+     * Enough samples to tell the movement from noise. Override to change, default is three
+     * seconds at the sample rate
+     *
+     * @return samples needed
+     */
+    @Override
+    protected int sufficientValues() {
+        return 3 * sampleRate();
+    }
+
+    /**
+     * Whether the detector should let the sensor hardware batch events in its FIFO queue and
+     * deliver them together, instead of waking the application processor for every sample. Only
+     * used on api 19 and above for sensors with a FIFO queue, and never while authenticating,
+     * since the data is needed as it comes. Asked whenever the detector starts listening. Override
+     * to change, default is the choice made for the detector type with
+     * AwesomePossum.setSensorBatching, or false if none is made
+     *
+     * @return true if the sensor should batch events
+     */
+    protected boolean batchingEnabled() {
+        return !isAuthenticating && FileUtil.detectorSettings(context()).batching(detectorType(), false);
+    }
+
+    /**
+     * The maximum time the sensor may hold events in its FIFO queue before delivering them. It is
+     * the time it takes to fill the queue at the requested rate, so no events are lost.
+     *
+     * @return max report latency in microseconds, 0 if the sensor cannot batch
+     */
+    protected int maxReportLatency() {
+        if (sensor == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return 0;
+        }
+        return sensor.getFifoMaxEventCount() * MIN_INTERVAL_MICRO;
+    }
+
+    /**
+     * Whether the sensor is currently registered to deliver batched events
+     *
+     * @return true if listening with batching
+     */
+    public boolean isBatching() {
+        return batchListener != null;
+    }
+
+    /**
+     * Number of samples delivered per wakeup. Without batching each sample is its own wakeup, with
+     * batching the count tells how many wakeups were needed and the mean how many samples came
+     * with each.
+     *
+     * @return statistics over the size of delivered batches
+     */
+    public RunningStatistics batchSizes() {
+        return batchSizes;
+    }
+
     /**
      * Checks whether timestamp has passed a minimum of milliseconds.
      *
@@ -50,7 +139,8 @@ public abstract class AbstractAndroidRegularDetector extends AbstractAndroidDete
 
     /**
      * startListening uses its ancestors method as base, it also registers the clas as a listener
-     * to the given type should it actually startListening
+     * to the given type should it actually startListening. Events are delivered on the thread given
+     * by sensorThreadName(), never on the main thread.
      *
      * @return whether or not it starts to startListening
      */
@@ -58,7 +148,13 @@ public abstract class AbstractAndroidRegularDetector extends AbstractAndroidDete
     public boolean startListening() {
         boolean listen = super.startListening();
         if (listen && sensor != null) {
-            sensorManager.registerListener(this, sensor, MIN_INTERVAL_MICRO);
+            int maxReportLatency = batchingEnabled() ? maxReportLatency() : 0;
+            if (maxReportLatency > 0) {
+                batchListener = new BatchListener();
+                sensorManager.registerListener(batchListener, sensor, MIN_INTERVAL_MICRO, maxReportLatency, sensorHandler());
+            } else {
+                sensorManager.registerListener(this, sensor, MIN_INTERVAL_MICRO, sensorHandler());
+            }
         }
         return listen;
     }
@@ -77,22 +173,79 @@ public abstract class AbstractAndroidRegularDetector extends AbstractAndroidDete
 
     /**
      * Unregisters the sensor as a listener to sensorData from the given sensor type and handles
-     * the data retrieved.
+     * the data retrieved. The listener is removed and the event thread allowed to finish what it
+     * is doing before the data is stored, so no event is handled while storing.
      */
     @Override
     public void stopListening() {
         boolean isListening = isListening();
-        super.stopListening();
         if (isListening && sensorManager != null) {
-            sensorManager.unregisterListener(this, sensor);
+            if (isBatching()) {
+                flushBatch();
+            }
+            sensorManager.unregisterListener(isBatching() ? batchListener : this, sensor);
+            batchListener = null;
+            if (!SensorThreads.drain(sensorHandler(), DRAIN_TIMEOUT_MILLI)) {
+                Log.w(tag, "Event thread of " + detectorName() + " did not finish in time");
+            }
+            endBatch();
+        }
+        super.stopListening();
+    }
+
+    /**
+     * Asks the sensor to deliver the events still held in its FIFO queue and waits for them, so
+     * they are stored before the listener is removed. Waiting is not possible on the event thread
+     * itself, so stopping from there skips the flush.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void flushBatch() {
+        if (Looper.myLooper() == sensorHandler().getLooper()) {
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        flushLatch = latch;
+        try {
+            if (sensorManager.flush(batchListener) && !latch.await(FLUSH_TIMEOUT_MILLI, TimeUnit.MILLISECONDS)) {
+                Log.w(tag, "Flush of " + detectorName() + " timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flushLatch = null;
+        }
+    }
+
+    private void countDelivery() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastDelivery > BATCH_GAP_MILLI) {
+            endBatch();
+        }
+        currentBatch++;
+        lastDelivery = now;
+    }
+
+    private void endBatch() {
+        if (currentBatch > 0) {
+            batchSizes.add(currentBatch);
+            currentBatch = 0;
         }
     }
 
+    @Override
+    public JsonObject toJson() {
+        JsonObject object = super.toJson();
+        object.addProperty("isBatching", isBatching());
+        object.add("batchSizes", batchSizes.toJson());
+        return object;
+    }
+
     @Override
     public void onSensorChanged(SensorEvent sensorEvent) {
         if (!isListening()) {
             return;
         }
+        countDelivery();
         storedValues++;
         long queue;
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
@@ -114,4 +267,29 @@ public abstract class AbstractAndroidRegularDetector extends AbstractAndroidDete
          * the data is valuable or simply trash.
          */
     }
-}
\ No newline at end of file
+
+    /**
+     * Listener registered instead of the detector itself when batching, since the flush callback
+     * only exists from api 19. Forwards all events to the detector.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private class BatchListener implements SensorEventListener2 {
+        @Override
+        public void onSensorChanged(SensorEvent sensorEvent) {
+            AbstractAndroidRegularDetector.this.onSensorChanged(sensorEvent);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            AbstractAndroidRegularDetector.this.onAccuracyChanged(sensor, accuracy);
+        }
+
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            CountDownLatch latch = flushLatch;
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+    }
+}
@@ -2,24 +2,34 @@ package com.telenor.possumlib.abstractdetectors;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import com.telenor.possumlib.AwesomePossum;
 import com.telenor.possumlib.changeevents.MetaDataChangeEvent;
 import com.telenor.possumlib.changeevents.PossumEvent;
+import com.telenor.possumlib.constants.StoragePriority;
 import com.telenor.possumlib.interfaces.IPollComplete;
 import com.telenor.possumlib.interfaces.IPossumEventListener;
 import com.telenor.possumlib.interfaces.ISensorStatusUpdate;
+import com.telenor.possumlib.models.DetectorWindow;
 import com.telenor.possumlib.models.PossumBus;
 import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.SensorThreads;
+import com.telenor.possumlib.utils.UploadIndex;
+import com.telenor.possumlib.utils.WriterCache;
 
 import org.joda.time.DateTime;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -32,13 +42,16 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public abstract class AbstractDetector implements IPossumEventListener, Comparable<AbstractDetector> {
     protected static final String tag = AbstractDetector.class.getName();
+    private static final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
     private final ReentrantLock lock = new ReentrantLock();
     private boolean isListening;
     private Context context;
     private final PossumBus eventBus;
     public static final int MINIMUM_SAMPLES = 500;
+    private static final long WINDOW_TIMEOUT_MILLI = 2000;
     private final String uniqueUserId;
     private IPollComplete pollListener;
+    private volatile int windowedValues;
     protected final boolean isAuthenticating;
     int storedValues;
 
@@ -122,6 +135,26 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         return eventBus;
     }
 
+    /**
+     * Name of the library thread the detector receives its events on, and thereby stores its data
+     * from. Detectors returning the same name share a thread. Override to change, default is
+     * SensorThreads.DEFAULT
+     *
+     * @return name of the thread
+     */
+    protected String sensorThreadName() {
+        return SensorThreads.DEFAULT;
+    }
+
+    /**
+     * Handler for the thread events are delivered on, see sensorThreadName()
+     *
+     * @return handler for the detectors event thread
+     */
+    protected Handler sensorHandler() {
+        return SensorThreads.handler(sensorThreadName());
+    }
+
     /**
      * Starts to startListening to the detectors dataSource. If the detector is not enabled, it will not
      * start to startListening. The moment it starts to startListening, a sessionTimestamp is saved recording which
@@ -133,6 +166,8 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         if (isEnabled()) { // && isAvailable()
             // Removed isAvailable from listening, it should start to startListening if it detects that it
             // can startListening regardless of whether it is actually available there and then
+            recover();
+            windowedValues = 0;
             isListening = true;
         } else {
             if (!isEnabled()) {
@@ -144,35 +179,91 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         return isListening;
     }
 
+    private void recover() {
+        if (isAuthenticating) return;
+        lock();
+        try {
+            recoverStoredData();
+        } catch (IOException | RuntimeException e) {
+            // Losing what could not be recovered is better than not starting at all
+            Log.e(tag, "Recovery of " + detectorName() + " failed:", e);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Repairs what an earlier run left in the stored data if it was killed in the middle of a
+     * write. Called with the lock held when the detector starts listening. The default removes a
+     * partly written last line. Detectors storing their data differently must override.
+     *
+     * @throws IOException if the stored data cannot be repaired
+     */
+    protected void recoverStoredData() throws IOException {
+        long removed = FileUtil.removeIncompleteLine(storedData());
+        if (removed > 0) {
+            Log.w(tag, "Removed incomplete line of " + removed + " bytes from " + detectorName());
+        }
+    }
+
     /**
      * Stops listening to the dataSource. It then checks the validity of the data and if it finds
      * the data sound - it will send it and then delete it. Should the data be invalid, it will
      * simply discard it.
      */
     public void stopListening() {
-        if (sessionValues.size() > 0) {
+        if (hasSessionValues()) {
             storeData();
         }
+        try {
+            WriterCache.flush(storedData());
+        } catch (IOException e) {
+            Log.e(tag, "Failed to flush " + detectorName() + ":", e);
+        }
         if (pollListener != null && isAuthenticating) {
             pollListener.pollComplete(this);
         }
         isListening = false;
     }
 
+    /**
+     * The most space this detector's files staged for upload may take. When staging a file takes
+     * it over, its oldest staged files are evicted. Override to change, 0 leaves only the global
+     * budget of the StorageQuota. Default is 25 MB
+     *
+     * @return budget in bytes
+     */
+    protected long storageBudget() {
+        return 25 * 1024 * 1024;
+    }
+
+    /**
+     * How much this detector's staged files are worth keeping compared to other detectors' when
+     * the global budget is exceeded and the eviction policy is EvictionPolicy.LOWEST_PRIORITY_FIRST.
+     * Override to change, higher is kept longer. Default is StoragePriority.DEFAULT
+     *
+     * @return the storage priority
+     */
+    protected int storagePriority() {
+        return StoragePriority.DEFAULT;
+    }
+
     protected long uploadFilesSize() {
-        long filesSize = 0;
-        for (File file : FileUtil.getAllDetectorFiles(context(), detectorName())) {
-            filesSize += file.length();
-        }
-        return filesSize;
+        return FileUtil.uploadIndex(context()).size(detectorName());
     }
 
     /**
-     * Yields the detectors stored space, either fileSize or streamSize
+     * Yields the detectors stored space, either fileSize or streamSize. What is buffered for the
+     * stored data in the WriterCache is written first, so the size is that of all data stored.
      *
      * @return number of bytes taken up by file
      */
     public long fileSize() {
+        try {
+            WriterCache.flush(storedData());
+        } catch (IOException e) {
+            Log.e(tag, "Failed to flush " + detectorName() + ":", e);
+        }
         return storedData().length() + uploadFilesSize();
     }
 
@@ -206,6 +297,57 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         return sessionValues;
     }
 
+    /**
+     * Whether the detector holds any values in memory that are not yet stored. Detectors keeping
+     * their values outside sessionValues must override this.
+     *
+     * @return true if there are values waiting to be stored
+     */
+    protected boolean hasSessionValues() {
+        return sessionValues.size() > 0;
+    }
+
+    /**
+     * Whether the detector has gathered enough for an authentication, so it can end before its
+     * deadline. Asked from another thread than the values are added on, so it may lag a value
+     * behind. Detectors judging by something else than the number of values override this.
+     *
+     * @return true if the detector needs no more data
+     */
+    public boolean isSufficient() {
+        return valuesGathered() >= sufficientValues();
+    }
+
+    /**
+     * The number of values an authentication needs from the detector. Override to change,
+     * default is 1
+     *
+     * @return values needed
+     */
+    protected int sufficientValues() {
+        return 1;
+    }
+
+    /**
+     * The values gathered since the detector started listening, the ones already taken as
+     * windows included
+     *
+     * @return number of values
+     */
+    public int valuesGathered() {
+        return windowedValues + valueCount();
+    }
+
+    /**
+     * The number of values held in memory. Detectors keeping their values outside sessionValues
+     * must override this.
+     *
+     * @return number of values
+     */
+    protected int valueCount() {
+        return sessionValues.size();
+    }
+
     /**
      * Returns a json object with the common things needed to explain detector
      *
@@ -221,6 +363,10 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         object.addProperty("isEnabled", isEnabled());
         object.addProperty("isListening", isListening());
         object.addProperty("stored", storedData().length());
+        UploadIndex uploadIndex = FileUtil.uploadIndex(context());
+        object.addProperty("stagedFiles", uploadIndex.count(detectorName()));
+        object.addProperty("stagedSize", uploadIndex.size(detectorName()));
+        object.addProperty("oldestStaged", uploadIndex.oldest(detectorName()));
         return object;
     }
 
@@ -237,6 +383,81 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         return outputArr;
     }
 
+    /**
+     * Writes the same data as jsonData straight to a json stream, so the whole payload never has
+     * to be held in memory
+     *
+     * @param writer the stream written to
+     * @throws IOException if the stream fails
+     */
+    public void writeJsonData(@NonNull JsonWriter writer) throws IOException {
+        writer.beginArray();
+        writeJsonValues(writer);
+        writer.endArray();
+    }
+
+    /**
+     * Writes the elements of the data array. Detectors with data outside sessionValues must
+     * override this along with jsonData.
+     *
+     * @param writer the stream written to
+     * @throws IOException if the stream fails
+     */
+    protected void writeJsonValues(@NonNull JsonWriter writer) throws IOException {
+        for (JsonArray arr : sessionValues) {
+            gson.toJson(arr, writer);
+        }
+    }
+
+    /**
+     * Moves the data gathered since the last window out of the detector, for a progressive
+     * authentication posting it while the detector keeps gathering. The cut is made on the
+     * detectors event thread, so no value is lost or taken twice. Blocks until it is made.
+     *
+     * @return the window, empty if the event thread did not respond in time
+     */
+    public DetectorWindow takeWindow() {
+        final DetectorWindow[] window = new DetectorWindow[1];
+        boolean taken = SensorThreads.runAndWait(sensorHandler(), new Runnable() {
+            @Override
+            public void run() {
+                lock();
+                try {
+                    window[0] = cutWindow();
+                } finally {
+                    unlock();
+                }
+            }
+        }, WINDOW_TIMEOUT_MILLI);
+        if (!taken || window[0] == null) {
+            Log.w(tag, "Failed to take window of " + detectorName());
+            return new DetectorWindow(detectorName(), new ArrayList<JsonArray>());
+        }
+        windowedValues += window[0].size();
+        return window[0];
+    }
+
+    /**
+     * Cuts the window on the event thread, holding the lock. Detectors with data outside
+     * sessionValues must override this along with jsonData.
+     *
+     * @return the data gathered since the last window
+     */
+    protected DetectorWindow cutWindow() {
+        return new DetectorWindow(detectorName(), cutSessionValues());
+    }
+
+    /**
+     * Moves the session values out, for cutWindow
+     *
+     * @return the session values gathered since the last window
+     */
+    protected List<JsonArray> cutSessionValues() {
+        List<JsonArray> values = new ArrayList<>(sessionValues);
+        sessionValues.clear();
+        return values;
+    }
+
     /**
      * Handles stopping to startListening and clearing all resources from a detector - or at least it should.
      * Each successive extension of the default method needs to handle its own resources
@@ -368,8 +589,17 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         return DateTime.now().getMillis();
     }
 
+    /**
+     * The file extension of the files this detector stages for upload
+     *
+     * @return extension including the leading dot
+     */
+    protected String uploadExtension() {
+        return ".zip";
+    }
+
     protected String bucketKey() {
-        return "possumlibdata/" + AwesomePossum.versionName() + "/" + detectorName() + "/" + uniqueUserId + "/" + timestamp() + ".zip";
+        return "possumlibdata/" + AwesomePossum.versionName() + "/" + detectorName() + "/" + uniqueUserId + "/" + timestamp() + uploadExtension();
     }
 
     protected boolean stageForUpload(File file) {
@@ -387,10 +617,13 @@ public abstract class AbstractDetector implements IPossumEventListener, Comparab
         File dest = FileUtil.toUploadFile(
                 context(),
                 bucketKey());
+        WriterCache.close(file);
         if (!file.renameTo(dest)) {
             Log.e(tag, "Unable to stage: " + file.getName());
         } else {
+            FileUtil.uploadIndex(context()).added(dest);
             Log.i(tag, "Staged for upload:" + dest.getAbsolutePath());
+            FileUtil.storageQuota(context()).enforce(eventBus, detectorName(), storageBudget(), storagePriority());
         }
         return true;
     }
@@ -5,22 +5,55 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.constants.StorageFormat;
+import com.telenor.possumlib.constants.StoragePriority;
 import com.telenor.possumlib.models.CountingOutputStream;
+import com.telenor.possumlib.models.GorillaRecordWriter;
+import com.telenor.possumlib.models.JournalWriter;
+import com.telenor.possumlib.models.MappedOutputStream;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.models.SensorRecordReader;
+import com.telenor.possumlib.models.SensorRecordWriter;
+import com.telenor.possumlib.models.SensorSampleBuffer;
+import com.telenor.possumlib.utils.FileUtil;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
- * Android detector for the huge detectors with lots of input that automatically sends data to zip stream
+ * Android detector for the huge detectors with lots of input that automatically sends data to zip
+ * stream, or to a binary record stream if one of the binary storage formats is chosen for it, see
+ * storageFormat().
+ * The stream is written in segments that are staged for upload as soon as they reach
+ * maxSegmentSize() or maxSegmentAge(). A segment left unfinished by a killed process is recovered
+ * and staged when the detector starts again. Binary records can be written to a memory mapped
+ * region instead of a file stream, see memoryMapped().
  */
 public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegularDetector {
+    private static final byte[] ZIP_MAGIC = new byte[]{'P', 'K', 3, 4};
     private volatile ZipOutputStream outerStream;
+    private volatile SensorRecordWriter recordWriter;
+    private volatile JournalWriter journalWriter;
     private CountingOutputStream innerStream;
+    private MappedOutputStream mappedStream;
+    private long segmentStart;
+    private int segmentFormat = StorageFormat.TEXT_ZIP;
+    private int segmentsStaged;
+    private int segmentsRecovered;
+    private final StringBuilder lineBuilder = new StringBuilder();
 
     /**
      * Constructor for all android sensor zipping detectors (all the heavy duty ones, like
@@ -36,9 +69,124 @@ public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegu
         super(context, sensorType, uniqueUserId, eventBus, authenticating);
     }
 
+    /**
+     * The format the detector stores its samples in, asked whenever a segment is opened. Override
+     * to change, default is the format set for the detector type with
+     * AwesomePossum.setStorageFormat, or StorageFormat.TEXT_ZIP if none is set
+     *
+     * @return a constant from StorageFormat
+     */
+    protected int storageFormat() {
+        return FileUtil.detectorSettings(context()).storageFormat(detectorType(), StorageFormat.TEXT_ZIP);
+    }
+
+    /**
+     * The segments of the high rate sensors are large and quickly gathered again, so they are
+     * evicted before the small context data of the other detectors. Override to change, default is
+     * StoragePriority.BULK
+     *
+     * @return the storage priority
+     */
+    @Override
+    protected int storagePriority() {
+        return StoragePriority.BULK;
+    }
+
+    /**
+     * The size a segment may grow to before it is closed and staged for upload, and a new one is
+     * started. Override to change, 0 disables rotation by size. Default is 1 MB
+     *
+     * @return max segment size in bytes
+     */
+    protected long maxSegmentSize() {
+        return 1024 * 1024;
+    }
+
+    /**
+     * How long a segment may be written to before it is closed and staged for upload, and a new
+     * one is started. Checked whenever data is written. Override to change, 0 disables rotation by
+     * time. Default is 15 minutes
+     *
+     * @return max segment age in milliseconds
+     */
+    protected long maxSegmentAge() {
+        return 15 * 60 * 1000;
+    }
+
+    /**
+     * The longest time between syncs of the journal to disk when using StorageFormat.JOURNAL.
+     * Records are always handed to the operating system as they are written, so this only bounds
+     * what a power loss can take. Override to change, default is 30 seconds
+     *
+     * @return checkpoint interval in milliseconds
+     */
+    protected long checkpointInterval() {
+        return 30 * 1000;
+    }
+
+    /**
+     * Whether binary records are written to a memory mapped region of the segment file rather
+     * than through a buffered file stream. The region is maxSegmentSize() large, or 1 MB if
+     * rotation by size is disabled, and allocated when the segment is opened. Writes are then
+     * plain memory copies with no system call, and a segment is rotated before a write that might
+     * not fit. Only used with StorageFormat.BINARY and StorageFormat.GORILLA. Override to change,
+     * default is the choice made for the detector type with AwesomePossum.setMemoryMapped, or
+     * false if none is made
+     *
+     * @return true to memory map the binary records
+     */
+    protected boolean memoryMapped() {
+        return FileUtil.detectorSettings(context()).memoryMapped(detectorType(), false);
+    }
+
+    private int mappedRegionSize() {
+        long size = maxSegmentSize() > 0 ? maxSegmentSize() : 1024 * 1024;
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The number of segments closed and staged for upload since the detector was created
+     *
+     * @return number of staged segments
+     */
+    public int segmentsStaged() {
+        return segmentsStaged;
+    }
+
+    /**
+     * The number of segments left by an earlier run that was killed, which were recovered and
+     * staged for upload when the detector started
+     *
+     * @return number of recovered segments
+     */
+    public int segmentsRecovered() {
+        return segmentsRecovered;
+    }
+
+    @Override
+    protected String uploadExtension() {
+        switch (segmentFormat) {
+            case StorageFormat.TEXT_ZIP:
+            case StorageFormat.JOURNAL:
+                return super.uploadExtension();
+            default:
+                return ".bin";
+        }
+    }
+
     @Override
     public long fileSize() {
-        return uploadFilesSize() + (innerStream != null ? innerStream.getCount() : 0);
+        return uploadFilesSize() + segmentSize();
+    }
+
+    private long segmentSize() {
+        if (journalWriter != null) {
+            return journalWriter.length();
+        }
+        if (mappedStream != null) {
+            return mappedStream.position();
+        }
+        return innerStream != null ? innerStream.getCount() : 0;
     }
 
     @Override
@@ -57,6 +205,7 @@ public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegu
     @Override
     public void stopListening() {
         super.stopListening();
+        awaitWrites();
         try {
             closeStreamIfOpen();
         } catch (Exception e) {
@@ -65,51 +214,283 @@ public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegu
     }
 
     private void openStreamIfNotOpen() throws IOException {
+        openStreamIfNotOpen(0);
+    }
+
+    /**
+     * Opens a new segment unless one is open
+     *
+     * @param minimumRegionSize the least size of the region if the segment is memory mapped
+     * @throws IOException if the segment cannot be opened
+     */
+    private void openStreamIfNotOpen(int minimumRegionSize) throws IOException {
         lock();
         try {
-            if (outerStream == null) {
-                innerStream = new CountingOutputStream(new FileOutputStream(storedData()));
-                outerStream = createZipStream(innerStream);
+            if (!isStreamOpen()) {
+                innerStream = null;
+                mappedStream = null;
+                segmentFormat = storageFormat();
+                switch (segmentFormat) {
+                    case StorageFormat.JOURNAL:
+                        journalWriter = new JournalWriter(storedData(), checkpointInterval());
+                        break;
+                    case StorageFormat.BINARY:
+                        recordWriter = new SensorRecordWriter(openRecordStream(minimumRegionSize), detectorType(), sampleRate(), now());
+                        break;
+                    case StorageFormat.GORILLA:
+                        recordWriter = new GorillaRecordWriter(openRecordStream(minimumRegionSize), detectorType(), sampleRate(), now());
+                        break;
+                    default:
+                        innerStream = new CountingOutputStream(new FileOutputStream(storedData()));
+                        outerStream = createZipStream(innerStream);
+                }
+                segmentStart = now();
             }
         } finally {
             unlock();
         }
     }
 
+    private OutputStream openRecordStream(int minimumRegionSize) throws IOException {
+        if (memoryMapped()) {
+            mappedStream = new MappedOutputStream(storedData(), Math.max(mappedRegionSize(), minimumRegionSize));
+            return mappedStream;
+        }
+        innerStream = new CountingOutputStream(new FileOutputStream(storedData()));
+        return new BufferedOutputStream(innerStream);
+    }
+
     private void closeStreamIfOpen() throws IOException {
         lock();
         try {
             if (outerStream != null) {
                 outerStream.close();
                 outerStream = null;
-                stageForUpload(storedData());
+                stageSegment();
+            }
+            if (recordWriter != null) {
+                recordWriter.close();
+                recordWriter = null;
+                mappedStream = null;
+                stageSegment();
+            }
+            if (journalWriter != null) {
+                journalWriter.close();
+                journalWriter = null;
+                stageJournal();
             }
         } finally {
             unlock();
         }
     }
 
+    private void stageSegment() {
+        if (stageForUpload(storedData())) {
+            segmentsStaged++;
+        }
+    }
+
+    /**
+     * Turns the journal in storedData() into a zip and stages it. Only complete records make it
+     * into the zip, so this also rescues a journal left by a killed process.
+     *
+     * @return true if there was anything to stage
+     */
+    private boolean stageJournal() {
+        File journal = storedData();
+        File zip = new File(journal.getAbsolutePath() + ".zip");
+        int records = FileUtil.journalToZip(journal, zip, journal.getName());
+        boolean staged = records > 0 && stageForUpload(zip);
+        if (staged) {
+            segmentsStaged++;
+        }
+        FileUtil.deleteFile(zip);
+        FileUtil.deleteFile(journal);
+        return staged;
+    }
+
+    /**
+     * Stages a segment an earlier run could not close. A journal gives all its complete records
+     * and an unfinished zip all its complete lines, each as a proper zip. The binary records are
+     * truncated to the end of their last complete frame or block first, dropping a partly written
+     * one and the zero filled tail of a memory mapped region. The segment is staged with the
+     * extension of the format it was found to be in.
+     */
+    @Override
+    protected void recoverStoredData() throws IOException {
+        if (isStreamOpen()) return;
+        File file = storedData();
+        if (file.length() == 0) return;
+        byte[] magic = new byte[4];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            if (inputStream.read(magic) < magic.length) {
+                magic = new byte[0];
+            }
+        } finally {
+            inputStream.close();
+        }
+        boolean recovered;
+        if (Arrays.equals(magic, JournalWriter.MAGIC)) {
+            segmentFormat = StorageFormat.JOURNAL;
+            recovered = stageJournal();
+        } else if (Arrays.equals(magic, ZIP_MAGIC)) {
+            segmentFormat = StorageFormat.TEXT_ZIP;
+            File zip = new File(file.getAbsolutePath() + ".zip");
+            recovered = FileUtil.salvageZip(file, zip, file.getName()) > 0 && stageForUpload(zip);
+            FileUtil.deleteFile(zip);
+            FileUtil.deleteFile(file);
+        } else {
+            segmentFormat = StorageFormat.BINARY;
+            recovered = truncateRecord(file) && stageForUpload(file);
+        }
+        if (recovered) {
+            segmentsRecovered++;
+            Log.i(tag, "Recovered unfinished segment of " + detectorName());
+        }
+    }
+
+    /**
+     * Cuts a binary record left by an earlier run down to the data it holds. A record that can not
+     * be decoded is left as it is.
+     *
+     * @param file the record
+     * @return false if the record holds no samples and was deleted, true otherwise
+     * @throws IOException if the record can not be truncated
+     */
+    private boolean truncateRecord(File file) throws IOException {
+        SensorRecordReader reader;
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+        try {
+            reader = SensorRecordReader.read(inputStream);
+        } catch (IOException e) {
+            Log.w(tag, "Unable to decode unfinished segment of " + detectorName() + ":", e);
+            return true;
+        } finally {
+            inputStream.close();
+        }
+        if (reader.samples().isEmpty()) {
+            FileUtil.deleteFile(file);
+            return false;
+        }
+        if (reader.length() < file.length()) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.getChannel().truncate(reader.length());
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+        return true;
+    }
+
     /**
-     * Overridden basic store to file due to zipping nature. Question is: Do we make it use
-     * zipStream still or is that unnecessary now that it shouldn't record for hours?
+     * Closes the present segment and starts a new one if it has grown too large or too old. Must
+     * be called holding the lock.
+     *
+     * @throws IOException if closing or opening the stream fails
+     */
+    private void rotateIfNeeded() throws IOException {
+        if (!isStreamOpen()) return;
+        boolean tooLarge = maxSegmentSize() > 0 && segmentSize() >= maxSegmentSize();
+        boolean tooOld = maxSegmentAge() > 0 && now() - segmentStart >= maxSegmentAge();
+        if (tooLarge || tooOld) {
+            closeStreamIfOpen();
+            openStreamIfNotOpen();
+        }
+    }
+
+    /**
+     * Overridden basic store to file due to zipping nature. Samples are written to the stream by
+     * the background writer, so the sessionValues are handed to it as well to keep the order.
      * @param file file to store data in
      */
     @Override
     protected void storeData(@NonNull File file) {
         if (isAuthenticating) return;
-        for (JsonArray value : sessionValues) {
-            try {
-                if (outerStream != null) {
-                    outerStream.write(value.toString().getBytes());
-                    outerStream.write("\r\n".getBytes());
+        flushSamples(file);
+        if (!sessionValues.isEmpty()) {
+            final List<JsonArray> values = new ArrayList<>(sessionValues);
+            inBackground(new Runnable() {
+                @Override
+                public void run() {
+                    lock();
+                    try {
+                        writeValues(values);
+                    } catch (Exception e) {
+                        Log.e(tag, "FailedToWrite:", e);
+                    } finally {
+                        unlock();
+                    }
                 }
-            } catch (Exception e) {
-                Log.e(tag, "FailedToWrite:", e);
-            }
+            });
         }
         clearData();
     }
 
+    @Override
+    protected void writeSamples(@NonNull File file, @NonNull SensorSampleBuffer buffer) throws IOException {
+        if (recordWriter != null) {
+            int maxWriteSize = recordWriter.maxWriteSize(buffer.size());
+            if (mappedStream != null && mappedStream.remaining() < maxWriteSize) {
+                closeStreamIfOpen();
+                openStreamIfNotOpen(SensorRecordWriter.HEADER_SIZE + maxWriteSize);
+            }
+            recordWriter.write(buffer);
+        } else if (outerStream != null || journalWriter != null) {
+            writeLines(buffer);
+        }
+        rotateIfNeeded();
+    }
+
+    /**
+     * Writes the buffered samples as lines of text to the zip stream or journal. All lines are
+     * built in a reused builder and written in one go instead of one json object per sample.
+     *
+     * @param buffer the samples to write
+     * @throws IOException if the stream fails
+     */
+    private void writeLines(SensorSampleBuffer buffer) throws IOException {
+        if (buffer.isEmpty()) return;
+        lineBuilder.setLength(0);
+        for (int i = 0; i < buffer.size(); i++) {
+            buffer.appendJson(i, lineBuilder);
+            lineBuilder.append("\r\n");
+        }
+        writeText();
+    }
+
+    /**
+     * Writes values as lines to the zip stream or journal. The binary record only holds samples,
+     * so the values are dropped for those formats.
+     *
+     * @param values the values to write
+     * @throws IOException if the stream fails
+     */
+    private void writeValues(List<JsonArray> values) throws IOException {
+        if (outerStream == null && journalWriter == null) return;
+        lineBuilder.setLength(0);
+        for (JsonArray value : values) {
+            lineBuilder.append(value.toString()).append("\r\n");
+        }
+        writeText();
+        rotateIfNeeded();
+    }
+
+    /**
+     * Writes the lines in the line builder, as one record if writing to the journal
+     *
+     * @throws IOException if the stream fails
+     */
+    private void writeText() throws IOException {
+        byte[] text = lineBuilder.toString().getBytes();
+        if (journalWriter != null) {
+            journalWriter.append(text, 0, text.length);
+        } else {
+            outerStream.write(text);
+        }
+    }
+
     private ZipOutputStream createZipStream(OutputStream innerStream) throws IOException {
         ZipOutputStream zipStream = new ZipOutputStream(innerStream);
         ZipEntry entry = new ZipEntry(storedData().getName());
@@ -117,11 +498,24 @@ public abstract class AbstractZippingAndroidDetector extends AbstractAndroidRegu
         return zipStream;
     }
 
+    @Override
+    public JsonObject toJson() {
+        JsonObject object = super.toJson();
+        object.addProperty("segmentsStaged", segmentsStaged);
+        object.addProperty("segmentsRecovered", segmentsRecovered);
+        return object;
+    }
+
+    private boolean isStreamOpen() {
+        return outerStream != null || recordWriter != null || journalWriter != null;
+    }
+
     @Override
     public void prepareUpload() {
+        awaitWrites();
         lock();
         try {
-            if (outerStream != null) {
+            if (isStreamOpen()) {
                 closeStreamIfOpen();
                 openStreamIfNotOpen();
             }
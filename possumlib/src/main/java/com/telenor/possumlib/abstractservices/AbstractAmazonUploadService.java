@@ -1,35 +1,63 @@
 package com.telenor.possumlib.abstractservices;
 
+import android.content.Intent;
+import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.amazonaws.mobileconnectors.s3.transferutility.TransferUtility;
 import com.amazonaws.services.s3.AmazonS3Client;
-import com.telenor.possumlib.asynctasks.AmazonAsyncUpload;
+import com.telenor.possumlib.constants.Constants;
 import com.telenor.possumlib.constants.Messaging;
-import com.telenor.possumlib.interfaces.IWrite;
+import com.telenor.possumlib.functionality.AmazonFunctionality;
+import com.telenor.possumlib.functionality.AmazonMultipartUploadSink;
+import com.telenor.possumlib.functionality.AmazonUploadSink;
+import com.telenor.possumlib.interfaces.IAmazonIdentityConfirmed;
+import com.telenor.possumlib.interfaces.IUploadSink;
+import com.telenor.possumlib.utils.FileUtil;
 import com.telenor.possumlib.utils.Send;
 
-import java.io.File;
-import java.util.List;
-
 /**
  * Handles all upload to the amazon cloud
  */
-public abstract class AbstractAmazonUploadService extends AbstractAmazonService implements IWrite {
-    private AmazonAsyncUpload amazonAsyncUpload;
+public abstract class AbstractAmazonUploadService extends AbstractUploadService implements IAmazonIdentityConfirmed {
+    protected AmazonFunctionality amazonFunctionality;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        amazonFunctionality = new AmazonFunctionality(this, this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        int result = super.onStartCommand(intent, flags, startId);
+        String identityPoolId = intent.getStringExtra("identityPoolId");
+        if (identityPoolId == null) throw new RuntimeException("Missing identityPoolId on Amazon Service start");
+        amazonFunctionality.setCognitoProviderWithIdentityPoolId(identityPoolId);
+        return result;
+    }
 
     /**
      * Starts the actual upload, unless it has already started
      */
     @Override
     public void foundAmazonIdentity(AmazonS3Client amazonS3Client) {
-        if (!taskStarted.get()) {
-            taskStarted.set(true);
-            amazonAsyncUpload = new AmazonAsyncUpload(this, this,
-                    new TransferUtility(amazonS3Client, this),
-                    filesDesiredForUpload());
-            amazonAsyncUpload.execute((Void) null);
-        }
+        AmazonMultipartUploadSink multipartSink = new AmazonMultipartUploadSink(amazonS3Client);
+        multipartSink.abortOrphans(FileUtil.orphanedCheckpoints(this));
+        startUpload(uploadSink(amazonS3Client, multipartSink));
+    }
+
+    /**
+     * The sink the files are uploaded to once the amazon identity is found. Override to change,
+     * default is the bucket in Constants, with files above multipartThreshold() sent in parts
+     *
+     * @param amazonS3Client client for the found identity
+     * @param multipartSink  sink for the files sent in parts
+     * @return the sink to upload to
+     */
+    protected IUploadSink uploadSink(@NonNull AmazonS3Client amazonS3Client, @NonNull AmazonMultipartUploadSink multipartSink) {
+        return new AmazonUploadSink(new TransferUtility(amazonS3Client, this), Constants.BUCKET,
+                multipartSink, multipartThreshold());
     }
 
     /**
@@ -42,43 +70,14 @@ public abstract class AbstractAmazonUploadService extends AbstractAmazonService
         stopSelf();
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        if (amazonAsyncUpload != null && !amazonAsyncUpload.isCancelled()) {
-            amazonAsyncUpload.cancel(true);
-        }
-    }
-
-    /**
-     * Method handling what happens when the upload is complete, whether or not it failed
-     * @param exception should the upload have failed for any reason, this will not be null
-     * @param message the message you want relayed to the user when it is successful or not having
-     *                an error
-     */
-    public void uploadComplete(Exception exception, String message) {
-        Log.d(tag, "Upload complete:" + exception + " - " + message);
-        if (exception == null) {
-            Send.messageIntent(this, successMessageType(), message);
-        } else {
-            Send.messageIntent(this, Messaging.UPLOAD_FAILED, exception.toString());
-        }
-        stopSelf();
-    }
-
     /**
-     * Override this to tell what message type it should send on success
+     * Files larger than this are uploaded in parts that are checkpointed, so an interrupted upload
+     * resumes where it left off the next time. Override to change, 0 uploads every file in one
+     * piece. Default is the 5 MB part size, the smallest amazon accepts
      *
-     * @return a text string for success in uploading
+     * @return threshold in bytes
      */
-    public abstract String successMessageType();
-
-    /**
-     * Method that must be overridden, this will show the extended service which files it is to use
-     * for uploading
-     *
-     * @return a list of file you want to upload
-     */
-    public abstract List<File> filesDesiredForUpload();
-
-}
\ No newline at end of file
+    protected long multipartThreshold() {
+        return AmazonMultipartUploadSink.DEFAULT_PART_SIZE;
+    }
+}
@@ -0,0 +1,145 @@
+package com.telenor.possumlib.abstractservices;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.telenor.possumlib.asynctasks.UploadTask;
+import com.telenor.possumlib.constants.Messaging;
+import com.telenor.possumlib.interfaces.IUploadSink;
+import com.telenor.possumlib.interfaces.IWrite;
+import com.telenor.possumlib.models.UploadMetrics;
+import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.RetryQueue;
+import com.telenor.possumlib.utils.Send;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Handles the upload of staged files to an IUploadSink, whichever it is. Extending services
+ * decide what to upload and call startUpload with the sink once they have one.
+ */
+public abstract class AbstractUploadService extends AbstractBasicService implements IWrite {
+    private UploadTask asyncUpload;
+    private Intent startIntent;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean destroyed;
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        startIntent = intent;
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    /**
+     * Starts uploading the files desired for upload to the sink once they are prepared, unless the
+     * upload has already started. The files are listed off the main thread when the preparation
+     * is, the upload itself is started on the main thread.
+     *
+     * @param sink where the files are uploaded
+     */
+    protected void startUpload(@NonNull final IUploadSink sink) {
+        if (!taskStarted.get()) {
+            taskStarted.set(true);
+            prepareUpload(new Runnable() {
+                @Override
+                public void run() {
+                    final List<File> files = filesDesiredForUpload();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (destroyed) return;
+                            asyncUpload = new UploadTask(AbstractUploadService.this, AbstractUploadService.this, sink, files, maxConcurrentUploads());
+                            asyncUpload.execute((Void) null);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Prepares the data for upload before the files desired for upload are listed, without
+     * waiting for it. Override to change, default has nothing to prepare and calls whenDone at once
+     *
+     * @param whenDone to be run once the data is prepared, on any thread
+     */
+    protected void prepareUpload(@NonNull Runnable whenDone) {
+        whenDone.run();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        if (asyncUpload != null && !asyncUpload.isCancelled()) {
+            asyncUpload.cancel(true);
+        }
+    }
+
+    /**
+     * Method handling what happens when the upload is complete, whether or not it failed. The
+     * metrics of the run are added to the upload history and broadcast as UPLOAD_METRICS.
+     * @param exception should the upload have failed for any reason, this will not be null
+     * @param message the message you want relayed to the user when it is successful or not having
+     *                an error
+     * @param metrics what the run did
+     */
+    public void uploadComplete(Exception exception, String message, UploadMetrics metrics) {
+        Log.d(tag, "Upload complete:" + exception + " - " + message);
+        FileUtil.uploadHistory(this).add(metrics);
+        Send.messageIntent(this, Messaging.UPLOAD_METRICS, metrics.toJson(true).toString());
+        if (exception == null) {
+            Send.messageIntent(this, successMessageType(), message);
+        } else {
+            Send.messageIntent(this, Messaging.UPLOAD_FAILED, exception.toString());
+        }
+        scheduleRetry();
+        stopSelf();
+    }
+
+    /**
+     * Sets an alarm starting the upload again when the first file backed off in the retry queue
+     * is due, so failed uploads are retried without waiting for the app to upload again. The
+     * files waiting for a network are retried by AwesomePossum when it sees one.
+     */
+    private void scheduleRetry() {
+        long nextAttempt = FileUtil.retryQueue(this).nextAttempt();
+        if (nextAttempt == 0 || startIntent == null) return;
+        // Never sooner than the shortest backoff, in case the network is down when it is due
+        long at = Math.max(nextAttempt, System.currentTimeMillis() + RetryQueue.BASE_DELAY_MILLI);
+        PendingIntent pendingIntent = PendingIntent.getService(this, 0, new Intent(startIntent), PendingIntent.FLAG_UPDATE_CURRENT);
+        ((AlarmManager) getSystemService(Context.ALARM_SERVICE)).set(AlarmManager.RTC, at, pendingIntent);
+        Log.d(tag, "Retrying upload in " + (at - System.currentTimeMillis()) / 1000 + "s");
+    }
+
+    /**
+     * Override this to tell what message type it should send on success
+     *
+     * @return a text string for success in uploading
+     */
+    public abstract String successMessageType();
+
+    /**
+     * The number of files uploaded at the same time. Override to change, default is 2
+     *
+     * @return the most uploads in flight at once
+     */
+    protected int maxConcurrentUploads() {
+        return UploadTask.DEFAULT_MAX_CONCURRENT;
+    }
+
+    /**
+     * Method that must be overridden, this will show the extended service which files it is to use
+     * for uploading. Called once the data is prepared, on the thread that prepared it
+     *
+     * @return a list of file you want to upload
+     */
+    public abstract List<File> filesDesiredForUpload();
+}
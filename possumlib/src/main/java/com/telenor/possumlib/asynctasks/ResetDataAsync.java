@@ -6,13 +6,18 @@ import android.util.Log;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.telenor.possumlib.functionality.PossumHttpClient;
+import com.telenor.possumlib.interfaces.IRequestBody;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * Quick and dirty async task for doing rest call that
+ * Quick and dirty async task for doing rest call that asks the server to reset the users data,
+ * sent with the shared PossumHttpClient
  */
 public class ResetDataAsync extends AsyncTask<String, Void, Exception> {
     private String uniqueUserId;
@@ -30,20 +35,27 @@ public class ResetDataAsync extends AsyncTask<String, Void, Exception> {
         String url = params[0];
         if (url == null) return new IllegalArgumentException("Missing url");
         try {
-            URL myUrl = new URL(url);
-            HttpURLConnection urlConnection = (HttpURLConnection) myUrl.openConnection();
             JsonObject object = new JsonObject();
             object.addProperty("connectId", uniqueUserId);
             object.add("sensors", detectorsToReset);
-            urlConnection.setRequestProperty("x-api-key", apiKey);
-            urlConnection.setRequestMethod("POST");
-            byte[] data = object.toString().getBytes();
-            urlConnection.setFixedLengthStreamingMode(data.length);
-            urlConnection.connect();
+            final byte[] data = object.toString().getBytes("UTF-8");
+            Map<String, String> headers = new HashMap<>();
+            headers.put("x-api-key", apiKey);
+            PossumHttpClient.Response response = PossumHttpClient.shared().post(new URL(url), headers, new IRequestBody() {
+                @Override
+                public long contentLength() {
+                    return data.length;
+                }
 
-            OutputStream os = urlConnection.getOutputStream();
-            os.write(data);
-            Log.i(tag, "Response:"+urlConnection.getResponseCode()+", "+urlConnection.getResponseMessage()+", apiKey:"+apiKey);
+                @Override
+                public void writeTo(OutputStream outputStream) throws IOException {
+                    outputStream.write(data);
+                }
+            });
+            Log.i(tag, "Response:" + response.code() + ", " + response.message() + ", timing:" + response.timing());
+            if (!response.isSuccessful()) {
+                return new IOException("Server responded " + response.code() + ": " + response.message());
+            }
         } catch (Exception e) {
             return e;
         }
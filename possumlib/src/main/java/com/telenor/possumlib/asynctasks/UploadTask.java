@@ -0,0 +1,130 @@
+package com.telenor.possumlib.asynctasks;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.amazonaws.mobileconnectors.s3.transferutility.TransferUtility;
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.functionality.AmazonUploadSink;
+import com.telenor.possumlib.functionality.UploadScheduler;
+import com.telenor.possumlib.interfaces.IUploadSchedulerListener;
+import com.telenor.possumlib.interfaces.IUploadSink;
+import com.telenor.possumlib.interfaces.IWrite;
+import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.RetryQueue;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Uploads the given files through an UploadScheduler, a few at a time and the most important
+ * first. The files go to amazon unless another IUploadSink is given. Uploaded files are deleted,
+ * the rest are kept for the next upload.
+ */
+public class UploadTask extends AsyncTask<Void, Integer, Exception> implements IUploadSchedulerListener {
+    /**
+     * The number of files uploaded at the same time unless told otherwise
+     */
+    public static final int DEFAULT_MAX_CONCURRENT = 2;
+    protected Context context;
+    private IWrite listener;
+    private List<File> filesToUpload;
+    private UploadScheduler scheduler;
+
+    private int totalNumberOfFiles;
+
+    private static final String tag = UploadTask.class.getName();
+
+    public UploadTask(@NonNull Context context, @NonNull IWrite listener, @NonNull TransferUtility transferUtility, List<File> filesToUpload) {
+        this(context, listener, transferUtility, filesToUpload, DEFAULT_MAX_CONCURRENT);
+    }
+
+    public UploadTask(@NonNull Context context, @NonNull IWrite listener, @NonNull TransferUtility transferUtility, List<File> filesToUpload, int maxConcurrent) {
+        this(context, listener, new AmazonUploadSink(transferUtility), filesToUpload, maxConcurrent);
+    }
+
+    public UploadTask(@NonNull Context context, @NonNull IWrite listener, @NonNull IUploadSink sink, List<File> filesToUpload, int maxConcurrent) {
+        this.context = context;
+        this.listener = listener;
+        this.filesToUpload = filesToUpload;
+        this.scheduler = new UploadScheduler(sink, this, maxConcurrent);
+    }
+
+    @Override
+    protected Exception doInBackground(Void... params) {
+        return upload();
+    }
+
+    /**
+     * The upload called in the background thread
+     * @return null if successful, or an exception if it failed
+     */
+    private Exception upload() {
+        Log.d(tag, "Files ready for upload:"+filesToUpload.size());
+        totalNumberOfFiles = filesToUpload.size();
+        RetryQueue retryQueue = FileUtil.retryQueue(context);
+        for (File file : filesToUpload) {
+            scheduler.metrics().retried(file, retryQueue.attempts(file));
+        }
+        scheduler.schedule(filesToUpload);
+        return null;
+    }
+
+    @Override
+    public void uploadProgress(File file, long bytesCurrent, long bytesTotal) {
+        // The scheduler keeps count of the bytes in its metrics
+    }
+
+    @Override
+    public void uploadFinished(File file, int result) {
+        RetryQueue retryQueue = FileUtil.retryQueue(context);
+        switch (result) {
+            case UploadResult.COMPLETED:
+                if (!file.delete()) {
+                    Log.e(tag, "Could not delete after upload: " + file);
+                } else {
+                    FileUtil.uploadIndex(context).removed(file);
+                }
+                retryQueue.succeeded(file);
+                break;
+            case UploadResult.CANCELED:
+                Log.w(tag, "Cancelled: " + file.getName());
+                retryQueue.waitingForNetwork(file);
+                break;
+            default:
+                long delay = retryQueue.failed(file, System.currentTimeMillis());
+                Log.w(tag, "Failed: " + file.getName() + ", retrying in " + delay / 1000 + "s");
+        }
+    }
+
+    @Override
+    public void allUploadsFinished(int completed, int failed, int canceled) {
+        done(failed, canceled);
+    }
+
+    /**
+     * The scheduler feeding the files to amazon, for its queue and throughput figures
+     *
+     * @return the upload scheduler
+     */
+    public UploadScheduler scheduler() {
+        return scheduler;
+    }
+
+    private void done(int failed, int canceled) {
+        Log.d(tag, "All done uploading:" + scheduler.metrics().toJson(false));
+        Exception exception = null;
+        String message = null;
+        if (totalNumberOfFiles == 0) {
+            message = "No new data needs to be uploaded.";
+        } else {
+            int unsuccessful = canceled + failed;
+            if (unsuccessful > 0) {
+                exception = new Exception("Upload "+ (unsuccessful == totalNumberOfFiles ? "" : "partly ") + "unsuccessful");
+            }
+        }
+        listener.uploadComplete(exception, message, scheduler.metrics());
+    }
+}
\ No newline at end of file
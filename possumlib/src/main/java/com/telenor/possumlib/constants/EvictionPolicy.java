@@ -0,0 +1,16 @@
+package com.telenor.possumlib.constants;
+
+/**
+ * The order staged files are evicted in when the storage quota is exceeded, see StorageQuota
+ */
+public class EvictionPolicy {
+    /**
+     * The oldest staged file of any detector goes first
+     */
+    public static final int OLDEST_FIRST = 0;
+    /**
+     * Files of the detector with the lowest storage priority go first, oldest first within a
+     * detector. Detectors of the same priority give up their oldest file first.
+     */
+    public static final int LOWEST_PRIORITY_FIRST = 1;
+}
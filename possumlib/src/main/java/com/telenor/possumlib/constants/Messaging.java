@@ -5,6 +5,8 @@ public class Messaging {
     public static final String REQUEST_DETECTORS = "requestDetectors";
     public static final String DETECTORS = "detectors";
     public static final String DETECTORS_STATUS = "detectorsStatus";
+    public static final String REQUEST_STANDBY = "requestStandby";
+    public static final String STANDBY_STATUS = "standbyStatus";
     public static final String POSSUM_TRUST = "PossumTrust";
 
     // Messaging between service and client
@@ -12,6 +14,7 @@ public class Messaging {
     public static final String POSSUM_MESSAGE_TYPE = "PossumType";
     public static final String UPLOAD_SUCCESS = "uploadSuccess";
     public static final String UPLOAD_FAILED = "uploadFailed";
+    public static final String UPLOAD_METRICS = "uploadMetrics";
     public static final String VERIFICATION_FAILED = "VerificationFailed";
     public static final String VERIFICATION_SUCCESS = "VerificationSuccess";
     public static final String COLLECTION_FAILED = "CollectionFailed";
@@ -24,4 +27,5 @@ public class Messaging {
     public static final String MISSING_VALID_ID = "MissingValidId";
     public static final String AUTH_STOP = "authStop";
     public static final String AUTH_DONE = "authDone";
+    public static final String AUTH_FAILED = "authFailed";
 }
\ No newline at end of file
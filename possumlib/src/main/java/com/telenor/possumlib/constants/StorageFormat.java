@@ -0,0 +1,26 @@
+package com.telenor.possumlib.constants;
+
+/**
+ * The formats a zipping detector can store its samples in
+ */
+public class StorageFormat {
+    /**
+     * Json arrays of strings, one per line, in a zip file. The original format.
+     */
+    public static final int TEXT_ZIP = 0;
+    /**
+     * Versioned binary record with a header and fixed width frames. See SensorRecordWriter.
+     */
+    public static final int BINARY = 1;
+    /**
+     * The binary record with the frames compressed by delta-of-delta timestamps and XOR values.
+     * See GorillaRecordWriter.
+     */
+    public static final int GORILLA = 2;
+    /**
+     * The lines of TEXT_ZIP written to an append-only journal while recording, and turned into the
+     * same zip when the segment is closed. Nothing already written is lost if the process is
+     * killed. See JournalWriter.
+     */
+    public static final int JOURNAL = 3;
+}
@@ -0,0 +1,17 @@
+package com.telenor.possumlib.constants;
+
+/**
+ * How much a detector's staged files are worth keeping when the storage quota is exceeded and the
+ * eviction policy is EvictionPolicy.LOWEST_PRIORITY_FIRST, higher is kept longer
+ */
+public class StoragePriority {
+    /**
+     * The large segments of the accelerometer, gyroscope and magnetometer, which are quick to
+     * gather again
+     */
+    public static final int BULK = -1;
+    /**
+     * The small context data like position, network and meta data
+     */
+    public static final int DEFAULT = 0;
+}
@@ -0,0 +1,19 @@
+package com.telenor.possumlib.constants;
+
+/**
+ * How old the cached trust score of a user is
+ */
+public class TrustScoreState {
+    /**
+     * There is no score, or it is too old to be given
+     */
+    public static final int MISSING = 0;
+    /**
+     * The score is recent enough that no authentication is needed
+     */
+    public static final int FRESH = 1;
+    /**
+     * The score is still given, but a new authentication is started to replace it
+     */
+    public static final int STALE = 2;
+}
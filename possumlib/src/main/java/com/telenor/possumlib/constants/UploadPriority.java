@@ -0,0 +1,19 @@
+package com.telenor.possumlib.constants;
+
+/**
+ * The order classes of staged files are uploaded in, lowest first
+ */
+public class UploadPriority {
+    /**
+     * The user's consent, without which nothing else is of use
+     */
+    public static final int CONSENT = 0;
+    /**
+     * The small context data used when authenticating, like position, network and meta data
+     */
+    public static final int AUTHENTICATION = 1;
+    /**
+     * The large segments of the inertial detectors, sound and images
+     */
+    public static final int BULK = 2;
+}
@@ -0,0 +1,19 @@
+package com.telenor.possumlib.constants;
+
+/**
+ * How the upload of a file ended
+ */
+public class UploadResult {
+    /**
+     * The file is uploaded and can be deleted
+     */
+    public static final int COMPLETED = 0;
+    /**
+     * The upload failed, the file is kept for the next upload
+     */
+    public static final int FAILED = 1;
+    /**
+     * The upload was canceled, for instance for want of a network. The file is kept.
+     */
+    public static final int CANCELED = 2;
+}
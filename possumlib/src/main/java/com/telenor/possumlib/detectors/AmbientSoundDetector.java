@@ -33,6 +33,7 @@ public class AmbientSoundDetector extends AbstractDetector {
     private final int recordingSamples;
     private boolean disabledMute;
     private boolean supportsUnprocessed;
+    private volatile boolean recordingComplete;
     private ExecutorService backgroundService = Executors.newSingleThreadExecutor();
 
     /**
@@ -127,6 +128,7 @@ public class AmbientSoundDetector extends AbstractDetector {
                 disabledMute = true;
             }
             Log.d(tag, "Start recording ambient sound");
+            recordingComplete = false;
             audioRecorder.startRecording();
             audioHandler.postDelayed(new Runnable() {
                 @Override
@@ -155,9 +157,20 @@ public class AmbientSoundDetector extends AbstractDetector {
                     recordedSamples += readSize;
                 }
             }
+            recordingComplete = recordedSamples >= recordingSamples;
         }
     }
 
+    /**
+     * The sound is enough once the whole recording is read, a part of it is not
+     *
+     * @return true if the recording is complete
+     */
+    @Override
+    public boolean isSufficient() {
+        return recordingComplete;
+    }
+
     /**
      * The presently used audio encoding. Override to change
      *
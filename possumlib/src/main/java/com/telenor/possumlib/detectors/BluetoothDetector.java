@@ -37,6 +37,7 @@ public class BluetoothDetector extends AbstractDetector {
     private boolean isBLE = false;
     private boolean isRegistered;
     private long lastStart;
+    private volatile boolean scanStarted;
 
     private static final String tag = BluetoothDetector.class.getName();
 
@@ -194,11 +195,23 @@ public class BluetoothDetector extends AbstractDetector {
     public boolean startListening() {
         boolean listen = super.startListening();
         if (listen) {
+            scanStarted = false;
             scanForBluetooth();
         }
         return listen;
     }
 
+    /**
+     * One device found is enough. When no scan was started, because of the minimum interval,
+     * there is nothing to wait for.
+     *
+     * @return true if the detector needs no more data
+     */
+    @Override
+    public boolean isSufficient() {
+        return !scanStarted || super.isSufficient();
+    }
+
     private void scanForBluetooth() {
         long nowStamp = now();
         long diff = nowStamp - lastStart;
@@ -212,12 +225,14 @@ public class BluetoothDetector extends AbstractDetector {
                     scanSettingsBuilder.setScanMode(ScanSettings.SCAN_MODE_LOW_POWER);
                     scanner.startScan(null, scanSettingsBuilder.build(), callback);
                     lastStart = nowStamp;
+                    scanStarted = true;
                 }
             } else {
                 // Start regular scan
                 if (!bluetoothAdapter.isDiscovering()) {
                     bluetoothAdapter.startDiscovery();
                     lastStart = nowStamp;
+                    scanStarted = true;
                 }
             }
         }
@@ -239,6 +239,16 @@ public class ImageDetector extends AbstractDetector implements ITensorLoadComple
         }
     }
 
+    /**
+     * The faces found before the image data is enough. Override to change, default is 3
+     *
+     * @return faces needed
+     */
+    @Override
+    protected int sufficientValues() {
+        return 3;
+    }
+
     public void resetTotalFaces() {
         totalFaces = 0;
     }
@@ -10,7 +10,6 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.location.LocationProvider;
 import android.os.Bundle;
-import android.os.Looper;
 import android.provider.Settings;
 import android.support.annotation.NonNull;
 import android.util.Log;
@@ -170,10 +169,10 @@ public class LocationDetector extends AbstractDetector implements LocationListen
             }
             if (canScan && isPermitted()) {
                 if (isProviderAvailable(LocationManager.GPS_PROVIDER)) {
-                    locationManager.requestSingleUpdate(LocationManager.GPS_PROVIDER, this, Looper.getMainLooper());
+                    locationManager.requestSingleUpdate(LocationManager.GPS_PROVIDER, this, sensorHandler().getLooper());
                 }
                 if (isProviderAvailable(LocationManager.NETWORK_PROVIDER)) {
-                    locationManager.requestSingleUpdate(LocationManager.NETWORK_PROVIDER, this, Looper.getMainLooper());
+                    locationManager.requestSingleUpdate(LocationManager.NETWORK_PROVIDER, this, sensorHandler().getLooper());
                 }
             }
         } else {
@@ -30,6 +30,7 @@ public class NetworkDetector extends AbstractDetector implements IOnReceive {
     private int wifiState = WifiManager.WIFI_STATE_DISABLED;
     private boolean isRegistered;
     private boolean isScanning;
+    private volatile boolean scanCompleted;
 
     /**
      * Constructor for NetworkDetector
@@ -71,6 +72,7 @@ public class NetworkDetector extends AbstractDetector implements IOnReceive {
                 context().getApplicationContext().registerReceiver(receiver, intentFilter);
                 isRegistered = true;
             }
+            scanCompleted = false;
             performScan();
         }
         return listen;
@@ -96,6 +98,17 @@ public class NetworkDetector extends AbstractDetector implements IOnReceive {
         return isScanning;
     }
 
+    /**
+     * A finished scan is enough, even if it found no networks. Without wifi there is nothing to
+     * wait for.
+     *
+     * @return true if a scan has completed since the detector started listening
+     */
+    @Override
+    public boolean isSufficient() {
+        return scanCompleted || !wifiAvailable() || super.isSufficient();
+    }
+
     public boolean wifiAvailable() {
         return wifiManager != null && wifiManager.isWifiEnabled() && wifiState == WifiManager.WIFI_STATE_ENABLED;
     }
@@ -131,6 +144,7 @@ public class NetworkDetector extends AbstractDetector implements IOnReceive {
                 }
                 storeData();
                 isScanning = false;
+                scanCompleted = true;
                 break;
             case WifiManager.WIFI_STATE_CHANGED_ACTION:
                 wifiState = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE, 0);
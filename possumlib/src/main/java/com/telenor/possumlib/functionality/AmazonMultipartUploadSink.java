@@ -0,0 +1,187 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.interfaces.IUploadListener;
+import com.telenor.possumlib.interfaces.IUploadSink;
+import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.UploadCheckpoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Uploads large staged files to the amazon bucket in parts, recording every acknowledged part in
+ * an UploadCheckpoint next to the file. When an upload fails, the checkpoint is kept and the next
+ * upload of the file resumes after the last acknowledged part, so a dropped connection costs at
+ * most the part in flight. The parts of a file are sent one after another, on a worker thread per
+ * file. If the multipart upload has expired on the server it is started over.
+ * <p>
+ * Amazon keeps, and bills, the parts of an upload until it is completed or aborted, so the upload
+ * of a checkpoint that is thrown away is aborted first: when the file changed since the upload
+ * started, and with abortOrphans() when the file is gone.
+ */
+public class AmazonMultipartUploadSink implements IUploadSink {
+    /**
+     * The smallest part amazon accepts for all but the last part of an upload
+     */
+    public static final long DEFAULT_PART_SIZE = 5 * 1024 * 1024;
+    private static final String tag = AmazonMultipartUploadSink.class.getName();
+    private final AmazonS3Client amazonS3Client;
+    private final String bucket;
+    private final Executor executor;
+    private final long partSize;
+
+    public AmazonMultipartUploadSink(@NonNull AmazonS3Client amazonS3Client) {
+        this(amazonS3Client, Constants.BUCKET, UploadThreads.newPool("PossumMultipart"), DEFAULT_PART_SIZE);
+    }
+
+    /**
+     * Constructor for the sink
+     *
+     * @param amazonS3Client client the parts are sent with
+     * @param bucket         the bucket uploaded to
+     * @param executor       runs the upload of each file
+     * @param partSize       the size of every part but the last
+     */
+    public AmazonMultipartUploadSink(@NonNull AmazonS3Client amazonS3Client, @NonNull String bucket, @NonNull Executor executor, long partSize) {
+        if (partSize <= 0) {
+            throw new IllegalArgumentException("Invalid part size:" + partSize);
+        }
+        this.amazonS3Client = amazonS3Client;
+        this.bucket = bucket;
+        this.executor = executor;
+        this.partSize = partSize;
+    }
+
+    public long partSize() {
+        return partSize;
+    }
+
+    @Override
+    public void upload(@NonNull final File file, @NonNull final String key, @NonNull final IUploadListener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int result = UploadResult.FAILED;
+                try {
+                    result = uploadParts(file, key, listener, true);
+                } catch (AmazonClientException | IOException e) {
+                    Log.w(tag, "Multipart upload interrupted, will resume: " + file.getName(), e);
+                } finally {
+                    listener.uploadFinished(file, result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends the parts not yet acknowledged and completes the upload
+     *
+     * @param mayRestart whether to start over if the server no longer knows the upload
+     * @return a constant from UploadResult
+     */
+    private int uploadParts(File file, String key, IUploadListener listener, boolean mayRestart) throws IOException {
+        if (!file.exists()) return UploadResult.CANCELED;
+        UploadCheckpoint checkpoint = UploadCheckpoint.load(file, key, partSize);
+        if (checkpoint == null) {
+            UploadCheckpoint mismatched = UploadCheckpoint.read(UploadCheckpoint.checkpointFile(file));
+            if (mismatched != null) {
+                Log.d(tag, "Checkpoint no longer matches " + file.getName() + ", starting over");
+                abort(mismatched);
+            }
+            String uploadId = amazonS3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key)).getUploadId();
+            checkpoint = UploadCheckpoint.create(file, uploadId, key, partSize);
+        } else {
+            Log.d(tag, "Resuming " + file.getName() + " from " + checkpoint.bytesAcknowledged() + " bytes");
+        }
+        long resumedFrom = checkpoint.bytesAcknowledged();
+        long bytesTotal = file.length() - resumedFrom;
+        try {
+            for (int partNumber = 1; partNumber <= checkpoint.partCount(); partNumber++) {
+                if (checkpoint.isAcknowledged(partNumber)) continue;
+                UploadPartRequest request = new UploadPartRequest()
+                        .withBucketName(bucket)
+                        .withKey(key)
+                        .withUploadId(checkpoint.uploadId())
+                        .withPartNumber(partNumber)
+                        .withFile(file)
+                        .withFileOffset((partNumber - 1) * partSize)
+                        .withPartSize(checkpoint.partLength(partNumber));
+                String eTag = amazonS3Client.uploadPart(request).getETag();
+                checkpoint.partAcknowledged(partNumber, eTag);
+                listener.uploadProgress(file, checkpoint.bytesAcknowledged() - resumedFrom, bytesTotal);
+            }
+            List<PartETag> partETags = new ArrayList<>();
+            for (Map.Entry<Integer, String> part : checkpoint.parts().entrySet()) {
+                partETags.add(new PartETag(part.getKey(), part.getValue()));
+            }
+            amazonS3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, checkpoint.uploadId(), partETags));
+        } catch (AmazonServiceException e) {
+            if (mayRestart && "NoSuchUpload".equals(e.getErrorCode())) {
+                Log.w(tag, "Multipart upload expired, starting over: " + file.getName());
+                checkpoint.delete();
+                return uploadParts(file, key, listener, false);
+            }
+            throw e;
+        }
+        checkpoint.delete();
+        return UploadResult.COMPLETED;
+    }
+
+    /**
+     * Aborts the uploads of checkpoints whose staged file is gone and deletes them, on the worker
+     * threads. A checkpoint whose upload could not be aborted is kept to try again the next time.
+     *
+     * @param checkpointFiles the orphaned checkpoint files, as from UploadCheckpoint.orphans()
+     */
+    public void abortOrphans(@NonNull final List<File> checkpointFiles) {
+        if (checkpointFiles.isEmpty()) return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (File checkpointFile : checkpointFiles) {
+                    UploadCheckpoint checkpoint = UploadCheckpoint.read(checkpointFile);
+                    if (checkpoint == null || abort(checkpoint)) {
+                        FileUtil.deleteFile(checkpointFile);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Aborts the multipart upload a checkpoint recorded, so amazon drops the parts sent. Best
+     * effort, a failure is logged.
+     *
+     * @param checkpoint the checkpoint of the upload
+     * @return true if the upload is aborted or no longer exists
+     */
+    private boolean abort(UploadCheckpoint checkpoint) {
+        try {
+            amazonS3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, checkpoint.key(), checkpoint.uploadId()));
+            return true;
+        } catch (AmazonServiceException e) {
+            if ("NoSuchUpload".equals(e.getErrorCode())) return true;
+            Log.w(tag, "Failed to abort multipart upload " + checkpoint.uploadId() + ":", e);
+        } catch (AmazonClientException e) {
+            Log.w(tag, "Failed to abort multipart upload " + checkpoint.uploadId() + ":", e);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.amazonaws.mobileconnectors.s3.transferutility.TransferListener;
+import com.amazonaws.mobileconnectors.s3.transferutility.TransferState;
+import com.amazonaws.mobileconnectors.s3.transferutility.TransferUtility;
+import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.interfaces.IUploadListener;
+import com.telenor.possumlib.interfaces.IUploadSink;
+
+import java.io.File;
+
+/**
+ * Uploads staged files to the amazon bucket through a TransferUtility. A transfer waiting for the
+ * network is canceled rather than left hanging, the file is then tried again on the next upload.
+ * Files larger than the multipart threshold can be handed to another sink instead, one that
+ * resumes where an interrupted upload left off rather than sending the whole file again.
+ */
+public class AmazonUploadSink implements IUploadSink {
+    private final TransferUtility transferUtility;
+    private final String bucket;
+    private final IUploadSink multipartSink;
+    private final long multipartThreshold;
+    private static final String tag = AmazonUploadSink.class.getName();
+
+    public AmazonUploadSink(@NonNull TransferUtility transferUtility) {
+        this(transferUtility, Constants.BUCKET, null, 0);
+    }
+
+    /**
+     * Constructor for the sink
+     *
+     * @param transferUtility    utility uploading the files in one piece
+     * @param bucket             the bucket uploaded to
+     * @param multipartSink      sink for the large files, null to upload all in one piece
+     * @param multipartThreshold files larger than this go to the multipart sink, 0 for none
+     */
+    public AmazonUploadSink(@NonNull TransferUtility transferUtility, @NonNull String bucket, @Nullable IUploadSink multipartSink, long multipartThreshold) {
+        this.transferUtility = transferUtility;
+        this.bucket = bucket;
+        this.multipartSink = multipartSink;
+        this.multipartThreshold = multipartThreshold;
+    }
+
+    @Override
+    public void upload(@NonNull final File file, @NonNull String key, @NonNull final IUploadListener listener) {
+        if (multipartSink != null && multipartThreshold > 0 && file.length() > multipartThreshold) {
+            multipartSink.upload(file, key, listener);
+            return;
+        }
+        transferUtility.upload(bucket, key, file).setTransferListener(new TransferListener() {
+            @Override
+            public void onStateChanged(int id, TransferState state) {
+                switch (state) {
+                    case WAITING_FOR_NETWORK:
+                        transferUtility.cancel(id);
+                        break;
+                    case COMPLETED:
+                        listener.uploadFinished(file, UploadResult.COMPLETED);
+                        break;
+                    case CANCELED:
+                        listener.uploadFinished(file, UploadResult.CANCELED);
+                        break;
+                    case FAILED:
+                        listener.uploadFinished(file, UploadResult.FAILED);
+                        break;
+                    default:
+                }
+            }
+
+            @Override
+            public void onProgressChanged(int id, long bytesCurrent, long bytesTotal) {
+                listener.uploadProgress(file, bytesCurrent, bytesTotal);
+            }
+
+            @Override
+            public void onError(int id, Exception ex) {
+                Log.w(tag, ex);
+            }
+        });
+    }
+}
@@ -2,6 +2,7 @@ package com.telenor.possumlib.functionality;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
 import com.google.gson.JsonArray;
@@ -10,9 +11,12 @@ import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.interfaces.IPollComplete;
 import com.telenor.possumlib.models.PossumBus;
 import com.telenor.possumlib.utils.Get;
+import com.telenor.possumlib.utils.UploadPreparation;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Handles the start and stop of collecting data from the detectors
@@ -21,6 +25,8 @@ public class GatheringFunctionality {
     private PossumBus eventBus;
     private boolean isGathering;
     private List<AbstractDetector> detectors = new ArrayList<>();
+    private final List<Runnable> waiting = new ArrayList<>();
+    private Future<Integer> preparation;
 
     private static final String tag = GatheringFunctionality.class.getName();
 
@@ -28,8 +34,21 @@ public class GatheringFunctionality {
         eventBus = new PossumBus();
     }
 
+    /**
+     * Replaces the detectors with new ones for a user. The new detectors store to the same files as
+     * the present ones, so these must be stopped and their data prepared first, without waiting
+     * for it on the main thread: call this from the continuation of stopGatheringAsync().
+     *
+     * @param context        a valid android context
+     * @param uniqueUserId   the user gathered for
+     * @param authenticating whether the detectors are for an authentication
+     * @param listener       told when a detector has polled
+     * @throws IllegalStateException if the detectors are still gathering or being stopped
+     */
     public void setDetectorsWithId(final @NonNull Context context, final @NonNull String uniqueUserId, final boolean authenticating, final IPollComplete listener) {
-        stopGathering();
+        if (isGathering || isStopping()) {
+            throw new IllegalStateException("Detectors must be stopped before they are replaced");
+        }
         detectors.clear();
         eventBus.clearAll();
         addDetectors(context, uniqueUserId, authenticating);
@@ -52,13 +71,63 @@ public class GatheringFunctionality {
         }
     }
 
-    public void stopGathering() {
-        if (isGathering) {
-            for (AbstractDetector detector : detectors) {
-                detector.terminate();
-                detector.prepareUpload();
+    /**
+     * Stops all detectors and prepares their data for upload, the detectors in parallel
+     *
+     * @return a future completing when all detectors are done, giving the number prepared without
+     * errors
+     */
+    public Future<Integer> stopGatheringAsync() {
+        return stopGatheringAsync(null);
+    }
+
+    /**
+     * Stops all detectors and prepares their data for upload, the detectors in parallel, and tells
+     * when all are done. Should the detectors already be stopping, it tells when that is done.
+     *
+     * @param whenDone run on a worker thread once all detectors are done, or at once if none are
+     *                 gathering or stopping
+     * @return a future completing when all detectors are done, giving the number prepared without
+     * errors
+     */
+    public Future<Integer> stopGatheringAsync(@Nullable Runnable whenDone) {
+        synchronized (this) {
+            if (isGathering || isStopping()) {
+                if (whenDone != null) {
+                    waiting.add(whenDone);
+                }
+                if (isGathering) {
+                    isGathering = false;
+                    preparation = UploadPreparation.prepare(new ArrayList<AbstractDetector>(detectors), new Runnable() {
+                        @Override
+                        public void run() {
+                            stopped();
+                        }
+                    });
+                }
+                return preparation;
             }
-            isGathering = false;
+        }
+        return UploadPreparation.prepare(Collections.<AbstractDetector>emptyList(), whenDone);
+    }
+
+    /**
+     * Whether the detectors are being stopped and their data prepared
+     *
+     * @return true until the last detector is done
+     */
+    public synchronized boolean isStopping() {
+        return preparation != null && !preparation.isDone();
+    }
+
+    private void stopped() {
+        List<Runnable> done;
+        synchronized (this) {
+            done = new ArrayList<>(waiting);
+            waiting.clear();
+        }
+        for (Runnable runnable : done) {
+            runnable.run();
         }
     }
 
@@ -0,0 +1,44 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.stream.JsonWriter;
+import com.telenor.possumlib.interfaces.IRequestBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A json request body written as it is sent, gzip compressed and chunked, so it is never held in
+ * memory as a whole. Must be sent with the header Content-Encoding: gzip.
+ */
+abstract class GzipJsonBody implements IRequestBody {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        GZIPOutputStream gzipStream = new GZIPOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE), BUFFER_SIZE);
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(gzipStream, "UTF-8"));
+        writeJson(writer);
+        writer.flush();
+        // Finishes the gzip stream, the connection is closed by the client
+        gzipStream.finish();
+        gzipStream.flush();
+    }
+
+    /**
+     * Writes the json of the body
+     *
+     * @param writer the stream written to
+     * @throws IOException if the stream fails
+     */
+    abstract void writeJson(@NonNull JsonWriter writer) throws IOException;
+}
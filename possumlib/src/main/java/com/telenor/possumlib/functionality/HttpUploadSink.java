@@ -0,0 +1,107 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.interfaces.IUploadListener;
+import com.telenor.possumlib.interfaces.IUploadSink;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executor;
+
+/**
+ * Uploads staged files with a plain HTTP PUT of each file to the base url followed by its bucket
+ * key, for endpoints other than amazon and for load testing against a local server. Any 2xx
+ * response completes the upload. The file is streamed with a fixed length rather than buffered.
+ */
+public class HttpUploadSink implements IUploadSink {
+    private static final String tag = HttpUploadSink.class.getName();
+    private static final int BUFFER = 16 * 1024;
+    private static final int TIMEOUT_MILLI = 30 * 1000;
+    private final String baseUrl;
+    private final String apiKey;
+    private final Executor executor;
+
+    public HttpUploadSink(@NonNull String baseUrl, String apiKey) {
+        this(baseUrl, apiKey, UploadThreads.newPool("PossumHttpUpload"));
+    }
+
+    /**
+     * Constructor for the sink
+     *
+     * @param baseUrl  the url the keys are appended to
+     * @param apiKey   sent as x-api-key if not null
+     * @param executor runs the upload of each file
+     */
+    public HttpUploadSink(@NonNull String baseUrl, String apiKey, @NonNull Executor executor) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.apiKey = apiKey;
+        this.executor = executor;
+    }
+
+    @Override
+    public void upload(@NonNull final File file, @NonNull final String key, @NonNull final IUploadListener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int result = UploadResult.FAILED;
+                try {
+                    int responseCode = put(file, new URL(baseUrl + key), listener);
+                    if (responseCode / 100 == 2) {
+                        result = UploadResult.COMPLETED;
+                    } else {
+                        Log.w(tag, "Upload of " + file.getName() + " refused:" + responseCode);
+                    }
+                } catch (IOException e) {
+                    Log.w(tag, "Upload of " + file.getName() + " failed:", e);
+                } finally {
+                    listener.uploadFinished(file, result);
+                }
+            }
+        });
+    }
+
+    private int put(File file, URL url, IUploadListener listener) throws IOException {
+        long bytesTotal = file.length();
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setRequestMethod("PUT");
+            urlConnection.setDoOutput(true);
+            urlConnection.setConnectTimeout(TIMEOUT_MILLI);
+            urlConnection.setReadTimeout(TIMEOUT_MILLI);
+            urlConnection.setRequestProperty("Content-Type", "application/octet-stream");
+            if (apiKey != null) {
+                urlConnection.setRequestProperty("x-api-key", apiKey);
+            }
+            urlConnection.setFixedLengthStreamingMode((int) bytesTotal);
+            byte[] buffer = new byte[BUFFER];
+            long bytesCurrent = 0;
+            InputStream inputStream = new FileInputStream(file);
+            try {
+                OutputStream outputStream = urlConnection.getOutputStream();
+                try {
+                    int count;
+                    while ((count = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, count);
+                        bytesCurrent += count;
+                        listener.uploadProgress(file, bytesCurrent, bytesTotal);
+                    }
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                inputStream.close();
+            }
+            return urlConnection.getResponseCode();
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.interfaces.IUploadListener;
+import com.telenor.possumlib.interfaces.IUploadSink;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Uploads staged files by copying them into a local directory, each under its bucket key, so the
+ * upload path can be exercised and measured without a network or an amazon account. The copy is
+ * done on the calling thread, and written to a temporary name first so that a file found under its
+ * key is always complete.
+ */
+public class LocalUploadSink implements IUploadSink {
+    private static final String tag = LocalUploadSink.class.getName();
+    private static final int BUFFER = 64 * 1024;
+    private final File directory;
+    private final byte[] buffer = new byte[BUFFER];
+
+    /**
+     * Constructor for the sink
+     *
+     * @param directory the directory the files are copied into, created if needed
+     */
+    public LocalUploadSink(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Where a key ends up in the directory
+     *
+     * @param key a bucket key
+     * @return the file uploaded to that key
+     */
+    public File fileFor(@NonNull String key) {
+        return new File(directory, key);
+    }
+
+    @Override
+    public void upload(@NonNull File file, @NonNull String key, @NonNull IUploadListener listener) {
+        int result;
+        try {
+            copy(file, fileFor(key), listener);
+            result = UploadResult.COMPLETED;
+        } catch (IOException e) {
+            Log.w(tag, "Failed to copy " + file.getName() + ":", e);
+            result = UploadResult.FAILED;
+        }
+        listener.uploadFinished(file, result);
+    }
+
+    private synchronized void copy(File file, File destination, IUploadListener listener) throws IOException {
+        File parent = destination.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory: " + parent);
+        }
+        File temp = new File(parent, destination.getName() + ".tmp");
+        long bytesTotal = file.length();
+        long bytesCurrent = 0;
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            OutputStream outputStream = new FileOutputStream(temp);
+            try {
+                int count;
+                while ((count = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, count);
+                    bytesCurrent += count;
+                    listener.uploadProgress(file, bytesCurrent, bytesTotal);
+                }
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+        if (!temp.renameTo(destination) && !(destination.delete() && temp.renameTo(destination))) {
+            throw new IOException("Unable to move into place: " + destination);
+        }
+    }
+}
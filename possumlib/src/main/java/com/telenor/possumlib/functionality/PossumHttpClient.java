@@ -0,0 +1,244 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.interfaces.IRequestBody;
+import com.telenor.possumlib.models.HttpTiming;
+import com.telenor.possumlib.models.RunningStatistics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * The http client of the library. HttpURLConnection keeps a pool of keep-alive connections per
+ * host, but only hands a connection back to the pool once its response has been read to the end
+ * and closed without disconnecting. This client always does that, error responses included, so
+ * the score requests of continuous authentication reuse one connection instead of paying tcp and
+ * tls setup every time. A connection can be opened ahead of a request with warm. Only connections
+ * that failed are disconnected. Every request is timed, see HttpTiming.
+ */
+public class PossumHttpClient {
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLI = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLI = 30 * 1000;
+    private static final String tag = PossumHttpClient.class.getName();
+    private static final int BUFFER = 8 * 1024;
+    private static PossumHttpClient shared;
+    private final Executor executor;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT_MILLI;
+    private int readTimeout = DEFAULT_READ_TIMEOUT_MILLI;
+    private final RunningStatistics connectTime = new RunningStatistics();
+    private final RunningStatistics firstByteTime = new RunningStatistics();
+    private final RunningStatistics totalTime = new RunningStatistics();
+    private int failures;
+
+    /**
+     * The client shared by everything in the process, so they share its connections
+     *
+     * @return the client of the process
+     */
+    public static synchronized PossumHttpClient shared() {
+        if (shared == null) {
+            shared = new PossumHttpClient(UploadThreads.newPool("PossumHttp"));
+        }
+        return shared;
+    }
+
+    /**
+     * Constructor for the client
+     *
+     * @param executor runs the warming of connections
+     */
+    public PossumHttpClient(@NonNull Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the timeouts of the requests sent from now on
+     *
+     * @param connectTimeoutMilli time allowed for opening a connection
+     * @param readTimeoutMilli    time allowed between two reads of the response
+     */
+    public synchronized void setTimeouts(int connectTimeoutMilli, int readTimeoutMilli) {
+        if (connectTimeoutMilli < 0 || readTimeoutMilli < 0) {
+            throw new IllegalArgumentException("Invalid timeouts:" + connectTimeoutMilli + ", " + readTimeoutMilli);
+        }
+        this.connectTimeout = connectTimeoutMilli;
+        this.readTimeout = readTimeoutMilli;
+    }
+
+    public synchronized int connectTimeout() {
+        return connectTimeout;
+    }
+
+    public synchronized int readTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Posts a body and reads the response to the end
+     *
+     * @param url     the url posted to
+     * @param headers request headers
+     * @param body    the body of the request
+     * @return the response, whatever its status
+     * @throws IOException if the request could not be sent or the response not read
+     */
+    public Response post(@NonNull URL url, @NonNull Map<String, String> headers, @NonNull IRequestBody body) throws IOException {
+        return execute("POST", url, headers, body);
+    }
+
+    /**
+     * Opens a connection to the host of the url in the background with a HEAD request, leaving
+     * it in the pool for the next request. Failures are only logged.
+     *
+     * @param url a url on the host that will be requested
+     */
+    public void warm(@NonNull final String url) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    execute("HEAD", new URL(url), Collections.<String, String>emptyMap(), null);
+                } catch (IOException e) {
+                    Log.w(tag, "Failed to warm connection to " + url + ":", e);
+                }
+            }
+        });
+    }
+
+    private Response execute(String method, URL url, Map<String, String> headers, IRequestBody body) throws IOException {
+        long start = System.nanoTime();
+        // Resolved here to time it, the connection finds the address in the cache
+        InetAddress.getByName(url.getHost());
+        long resolved = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(connectTimeout());
+            connection.setReadTimeout(readTimeout());
+            connection.setRequestMethod(method);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            if (body != null) {
+                connection.setDoOutput(true);
+                if (body.contentLength() >= 0) {
+                    connection.setFixedLengthStreamingMode((int) body.contentLength());
+                } else {
+                    connection.setChunkedStreamingMode(0);
+                }
+            }
+            connection.connect();
+            long connected = System.nanoTime();
+            if (body != null) {
+                OutputStream outputStream = connection.getOutputStream();
+                try {
+                    body.writeTo(outputStream);
+                } finally {
+                    outputStream.close();
+                }
+            }
+            long sent = System.nanoTime();
+            int code = connection.getResponseCode();
+            long firstByte = System.nanoTime();
+            String message = connection.getResponseMessage();
+            String responseBody = readFully(code >= 400 ? connection.getErrorStream() : connection.getInputStream());
+            long received = System.nanoTime();
+            HttpTiming timing = new HttpTiming(millis(resolved - start), millis(connected - resolved),
+                    millis(sent - connected), millis(firstByte - sent), millis(received - firstByte));
+            connectTime.add(timing.connect());
+            firstByteTime.add(timing.firstByte());
+            totalTime.add(timing.total());
+            return new Response(code, message, responseBody, timing);
+        } catch (IOException e) {
+            // The state of the connection is unknown, so it must not go back to the pool
+            connection.disconnect();
+            synchronized (this) {
+                failures++;
+            }
+            throw e;
+        }
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        if (inputStream == null) return "";
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toString("UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    /**
+     * Statistics over the requests sent: failures and the connect, first byte and total times
+     *
+     * @return jsonObject with the statistics
+     */
+    public synchronized JsonObject toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("requests", totalTime.count());
+        object.addProperty("failures", failures);
+        object.addProperty("connectTimeout", connectTimeout);
+        object.addProperty("readTimeout", readTimeout);
+        object.add("connect", connectTime.toJson());
+        object.add("firstByte", firstByteTime.toJson());
+        object.add("total", totalTime.toJson());
+        return object;
+    }
+
+    /**
+     * A response read to the end
+     */
+    public static class Response {
+        private final int code;
+        private final String message;
+        private final String body;
+        private final HttpTiming timing;
+
+        public Response(int code, String message, @NonNull String body, @NonNull HttpTiming timing) {
+            this.code = code;
+            this.message = message;
+            this.body = body;
+            this.timing = timing;
+        }
+
+        public int code() {
+            return code;
+        }
+
+        public String message() {
+            return message;
+        }
+
+        public String body() {
+            return body;
+        }
+
+        public HttpTiming timing() {
+            return timing;
+        }
+
+        public boolean isSuccessful() {
+            return code / 100 == 2;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
+import com.telenor.possumlib.interfaces.IProgressiveListener;
+import com.telenor.possumlib.models.DetectorWindow;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authenticates while the data is still being gathered: every window the data gathered since the
+ * last one is taken from the detectors and posted, one window after another over the keep-alive
+ * connection of the shared PossumHttpClient. Each payload is the one RestFunctionality posts,
+ * with the session it belongs to, the number of the window and whether it is the last. The score
+ * of every window is given to the listener, and once the confidence of the server crosses the
+ * threshold no more windows are posted. A window that fails to post is kept and sent again ahead
+ * of the data of the next one, so nothing gathered is lost unless the last window fails.
+ * <p>
+ * The confidence is read from the response of each window, which is expected to be
+ * {"trustscore": {"confidence": c, ...}, ...} with c a number from 0 to 1. A server that gives no
+ * confidence has its "score" in the trustscore used instead. A response with neither, or that is
+ * not json, counts as a confidence of -1 and never ends the authentication early.
+ */
+public class ProgressiveAuthentication {
+    /**
+     * The confidence at which the authentication ends, unless the app chooses another
+     */
+    public static final float DEFAULT_CONFIDENCE_THRESHOLD = 0.9f;
+    private static final String tag = ProgressiveAuthentication.class.getName();
+    private final IProgressiveListener listener;
+    private final List<AbstractDetector> detectors;
+    private final URL url;
+    private final String uniqueUserId;
+    private final String apiKey;
+    private final long windowMilli;
+    private final float confidenceThreshold;
+    private final ScheduledExecutorService executor;
+    private final PossumHttpClient httpClient;
+    private final String session = UUID.randomUUID().toString();
+    private final JsonParser parser = new JsonParser();
+    private final List<DetectorWindow> failed = new ArrayList<>();
+    private int windows;
+    private volatile boolean confident;
+
+    /**
+     * Constructor for a progressive authentication
+     *
+     * @param listener            told the score of every window
+     * @param detectors           the detectors whose data is posted
+     * @param url                 the url posted to
+     * @param uniqueUserId        the user authenticating
+     * @param apiKey              the key for the service
+     * @param windowMilli         the time between two windows
+     * @param confidenceThreshold the confidence at which to stop, from 0 to 1
+     * @param executor            posts the windows, one at a time
+     * @param httpClient          client the windows are posted with
+     * @throws MalformedURLException if the url is not valid
+     */
+    public ProgressiveAuthentication(@NonNull IProgressiveListener listener, @NonNull List<AbstractDetector> detectors, @NonNull String url,
+                                     @NonNull String uniqueUserId, @NonNull String apiKey, long windowMilli, float confidenceThreshold,
+                                     @NonNull ScheduledExecutorService executor, @NonNull PossumHttpClient httpClient) throws MalformedURLException {
+        if (windowMilli <= 0) {
+            throw new IllegalArgumentException("Invalid window:" + windowMilli);
+        }
+        this.listener = listener;
+        this.detectors = new ArrayList<>(detectors);
+        this.url = new URL(url);
+        this.uniqueUserId = uniqueUserId;
+        this.apiKey = apiKey;
+        this.windowMilli = windowMilli;
+        this.confidenceThreshold = confidenceThreshold;
+        this.executor = executor;
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Starts posting a window every windowMilli
+     */
+    public void start() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (!confident) postWindow(false);
+            }
+        }, windowMilli, windowMilli, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Posts the last window with what is left, after any window being posted, and stops. Nothing
+     * is posted if the confidence has already crossed the threshold.
+     */
+    public void finish() {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!confident) postWindow(true);
+                    executor.shutdown();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(tag, "Progressive authentication already stopped");
+        }
+    }
+
+    /**
+     * Stops without posting more windows
+     */
+    public void cancel() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Whether the confidence of the server has crossed the threshold
+     *
+     * @return true if no more windows will be posted
+     */
+    public boolean isConfident() {
+        return confident;
+    }
+
+    /**
+     * The number of windows posted so far
+     *
+     * @return windows posted
+     */
+    public synchronized int windows() {
+        return windows;
+    }
+
+    public String session() {
+        return session;
+    }
+
+    private void postWindow(final boolean last) {
+        final int window;
+        synchronized (this) {
+            window = windows++;
+        }
+        // Windows that failed before go first, only the executor thread touches them
+        final List<DetectorWindow> cut = new ArrayList<>(failed);
+        failed.clear();
+        for (AbstractDetector detector : detectors) {
+            cut.add(detector.takeWindow());
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("x-api-key", apiKey);
+        headers.put("Content-Type", "application/json; charset=utf-8");
+        headers.put("Content-Encoding", "gzip");
+        boolean keep = false;
+        try {
+            PossumHttpClient.Response response = httpClient.post(url, headers, new GzipJsonBody() {
+                @Override
+                void writeJson(@NonNull JsonWriter writer) throws IOException {
+                    writer.beginObject();
+                    writer.name("connectId").value(uniqueUserId);
+                    writer.name("session").value(session);
+                    writer.name("window").value(window);
+                    writer.name("final").value(last);
+                    for (AbstractDetector detector : detectors) {
+                        writer.name(detector.detectorName());
+                        writer.beginArray();
+                        for (DetectorWindow detectorWindow : cut) {
+                            if (detectorWindow.detectorName().equals(detector.detectorName())) {
+                                detectorWindow.writeValues(writer);
+                            }
+                        }
+                        writer.endArray();
+                    }
+                    writer.endObject();
+                }
+            });
+            if (!response.isSuccessful()) {
+                throw new IOException("Server responded " + response.code() + ": " + response.message());
+            }
+            if (last) {
+                listener.successfullyPushed(response.body());
+            } else {
+                confident = confidence(response.body()) >= confidenceThreshold;
+                listener.interimTrust(response.body(), confident);
+            }
+        } catch (IOException e) {
+            if (last) {
+                listener.failedToPush(e);
+            } else {
+                // Its data is already cut from the detectors, so it goes with the next window
+                Log.w(tag, "Failed to post window " + window + ", sending it with the next:", e);
+                failed.addAll(cut);
+                keep = true;
+            }
+        } finally {
+            if (!keep) {
+                for (DetectorWindow detectorWindow : cut) {
+                    detectorWindow.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * The confidence of a score
+     *
+     * @param message the response of the server
+     * @return the confidence, or -1 if the response holds none
+     */
+    float confidence(String message) {
+        try {
+            JsonElement element = parser.parse(message);
+            if (!element.isJsonObject()) return -1;
+            JsonElement trustScore = element.getAsJsonObject().get("trustscore");
+            if (trustScore == null || !trustScore.isJsonObject()) return -1;
+            JsonObject score = trustScore.getAsJsonObject();
+            JsonElement confidence = score.has("confidence") ? score.get("confidence") : score.get("score");
+            return confidence == null ? -1 : confidence.getAsFloat();
+        } catch (JsonParseException | NumberFormatException | IllegalStateException | UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+}
@@ -4,85 +4,151 @@ import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.interfaces.IRestListener;
+import com.telenor.possumlib.models.DetectorWindow;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Handles communication with server, posting to it
+ * Handles communication with server, posting to it. The authentication payload is written from
+ * the detectors' data straight into a gzip compressed, chunked request body, so it is never held
+ * in memory as a whole and the first bytes go out as soon as the first detector is written. Each
+ * detector's data is cleared once it has been written. An authentication answered from a standby
+ * posts the data held by the standby instead, see fromStandby. It is sent with the shared
+ * PossumHttpClient, reusing its keep-alive connection.
  */
-public class RestFunctionality extends AsyncTask<JsonObject, Void, Exception> {
+public class RestFunctionality extends AsyncTask<Void, Void, Exception> {
     private static final String tag = RestFunctionality.class.getName();
     private URL url;
     private String successMessage;
     private String apiKey;
+    private String uniqueUserId;
+    private List<AbstractDetector> detectors;
+    private StandbyFunctionality standby;
     private IRestListener listener;
+    private final PossumHttpClient httpClient = PossumHttpClient.shared();
 
-    public RestFunctionality(IRestListener listener, @NonNull String url, @NonNull String apiKey) throws MalformedURLException {
+    /**
+     * Constructor for the post of an authentication
+     *
+     * @param listener     told how the post went
+     * @param detectors    the detectors whose data is posted
+     * @param url          the url posted to
+     * @param uniqueUserId the user authenticating
+     * @param apiKey       the key for the service
+     * @throws MalformedURLException if the url is not valid
+     */
+    public RestFunctionality(IRestListener listener, List<AbstractDetector> detectors, @NonNull String url, @NonNull String uniqueUserId, @NonNull String apiKey) throws MalformedURLException {
         this.listener = listener;
+        this.detectors = detectors;
         this.url = new URL(url);
+        this.uniqueUserId = uniqueUserId;
         this.apiKey = apiKey;
     }
 
+    /**
+     * Creates the post of an authentication answered from the data of a standby
+     *
+     * @param listener     told how the post went
+     * @param standby      the standby whose data is posted
+     * @param url          the url posted to
+     * @param uniqueUserId the user authenticating
+     * @param apiKey       the key for the service
+     * @return the post, ready to execute
+     * @throws MalformedURLException if the url is not valid
+     */
+    public static RestFunctionality fromStandby(IRestListener listener, @NonNull StandbyFunctionality standby, @NonNull String url, @NonNull String uniqueUserId, @NonNull String apiKey) throws MalformedURLException {
+        RestFunctionality restFunctionality = new RestFunctionality(listener, Collections.<AbstractDetector>emptyList(), url, uniqueUserId, apiKey);
+        restFunctionality.standby = standby;
+        return restFunctionality;
+    }
+
     @Override
-    protected Exception doInBackground(JsonObject... params) {
-        OutputStream os = null;
-        InputStream is = null;
-        Exception exception = null;
-        JsonObject object = params[0];
+    protected Exception doInBackground(Void... params) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("x-api-key", apiKey);
+        headers.put("Content-Type", "application/json; charset=utf-8");
+        headers.put("Content-Encoding", "gzip");
         try {
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestProperty("x-api-key", apiKey);
-            urlConnection.setRequestMethod("POST");
-            byte[] data = object.toString().getBytes();
-//            longLog(object.toString());
-            urlConnection.setFixedLengthStreamingMode(data.length);
-            urlConnection.connect();
-
-            os = urlConnection.getOutputStream();
-            // TODO: Post to stream
-            os.write(data);
-            int responseCode = urlConnection.getResponseCode();
-            String responseMessage = urlConnection.getResponseMessage();
-            Log.i(tag, "Response:" + responseCode + " -> " + responseMessage);
-            is = urlConnection.getInputStream();
-            successMessage = "";
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                successMessage += line;
+            PossumHttpClient.Response response = httpClient.post(url, headers, new GzipJsonBody() {
+                @Override
+                void writeJson(@NonNull JsonWriter writer) throws IOException {
+                    writePayload(writer);
+                }
+            });
+            Log.i(tag, "Response:" + response.code() + " -> " + response.message() + ", timing:" + response.timing());
+            if (!response.isSuccessful()) {
+                return new IOException("Server responded " + response.code() + ": " + response.message());
             }
-            reader.close();
+            successMessage = response.body();
         } catch (Exception e) {
             Log.e(tag, "Ex:", e);
-            exception = e;
-        } finally {
-            if (os != null) {
-                try {
-                    os.close();
-                } catch (IOException e) {
-                    Log.e(tag, "Failed to close output stream:", e);
-                    exception = e;
-                }
+            return e;
+        }
+        return null;
+    }
+
+    /**
+     * Writes the payload: the user id and an array of data for every detector, by detector name
+     *
+     * @param writer the stream written to
+     * @throws IOException if the stream fails
+     */
+    void writePayload(@NonNull JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("connectId").value(uniqueUserId);
+        for (AbstractDetector detector : detectors) {
+            writer.name(detector.detectorName());
+            detector.writeJsonData(writer);
+            detector.clearData();
+        }
+        if (standby != null) {
+            writeWindows(writer, standby.takePayload());
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Writes windows, joining the windows of each detector in one array
+     *
+     * @param writer  the stream written to
+     * @param windows the windows, oldest first, released once written
+     * @throws IOException if the stream fails
+     */
+    private static void writeWindows(@NonNull JsonWriter writer, @NonNull List<DetectorWindow> windows) throws IOException {
+        Map<String, List<DetectorWindow>> byDetector = new LinkedHashMap<>();
+        for (DetectorWindow window : windows) {
+            List<DetectorWindow> detectorWindows = byDetector.get(window.detectorName());
+            if (detectorWindows == null) {
+                detectorWindows = new ArrayList<>();
+                byDetector.put(window.detectorName(), detectorWindows);
             }
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    Log.e(tag, "Failed to close input stream:", e);
-                    exception = e;
+            detectorWindows.add(window);
+        }
+        try {
+            for (Map.Entry<String, List<DetectorWindow>> detector : byDetector.entrySet()) {
+                writer.name(detector.getKey());
+                writer.beginArray();
+                for (DetectorWindow window : detector.getValue()) {
+                    window.writeValues(writer);
                 }
+                writer.endArray();
+            }
+        } finally {
+            for (DetectorWindow window : windows) {
+                window.release();
             }
         }
-        return exception;
     }
 
     public void longLog(String message) {
@@ -0,0 +1,182 @@
+package com.telenor.possumlib.functionality;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
+import com.telenor.possumlib.constants.Constants;
+import com.telenor.possumlib.models.DetectorWindow;
+import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.models.StandbyBuffer;
+import com.telenor.possumlib.utils.Get;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the cheap detectors listening between authentications, so that an authentication can be
+ * answered from the data of the last seconds at once instead of starting every detector and
+ * recording for the whole authentication time. Every CHUNK_MILLI the data gathered is cut from
+ * the detectors into a StandbyBuffer, which holds no more than the window and the memory budget.
+ * There is at most one standby per process, see active().
+ */
+public class StandbyFunctionality {
+    public static final long CHUNK_MILLI = 1000;
+    public static final long DEFAULT_WINDOW_MILLI = Constants.AUTHENTICATION_TIME;
+    public static final long DEFAULT_MEMORY_BUDGET = 1024 * 1024;
+    private static final String tag = StandbyFunctionality.class.getName();
+    private static final long PAYLOAD_TIMEOUT_MILLI = 10 * 1000;
+    private static StandbyFunctionality active;
+    private final String uniqueUserId;
+    private final List<AbstractDetector> detectors;
+    private final StandbyBuffer buffer;
+    private final long topUpMilli;
+    private final ScheduledExecutorService executor;
+    private long lastCut;
+    private int payloads;
+
+    /**
+     * The standby running in this process
+     *
+     * @return the standby, or null if there is none
+     */
+    public static synchronized StandbyFunctionality active() {
+        return active;
+    }
+
+    /**
+     * Starts the standby of the process, replacing the one running
+     *
+     * @param context      a valid android context
+     * @param uniqueUserId the user the data belongs to
+     * @param windowMilli  how far back data is kept
+     * @param memoryBudget the most bytes the data may hold
+     * @param topUpMilli   the longest an authentication may wait for the window to fill
+     * @return the standby started
+     */
+    public static synchronized StandbyFunctionality start(@NonNull Context context, @NonNull String uniqueUserId, long windowMilli, long memoryBudget, long topUpMilli) {
+        stop();
+        List<AbstractDetector> detectors = Get.StandbyDetectors(context, uniqueUserId, new PossumBus());
+        active = new StandbyFunctionality(uniqueUserId, detectors, new StandbyBuffer(windowMilli, memoryBudget), topUpMilli,
+                Executors.newSingleThreadScheduledExecutor());
+        active.start();
+        return active;
+    }
+
+    /**
+     * Stops the standby of the process, if any, dropping its data
+     */
+    public static synchronized void stop() {
+        if (active != null) {
+            active.shutdown();
+            active = null;
+        }
+    }
+
+    StandbyFunctionality(@NonNull String uniqueUserId, @NonNull List<AbstractDetector> detectors, @NonNull StandbyBuffer buffer,
+                         long topUpMilli, @NonNull ScheduledExecutorService executor) {
+        this.uniqueUserId = uniqueUserId;
+        this.detectors = detectors;
+        this.buffer = buffer;
+        this.topUpMilli = topUpMilli;
+        this.executor = executor;
+    }
+
+    private void start() {
+        lastCut = System.currentTimeMillis();
+        for (AbstractDetector detector : detectors) {
+            detector.startListening();
+        }
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                cut();
+            }
+        }, CHUNK_MILLI, CHUNK_MILLI, TimeUnit.MILLISECONDS);
+    }
+
+    private void shutdown() {
+        executor.shutdownNow();
+        for (AbstractDetector detector : detectors) {
+            detector.terminate();
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Cuts a chunk from the detectors into the buffer. Runs on the executor only.
+     */
+    private void cut() {
+        List<DetectorWindow> windows = new ArrayList<>();
+        for (AbstractDetector detector : detectors) {
+            windows.add(detector.takeWindow());
+        }
+        long now = System.currentTimeMillis();
+        buffer.add(windows, lastCut, now);
+        lastCut = now;
+    }
+
+    public String uniqueUserId() {
+        return uniqueUserId;
+    }
+
+    /**
+     * How long an authentication should wait before taking the payload, so that the window is
+     * filled, but no longer than the top-up allows
+     *
+     * @param now the present time in milliseconds
+     * @return the time to wait in milliseconds
+     */
+    public long topUpDelay(long now) {
+        long missing = buffer.windowMilli() - buffer.coverage(now);
+        return Math.max(0, Math.min(topUpMilli, missing));
+    }
+
+    /**
+     * Takes the data of the window for an authentication, including what was gathered since the
+     * last chunk. The buffer starts over empty. The caller must release the windows.
+     *
+     * @return the windows, oldest first, empty if the standby has stopped
+     */
+    public List<DetectorWindow> takePayload() {
+        try {
+            return executor.submit(new Callable<List<DetectorWindow>>() {
+                @Override
+                public List<DetectorWindow> call() {
+                    cut();
+                    synchronized (StandbyFunctionality.this) {
+                        payloads++;
+                    }
+                    return buffer.drain();
+                }
+            }).get(PAYLOAD_TIMEOUT_MILLI, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.e(tag, "Failed to take standby payload:", e);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * The state of the standby: the buffer with its memory use, the detectors and the number of
+     * authentications answered
+     *
+     * @return jsonObject with the status
+     */
+    public synchronized JsonObject toJson() {
+        JsonObject object = buffer.toJson(System.currentTimeMillis());
+        object.addProperty("uniqueUserId", uniqueUserId);
+        object.addProperty("detectors", detectors.size());
+        object.addProperty("topUpMilli", topUpMilli);
+        object.addProperty("payloads", payloads);
+        return object;
+    }
+}
@@ -0,0 +1,104 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Follows the detectors of an authentication, telling when every one of them has gathered
+ * enough, so the data can be posted before the authentication time is up. A detector that has
+ * stopped listening, or never started, is not waited for. The time each detector became
+ * sufficient is kept, so the early completion can be reported.
+ */
+public class SufficiencyMonitor {
+    private final List<AbstractDetector> detectors;
+    private final long started;
+    private final Map<String, Long> sufficientAt = new HashMap<>();
+    private long completedAt;
+
+    /**
+     * Constructor for the monitor
+     *
+     * @param detectors the detectors of the authentication, already listening
+     * @param started   the time the detectors started in milliseconds
+     */
+    public SufficiencyMonitor(@NonNull List<AbstractDetector> detectors, long started) {
+        this.detectors = new ArrayList<>(detectors);
+        this.started = started;
+    }
+
+    /**
+     * Asks every detector not yet sufficient whether it is now
+     *
+     * @param now the present time in milliseconds
+     * @return true if no detector needs more data
+     */
+    public synchronized boolean check(long now) {
+        if (completedAt > 0) return true;
+        boolean complete = true;
+        for (AbstractDetector detector : detectors) {
+            if (sufficientAt.containsKey(detector.detectorName())) continue;
+            if (detector.isSufficient()) {
+                sufficientAt.put(detector.detectorName(), now);
+            } else if (detector.isListening()) {
+                complete = false;
+            }
+        }
+        if (complete) {
+            completedAt = now;
+        }
+        return complete;
+    }
+
+    public synchronized boolean isComplete() {
+        return completedAt > 0;
+    }
+
+    /**
+     * The time from the start until every detector had enough
+     *
+     * @return time in milliseconds, -1 if not complete
+     */
+    public synchronized long elapsed() {
+        return completedAt > 0 ? completedAt - started : -1;
+    }
+
+    /**
+     * The time from the start until a detector had enough
+     *
+     * @param detector the detector asked about
+     * @return time in milliseconds, -1 if it has not had enough
+     */
+    public synchronized long elapsed(@NonNull AbstractDetector detector) {
+        Long at = sufficientAt.get(detector.detectorName());
+        return at == null ? -1 : at - started;
+    }
+
+    /**
+     * Gives the progress of the detectors as a json object
+     *
+     * @return jsonObject with when it completed and for every detector when it had enough and the
+     * values it gathered
+     */
+    public synchronized JsonObject toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("complete", isComplete());
+        object.addProperty("elapsed", elapsed());
+        JsonObject detectorsObject = new JsonObject();
+        for (AbstractDetector detector : detectors) {
+            JsonObject detectorObject = new JsonObject();
+            detectorObject.addProperty("sufficientAfter", elapsed(detector));
+            detectorObject.addProperty("values", detector.valuesGathered());
+            detectorObject.addProperty("isListening", detector.isListening());
+            detectorsObject.add(detector.detectorName(), detectorObject);
+        }
+        object.add("detectors", detectorsObject);
+        return object;
+    }
+}
@@ -0,0 +1,267 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.constants.UploadPriority;
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.interfaces.IUploadListener;
+import com.telenor.possumlib.interfaces.IUploadSchedulerListener;
+import com.telenor.possumlib.interfaces.IUploadSink;
+import com.telenor.possumlib.models.UploadMetrics;
+import com.telenor.possumlib.utils.FileUtil;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Feeds staged files to an upload sink a few at a time, so that a weak link is not shared by
+ * hundreds of transfers that all time out. Files are uploaded by priority class, see
+ * UploadPriority, and oldest first within a class. At most maxConcurrent uploads are in flight at
+ * any time. The listener hears about every file as the sink reports it, and once more when the
+ * queue is drained.
+ */
+public class UploadScheduler implements IUploadListener {
+    private static final Set<String> BULK_DETECTORS = new HashSet<>(Arrays.asList(
+            "accelerometer", "gyroscope", "magnetometer", "sound", "image"));
+    private final IUploadSink sink;
+    private final IUploadSchedulerListener listener;
+    private final int maxConcurrent;
+    private final UploadMetrics metrics = new UploadMetrics();
+    private final PriorityQueue<Pending> queue = new PriorityQueue<>(16, new Comparator<Pending>() {
+        @Override
+        public int compare(Pending first, Pending second) {
+            if (first.priority != second.priority) {
+                return first.priority < second.priority ? -1 : 1;
+            }
+            if (first.age != second.age) {
+                return first.age < second.age ? -1 : 1;
+            }
+            return first.file.getName().compareTo(second.file.getName());
+        }
+    });
+    private int inFlight;
+    private int maxInFlight;
+    private int completed;
+    private int failed;
+    private int canceled;
+    private long bytesCompleted;
+    private long started;
+    private long finished;
+    private boolean pumping;
+    private boolean pumpAgain;
+
+    /**
+     * Constructor for the scheduler
+     *
+     * @param sink          where the files are uploaded
+     * @param listener      told about each file and when all are done
+     * @param maxConcurrent the most uploads in flight at once
+     */
+    public UploadScheduler(@NonNull IUploadSink sink, @NonNull IUploadSchedulerListener listener, int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Need at least one upload at a time:" + maxConcurrent);
+        }
+        this.sink = sink;
+        this.listener = listener;
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * The priority class of a staged file, from its bucket key. Consent comes first, the bulk
+     * detectors last and everything else in between.
+     *
+     * @param file a staged file
+     * @return a constant from UploadPriority
+     */
+    public static int priorityOf(@NonNull File file) {
+        String[] key = FileUtil.toBucketKey(file).split("/");
+        if (key[0].equals("consent")) {
+            return UploadPriority.CONSENT;
+        }
+        if (key.length >= 3 && BULK_DETECTORS.contains(key[2])) {
+            return UploadPriority.BULK;
+        }
+        return UploadPriority.AUTHENTICATION;
+    }
+
+    /**
+     * Adds files to the queue and starts uploading as many as allowed. If there is nothing to
+     * upload the listener is told all uploads are finished right away.
+     *
+     * @param files staged files to upload
+     */
+    public void schedule(@NonNull Collection<File> files) {
+        synchronized (this) {
+            for (File file : files) {
+                queue.add(new Pending(file, priorityOf(file), file.lastModified()));
+            }
+            if (started == 0) {
+                started = System.currentTimeMillis();
+            }
+        }
+        pump();
+    }
+
+    /**
+     * Starts uploads until the cap is reached or the queue is empty. A sink calling back at once
+     * makes this reentrant, so the outermost call does the looping.
+     */
+    private void pump() {
+        synchronized (this) {
+            if (pumping) {
+                pumpAgain = true;
+                return;
+            }
+            pumping = true;
+        }
+        while (true) {
+            Pending next;
+            boolean done = false;
+            synchronized (this) {
+                if (inFlight >= maxConcurrent || queue.isEmpty()) {
+                    if (pumpAgain) {
+                        pumpAgain = false;
+                        continue;
+                    }
+                    pumping = false;
+                    if (inFlight == 0 && queue.isEmpty()) {
+                        finished = System.currentTimeMillis();
+                        done = true;
+                    }
+                    next = null;
+                } else {
+                    next = queue.poll();
+                    inFlight++;
+                    maxInFlight = Math.max(maxInFlight, inFlight);
+                }
+            }
+            if (next == null) {
+                if (done) {
+                    listener.allUploadsFinished(completed(), failed(), canceled());
+                }
+                return;
+            }
+            metrics.started(next.file, System.currentTimeMillis());
+            sink.upload(next.file, FileUtil.toBucketKey(next.file), this);
+        }
+    }
+
+    @Override
+    public void uploadProgress(File file, long bytesCurrent, long bytesTotal) {
+        metrics.progress(file, bytesCurrent);
+        listener.uploadProgress(file, bytesCurrent, bytesTotal);
+    }
+
+    @Override
+    public void uploadFinished(File file, int result) {
+        metrics.finished(file, result, System.currentTimeMillis());
+        long length = file.length();
+        synchronized (this) {
+            inFlight--;
+            switch (result) {
+                case UploadResult.COMPLETED:
+                    completed++;
+                    bytesCompleted += length;
+                    break;
+                case UploadResult.CANCELED:
+                    canceled++;
+                    break;
+                default:
+                    failed++;
+            }
+        }
+        listener.uploadFinished(file, result);
+        pump();
+    }
+
+    /**
+     * Bytes sent, per-file latency and the rest of what the uploads did
+     *
+     * @return the metrics of the files scheduled so far
+     */
+    public UploadMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * The number of files waiting to be handed to the sink
+     *
+     * @return queue depth
+     */
+    public synchronized int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * The number of uploads started and not yet finished
+     *
+     * @return uploads in flight
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * The most uploads that were in flight at the same time
+     *
+     * @return peak number of uploads in flight
+     */
+    public synchronized int maxInFlight() {
+        return maxInFlight;
+    }
+
+    public synchronized int completed() {
+        return completed;
+    }
+
+    public synchronized int failed() {
+        return failed;
+    }
+
+    public synchronized int canceled() {
+        return canceled;
+    }
+
+    /**
+     * The bytes of completed uploads per second, from the first file scheduled until the queue
+     * was drained, or until now if it is not
+     *
+     * @return throughput in bytes per second
+     */
+    public synchronized double throughput() {
+        if (started == 0) return 0;
+        long end = inFlight == 0 && queue.isEmpty() && finished > 0 ? finished : System.currentTimeMillis();
+        return bytesCompleted * 1000.0 / Math.max(1, end - started);
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("queueDepth", queue.size());
+        object.addProperty("inFlight", inFlight);
+        object.addProperty("maxInFlight", maxInFlight);
+        object.addProperty("completed", completed);
+        object.addProperty("failed", failed);
+        object.addProperty("canceled", canceled);
+        object.addProperty("bytesCompleted", bytesCompleted);
+        object.addProperty("throughput", throughput());
+        return object;
+    }
+
+    private static class Pending {
+        private final File file;
+        private final int priority;
+        private final long age;
+
+        private Pending(File file, int priority, long age) {
+            this.file = file;
+            this.priority = priority;
+            this.age = age;
+        }
+    }
+}
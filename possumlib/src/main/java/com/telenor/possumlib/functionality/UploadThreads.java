@@ -0,0 +1,36 @@
+package com.telenor.possumlib.functionality;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads for the upload sinks and the http client that block while sending. The pools are
+ * unbounded, the number of uploads running at once is bounded by the UploadScheduler.
+ */
+final class UploadThreads {
+    private UploadThreads() {
+    }
+
+    /**
+     * A pool of daemon threads named after the sink
+     *
+     * @param name prefix of the thread names
+     * @return executor running every task on a pooled thread
+     */
+    static Executor newPool(@NonNull final String name) {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
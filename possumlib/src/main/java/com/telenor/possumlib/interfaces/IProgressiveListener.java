@@ -0,0 +1,16 @@
+package com.telenor.possumlib.interfaces;
+
+/**
+ * Listener for a progressive authentication. The response to the last window is given to
+ * successfullyPushed, the responses to the windows before it to interimTrust.
+ */
+public interface IProgressiveListener extends IRestListener {
+    /**
+     * The server scored a window before the last
+     *
+     * @param message   the response of the server
+     * @param confident whether the confidence of the score crossed the threshold, in which case
+     *                  no more windows are posted
+     */
+    void interimTrust(String message, boolean confident);
+}
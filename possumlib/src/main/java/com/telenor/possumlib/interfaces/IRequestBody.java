@@ -0,0 +1,24 @@
+package com.telenor.possumlib.interfaces;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The body of a request, written to the connection when it is sent
+ */
+public interface IRequestBody {
+    /**
+     * The length of the body, if known up front
+     *
+     * @return the number of bytes, or -1 to send the body chunked
+     */
+    long contentLength();
+
+    /**
+     * Writes the body. The stream is closed by the caller.
+     *
+     * @param outputStream the request stream
+     * @throws IOException if writing fails
+     */
+    void writeTo(OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,23 @@
+package com.telenor.possumlib.interfaces;
+
+import java.io.File;
+
+public interface IUploadListener {
+    /**
+     * Reports how far the upload of a file has come. Both counts are for this upload only, so a
+     * resumed upload counts from 0 up to what was left to send.
+     *
+     * @param file         the file being uploaded
+     * @param bytesCurrent bytes sent so far in this upload
+     * @param bytesTotal   bytes this upload is to send
+     */
+    void uploadProgress(File file, long bytesCurrent, long bytesTotal);
+
+    /**
+     * Called once for every file when its upload has ended
+     *
+     * @param file   the uploaded file
+     * @param result a constant from UploadResult
+     */
+    void uploadFinished(File file, int result);
+}
@@ -0,0 +1,12 @@
+package com.telenor.possumlib.interfaces;
+
+public interface IUploadSchedulerListener extends IUploadListener {
+    /**
+     * Called when the queue is empty and no upload is in flight any more
+     *
+     * @param completed number of files uploaded
+     * @param failed    number of files that failed
+     * @param canceled  number of files canceled
+     */
+    void allUploadsFinished(int completed, int failed, int canceled);
+}
@@ -0,0 +1,16 @@
+package com.telenor.possumlib.interfaces;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * Where staged files are uploaded to. The upload services only talk to a sink, so the target can
+ * be swapped: AmazonUploadSink for the amazon bucket, HttpUploadSink for a plain HTTP endpoint and
+ * LocalUploadSink for a directory on the device, for testing and benchmarking. The sink may upload
+ * on any thread, even the calling one, but must call uploadFinished on the listener exactly once
+ * for every file it is given.
+ */
+public interface IUploadSink {
+    void upload(@NonNull File file, @NonNull String key, @NonNull IUploadListener listener);
+}
@@ -1,5 +1,14 @@
 package com.telenor.possumlib.interfaces;
 
+import com.telenor.possumlib.models.UploadMetrics;
+
 public interface IWrite {
-    void uploadComplete(Exception e, String message);
+    /**
+     * Called when an upload run has ended
+     *
+     * @param e       null if all went well, otherwise what failed
+     * @param message message for the user, or null
+     * @param metrics what the run did: bytes, per-file latency, throughput and retries
+     */
+    void uploadComplete(Exception e, String message, UploadMetrics metrics);
 }
@@ -0,0 +1,48 @@
+package com.telenor.possumlib.models;
+
+/**
+ * Reads values of arbitrary bit width from a byte array, most significant bit first. Counterpart
+ * to BitWriter.
+ */
+public class BitReader {
+    private final byte[] bytes;
+    private final int length;
+    private int bytePosition;
+    private int bitPosition;
+
+    public BitReader(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.length = length;
+    }
+
+    public boolean readBit() {
+        return readBits(1) == 1;
+    }
+
+    /**
+     * Reads the given number of bits as an unsigned value
+     *
+     * @param numBits number of bits to read, 0 to 64
+     * @return the value read
+     * @throws IllegalStateException if reading past the end
+     */
+    public long readBits(int numBits) {
+        long value = 0;
+        while (numBits > 0) {
+            if (bytePosition >= length) {
+                throw new IllegalStateException("Read past end of data");
+            }
+            int available = 8 - bitPosition;
+            int take = Math.min(available, numBits);
+            int chunk = ((bytes[bytePosition] & 0xff) >>> (available - take)) & ((1 << take) - 1);
+            value = (value << take) | chunk;
+            numBits -= take;
+            bitPosition += take;
+            if (bitPosition == 8) {
+                bitPosition = 0;
+                bytePosition++;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,91 @@
+package com.telenor.possumlib.models;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Collects values of arbitrary bit width into a growable byte array, most significant bit first.
+ * The array is reused after it has been written out.
+ */
+public class BitWriter {
+    private byte[] bytes;
+    private int bytePosition;
+    private int bitPosition;
+
+    public BitWriter() {
+        this(1024);
+    }
+
+    public BitWriter(int initialCapacity) {
+        bytes = new byte[Math.max(8, initialCapacity)];
+    }
+
+    /**
+     * Writes a single bit
+     *
+     * @param bit true for 1, false for 0
+     */
+    public void writeBit(boolean bit) {
+        ensureCapacity();
+        if (bit) {
+            bytes[bytePosition] |= (byte) (0x80 >>> bitPosition);
+        }
+        advance(1);
+    }
+
+    /**
+     * Writes the lowest bits of the value
+     *
+     * @param value   the value to write
+     * @param numBits the number of bits to write, 0 to 64
+     */
+    public void writeBits(long value, int numBits) {
+        while (numBits > 0) {
+            ensureCapacity();
+            int free = 8 - bitPosition;
+            int take = Math.min(free, numBits);
+            int chunk = (int) (value >>> (numBits - take)) & ((1 << take) - 1);
+            bytes[bytePosition] |= (byte) (chunk << (free - take));
+            numBits -= take;
+            advance(take);
+        }
+    }
+
+    private void advance(int bits) {
+        bitPosition += bits;
+        if (bitPosition == 8) {
+            bitPosition = 0;
+            bytePosition++;
+        }
+    }
+
+    private void ensureCapacity() {
+        if (bytePosition == bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+    }
+
+    /**
+     * The number of whole bytes needed to hold what has been written so far
+     *
+     * @return length in bytes
+     */
+    public int byteLength() {
+        return bytePosition + (bitPosition > 0 ? 1 : 0);
+    }
+
+    /**
+     * Writes all bytes to the stream, padding the last byte with zeros, and resets the writer
+     *
+     * @param outputStream the stream to write to
+     * @throws IOException if the stream fails
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        int length = byteLength();
+        outputStream.write(bytes, 0, length);
+        Arrays.fill(bytes, 0, length, (byte) 0);
+        bytePosition = 0;
+        bitPosition = 0;
+    }
+}
@@ -0,0 +1,116 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The data a detector gathered over one window of a progressive authentication, moved out of the
+ * detector so it can keep gathering while the window is posted. Sensor samples stay in the buffer
+ * they were recorded in, which goes back to the detector with release() once the window is sent.
+ */
+public class DetectorWindow {
+    private static final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private static final int VALUE_OVERHEAD = 32;
+    private final String detectorName;
+    private final List<JsonArray> values;
+    private final SensorSampleBuffer samples;
+    private final DoubleBufferedSamples owner;
+
+    public DetectorWindow(@NonNull String detectorName, @NonNull List<JsonArray> values) {
+        this(detectorName, values, null, null);
+    }
+
+    /**
+     * Constructor for a window holding sensor samples
+     *
+     * @param detectorName the name the data is posted under
+     * @param values       the values the detector gathered
+     * @param samples      samples swapped out of owner, or null
+     * @param owner        the buffers the samples are given back to
+     */
+    public DetectorWindow(@NonNull String detectorName, @NonNull List<JsonArray> values, SensorSampleBuffer samples, DoubleBufferedSamples owner) {
+        this.detectorName = detectorName;
+        this.values = values;
+        this.samples = samples;
+        this.owner = owner;
+    }
+
+    public String detectorName() {
+        return detectorName;
+    }
+
+    /**
+     * The number of values and samples in the window
+     *
+     * @return size of the window
+     */
+    public int size() {
+        return values.size() + (samples == null ? 0 : samples.size());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Writes the window as a json array, in the same form as AbstractDetector.jsonData
+     *
+     * @param writer the stream written to
+     * @throws IOException if the stream fails
+     */
+    public void writeJson(@NonNull JsonWriter writer) throws IOException {
+        writer.beginArray();
+        writeValues(writer);
+        writer.endArray();
+    }
+
+    /**
+     * Writes the elements of the window, for joining several windows of a detector in one array
+     *
+     * @param writer the stream written to, inside an array
+     * @throws IOException if the stream fails
+     */
+    public void writeValues(@NonNull JsonWriter writer) throws IOException {
+        for (JsonArray value : values) {
+            gson.toJson(value, writer);
+        }
+        if (samples != null) {
+            for (int i = 0; i < samples.size(); i++) {
+                samples.writeJson(i, writer);
+            }
+        }
+    }
+
+    /**
+     * An estimate of the memory the window holds: the sample buffer and the values, counting
+     * every value as a small object with its strings
+     *
+     * @return bytes held by the window
+     */
+    public long memoryFootprint() {
+        long bytes = samples == null ? 0 : samples.memoryFootprint();
+        for (JsonArray value : values) {
+            bytes += VALUE_OVERHEAD;
+            for (int i = 0; i < value.size(); i++) {
+                bytes += VALUE_OVERHEAD + 2 * value.get(i).toString().length();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Gives the sample buffer back to the detector. The window must not be used afterwards.
+     */
+    public void release() {
+        if (samples != null && owner != null) {
+            owner.release(samples);
+        }
+    }
+}
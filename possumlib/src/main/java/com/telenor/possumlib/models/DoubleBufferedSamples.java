@@ -0,0 +1,77 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Pair of sample buffers so that storing never holds up the producer. Samples are added to the
+ * active buffer; a flush swaps it with the spare one in constant time and hands the full buffer to
+ * a writer, which gives it back with release() when it is persisted. Should the writer not have
+ * released the previous buffer yet, swap() creates a new one instead of waiting for it, while
+ * trySwap() refuses, so that no more than one buffer is ever waiting to be written.
+ * <p>
+ * swap() must be called from the thread adding samples, release() may be called from any thread.
+ */
+public class DoubleBufferedSamples {
+    private volatile SensorSampleBuffer active = new SensorSampleBuffer();
+    private SensorSampleBuffer spare = new SensorSampleBuffer();
+    private int pending;
+
+    /**
+     * The buffer samples are presently added to
+     *
+     * @return the active buffer
+     */
+    public SensorSampleBuffer active() {
+        return active;
+    }
+
+    /**
+     * Makes the spare buffer active and returns the one that was active, which now belongs to the
+     * caller until it is released
+     *
+     * @return the buffer holding the samples to store
+     */
+    public synchronized SensorSampleBuffer swap() {
+        SensorSampleBuffer full = active;
+        if (spare != null) {
+            active = spare;
+            spare = null;
+        } else {
+            active = new SensorSampleBuffer(full.capacity());
+        }
+        pending++;
+        return full;
+    }
+
+    /**
+     * Swaps like swap(), but only if the spare buffer is free, so no buffer is ever created
+     *
+     * @return the buffer holding the samples to store, or null if the previous one is not yet
+     * released
+     */
+    public synchronized SensorSampleBuffer trySwap() {
+        return spare != null ? swap() : null;
+    }
+
+    /**
+     * Returns a buffer given out by swap() once it is stored, so it can be reused
+     *
+     * @param buffer the stored buffer
+     */
+    public synchronized void release(@NonNull SensorSampleBuffer buffer) {
+        buffer.clear();
+        pending--;
+        if (spare == null) {
+            spare = buffer;
+        }
+    }
+
+    /**
+     * The number of swapped buffers that are not yet released, ie waiting to be or being written
+     *
+     * @return number of buffers queued for writing
+     */
+    public synchronized int pending() {
+        return pending;
+    }
+}
@@ -0,0 +1,153 @@
+package com.telenor.possumlib.models;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Decodes blocks written by GorillaEncoder. The decoder keeps the state between blocks, so one
+ * decoder must be used for all blocks of a stream, in order.
+ */
+public class GorillaDecoder {
+    private boolean started;
+    private long previousTimestamp;
+    private long previousDelta;
+    private final int[] previousValues = new int[GorillaEncoder.AXES];
+    private final int[] previousLeading = new int[GorillaEncoder.AXES];
+    private final int[] previousTrailing = new int[GorillaEncoder.AXES];
+    private final int[][] history = new int[GorillaEncoder.AXES][GorillaEncoder.HISTORY];
+    private final int[] historyPosition = new int[GorillaEncoder.AXES];
+    private byte[] block = new byte[1024];
+    private long bytesRead;
+
+    /**
+     * Reads the next block from the stream and appends its samples to the buffer
+     *
+     * @param inputStream the stream to read from
+     * @param samples     buffer the decoded samples are added to
+     * @return false if there are no more complete blocks in the stream, true otherwise
+     * @throws IOException if the stream fails or the block is corrupt
+     */
+    public boolean readBlock(DataInputStream inputStream, SensorSampleBuffer samples) throws IOException {
+        int count;
+        int length;
+        try {
+            count = inputStream.readInt();
+            length = inputStream.readInt();
+            if (count == 0) {
+                // Empty blocks are never written, this is the unwritten part of a mapped record
+                return false;
+            }
+            if (count < 0 || length < 0) {
+                throw new IOException("Corrupt block header");
+            }
+            if (block.length < length) {
+                block = new byte[length];
+            }
+            inputStream.readFully(block, 0, length);
+        } catch (EOFException e) {
+            // End of stream or a block that was only partly written
+            return false;
+        }
+        BitReader bits = new BitReader(block, length);
+        try {
+            for (int i = 0; i < count; i++) {
+                decode(bits, samples);
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException("Corrupt block", e);
+        }
+        bytesRead += 8 + length;
+        return true;
+    }
+
+    /**
+     * The size of the complete blocks read so far, headers included
+     *
+     * @return bytes read
+     */
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    private void decode(BitReader bits, SensorSampleBuffer samples) {
+        if (!started) {
+            previousTimestamp = bits.readBits(64);
+            previousDelta = 0;
+            for (int axis = 0; axis < GorillaEncoder.AXES; axis++) {
+                previousValues[axis] = (int) bits.readBits(32);
+                remember(axis);
+                previousLeading[axis] = -1;
+                previousTrailing[axis] = -1;
+            }
+            started = true;
+        } else {
+            decodeTimestamp(bits);
+            for (int axis = 0; axis < GorillaEncoder.AXES; axis++) {
+                decodeValue(bits, axis);
+            }
+        }
+        samples.add(previousTimestamp,
+                Float.intBitsToFloat(previousValues[0]),
+                Float.intBitsToFloat(previousValues[1]),
+                Float.intBitsToFloat(previousValues[2]));
+    }
+
+    private void decodeTimestamp(BitReader bits) {
+        long deltaOfDelta;
+        if (!bits.readBit()) {
+            deltaOfDelta = 0;
+        } else if (!bits.readBit()) {
+            deltaOfDelta = signed(bits.readBits(7), 7);
+        } else if (!bits.readBit()) {
+            deltaOfDelta = signed(bits.readBits(9), 9);
+        } else if (!bits.readBit()) {
+            deltaOfDelta = signed(bits.readBits(12), 12);
+        } else {
+            deltaOfDelta = bits.readBits(64);
+        }
+        previousDelta += deltaOfDelta;
+        previousTimestamp += previousDelta;
+    }
+
+    private static long signed(long value, int numBits) {
+        return (value << (64 - numBits)) >> (64 - numBits);
+    }
+
+    private void decodeValue(BitReader bits, int axis) {
+        if (!bits.readBit()) {
+            remember(axis);
+            return;
+        }
+        if (!bits.readBit()) {
+            previousValues[axis] = history[axis][(int) bits.readBits(GorillaEncoder.HISTORY_BITS)];
+            remember(axis);
+            return;
+        }
+        int xor;
+        if (!bits.readBit()) {
+            if (previousLeading[axis] < 0) {
+                throw new IllegalStateException("Missing window for value");
+            }
+            int meaningful = 32 - previousLeading[axis] - previousTrailing[axis];
+            xor = (int) bits.readBits(meaningful) << previousTrailing[axis];
+        } else {
+            int leading = (int) bits.readBits(5);
+            int meaningful = (int) bits.readBits(5) + 1;
+            int trailing = 32 - leading - meaningful;
+            if (trailing < 0) {
+                throw new IllegalStateException("Invalid window for value");
+            }
+            xor = (int) bits.readBits(meaningful) << trailing;
+            previousLeading[axis] = leading;
+            previousTrailing[axis] = trailing;
+        }
+        previousValues[axis] ^= xor;
+        remember(axis);
+    }
+
+    private void remember(int axis) {
+        history[axis][historyPosition[axis]] = previousValues[axis];
+        historyPosition[axis] = (historyPosition[axis] + 1) & (GorillaEncoder.HISTORY - 1);
+    }
+}
@@ -0,0 +1,154 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Streaming time series encoder in the style of Facebook's Gorilla. Timestamps are stored as
+ * delta-of-deltas, which for a regularly sampled sensor is mostly a single zero bit, and each axis
+ * is stored as the XOR against the previous value of the same axis, so that slowly changing
+ * readings only cost the few bits that actually differ. Sensors report quantized values, so a
+ * device at rest keeps alternating between a handful of levels; a small history of recent values
+ * per axis lets a repeat of any of them be stored as a short reference instead of a full XOR.
+ * <p>
+ * Samples are written in blocks: an int with the number of samples, an int with the number of
+ * bytes, then the encoded bits padded to a whole byte. State carries over between blocks, so the
+ * blocks of one stream must be decoded in order by a single GorillaDecoder.
+ */
+public class GorillaEncoder {
+    static final int AXES = 3;
+    static final int HISTORY_BITS = 3;
+    static final int HISTORY = 1 << HISTORY_BITS;
+    private final BitWriter bits = new BitWriter();
+    private boolean started;
+    private long previousTimestamp;
+    private long previousDelta;
+    private final int[] previousValues = new int[AXES];
+    private final int[] previousLeading = new int[AXES];
+    private final int[] previousTrailing = new int[AXES];
+    private final int[][] history = new int[AXES][HISTORY];
+    private final int[] historyPosition = new int[AXES];
+
+    /**
+     * The most bytes a block of the given number of samples can take: every sample encoded with
+     * the widest timestamp and value encodings, plus the block header
+     *
+     * @param samples number of samples in the block
+     * @return upper bound of the block size in bytes
+     */
+    public static int maxBlockSize(int samples) {
+        long firstSampleBits = 64 + AXES * 32;
+        long sampleBits = 4 + 64 + AXES * (3 + 5 + 5 + 32);
+        return (int) (4 + 4 + (firstSampleBits + samples * sampleBits + 7) / 8);
+    }
+
+    /**
+     * Encodes all samples in the buffer as one block and writes it to the stream
+     *
+     * @param samples      the samples to encode, the buffer is not cleared
+     * @param outputStream the stream the block is written to
+     * @throws IOException if the stream fails
+     */
+    public void writeBlock(@NonNull SensorSampleBuffer samples, @NonNull DataOutputStream outputStream) throws IOException {
+        if (samples.isEmpty()) return;
+        for (int i = 0; i < samples.size(); i++) {
+            encode(samples.timestamp(i), samples.x(i), samples.y(i), samples.z(i));
+        }
+        outputStream.writeInt(samples.size());
+        outputStream.writeInt(bits.byteLength());
+        bits.writeTo(outputStream);
+    }
+
+    private void encode(long timestamp, float x, float y, float z) {
+        if (!started) {
+            bits.writeBits(timestamp, 64);
+            previousTimestamp = timestamp;
+            previousDelta = 0;
+            storeFirstValue(0, x);
+            storeFirstValue(1, y);
+            storeFirstValue(2, z);
+            started = true;
+            return;
+        }
+        encodeTimestamp(timestamp);
+        encodeValue(0, x);
+        encodeValue(1, y);
+        encodeValue(2, z);
+    }
+
+    private void storeFirstValue(int axis, float value) {
+        int valueBits = Float.floatToIntBits(value);
+        bits.writeBits(valueBits, 32);
+        previousValues[axis] = valueBits;
+        remember(axis, valueBits);
+        previousLeading[axis] = -1;
+        previousTrailing[axis] = -1;
+    }
+
+    private void encodeTimestamp(long timestamp) {
+        long delta = timestamp - previousTimestamp;
+        long deltaOfDelta = delta - previousDelta;
+        if (deltaOfDelta == 0) {
+            bits.writeBit(false);
+        } else if (deltaOfDelta >= -64 && deltaOfDelta < 64) {
+            bits.writeBits(0x2, 2);
+            bits.writeBits(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -256 && deltaOfDelta < 256) {
+            bits.writeBits(0x6, 3);
+            bits.writeBits(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2048 && deltaOfDelta < 2048) {
+            bits.writeBits(0xE, 4);
+            bits.writeBits(deltaOfDelta, 12);
+        } else {
+            bits.writeBits(0xF, 4);
+            bits.writeBits(deltaOfDelta, 64);
+        }
+        previousDelta = delta;
+        previousTimestamp = timestamp;
+    }
+
+    private void encodeValue(int axis, float value) {
+        int valueBits = Float.floatToIntBits(value);
+        int xor = valueBits ^ previousValues[axis];
+        previousValues[axis] = valueBits;
+        if (xor == 0) {
+            bits.writeBit(false);
+            remember(axis, valueBits);
+            return;
+        }
+        bits.writeBit(true);
+        int[] recent = history[axis];
+        for (int slot = 0; slot < HISTORY; slot++) {
+            if (recent[slot] == valueBits) {
+                bits.writeBit(false);
+                bits.writeBits(slot, HISTORY_BITS);
+                remember(axis, valueBits);
+                return;
+            }
+        }
+        bits.writeBit(true);
+        remember(axis, valueBits);
+        int leading = Integer.numberOfLeadingZeros(xor);
+        int trailing = Integer.numberOfTrailingZeros(xor);
+        if (previousLeading[axis] >= 0 && leading >= previousLeading[axis] && trailing >= previousTrailing[axis]) {
+            // Fits within the previous window of meaningful bits, reuse it
+            bits.writeBit(false);
+            bits.writeBits(xor >>> previousTrailing[axis], 32 - previousLeading[axis] - previousTrailing[axis]);
+        } else {
+            int meaningful = 32 - leading - trailing;
+            bits.writeBit(true);
+            bits.writeBits(leading, 5);
+            bits.writeBits(meaningful - 1, 5);
+            bits.writeBits(xor >>> trailing, meaningful);
+            previousLeading[axis] = leading;
+            previousTrailing[axis] = trailing;
+        }
+    }
+
+    private void remember(int axis, int valueBits) {
+        history[axis][historyPosition[axis]] = valueBits;
+        historyPosition[axis] = (historyPosition[axis] + 1) & (HISTORY - 1);
+    }
+}
@@ -0,0 +1,31 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a sensor record where the frames are compressed with GorillaEncoder instead of being
+ * stored at fixed width. Uses the same header as SensorRecordWriter with CODEC_GORILLA, and each
+ * write adds one encoded block.
+ */
+public class GorillaRecordWriter extends SensorRecordWriter {
+    private final GorillaEncoder encoder = new GorillaEncoder();
+
+    public GorillaRecordWriter(@NonNull OutputStream outputStream, int detectorType, int sampleRate, long clockBase) throws IOException {
+        super(outputStream, CODEC_GORILLA, detectorType, sampleRate, clockBase);
+    }
+
+    @Override
+    public int maxWriteSize(int samples) {
+        return GorillaEncoder.maxBlockSize(samples);
+    }
+
+    @Override
+    public void write(@NonNull SensorSampleBuffer samples) throws IOException {
+        encoder.writeBlock(samples, stream());
+        addFrames(samples.size());
+        stream().flush();
+    }
+}
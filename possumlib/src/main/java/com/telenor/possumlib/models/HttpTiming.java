@@ -0,0 +1,73 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Where the time of one http request went, in milliseconds: resolving the host, opening the
+ * connection (tcp and, for https, the tls handshake; close to nothing when a pooled keep-alive
+ * connection is reused), writing the request, waiting for the first byte of the response and
+ * reading the rest of it.
+ */
+public class HttpTiming {
+    private long dns;
+    private long connect;
+    private long send;
+    private long firstByte;
+    private long receive;
+
+    public HttpTiming() {
+    }
+
+    public HttpTiming(long dns, long connect, long send, long firstByte, long receive) {
+        this.dns = dns;
+        this.connect = connect;
+        this.send = send;
+        this.firstByte = firstByte;
+        this.receive = receive;
+    }
+
+    public long dns() {
+        return dns;
+    }
+
+    public long connect() {
+        return connect;
+    }
+
+    public long send() {
+        return send;
+    }
+
+    /**
+     * Time from the request being written until the response status arrived
+     *
+     * @return time to first byte in milliseconds
+     */
+    public long firstByte() {
+        return firstByte;
+    }
+
+    public long receive() {
+        return receive;
+    }
+
+    public long total() {
+        return dns + connect + send + firstByte + receive;
+    }
+
+    public JsonObject toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("dns", dns);
+        object.addProperty("connect", connect);
+        object.addProperty("send", send);
+        object.addProperty("firstByte", firstByte);
+        object.addProperty("receive", receive);
+        object.addProperty("total", total());
+        return object;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+}
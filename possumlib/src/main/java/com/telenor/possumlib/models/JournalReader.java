@@ -0,0 +1,118 @@
+package com.telenor.possumlib.models;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the records of a journal written by JournalWriter. Reading stops at the first record that
+ * is cut short or does not match its checksum, since nothing after it can be trusted, so whatever
+ * happened to the writer only the complete records are returned.
+ */
+public class JournalReader implements Closeable {
+    private final DataInputStream in;
+    private final CRC32 crc = new CRC32();
+    private byte[] record = new byte[1024];
+    private int recordLength;
+    private long validLength;
+    private boolean damaged;
+
+    /**
+     * Constructor for the journal reader, reads and checks the header
+     *
+     * @param inputStream stream with the journal
+     * @throws IOException if the stream is not a journal or the version is not supported
+     */
+    public JournalReader(InputStream inputStream) throws IOException {
+        in = new DataInputStream(inputStream);
+        byte[] magic = new byte[JournalWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, JournalWriter.MAGIC)) {
+            throw new IOException("Not a journal");
+        }
+        int version = in.readUnsignedByte();
+        if (version > JournalWriter.VERSION) {
+            throw new IOException("Unsupported journal version:" + version);
+        }
+        validLength = JournalWriter.HEADER_SIZE;
+    }
+
+    /**
+     * Moves to the next complete record
+     *
+     * @return true if there is a record, false at the end of the journal or at a damaged record
+     * @throws IOException if the stream fails
+     */
+    public boolean next() throws IOException {
+        if (damaged) return false;
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length < 0 || length > JournalWriter.MAX_RECORD_SIZE) {
+                damaged = true;
+                return false;
+            }
+            if (record.length < length) {
+                record = new byte[length];
+            }
+            in.readFully(record, 0, length);
+            crc.reset();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                damaged = true;
+                return false;
+            }
+            recordLength = length;
+            validLength += JournalWriter.RECORD_OVERHEAD + length;
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The payload of the present record. Only valid until next() is called.
+     *
+     * @return buffer holding the payload from index 0
+     */
+    public byte[] record() {
+        return record;
+    }
+
+    /**
+     * Length of the payload of the present record
+     *
+     * @return number of bytes in record()
+     */
+    public int recordLength() {
+        return recordLength;
+    }
+
+    /**
+     * The number of bytes from the start of the journal up to and including the last complete
+     * record read
+     *
+     * @return length of the valid part of the journal
+     */
+    public long validLength() {
+        return validLength;
+    }
+
+    /**
+     * Whether reading stopped at a record that did not match its checksum
+     *
+     * @return true if a damaged record was found
+     */
+    public boolean isDamaged() {
+        return damaged;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,117 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal that survives the process being killed at any point. The file starts with
+ * <pre>
+ * magic          4 bytes  "APSJ"
+ * version        1 byte
+ * </pre>
+ * followed by records: an int with the payload length, an int with the CRC32 of the payload, then
+ * the payload. Each record is handed to the operating system as soon as it is appended, so a
+ * killed process loses nothing already appended. At most every checkpointInterval milliseconds the
+ * file is also synced to disk, bounding what a power loss can take. A record cut short or
+ * corrupted is detected by JournalReader, which stops at the last complete one.
+ */
+public class JournalWriter implements Closeable {
+    public static final byte[] MAGIC = new byte[]{'A', 'P', 'S', 'J'};
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 4 + 1;
+    public static final int RECORD_OVERHEAD = 4 + 4;
+    public static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private final FileOutputStream fileStream;
+    private final DataOutputStream out;
+    private final CRC32 crc = new CRC32();
+    private final long checkpointInterval;
+    private long lastCheckpoint;
+    private long length;
+    private int records;
+    private int checkpoints;
+
+    /**
+     * Creates a new journal, replacing the file if it exists
+     *
+     * @param file               the file to write the journal to
+     * @param checkpointInterval the longest time in milliseconds between syncs to disk, 0 to sync
+     *                           on every record
+     * @throws IOException if the file cannot be written
+     */
+    public JournalWriter(@NonNull File file, long checkpointInterval) throws IOException {
+        this.checkpointInterval = checkpointInterval;
+        fileStream = new FileOutputStream(file);
+        out = new DataOutputStream(new BufferedOutputStream(fileStream));
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        length = HEADER_SIZE;
+        checkpoint();
+    }
+
+    /**
+     * Appends a record to the journal
+     *
+     * @param data   the payload
+     * @param offset start of the payload in data
+     * @param count  number of bytes in the payload, at most MAX_RECORD_SIZE
+     * @throws IOException if the write fails
+     */
+    public void append(@NonNull byte[] data, int offset, int count) throws IOException {
+        if (count > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Record too large:" + count);
+        }
+        crc.reset();
+        crc.update(data, offset, count);
+        out.writeInt(count);
+        out.writeInt((int) crc.getValue());
+        out.write(data, offset, count);
+        out.flush();
+        length += RECORD_OVERHEAD + count;
+        records++;
+        if (System.currentTimeMillis() - lastCheckpoint >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Syncs everything appended so far to disk
+     *
+     * @throws IOException if the sync fails
+     */
+    public void checkpoint() throws IOException {
+        out.flush();
+        fileStream.getFD().sync();
+        lastCheckpoint = System.currentTimeMillis();
+        checkpoints++;
+    }
+
+    /**
+     * The number of bytes in the journal
+     *
+     * @return length of the journal file
+     */
+    public long length() {
+        return length;
+    }
+
+    public int records() {
+        return records;
+    }
+
+    public int checkpoints() {
+        return checkpoints;
+    }
+
+    @Override
+    public void close() throws IOException {
+        checkpoint();
+        out.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Output stream writing straight into a memory mapped region of a file. The region is allocated
+ * up front, so writing is a copy into memory with no system call, and the operating system writes
+ * the pages back even if the process is killed. The position works as the size of what is
+ * written. On close the file is cut to the position. Like a file stream it does not sync to disk
+ * on close, call force() for that.
+ * <p>
+ * The region never grows: a write that does not fit throws an IOException without writing
+ * anything, so check remaining() first.
+ */
+public class MappedOutputStream extends OutputStream {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private boolean closed;
+
+    /**
+     * Creates the file, replacing it if it exists, and maps a region of it
+     *
+     * @param file     the file to write
+     * @param capacity the size of the region in bytes
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public MappedOutputStream(@NonNull File file, int capacity) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.file.setLength(capacity);
+        channel = this.file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        try {
+            buffer.put((byte) b);
+        } catch (BufferOverflowException e) {
+            throw new IOException("Mapped region is full");
+        }
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        if (len > buffer.remaining()) {
+            throw new IOException("Mapped region is full");
+        }
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * The number of bytes written, ie the size of the file once closed
+     *
+     * @return position in the region
+     */
+    public long position() {
+        return buffer.position();
+    }
+
+    /**
+     * The number of bytes that can still be written
+     *
+     * @return bytes left in the region
+     */
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Writes the region back to the file. Not needed to keep data if the process dies, only if the
+     * device does.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            channel.truncate(buffer.position());
+        } finally {
+            file.close();
+        }
+    }
+}
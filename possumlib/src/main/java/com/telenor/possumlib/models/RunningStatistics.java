@@ -0,0 +1,84 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Keeps count, total, min, max and last of a series of measurements without storing them, so it
+ * can be used as a metric on hot paths. Safe to update from one thread and read from others.
+ */
+public class RunningStatistics {
+    private long count;
+    private long total;
+    private long min;
+    private long max;
+    private long last;
+
+    /**
+     * Adds a measurement to the statistics
+     *
+     * @param value the measured value
+     */
+    public synchronized void add(long value) {
+        if (count == 0 || value < min) min = value;
+        if (count == 0 || value > max) max = value;
+        count++;
+        total += value;
+        last = value;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized long total() {
+        return total;
+    }
+
+    public synchronized long min() {
+        return min;
+    }
+
+    public synchronized long max() {
+        return max;
+    }
+
+    public synchronized long last() {
+        return last;
+    }
+
+    /**
+     * The average of all measurements
+     *
+     * @return the mean, or 0 if nothing has been measured
+     */
+    public synchronized double mean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * Forgets all measurements
+     */
+    public synchronized void reset() {
+        count = 0;
+        total = 0;
+        min = 0;
+        max = 0;
+        last = 0;
+    }
+
+    /**
+     * Compact json form of the statistics
+     *
+     * @return jsonObject with count, total, min, max, last and mean
+     */
+    public synchronized JsonObject toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("count", count);
+        object.addProperty("total", total);
+        object.addProperty("min", min);
+        object.addProperty("max", max);
+        object.addProperty("last", last);
+        object.addProperty("mean", mean());
+        return object;
+    }
+}
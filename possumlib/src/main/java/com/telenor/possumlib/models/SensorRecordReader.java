@@ -0,0 +1,166 @@
+package com.telenor.possumlib.models;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decodes records written by SensorRecordWriter. It only depends on plain java and gson so it can
+ * be used as is on the backend, either through read() or by running main() with the record files
+ * as arguments, which prints the samples in the same line format the text files use.
+ */
+public class SensorRecordReader {
+    private final int version;
+    private final int codec;
+    private final int detectorType;
+    private final int sampleRate;
+    private final long clockBase;
+    private final SensorSampleBuffer samples;
+    private final long length;
+
+    private SensorRecordReader(int version, int codec, int detectorType, int sampleRate, long clockBase, SensorSampleBuffer samples, long length) {
+        this.version = version;
+        this.codec = codec;
+        this.detectorType = detectorType;
+        this.sampleRate = sampleRate;
+        this.clockBase = clockBase;
+        this.samples = samples;
+        this.length = length;
+    }
+
+    /**
+     * Reads an entire record from the stream. A truncated last frame is ignored, and so is the
+     * zero filled tail of a memory mapped record that was never closed: an all zero frame is
+     * always taken as the end of the data, as is a block of no samples.
+     *
+     * @param inputStream stream positioned at the start of a record
+     * @return the decoded record
+     * @throws IOException if the stream fails or it is not a known record
+     */
+    public static SensorRecordReader read(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        byte[] magic = new byte[SensorRecordWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, SensorRecordWriter.MAGIC)) {
+            throw new IOException("Not a sensor record");
+        }
+        int version = in.readUnsignedByte();
+        if (version > SensorRecordWriter.VERSION) {
+            throw new IOException("Unsupported record version:" + version);
+        }
+        int codec = in.readUnsignedByte();
+        int detectorType = in.readInt();
+        int sampleRate = in.readInt();
+        long clockBase = in.readLong();
+        SensorSampleBuffer samples = new SensorSampleBuffer();
+        long length = SensorRecordWriter.HEADER_SIZE;
+        switch (codec) {
+            case SensorRecordWriter.CODEC_FRAMES:
+                readFrames(in, clockBase, samples);
+                length += (long) samples.size() * SensorRecordWriter.FRAME_SIZE;
+                break;
+            case SensorRecordWriter.CODEC_GORILLA:
+                GorillaDecoder decoder = new GorillaDecoder();
+                //noinspection StatementWithEmptyBody
+                while (decoder.readBlock(in, samples)) {
+                }
+                length += decoder.bytesRead();
+                break;
+            default:
+                throw new IOException("Unsupported codec:" + codec);
+        }
+        return new SensorRecordReader(version, codec, detectorType, sampleRate, clockBase, samples, length);
+    }
+
+    private static void readFrames(DataInputStream in, long clockBase, SensorSampleBuffer samples) throws IOException {
+        byte[] frame = new byte[SensorRecordWriter.FRAME_SIZE];
+        while (true) {
+            try {
+                in.readFully(frame);
+            } catch (EOFException e) {
+                return;
+            }
+            if (isZero(frame)) {
+                // The unwritten part of a mapped file, even before the first frame. Only a first
+                // sample at clockBase reading exactly 0 on every axis could look the same.
+                return;
+            }
+            samples.add(clockBase + readInt(frame, 0),
+                    Float.intBitsToFloat(readInt(frame, 4)),
+                    Float.intBitsToFloat(readInt(frame, 8)),
+                    Float.intBitsToFloat(readInt(frame, 12)));
+        }
+    }
+
+    private static boolean isZero(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public int codec() {
+        return codec;
+    }
+
+    public int detectorType() {
+        return detectorType;
+    }
+
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    public long clockBase() {
+        return clockBase;
+    }
+
+    public SensorSampleBuffer samples() {
+        return samples;
+    }
+
+    /**
+     * The size of the record up to the end of its last complete frame or block, which a record
+     * cut short or left with the zero filled tail of a mapped region can be truncated to
+     *
+     * @return bytes of the record holding data, header included
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Prints the samples of the given record files to standard out, one json array per line
+     *
+     * @param args paths to record files
+     * @throws IOException if a file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (String path : args) {
+            InputStream inputStream = new BufferedInputStream(new FileInputStream(path));
+            try {
+                SensorSampleBuffer samples = read(inputStream).samples();
+                for (int i = 0; i < samples.size(); i++) {
+                    builder.setLength(0);
+                    samples.appendJson(i, builder);
+                    System.out.println(builder);
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+}
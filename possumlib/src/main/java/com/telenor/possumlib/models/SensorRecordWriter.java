@@ -0,0 +1,117 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes sensor samples in the binary record format. The record starts with a header:
+ * <pre>
+ * magic          4 bytes  "APSR"
+ * version        1 byte
+ * codec          1 byte   CODEC_FRAMES or CODEC_GORILLA
+ * detectorType   int
+ * sampleRate     int      samples per second requested from the sensor
+ * clockBase      long     epoch millis all frame timestamps are relative to
+ * </pre>
+ * followed by fixed width frames of 16 bytes each: an int with milliseconds since clockBase and
+ * the x, y and z values as floats. All values are big endian. With CODEC_GORILLA the frames are
+ * replaced by blocks from GorillaEncoder, see GorillaRecordWriter. Use SensorRecordReader to decode.
+ */
+public class SensorRecordWriter implements Closeable {
+    public static final byte[] MAGIC = new byte[]{'A', 'P', 'S', 'R'};
+    public static final int VERSION = 1;
+    public static final int CODEC_FRAMES = 0;
+    public static final int CODEC_GORILLA = 1;
+    public static final int HEADER_SIZE = 4 + 1 + 1 + 4 + 4 + 8;
+    public static final int FRAME_SIZE = 4 + 3 * 4;
+    private final DataOutputStream out;
+    private final long clockBase;
+    private long frames;
+    private ByteBuffer frameBuffer;
+
+    /**
+     * Constructor for the writer, writes the header to the stream immediately
+     *
+     * @param outputStream the stream to write to. Should be buffered.
+     * @param detectorType the detector type of the samples
+     * @param sampleRate   samples per second
+     * @param clockBase    epoch millis the frame timestamps are relative to
+     * @throws IOException if unable to write the header
+     */
+    public SensorRecordWriter(@NonNull OutputStream outputStream, int detectorType, int sampleRate, long clockBase) throws IOException {
+        this(outputStream, CODEC_FRAMES, detectorType, sampleRate, clockBase);
+    }
+
+    protected SensorRecordWriter(@NonNull OutputStream outputStream, int codec, int detectorType, int sampleRate, long clockBase) throws IOException {
+        out = new DataOutputStream(outputStream);
+        this.clockBase = clockBase;
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(codec);
+        out.writeInt(detectorType);
+        out.writeInt(sampleRate);
+        out.writeLong(clockBase);
+    }
+
+    /**
+     * Writes all samples in the buffer as frames and flushes the stream. Does not clear the buffer.
+     *
+     * @param samples the samples to write
+     * @throws IOException if the stream fails
+     */
+    public void write(@NonNull SensorSampleBuffer samples) throws IOException {
+        int length = samples.size() * FRAME_SIZE;
+        if (frameBuffer == null || frameBuffer.capacity() < length) {
+            frameBuffer = ByteBuffer.allocate(length);
+        }
+        frameBuffer.clear();
+        for (int i = 0; i < samples.size(); i++) {
+            frameBuffer.putInt((int) (samples.timestamp(i) - clockBase));
+            frameBuffer.putFloat(samples.x(i));
+            frameBuffer.putFloat(samples.y(i));
+            frameBuffer.putFloat(samples.z(i));
+        }
+        // All frames in one write, so the stream below sees a single copy instead of one per field
+        out.write(frameBuffer.array(), 0, length);
+        addFrames(samples.size());
+        out.flush();
+    }
+
+    /**
+     * The most bytes writing the given number of samples can take, for writing to a stream of
+     * limited size such as MappedOutputStream
+     *
+     * @param samples number of samples
+     * @return upper bound of bytes written
+     */
+    public int maxWriteSize(int samples) {
+        return samples * FRAME_SIZE;
+    }
+
+    protected void addFrames(int count) {
+        frames += count;
+    }
+
+    protected DataOutputStream stream() {
+        return out;
+    }
+
+    /**
+     * The number of frames written since the writer was created
+     *
+     * @return number of frames
+     */
+    public long frames() {
+        return frames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,181 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonArray;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Growable columnar buffer for three axis sensor samples (timestamp, x, y, z). Samples are kept
+ * in primitive arrays so that recording one does not allocate, and clearing the buffer keeps the
+ * arrays so they are reused for the next batch. Json is only produced when asked for.
+ */
+public class SensorSampleBuffer {
+    /**
+     * Bytes needed to hold one sample: a long timestamp and three floats
+     */
+    public static final int BYTES_PER_SAMPLE = 8 + 3 * 4;
+    private static final int DEFAULT_CAPACITY = 64;
+    private long[] timestamps;
+    private float[] x;
+    private float[] y;
+    private float[] z;
+    private int size;
+    private int growths;
+
+    public SensorSampleBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for the sample buffer
+     *
+     * @param initialCapacity the number of samples it can hold before it needs to grow
+     */
+    public SensorSampleBuffer(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        timestamps = new long[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        z = new float[capacity];
+    }
+
+    /**
+     * Appends a sample to the buffer, growing it if it is full
+     *
+     * @param timestamp the timestamp of the sample
+     * @param valueX    the first axis value
+     * @param valueY    the second axis value
+     * @param valueZ    the third axis value
+     */
+    public void add(long timestamp, float valueX, float valueY, float valueZ) {
+        if (size == timestamps.length) {
+            grow();
+        }
+        timestamps[size] = timestamp;
+        x[size] = valueX;
+        y[size] = valueY;
+        z[size] = valueZ;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = timestamps.length + (timestamps.length >> 1) + 1;
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        growths++;
+    }
+
+    public long timestamp(int index) {
+        return timestamps[index];
+    }
+
+    public float x(int index) {
+        return x[index];
+    }
+
+    public float y(int index) {
+        return y[index];
+    }
+
+    public float z(int index) {
+        return z[index];
+    }
+
+    /**
+     * The number of samples presently in the buffer
+     *
+     * @return number of samples
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The number of samples the buffer can hold before it must grow
+     *
+     * @return capacity in samples
+     */
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * The number of times the buffer has had to reallocate its arrays. Once the buffer has reached
+     * its working size this should stay constant, meaning no allocations per sample.
+     *
+     * @return number of reallocations since creation
+     */
+    public int growths() {
+        return growths;
+    }
+
+    /**
+     * Bytes held by the sample arrays, regardless of how many samples are stored
+     *
+     * @return memory used by the buffer in bytes
+     */
+    public long memoryFootprint() {
+        return (long) capacity() * BYTES_PER_SAMPLE;
+    }
+
+    /**
+     * Empties the buffer while keeping the allocated arrays
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Appends the sample as a line in the same format a JsonArray of strings would have, ie
+     * ["timestamp","x","y","z"], without creating any intermediate json objects.
+     *
+     * @param index   the sample to write
+     * @param builder the builder to append to
+     */
+    public void appendJson(int index, StringBuilder builder) {
+        builder.append("[\"").append(timestamps[index])
+                .append("\",\"").append(x[index])
+                .append("\",\"").append(y[index])
+                .append("\",\"").append(z[index])
+                .append("\"]");
+    }
+
+    /**
+     * Writes the sample to a json stream, the same way as toJsonArray but without building it
+     *
+     * @param index  the sample you want
+     * @param writer the stream written to
+     * @throws IOException if the stream fails
+     */
+    public void writeJson(int index, JsonWriter writer) throws IOException {
+        writer.beginArray();
+        writer.value("" + timestamps[index]);
+        writer.value("" + x[index]);
+        writer.value("" + y[index]);
+        writer.value("" + z[index]);
+        writer.endArray();
+    }
+
+    /**
+     * Creates a json representation of the sample, used at the serialization boundary
+     *
+     * @param index the sample you want
+     * @return a jsonArray with timestamp, x, y and z as strings
+     */
+    public JsonArray toJsonArray(int index) {
+        JsonArray array = new JsonArray();
+        array.add("" + timestamps[index]);
+        array.add("" + x[index]);
+        array.add("" + y[index]);
+        array.add("" + z[index]);
+        return array;
+    }
+}
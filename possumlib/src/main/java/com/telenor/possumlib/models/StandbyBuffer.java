@@ -0,0 +1,153 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring of the most recent data of the standby detectors, kept in chunks of one cut from every
+ * detector. Chunks older than the window are dropped, and so are the oldest chunks while the
+ * memory held is over the budget, giving back their sample buffers.
+ */
+public class StandbyBuffer {
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private final long windowMilli;
+    private final long memoryBudget;
+    private long bytes;
+    private long peakBytes;
+    private int evictedForMemory;
+
+    /**
+     * Constructor for the ring
+     *
+     * @param windowMilli  how far back data is kept
+     * @param memoryBudget the most bytes the data may hold
+     */
+    public StandbyBuffer(long windowMilli, long memoryBudget) {
+        if (windowMilli <= 0 || memoryBudget <= 0) {
+            throw new IllegalArgumentException("Invalid standby buffer:" + windowMilli + ", " + memoryBudget);
+        }
+        this.windowMilli = windowMilli;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Adds the windows cut from the detectors, dropping what no longer fits
+     *
+     * @param windows the windows, one for every detector
+     * @param start   when the data of the windows started, in milliseconds
+     * @param end     when the windows were cut, in milliseconds
+     */
+    public synchronized void add(@NonNull List<DetectorWindow> windows, long start, long end) {
+        Chunk chunk = new Chunk(windows, start, end);
+        chunks.addLast(chunk);
+        bytes += chunk.bytes;
+        peakBytes = Math.max(peakBytes, bytes);
+        while (!chunks.isEmpty() && chunks.peekFirst().end <= end - windowMilli) {
+            evictFirst();
+        }
+        while (!chunks.isEmpty() && bytes > memoryBudget) {
+            evictFirst();
+            evictedForMemory++;
+        }
+    }
+
+    private void evictFirst() {
+        Chunk chunk = chunks.removeFirst();
+        bytes -= chunk.bytes;
+        for (DetectorWindow window : chunk.windows) {
+            window.release();
+        }
+    }
+
+    /**
+     * How much time the data held covers
+     *
+     * @param now the present time in milliseconds
+     * @return milliseconds from the start of the oldest chunk, capped at the window
+     */
+    public synchronized long coverage(long now) {
+        if (chunks.isEmpty()) return 0;
+        return Math.min(windowMilli, Math.max(0, now - chunks.peekFirst().start));
+    }
+
+    /**
+     * Takes all the data held, oldest first, leaving the ring empty. The caller must release the
+     * windows.
+     *
+     * @return the windows of every chunk
+     */
+    public synchronized List<DetectorWindow> drain() {
+        List<DetectorWindow> windows = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            windows.addAll(chunk.windows);
+        }
+        chunks.clear();
+        bytes = 0;
+        return windows;
+    }
+
+    /**
+     * Drops all the data held
+     */
+    public synchronized void clear() {
+        while (!chunks.isEmpty()) {
+            evictFirst();
+        }
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public long memoryBudget() {
+        return memoryBudget;
+    }
+
+    public long windowMilli() {
+        return windowMilli;
+    }
+
+    /**
+     * The number of chunks dropped before their time because the budget was exceeded
+     *
+     * @return chunks evicted for memory
+     */
+    public synchronized int evictedForMemory() {
+        return evictedForMemory;
+    }
+
+    public synchronized JsonObject toJson(long now) {
+        JsonObject object = new JsonObject();
+        object.addProperty("windowMilli", windowMilli);
+        object.addProperty("coverage", coverage(now));
+        object.addProperty("chunks", chunks.size());
+        object.addProperty("bytes", bytes);
+        object.addProperty("peakBytes", peakBytes);
+        object.addProperty("memoryBudget", memoryBudget);
+        object.addProperty("evictedForMemory", evictedForMemory);
+        return object;
+    }
+
+    private static class Chunk {
+        private final List<DetectorWindow> windows;
+        private final long start;
+        private final long end;
+        private final long bytes;
+
+        private Chunk(List<DetectorWindow> windows, long start, long end) {
+            this.windows = new ArrayList<>(windows);
+            this.start = start;
+            this.end = end;
+            long total = 0;
+            for (DetectorWindow window : windows) {
+                total += window.memoryFootprint();
+            }
+            this.bytes = total;
+        }
+    }
+}
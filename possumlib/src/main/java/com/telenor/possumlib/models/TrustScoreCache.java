@@ -0,0 +1,223 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.telenor.possumlib.constants.TrustScoreState;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The last trust score of every user, and the authentications running for them. A score younger
+ * than the time to live is fresh and answers an authentication without running it. An older score
+ * is stale: it is still given until it is older than the max staleness, but a new authentication
+ * is started to replace it. An authentication asked for while one is running for the user joins
+ * it instead of starting another, until it finishes or is older than the in-flight timeout, in
+ * case its end was never heard of.
+ * <p>
+ * The scores are copied on the way in and on the way out, since the ones given are shared with
+ * the trust listeners and marked with their age.
+ */
+public class TrustScoreCache {
+    public static final long DEFAULT_TTL_MILLI = 2 * 60 * 1000;
+    public static final long DEFAULT_MAX_STALE_MILLI = 30 * 60 * 1000;
+    private final Map<String, Entry> scores = new HashMap<>();
+    private final Map<String, Long> inFlight = new HashMap<>();
+    private long ttlMilli;
+    private long maxStaleMilli;
+    private long inFlightTimeout;
+    private int hits;
+    private int staleHits;
+    private int misses;
+    private int forced;
+    private int joined;
+
+    /**
+     * Constructor for the cache
+     *
+     * @param ttlMilli        how long a score is fresh
+     * @param maxStaleMilli   how long a score is given at all, at least the time to live
+     * @param inFlightTimeout how long a running authentication is joined at most
+     */
+    public TrustScoreCache(long ttlMilli, long maxStaleMilli, long inFlightTimeout) {
+        setPolicy(ttlMilli, maxStaleMilli);
+        setInFlightTimeout(inFlightTimeout);
+    }
+
+    /**
+     * Changes how long scores are fresh and given, for the scores already held too
+     *
+     * @param ttlMilli      how long a score is fresh
+     * @param maxStaleMilli how long a score is given at all, at least the time to live
+     */
+    public synchronized void setPolicy(long ttlMilli, long maxStaleMilli) {
+        if (ttlMilli < 0 || maxStaleMilli < ttlMilli) {
+            throw new IllegalArgumentException("Invalid trust score cache:" + ttlMilli + ", " + maxStaleMilli);
+        }
+        this.ttlMilli = ttlMilli;
+        this.maxStaleMilli = maxStaleMilli;
+    }
+
+    public synchronized void setInFlightTimeout(long inFlightTimeout) {
+        if (inFlightTimeout <= 0) {
+            throw new IllegalArgumentException("Invalid in-flight timeout:" + inFlightTimeout);
+        }
+        this.inFlightTimeout = inFlightTimeout;
+    }
+
+    /**
+     * How old the score of a user is
+     *
+     * @param uniqueUserId the user
+     * @param now          the present time in milliseconds
+     * @return a constant from TrustScoreState
+     */
+    public synchronized int state(@NonNull String uniqueUserId, long now) {
+        Entry entry = scores.get(uniqueUserId);
+        if (entry == null) return TrustScoreState.MISSING;
+        long age = now - entry.received;
+        if (age < ttlMilli) return TrustScoreState.FRESH;
+        if (age < maxStaleMilli) return TrustScoreState.STALE;
+        return TrustScoreState.MISSING;
+    }
+
+    /**
+     * A copy of the score of a user, with its age and whether it is stale added
+     *
+     * @param uniqueUserId the user
+     * @param now          the present time in milliseconds
+     * @return the score, null if there is none or it is too old
+     */
+    @Nullable
+    public synchronized JsonObject get(@NonNull String uniqueUserId, long now) {
+        int state = state(uniqueUserId, now);
+        if (state == TrustScoreState.MISSING) return null;
+        JsonObject score = copy(scores.get(uniqueUserId).score);
+        score.addProperty("age", now - scores.get(uniqueUserId).received);
+        score.addProperty("stale", state == TrustScoreState.STALE);
+        return score;
+    }
+
+    /**
+     * Decides whether an authentication asked for must run, and if so marks it as running
+     *
+     * @param uniqueUserId the user
+     * @param now          the present time in milliseconds
+     * @param force        whether to run even if the score is fresh
+     * @return true if the authentication must be started, false if it is answered by the score or
+     * by the one running
+     */
+    public synchronized boolean startAuthentication(@NonNull String uniqueUserId, long now, boolean force) {
+        if (isInFlight(uniqueUserId, now)) {
+            joined++;
+            return false;
+        }
+        int state = state(uniqueUserId, now);
+        if (force) {
+            forced++;
+        } else if (state == TrustScoreState.FRESH) {
+            hits++;
+            return false;
+        } else if (state == TrustScoreState.STALE) {
+            staleHits++;
+        } else {
+            misses++;
+        }
+        inFlight.put(uniqueUserId, now);
+        return true;
+    }
+
+    /**
+     * Whether an authentication is running for a user
+     *
+     * @param uniqueUserId the user
+     * @param now          the present time in milliseconds
+     * @return true if an authentication started less than the in-flight timeout ago is running
+     */
+    public synchronized boolean isInFlight(@NonNull String uniqueUserId, long now) {
+        Long started = inFlight.get(uniqueUserId);
+        if (started == null) return false;
+        if (now - started >= inFlightTimeout) {
+            inFlight.remove(uniqueUserId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Ends the running authentication of a user, keeping a copy of its score
+     *
+     * @param uniqueUserId the user
+     * @param score        the score received, null if the authentication failed
+     * @param now          the present time in milliseconds
+     */
+    public synchronized void authenticationFinished(@NonNull String uniqueUserId, @Nullable JsonObject score, long now) {
+        inFlight.remove(uniqueUserId);
+        if (score != null) {
+            scores.put(uniqueUserId, new Entry(copy(score), now));
+        }
+    }
+
+    /**
+     * Removes the score of a user, as when the data of the user is reset
+     *
+     * @param uniqueUserId the user
+     */
+    public synchronized void invalidate(@NonNull String uniqueUserId) {
+        scores.remove(uniqueUserId);
+    }
+
+    /**
+     * The share of the authentications asked for, forced ones left out, that were answered by a
+     * score held, fresh or stale
+     *
+     * @return hit rate between 0 and 1, 0 if none were asked for
+     */
+    public synchronized double hitRate() {
+        int lookups = hits + staleHits + misses;
+        return lookups == 0 ? 0 : (double) (hits + staleHits) / lookups;
+    }
+
+    /**
+     * Gives the policy and how the authentications asked for were answered
+     *
+     * @return jsonObject with the policy, the counts and the hit rate
+     */
+    public synchronized JsonObject toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("ttl", ttlMilli);
+        object.addProperty("maxStale", maxStaleMilli);
+        object.addProperty("users", scores.size());
+        object.addProperty("inFlight", inFlight.size());
+        object.addProperty("hits", hits);
+        object.addProperty("staleHits", staleHits);
+        object.addProperty("misses", misses);
+        object.addProperty("forced", forced);
+        object.addProperty("joined", joined);
+        object.addProperty("hitRate", hitRate());
+        return object;
+    }
+
+    /**
+     * Copies a score through its json text, as this version of Gson has no public deepCopy
+     *
+     * @param score the score to copy
+     * @return a score sharing nothing with the one given
+     */
+    private static JsonObject copy(@NonNull JsonObject score) {
+        return new JsonParser().parse(score.toString()).getAsJsonObject();
+    }
+
+    private static class Entry {
+        private final JsonObject score;
+        private final long received;
+
+        private Entry(JsonObject score, long received) {
+            this.score = score;
+            this.received = received;
+        }
+    }
+}
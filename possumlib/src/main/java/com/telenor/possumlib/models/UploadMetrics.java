@@ -0,0 +1,217 @@
+package com.telenor.possumlib.models;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.utils.UploadIndex;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What one upload run did: for every file the bytes sent, the time from it being handed to the
+ * sink until it finished, how it ended and how many times it had failed before, and for the run
+ * the totals, the latency statistics and the effective throughput. Bytes are counted from the
+ * progress reports, which give the bytes sent so far of a file, so only the growth between two
+ * reports is added, or all of it when the count starts over. The per-file list keeps the first
+ * MAX_FILES files of the run.
+ */
+public class UploadMetrics {
+    public static final int MAX_FILES = 500;
+    private final Map<String, FileMetrics> inProgress = new HashMap<>();
+    private final Map<String, Integer> retries = new HashMap<>();
+    private final List<FileMetrics> files = new ArrayList<>();
+    private final RunningStatistics latency = new RunningStatistics();
+    private long started;
+    private long finished;
+    private long bytes;
+    private int completed;
+    private int failed;
+    private int canceled;
+    private int retriedFiles;
+
+    /**
+     * Records how many times a file had failed before this run
+     *
+     * @param file     the staged file
+     * @param attempts earlier failed attempts
+     */
+    public synchronized void retried(@NonNull File file, int attempts) {
+        if (attempts > 0) {
+            retries.put(file.getName(), attempts);
+        }
+    }
+
+    /**
+     * Records a file being handed to the sink
+     *
+     * @param file the staged file
+     * @param now  the present time in milliseconds
+     */
+    public synchronized void started(@NonNull File file, long now) {
+        if (started == 0) started = now;
+        FileMetrics metrics = new FileMetrics(file, now);
+        Integer attempts = retries.get(file.getName());
+        metrics.retries = attempts == null ? 0 : attempts;
+        inProgress.put(file.getName(), metrics);
+    }
+
+    /**
+     * Records a progress report, adding what was sent since the last one
+     *
+     * @param file         the staged file
+     * @param bytesCurrent bytes of the file sent so far in this upload
+     */
+    public synchronized void progress(@NonNull File file, long bytesCurrent) {
+        FileMetrics metrics = inProgress.get(file.getName());
+        if (metrics == null) return;
+        // A count going down means the upload started over, and what it sent since is new
+        long sent = bytesCurrent >= metrics.position ? bytesCurrent - metrics.position : bytesCurrent;
+        metrics.position = bytesCurrent;
+        metrics.bytes += sent;
+        bytes += sent;
+    }
+
+    /**
+     * Records a file finishing
+     *
+     * @param file   the staged file
+     * @param result a constant from UploadResult
+     * @param now    the present time in milliseconds
+     */
+    public synchronized void finished(@NonNull File file, int result, long now) {
+        FileMetrics metrics = inProgress.remove(file.getName());
+        if (metrics == null) return;
+        metrics.result = result;
+        metrics.latency = now - metrics.started;
+        finished = now;
+        switch (result) {
+            case UploadResult.COMPLETED:
+                completed++;
+                latency.add(metrics.latency);
+                break;
+            case UploadResult.CANCELED:
+                canceled++;
+                break;
+            default:
+                failed++;
+        }
+        if (metrics.retries > 0) retriedFiles++;
+        if (files.size() < MAX_FILES) {
+            files.add(metrics);
+        }
+    }
+
+    /**
+     * The bytes sent in the run, failed and canceled uploads included
+     *
+     * @return bytes sent
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized int completed() {
+        return completed;
+    }
+
+    public synchronized int failed() {
+        return failed;
+    }
+
+    public synchronized int canceled() {
+        return canceled;
+    }
+
+    /**
+     * The number of files in the run that had failed before
+     *
+     * @return number of retried files
+     */
+    public synchronized int retriedFiles() {
+        return retriedFiles;
+    }
+
+    /**
+     * The time from handing a file to the sink until it was uploaded, over the completed files
+     *
+     * @return latency statistics in milliseconds
+     */
+    public RunningStatistics latency() {
+        return latency;
+    }
+
+    /**
+     * The time from the first file being handed to the sink until the last one finished
+     *
+     * @return duration in milliseconds
+     */
+    public synchronized long duration() {
+        return started == 0 || finished < started ? 0 : finished - started;
+    }
+
+    /**
+     * The bytes sent per second over the duration of the run
+     *
+     * @return throughput in bytes per second
+     */
+    public synchronized double throughput() {
+        return bytes * 1000.0 / Math.max(1, duration());
+    }
+
+    /**
+     * The run as json, with the per-file list if asked for
+     *
+     * @param withFiles whether to include the files
+     * @return jsonObject with the totals, latency and optionally files
+     */
+    public synchronized JsonObject toJson(boolean withFiles) {
+        JsonObject object = new JsonObject();
+        object.addProperty("started", started);
+        object.addProperty("duration", duration());
+        object.addProperty("completed", completed);
+        object.addProperty("failed", failed);
+        object.addProperty("canceled", canceled);
+        object.addProperty("retriedFiles", retriedFiles);
+        object.addProperty("bytes", bytes);
+        object.addProperty("throughput", throughput());
+        object.add("latency", latency.toJson());
+        if (withFiles) {
+            JsonArray array = new JsonArray();
+            for (FileMetrics metrics : files) {
+                JsonObject file = new JsonObject();
+                file.addProperty("name", metrics.name);
+                file.addProperty("detector", metrics.detector);
+                file.addProperty("bytes", metrics.bytes);
+                file.addProperty("latency", metrics.latency);
+                file.addProperty("result", metrics.result);
+                file.addProperty("retries", metrics.retries);
+                array.add(file);
+            }
+            object.add("files", array);
+        }
+        return object;
+    }
+
+    private static class FileMetrics {
+        private final String name;
+        private final String detector;
+        private final long started;
+        private long position;
+        private long bytes;
+        private long latency;
+        private int result;
+        private int retries;
+
+        private FileMetrics(File file, long started) {
+            this.name = file.getName();
+            this.detector = UploadIndex.detectorName(file);
+            this.started = started;
+        }
+    }
+}
@@ -8,7 +8,6 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.telenor.possumlib.abstractdetectors.AbstractDetector;
@@ -16,17 +15,24 @@ import com.telenor.possumlib.abstractservices.AbstractBasicService;
 import com.telenor.possumlib.constants.Constants;
 import com.telenor.possumlib.constants.Messaging;
 import com.telenor.possumlib.functionality.GatheringFunctionality;
+import com.telenor.possumlib.functionality.PossumHttpClient;
+import com.telenor.possumlib.functionality.ProgressiveAuthentication;
 import com.telenor.possumlib.functionality.RestFunctionality;
+import com.telenor.possumlib.functionality.StandbyFunctionality;
+import com.telenor.possumlib.functionality.SufficiencyMonitor;
 import com.telenor.possumlib.interfaces.IPollComplete;
-import com.telenor.possumlib.interfaces.IRestListener;
+import com.telenor.possumlib.interfaces.IProgressiveListener;
 import com.telenor.possumlib.utils.Send;
 
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
 
 /***
  * Service that handles all actions pertaining to collecting the data from the sensors.
  */
-public class CollectionService extends AbstractBasicService implements IRestListener, IPollComplete {
+public class CollectionService extends AbstractBasicService implements IProgressiveListener, IPollComplete {
     protected GatheringFunctionality gatheringFunctionality;
     private BroadcastReceiver receiver;
     private static String uniqueUserId;
@@ -34,6 +40,20 @@ public class CollectionService extends AbstractBasicService implements IRestList
     private static String url;
     private static String apiKey;
     private Handler authHandler = new Handler(Looper.getMainLooper());
+    private ProgressiveAuthentication progressiveAuthentication;
+    private boolean standbyAuthentication;
+    private boolean authenticationEnding;
+    private SufficiencyMonitor sufficiencyMonitor;
+    private int starts;
+    private static final int SUFFICIENCY_POLL_MILLI = 250;
+    private final Runnable sufficiencyPoll = new Runnable() {
+        @Override
+        public void run() {
+            if (!checkSufficiency()) {
+                authHandler.postDelayed(this, SUFFICIENCY_POLL_MILLI);
+            }
+        }
+    };
     private static final String tag = CollectionService.class.getName();
 
     /**
@@ -57,24 +77,69 @@ public class CollectionService extends AbstractBasicService implements IRestList
             Send.messageIntent(this, Messaging.COLLECTION_FAILED, "Missing unique user id in service");
             stopSelf();
         } else {
-            gatheringFunctionality.setDetectorsWithId(this, uniqueUserId, isAuthenticating, this);
-            if (gatheringFunctionality.isGathering()) {
-                gatheringFunctionality.stopGathering();
-//                gatheringFunctionality.clearData();
-            }
-            gatheringFunctionality.startGathering();
+            standbyAuthentication = false;
+            authenticationEnding = false;
+            sufficiencyMonitor = null;
+            authHandler.removeCallbacks(sufficiencyPoll);
+            // Drops a start still waiting for the detectors to stop
+            final int start = ++starts;
+            PossumHttpClient httpClient = PossumHttpClient.shared();
             if (isAuthenticating) {
-                authHandler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        stopSelf();
-                    }
-                }, authTime());
+                httpClient.setTimeouts(intent.getIntExtra("connectTimeout", httpClient.connectTimeout()),
+                        intent.getIntExtra("readTimeout", httpClient.readTimeout()));
+                if (authenticateFromStandby()) {
+                    return super.onStartCommand(intent, flags, requestCode);
+                }
             }
+            // The detectors of an earlier start are stopped and their data stored without waiting
+            // for it on the main thread, the new ones then gather to the same files
+            final Intent startIntent = intent;
+            gatheringFunctionality.stopGatheringAsync(new Runnable() {
+                @Override
+                public void run() {
+                    authHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (start == starts) {
+                                startGathering(startIntent);
+                            }
+                        }
+                    });
+                }
+            });
         }
         return super.onStartCommand(intent, flags, requestCode);
     }
 
+    /**
+     * Starts new detectors for the user once those of an earlier start are stopped, and the
+     * authentication if it is one. Only called on the main thread.
+     *
+     * @param intent the intent the service was started with
+     */
+    private void startGathering(Intent intent) {
+        gatheringFunctionality.setDetectorsWithId(this, uniqueUserId, isAuthenticating, this);
+        gatheringFunctionality.startGathering();
+        if (isAuthenticating) {
+            if (url != null && intent.getBooleanExtra("warmConnection", true)) {
+                // Opens the connection while the data is gathered, so the post does not wait for it
+                PossumHttpClient.shared().warm(url);
+            }
+            startProgressiveAuthentication(intent.getIntExtra("windowMilli", 0), intent.getFloatExtra("confidenceThreshold", ProgressiveAuthentication.DEFAULT_CONFIDENCE_THRESHOLD));
+            if (intent.getBooleanExtra("earlyCompletion", true)) {
+                // Ends the authentication as soon as every detector has enough, the auth time being the deadline
+                sufficiencyMonitor = new SufficiencyMonitor(gatheringFunctionality.detectors(), System.currentTimeMillis());
+                authHandler.postDelayed(sufficiencyPoll, SUFFICIENCY_POLL_MILLI);
+            }
+            authHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    endAuthentication();
+                }
+            }, authTime());
+        }
+    }
+
     /**
      * onCreate - starts up all relevant sensors and setting service as a foreground service
      * Important to note: onCreate is always started before onStartCommand, in effect initialising
@@ -94,6 +159,55 @@ public class CollectionService extends AbstractBasicService implements IRestList
         getApplicationContext().registerReceiver(receiver, new IntentFilter(Messaging.POSSUM_MESSAGE));
     }
 
+    /**
+     * Answers the authentication from the data held by the standby of the process, if there is
+     * one for the user, without starting any detectors. Waits for the top-up if the standby holds
+     * less than its window.
+     *
+     * @return true if the standby answers the authentication
+     */
+    private boolean authenticateFromStandby() {
+        final StandbyFunctionality standby = StandbyFunctionality.active();
+        if (standby == null || url == null || !standby.uniqueUserId().equals(uniqueUserId)) return false;
+        standbyAuthentication = true;
+        authHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RestFunctionality.fromStandby(CollectionService.this, standby, url, uniqueUserId, apiKey).execute();
+                    Send.messageIntent(CollectionService.this, Messaging.AUTH_DONE, null);
+                } catch (MalformedURLException e) {
+                    Log.e(tag, "Failed to post data due to malformed url:", e);
+                    Send.messageIntent(CollectionService.this, Messaging.AUTH_FAILED, uniqueUserId);
+                    stopSelf();
+                }
+            }
+        }, standby.topUpDelay(System.currentTimeMillis()));
+        return true;
+    }
+
+    /**
+     * Starts posting the data gathered every window, if a window is given, replacing any
+     * progressive authentication still running
+     *
+     * @param windowMilli         the time between two windows, 0 to post all data at the end
+     * @param confidenceThreshold the confidence of the server at which to stop early
+     */
+    private void startProgressiveAuthentication(int windowMilli, float confidenceThreshold) {
+        if (progressiveAuthentication != null) {
+            progressiveAuthentication.cancel();
+            progressiveAuthentication = null;
+        }
+        if (windowMilli <= 0 || url == null) return;
+        try {
+            progressiveAuthentication = new ProgressiveAuthentication(this, gatheringFunctionality.detectors(), url, uniqueUserId, apiKey,
+                    windowMilli, confidenceThreshold, Executors.newSingleThreadScheduledExecutor(), PossumHttpClient.shared());
+            progressiveAuthentication.start();
+        } catch (MalformedURLException e) {
+            Log.e(tag, "Failed to start progressive authentication due to malformed url:", e);
+        }
+    }
+
     private int authTime() {
         return Constants.AUTHENTICATION_TIME;
     }
@@ -109,6 +223,75 @@ public class CollectionService extends AbstractBasicService implements IRestList
     }
 
     public void pollComplete(AbstractDetector detector) {
+        // A detector done listening may be the last one waited for
+        authHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                checkSufficiency();
+            }
+        });
+    }
+
+    /**
+     * Ends the authentication if every detector has gathered enough. Only called on the main
+     * thread.
+     *
+     * @return true if no more polling is needed
+     */
+    private boolean checkSufficiency() {
+        if (sufficiencyMonitor == null) return true;
+        if (sufficiencyMonitor.isComplete()) return true;
+        if (!sufficiencyMonitor.check(System.currentTimeMillis())) return false;
+        Log.d(tag, "Detectors sufficient after " + sufficiencyMonitor.elapsed() + " ms");
+        endAuthentication();
+        return true;
+    }
+
+    /**
+     * Stops the detectors of the authentication without waiting for them on the main thread.
+     * Once all are stopped their data is posted and the service stopped. Only called on the main
+     * thread.
+     */
+    private void endAuthentication() {
+        if (authenticationEnding) return;
+        authenticationEnding = true;
+        authHandler.removeCallbacksAndMessages(null);
+        gatheringFunctionality.stopGatheringAsync(new Runnable() {
+            @Override
+            public void run() {
+                authHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        postAuthentication();
+                        stopSelf();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Posts the data of the stopped detectors, all of it or what is left after the last window
+     */
+    private void postAuthentication() {
+        try {
+            // Reported before the data is posted and cleared
+            String sufficiency = sufficiencyMonitor == null ? null : sufficiencyMonitor.toJson().toString();
+            if (progressiveAuthentication != null) {
+                // Posts what is left as the last window, unless the server is already confident
+                progressiveAuthentication.finish();
+                progressiveAuthentication = null;
+            } else {
+                // The detectors' data is written to the request and cleared in the background
+                List<AbstractDetector> detectors = new ArrayList<>(gatheringFunctionality.detectors());
+                RestFunctionality restFunctionality = new RestFunctionality(this, detectors, url, uniqueUserId, apiKey);
+                restFunctionality.execute();
+            }
+            Send.messageIntent(this, Messaging.AUTH_DONE, sufficiency);
+        } catch (MalformedURLException e) {
+            Log.e(tag, "Failed to post data due to malformed url:", e);
+            Send.messageIntent(this, Messaging.AUTH_FAILED, uniqueUserId);
+        }
     }
 
     /**
@@ -120,45 +303,71 @@ public class CollectionService extends AbstractBasicService implements IRestList
         super.onDestroy();
 //        Log.d(tag, "Destroying Collector service:"+this);
         getApplicationContext().unregisterReceiver(receiver);
-        gatheringFunctionality.stopGathering();
         receiver = null;
-        try {
-            if (isAuthenticating) {
-                JsonObject object = new JsonObject();
-                object.addProperty("connectId", uniqueUserId);
-                for (AbstractDetector detector : gatheringFunctionality.detectors()) {
-                    JsonArray jsonData = detector.jsonData();
-                    object.add(detector.detectorName(), jsonData);
-                    detector.clearData();
-                }
-                RestFunctionality restFunctionality = new RestFunctionality(this, url, apiKey);
-                restFunctionality.execute(object);
-                Send.messageIntent(this, Messaging.AUTH_DONE, null);
-            }
-        } catch (MalformedURLException e) {
-            Log.e(tag, "Failed to post data due to malformed url:", e);
+        // Drops a start still waiting for the detectors to stop
+        starts++;
+        if (authenticationEnding) {
+            // The data is posted once the detectors are stopped
+            return;
+        }
+        if (isAuthenticating && !standbyAuthentication) {
+            // Destroyed before the authentication ended, what was gathered is still posted
+            endAuthentication();
+        } else {
+            gatheringFunctionality.stopGatheringAsync();
         }
     }
 
     @Override
     public void successfullyPushed(String message) {
+        if (broadcastTrust(message, false)) {
+            // Data is not stored to file, so just let it die
+            stopSelf();
+        } else {
+            Send.messageIntent(this, Messaging.AUTH_FAILED, uniqueUserId);
+        }
+    }
+
+    @Override
+    public void interimTrust(String message, boolean confident) {
+        // A confident score is the result, so the authentication ends without waiting for the rest
+        if (broadcastTrust(message, !confident) && confident) {
+            authHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    stopSelf();
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends the trust score from the server to the app
+     *
+     * @param message the response of the server
+     * @param interim whether more scores will follow
+     * @return false if the server responded with an error
+     */
+    private boolean broadcastTrust(String message, boolean interim) {
         JsonParser parser = new JsonParser();
 //        Log.i(tag, "Pushed data to rest service:" + message);
         JsonObject object = (JsonObject) parser.parse(message);
         if (object.get("errorMessage") != null) {
             Log.d(tag, "Failed to access:" + object);
-            return;
+            return false;
         }
         Intent intent = new Intent(Messaging.POSSUM_TRUST);
         intent.putExtra("message", object.toString());
+        intent.putExtra("interim", interim);
+        intent.putExtra("uniqueUserId", uniqueUserId);
         sendBroadcast(intent);
-        // Data is not stored to file, so just let it die
-        stopSelf();
+        return true;
     }
 
     @Override
     public void failedToPush(Exception exception) {
         Log.e(tag, "Failed to push to rest service:", exception);
+        Send.messageIntent(this, Messaging.AUTH_FAILED, uniqueUserId);
         // Data is not stored to file, so just let it die
         stopSelf();
     }
@@ -1,15 +1,19 @@
 package com.telenor.possumlib.services;
 
 import android.content.Intent;
+import android.support.annotation.NonNull;
 import android.util.Log;
 
-import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.abstractservices.AbstractAmazonUploadService;
 import com.telenor.possumlib.constants.Messaging;
 import com.telenor.possumlib.models.PossumBus;
 import com.telenor.possumlib.utils.FileUtil;
 import com.telenor.possumlib.utils.Get;
+import com.telenor.possumlib.utils.Has;
+import com.telenor.possumlib.utils.RetryQueue;
 import com.telenor.possumlib.utils.Send;
+import com.telenor.possumlib.utils.UploadBundler;
+import com.telenor.possumlib.utils.UploadPreparation;
 
 import java.io.File;
 import java.util.List;
@@ -37,13 +41,24 @@ public class DataUploadService extends AbstractAmazonUploadService {
         return Messaging.UPLOAD_SUCCESS;
     }
 
+    @Override
+    protected void prepareUpload(@NonNull Runnable whenDone) {
+        // The data stored by the detectors is prepared in the background, the upload follows
+        UploadPreparation.prepare(Get.Detectors(this, uniqueUserId, new PossumBus(), false), whenDone);
+    }
+
     @Override
     public List<File> filesDesiredForUpload() {
-        PossumBus possumBus = new PossumBus();
-        for (AbstractDetector detector : Get.Detectors(this, uniqueUserId, possumBus, false)) {
-            detector.prepareUpload();
-            detector.terminate();
+        List<File> staged = FileUtil.getFilesReadyForUpload(this);
+        RetryQueue retryQueue = FileUtil.retryQueue(this);
+        retryQueue.prune(staged);
+        if (UploadBundler.bundle(this) > 0) {
+            staged = FileUtil.getFilesReadyForUpload(this);
+        }
+        List<File> due = retryQueue.due(staged, System.currentTimeMillis(), Has.network(this));
+        if (due.size() < staged.size()) {
+            Log.d(tag, "Holding back " + (staged.size() - due.size()) + " files for retry");
         }
-        return FileUtil.getFilesReadyForUpload(this);
+        return due;
     }
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package com.telenor.possumlib.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+import com.telenor.possumlib.abstractservices.AbstractBasicService;
+import com.telenor.possumlib.constants.Messaging;
+import com.telenor.possumlib.functionality.StandbyFunctionality;
+import com.telenor.possumlib.utils.Send;
+
+/***
+ * Service keeping the standby detectors running between authentications, so the CollectionService
+ * can answer an authentication from their data at once. Stopping the service stops the standby.
+ */
+public class StandbyService extends AbstractBasicService {
+    private BroadcastReceiver receiver;
+    private static final String tag = StandbyService.class.getName();
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int requestCode) {
+        String uniqueUserId = intent == null ? null : intent.getStringExtra("uniqueUserId");
+        if (uniqueUserId == null) {
+            Log.e(tag, "Missing needed value in intent. Unique user id is null. Terminating service..");
+            stopSelf();
+        } else {
+            StandbyFunctionality.start(this, uniqueUserId,
+                    intent.getLongExtra("windowMilli", StandbyFunctionality.DEFAULT_WINDOW_MILLI),
+                    intent.getLongExtra("memoryBudget", StandbyFunctionality.DEFAULT_MEMORY_BUDGET),
+                    intent.getLongExtra("topUpMilli", 0));
+        }
+        return super.onStartCommand(intent, flags, requestCode);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (intent == null || !Messaging.REQUEST_STANDBY.equals(intent.getStringExtra(Messaging.POSSUM_MESSAGE_TYPE))) return;
+                StandbyFunctionality standby = StandbyFunctionality.active();
+                if (standby != null) {
+                    Send.messageIntent(StandbyService.this, Messaging.STANDBY_STATUS, standby.toJson().toString());
+                }
+            }
+        };
+        getApplicationContext().registerReceiver(receiver, new IntentFilter(Messaging.POSSUM_MESSAGE));
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        getApplicationContext().unregisterReceiver(receiver);
+        receiver = null;
+        StandbyFunctionality.stop();
+    }
+}
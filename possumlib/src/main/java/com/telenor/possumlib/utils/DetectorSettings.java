@@ -0,0 +1,159 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+
+import com.telenor.possumlib.constants.StorageFormat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * How each detector type stores and delivers its data, as chosen by the app: the storage format,
+ * whether binary records are memory mapped and whether the sensor hardware batches events.
+ * <p>
+ * The settings are kept in a file, since they are set from the app while the detectors run in the
+ * service's process. A change is picked up the next time a detector asks, which is when it opens
+ * a segment or starts listening.
+ */
+public class DetectorSettings {
+    private final File settingsFile;
+    private final Properties properties = new Properties();
+    private long settingsModified;
+    private long settingsLength;
+
+    /**
+     * Constructor for the settings
+     *
+     * @param settingsFile the file the settings are kept in
+     */
+    public DetectorSettings(@NonNull File settingsFile) {
+        this.settingsFile = settingsFile;
+    }
+
+    /**
+     * Sets the format the zipping detectors of a type store their samples in
+     *
+     * @param detectorType  a constant from DetectorType
+     * @param storageFormat a constant from StorageFormat
+     */
+    public synchronized void setStorageFormat(int detectorType, int storageFormat) {
+        switch (storageFormat) {
+            case StorageFormat.TEXT_ZIP:
+            case StorageFormat.BINARY:
+            case StorageFormat.GORILLA:
+            case StorageFormat.JOURNAL:
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid storage format:" + storageFormat);
+        }
+        set(detectorType, "storageFormat", "" + storageFormat);
+    }
+
+    /**
+     * The format the zipping detectors of a type store their samples in
+     *
+     * @param detectorType a constant from DetectorType
+     * @param fallback     the format to use if none is set
+     * @return a constant from StorageFormat
+     */
+    public synchronized int storageFormat(int detectorType, int fallback) {
+        return getInt(detectorType, "storageFormat", fallback);
+    }
+
+    public synchronized void setMemoryMapped(int detectorType, boolean memoryMapped) {
+        set(detectorType, "memoryMapped", "" + memoryMapped);
+    }
+
+    /**
+     * Whether the zipping detectors of a type write binary records to a memory mapped region
+     *
+     * @param detectorType a constant from DetectorType
+     * @param fallback     the value to use if none is set
+     * @return true to memory map the binary records
+     */
+    public synchronized boolean memoryMapped(int detectorType, boolean fallback) {
+        return getBoolean(detectorType, "memoryMapped", fallback);
+    }
+
+    public synchronized void setBatching(int detectorType, boolean batching) {
+        set(detectorType, "batching", "" + batching);
+    }
+
+    /**
+     * Whether the sensor detectors of a type let the sensor hardware batch events
+     *
+     * @param detectorType a constant from DetectorType
+     * @param fallback     the value to use if none is set
+     * @return true if the sensor should batch events
+     */
+    public synchronized boolean batching(int detectorType, boolean fallback) {
+        return getBoolean(detectorType, "batching", fallback);
+    }
+
+    private void set(int detectorType, String setting, String value) {
+        loadSettings();
+        properties.setProperty(detectorType + "." + setting, value);
+        saveSettings();
+    }
+
+    private int getInt(int detectorType, String setting, int fallback) {
+        loadSettings();
+        String value = properties.getProperty(detectorType + "." + setting);
+        if (value == null) return fallback;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private boolean getBoolean(int detectorType, String setting, boolean fallback) {
+        loadSettings();
+        String value = properties.getProperty(detectorType + "." + setting);
+        return value == null ? fallback : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Reads the settings if the file changed since they were last read
+     */
+    private void loadSettings() {
+        long modified = settingsFile.lastModified();
+        long length = settingsFile.length();
+        if (modified == 0 || (modified == settingsModified && length == settingsLength)) return;
+        Properties loaded = new Properties();
+        try {
+            InputStream inputStream = new FileInputStream(settingsFile);
+            try {
+                loaded.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+            properties.clear();
+            properties.putAll(loaded);
+        } catch (IOException ignore) {
+            // Keep the settings we have, the file is written again on the next change
+        }
+        settingsModified = modified;
+        settingsLength = length;
+    }
+
+    private void saveSettings() {
+        try {
+            OutputStream outputStream = new FileOutputStream(settingsFile);
+            try {
+                properties.store(outputStream, null);
+            } finally {
+                outputStream.close();
+            }
+            settingsModified = settingsFile.lastModified();
+            settingsLength = settingsFile.length();
+        } catch (IOException ignore) {
+            // The settings still hold in this process
+        }
+    }
+}
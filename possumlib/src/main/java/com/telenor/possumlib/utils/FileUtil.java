@@ -5,18 +5,25 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.google.gson.JsonArray;
+import com.telenor.possumlib.models.JournalReader;
+import com.telenor.possumlib.models.SensorSampleBuffer;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.text.DecimalFormat;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 /**
@@ -27,6 +34,11 @@ public class FileUtil {
     private static DecimalFormat decimalFormat = new DecimalFormat("#,##0.#");
     private final static String[] units = new String[]{"B", "KB", "MB", "GB", "TB"};
     private static final int BUFFER = 2048;
+    private static final int ZIP_BUFFER = 64 * 1024;
+    private static final Map<String, UploadIndex> uploadIndexes = new HashMap<>();
+    private static final Map<String, StorageQuota> storageQuotas = new HashMap<>();
+    private static final Map<String, RetryQueue> retryQueues = new HashMap<>();
+    private static final Map<String, DetectorSettings> detectorSettings = new HashMap<>();
 
     private static String dataDirectory(Context context) {
         return ensureDirExists(context.getFilesDir().getAbsolutePath() + "/data").getAbsolutePath();
@@ -36,6 +48,90 @@ public class FileUtil {
         return ensureDirExists(dataDirectory(context) + "/Upload");
     }
 
+    /**
+     * The index of the files in the upload directory, which must be told about every file staged
+     * or removed
+     *
+     * @param context an android context
+     * @return the index for the context's upload directory
+     */
+    public static UploadIndex uploadIndex(@NonNull Context context) {
+        File uploadDir = getUploadDirectory(context);
+        synchronized (uploadIndexes) {
+            UploadIndex index = uploadIndexes.get(uploadDir.getAbsolutePath());
+            if (index == null) {
+                index = new UploadIndex(uploadDir, new File(dataDirectory(context), "upload.index"));
+                uploadIndexes.put(uploadDir.getAbsolutePath(), index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * The quota bounding the space taken by the files in the upload directory
+     *
+     * @param context an android context
+     * @return the quota for the context's upload directory
+     */
+    public static StorageQuota storageQuota(@NonNull Context context) {
+        UploadIndex index = uploadIndex(context);
+        File uploadDir = getUploadDirectory(context);
+        synchronized (uploadIndexes) {
+            StorageQuota quota = storageQuotas.get(uploadDir.getAbsolutePath());
+            if (quota == null) {
+                quota = new StorageQuota(index, uploadDir, new File(dataDirectory(context), "storage.quota"));
+                storageQuotas.put(uploadDir.getAbsolutePath(), quota);
+            }
+            return quota;
+        }
+    }
+
+    /**
+     * How the detectors store and deliver their data, as chosen by the app
+     *
+     * @param context an android context
+     * @return the detector settings of the context
+     */
+    public static DetectorSettings detectorSettings(@NonNull Context context) {
+        String directory = dataDirectory(context);
+        synchronized (uploadIndexes) {
+            DetectorSettings settings = detectorSettings.get(directory);
+            if (settings == null) {
+                settings = new DetectorSettings(new File(directory, "detector.settings"));
+                detectorSettings.put(directory, settings);
+            }
+            return settings;
+        }
+    }
+
+    /**
+     * The queue of staged files whose upload failed and is to be retried
+     *
+     * @param context an android context
+     * @return the retry queue for the context's upload directory
+     */
+    public static RetryQueue retryQueue(@NonNull Context context) {
+        File uploadDir = getUploadDirectory(context);
+        synchronized (uploadIndexes) {
+            RetryQueue queue = retryQueues.get(uploadDir.getAbsolutePath());
+            if (queue == null) {
+                queue = new RetryQueue(new File(dataDirectory(context), "upload.retry"));
+                retryQueues.put(uploadDir.getAbsolutePath(), queue);
+            }
+            return queue;
+        }
+    }
+
+    /**
+     * The metrics of the latest upload runs
+     *
+     * @param context an android context
+     * @return the upload history of the context
+     */
+    public static UploadHistory uploadHistory(@NonNull Context context) {
+        return new UploadHistory(new File(dataDirectory(context), "upload.history"));
+    }
+
     /**
      * Retrieves all relevant detector files from the upload directory
      * @param context an android context
@@ -43,25 +139,32 @@ public class FileUtil {
      * @return a list of all files of the specific type present in the upload directory
      */
     public static List<File> getAllDetectorFiles(final Context context, final String detectorName) {
-        File uploadDir = getUploadDirectory(context);
-        File[] files = uploadDir.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                String[] nameSplit = toBucketKey(file).split("/");
-                if (nameSplit.length < 3) return false;
-                String detector = nameSplit[2];
-                return detector.equals(detectorName);
-                }
-        });
-        return Arrays.asList(files);
+        return uploadIndex(context).files(detectorName);
     }
+
     /**
-     * Returns the list of files ready to be uploaded to S3 ordered by modification date.
+     * Returns the list of files ready to be uploaded to S3 ordered by modification date. The
+     * checkpoints of multipart uploads kept alongside them are left out.
      *
      * @return files to be uploaded
      */
     public static List<File> getFilesReadyForUpload(@NonNull Context context) {
-        return Arrays.asList(FileUtil.getUploadDirectory(context).listFiles());
+        return Arrays.asList(FileUtil.getUploadDirectory(context).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return !UploadCheckpoint.isCheckpoint(name);
+            }
+        }));
+    }
+
+    /**
+     * The checkpoints of multipart uploads whose staged file is gone
+     *
+     * @param context an android context
+     * @return the orphaned checkpoint files
+     */
+    public static List<File> orphanedCheckpoints(@NonNull Context context) {
+        return UploadCheckpoint.orphans(getUploadDirectory(context));
     }
 
     public static File toUploadFile(Context context, String bucketKey) {
@@ -92,6 +195,7 @@ public class FileUtil {
     public static File getFile(@NonNull Context context, @NonNull String name, boolean clear) {
         File dataFile = createDataFile(new File(dataDirectory(context) + "/" + name));
         if (clear) {
+            WriterCache.close(dataFile);
             if (dataFile.exists() && !dataFile.delete())
                 throw new RuntimeException("Failed to delete file:" + name);
             try {
@@ -143,48 +247,208 @@ public class FileUtil {
      * @return boolean true for success, false for failure
      */
     public static File zipFile(File file, File toZip) {
-        if (file == null || file.length() == 0) {
+        if (file == null) {
+            return null;
+        }
+        WriterCache.close(file);
+        if (file.length() == 0) {
+            return null;
+        }
+        try {
+            // Large buffers, the zip is made in one pass of a file that may be megabytes
+            InputStream origin = new FileInputStream(file);
+            ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(toZip), ZIP_BUFFER));
+            try {
+                // Write content of input file to a single entry in zip archive
+                ZipEntry entry = new ZipEntry(file.getName());
+                out.putNextEntry(entry);
+                int count;
+                byte data[] = new byte[ZIP_BUFFER];
+                while ((count = origin.read(data, 0, ZIP_BUFFER)) != -1) {
+                    out.write(data, 0, count);
+                }
+            } finally {
+                origin.close();
+                out.close();
+            }
+
+            return toZip;
+        } catch (IOException e) {
             return null;
         }
+    }
+
+    /**
+     * Writes the complete records of a journal as a zip with a single entry, the same as zipping
+     * the records' contents would give. A journal cut short by a crash gives all records that were
+     * completely written.
+     *
+     * @param journal   the journal written by JournalWriter
+     * @param toZip     the file to write the zip to
+     * @param entryName name of the entry in the zip
+     * @return the number of records written, or -1 if the journal could not be read
+     */
+    public static int journalToZip(@NonNull File journal, @NonNull File toZip, @NonNull String entryName) {
+        int records = 0;
         try {
-            BufferedInputStream origin = new BufferedInputStream(new FileInputStream(file), BUFFER);
+            JournalReader reader = new JournalReader(new BufferedInputStream(new FileInputStream(journal), BUFFER));
+            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(toZip));
+            try {
+                out.putNextEntry(new ZipEntry(entryName));
+                while (reader.next()) {
+                    out.write(reader.record(), 0, reader.recordLength());
+                    records++;
+                }
+                if (reader.isDamaged()) {
+                    Log.w(tag, "Journal damaged after " + records + " records:" + journal.getName());
+                }
+            } finally {
+                reader.close();
+                out.close();
+            }
+            return records;
+        } catch (IOException e) {
+            Log.e(tag, "Failed to read journal:" + journal.getName(), e);
+            return -1;
+        }
+    }
 
-            // Create output file and corresponding OutputStream
+    /**
+     * Rescues the lines of a zip whose writing was never finished, ie one missing the central
+     * directory because the process was killed. Every line that was completely written is copied
+     * to a new zip with a single entry. Anything after the last complete line is dropped.
+     *
+     * @param brokenZip the unfinished zip
+     * @param toZip     the file to write the rescued lines to
+     * @param entryName name of the entry in the new zip
+     * @return the number of bytes rescued, or -1 if nothing could be read
+     */
+    public static long salvageZip(@NonNull File brokenZip, @NonNull File toZip, @NonNull String entryName) {
+        long salvaged = 0;
+        try {
+            ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(brokenZip), BUFFER));
             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(toZip));
+            try {
+                out.putNextEntry(new ZipEntry(entryName));
+                if (in.getNextEntry() != null) {
+                    salvaged = copyCompleteLines(in, out);
+                }
+            } finally {
+                in.close();
+                out.close();
+            }
+            return salvaged;
+        } catch (IOException e) {
+            Log.e(tag, "Failed to salvage:" + brokenZip.getName(), e);
+            return -1;
+        }
+    }
 
-            // Write content of input file to a single entry in zip archive
-            ZipEntry entry = new ZipEntry(file.getName());
-            out.putNextEntry(entry);
+    private static long copyCompleteLines(InputStream in, ZipOutputStream out) throws IOException {
+        byte[] data = new byte[BUFFER];
+        int pending = 0;
+        long copied = 0;
+        while (true) {
             int count;
-            byte data[] = new byte[BUFFER];
-            while ((count = origin.read(data, 0, BUFFER)) != -1) {
-                out.write(data, 0, count);
+            try {
+                count = in.read(data, pending, data.length - pending);
+            } catch (IOException e) {
+                // The stream ends in the middle of compressed data, keep what was complete
+                break;
             }
+            if (count == -1) break;
+            pending += count;
+            int lineEnd = lastIndexOf(data, pending, (byte) '\n');
+            if (lineEnd >= 0) {
+                out.write(data, 0, lineEnd + 1);
+                copied += lineEnd + 1;
+                System.arraycopy(data, lineEnd + 1, data, 0, pending - lineEnd - 1);
+                pending -= lineEnd + 1;
+            } else if (pending == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+        }
+        return copied;
+    }
 
-            // Clean up
-            origin.close();
-            out.close();
+    private static int lastIndexOf(byte[] data, int length, byte value) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (data[i] == value) return i;
+        }
+        return -1;
+    }
 
-            return toZip;
-        } catch (IOException e) {
-            return null;
+    /**
+     * Cuts a file of lines after its last complete line, removing what was left by a write that
+     * was interrupted
+     *
+     * @param file file written by storeLines or storeSamples
+     * @return the number of bytes removed
+     * @throws IOException if the file cannot be read or truncated
+     */
+    public static long removeIncompleteLine(@NonNull File file) throws IOException {
+        WriterCache.close(file);
+        long length = file.length();
+        if (length == 0) return 0;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            byte[] data = new byte[BUFFER];
+            long end = length;
+            while (end > 0) {
+                int count = (int) Math.min(BUFFER, end);
+                randomAccessFile.seek(end - count);
+                randomAccessFile.readFully(data, 0, count);
+                int lineEnd = lastIndexOf(data, count, (byte) '\n');
+                if (lineEnd >= 0) {
+                    end = end - count + lineEnd + 1;
+                    break;
+                }
+                end -= count;
+            }
+            if (end < length) {
+                randomAccessFile.setLength(end);
+            }
+            return length - end;
+        } finally {
+            randomAccessFile.close();
         }
     }
 
     /**
-     * Stores list of lines to file by appending
+     * Stores list of lines to file by appending. The lines go through the file's cached writer,
+     * see WriterCache, so they may be buffered for a while.
      *
      * @param file  detectors stored file
      * @param lines lines to store in the file
      */
     public static void storeLines(@NonNull File file, final List<JsonArray> lines) {
+        StringBuilder builder = new StringBuilder();
+        for (JsonArray array : lines) {
+            builder.append(array.toString());
+            builder.append("\r\n");
+        }
         try {
-            FileWriter writer = new FileWriter(file, true);
-            for (JsonArray array : lines) {
-                writer.append(array.toString());
-                writer.append("\r\n");
-            }
-            writer.close();
+            WriterCache.append(file, builder);
+        } catch (IOException e) {
+            Log.i(tag, "Write failed:", e);
+        }
+    }
+
+    /**
+     * Stores the samples in a sample buffer to file by appending, one line per sample in the same
+     * format as storeLines and through the same cached writer
+     *
+     * @param file    detectors stored file
+     * @param samples samples to store in the file
+     */
+    public static void storeSamples(@NonNull File file, @NonNull SensorSampleBuffer samples) {
+        StringBuilder builder = new StringBuilder(samples.size() * 64);
+        for (int i = 0; i < samples.size(); i++) {
+            samples.appendJson(i, builder);
+            builder.append("\r\n");
+        }
+        try {
+            WriterCache.append(file, builder);
         } catch (IOException e) {
             Log.i(tag, "Write failed:", e);
         }
@@ -200,12 +464,14 @@ public class FileUtil {
     }
 
     /**
-     * Clear a specific directory (and all subdirectories)
+     * Clear a specific directory (and all subdirectories). The checkpoints of multipart uploads
+     * are kept, so the next upload can abort the uploads they recorded.
      *
      * @param context a viable context
      * @param dir     file representing the directory to delete
      */
     public static void clearDirectory(Context context, File dir) {
+        WriterCache.closeAll();
         if (dir == null) {
             dir = new File(dataDirectory(context));
         }
@@ -213,13 +479,18 @@ public class FileUtil {
             for (File file : dir.listFiles()) {
                 if (file.isDirectory()) {
                     clearDirectory(context, file);
-                } else {
+                } else if (!UploadCheckpoint.isCheckpoint(file)) {
                     if (!file.delete()) {
                         Log.i(tag, "Unable to delete file:" + file.getAbsolutePath());
                     }
                 }
             }
         }
+        synchronized (uploadIndexes) {
+            for (UploadIndex index : uploadIndexes.values()) {
+                index.reload();
+            }
+        }
     }
 
     /**
@@ -254,6 +525,7 @@ public class FileUtil {
      * @param file file to be deleted
      */
     public static void deleteFile(@NonNull File file) {
+        WriterCache.close(file);
         if (file.exists()) {
             if (!file.delete()) {
                 Log.i(tag, "Failed to delete file:" + file.getName());
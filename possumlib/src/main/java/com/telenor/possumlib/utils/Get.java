@@ -69,4 +69,22 @@ public class Get {
         detectors.add(new ImageDetector(context, uniqueUserId, eventBus, isAuthenticating));
         return detectors;
     }
+
+    /**
+     * The detectors kept running in standby: those that are cheap to keep listening and need no
+     * model loaded. They are authenticating detectors, holding their data in memory.
+     *
+     * @param context      a valid android context
+     * @param uniqueUserId the unique user id
+     * @param eventBus     an event bus for internal messages
+     * @return the standby detectors
+     */
+    public static List<AbstractDetector> StandbyDetectors(@NonNull Context context, String uniqueUserId, @NonNull PossumBus eventBus) {
+        List<AbstractDetector> detectors = new ArrayList<>();
+        detectors.add(new Accelerometer(context, uniqueUserId, eventBus, true));
+        detectors.add(new GyroScope(context, uniqueUserId, eventBus, true));
+        detectors.add(new BluetoothDetector(context, uniqueUserId, eventBus, true));
+        detectors.add(new NetworkDetector(context, uniqueUserId, eventBus, true));
+        return detectors;
+    }
 }
\ No newline at end of file
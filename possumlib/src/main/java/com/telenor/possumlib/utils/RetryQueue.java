@@ -0,0 +1,293 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The staged files whose upload has failed, with the number of attempts and when the next may be
+ * made, so that a failing upload is retried with exponential backoff instead of on every upload.
+ * The delay doubles with every failed attempt from BASE_DELAY_MILLI up to MAX_DELAY_MILLI, and is
+ * jittered down by up to half so that devices failing together do not retry together. A file
+ * canceled for want of a network is instead held until there is one, without adding to its
+ * backoff. Persisted as lines:
+ * <pre>
+ * possum-upload-retry 1
+ * name	attempts	nextAttempt	waitingForNetwork
+ * </pre>
+ * with tabs between the fields, and read again when the file has changed, since the queue is
+ * filled by the upload service and read by the app.
+ */
+public class RetryQueue {
+    public static final long BASE_DELAY_MILLI = 30 * 1000;
+    public static final long MAX_DELAY_MILLI = 6 * 60 * 60 * 1000;
+    private static final String HEADER = "possum-upload-retry 1";
+    private final File queueFile;
+    private final Random random;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long queueModified;
+
+    public RetryQueue(@NonNull File queueFile) {
+        this(queueFile, new Random());
+    }
+
+    /**
+     * Constructor for the queue
+     *
+     * @param queueFile the file the queue is kept in
+     * @param random    source of the jitter
+     */
+    public RetryQueue(@NonNull File queueFile, @NonNull Random random) {
+        this.queueFile = queueFile;
+        this.random = random;
+    }
+
+    /**
+     * Records a failed upload and backs the file off
+     *
+     * @param file the staged file
+     * @param now  the present time in milliseconds
+     * @return the delay until the file may be tried again
+     */
+    public synchronized long failed(@NonNull File file, long now) {
+        load();
+        Entry entry = entry(file.getName());
+        entry.attempts++;
+        entry.waitingForNetwork = false;
+        long delay = delay(entry.attempts);
+        entry.nextAttempt = now + delay;
+        save();
+        return delay;
+    }
+
+    /**
+     * Records an upload canceled for want of a network. The file is tried again once there is one.
+     *
+     * @param file the staged file
+     */
+    public synchronized void waitingForNetwork(@NonNull File file) {
+        load();
+        entry(file.getName()).waitingForNetwork = true;
+        save();
+    }
+
+    /**
+     * Forgets a file, for when it is uploaded or removed
+     *
+     * @param file the staged file
+     */
+    public synchronized void succeeded(@NonNull File file) {
+        load();
+        if (entries.remove(file.getName()) != null) {
+            save();
+        }
+    }
+
+    /**
+     * The files that may be uploaded now: those that never failed, those whose backoff has run out
+     * and those that waited for a network. Nothing is due without a network.
+     *
+     * @param files            staged files
+     * @param now              the present time in milliseconds
+     * @param networkAvailable whether there is a network
+     * @return the files to upload, in the given order
+     */
+    public synchronized List<File> due(@NonNull Collection<File> files, long now, boolean networkAvailable) {
+        load();
+        List<File> due = new ArrayList<>();
+        if (!networkAvailable) return due;
+        for (File file : files) {
+            Entry entry = entries.get(file.getName());
+            if (entry == null || entry.waitingForNetwork || entry.nextAttempt <= now) {
+                due.add(file);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Whether a file is in the queue, having failed or waited for a network since it last
+     * succeeded
+     *
+     * @param file the staged file
+     * @return true if the file has an entry
+     */
+    public synchronized boolean contains(@NonNull File file) {
+        load();
+        return entries.containsKey(file.getName());
+    }
+
+    /**
+     * Drops the entries of files no longer staged
+     *
+     * @param staged the files presently staged
+     * @return the number of entries dropped
+     */
+    public synchronized int prune(@NonNull Collection<File> staged) {
+        load();
+        Set<String> names = new HashSet<>();
+        for (File file : staged) {
+            names.add(file.getName());
+        }
+        int pruned = 0;
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!names.contains(iterator.next())) {
+                iterator.remove();
+                pruned++;
+            }
+        }
+        if (pruned > 0) {
+            save();
+        }
+        return pruned;
+    }
+
+    /**
+     * The number of failed attempts to upload a file since it last succeeded
+     *
+     * @param file the staged file
+     * @return number of attempts
+     */
+    public synchronized int attempts(@NonNull File file) {
+        load();
+        Entry entry = entries.get(file.getName());
+        return entry == null ? 0 : entry.attempts;
+    }
+
+    /**
+     * The number of files waiting to be tried again
+     *
+     * @return number of files in the queue
+     */
+    public synchronized int pending() {
+        load();
+        return entries.size();
+    }
+
+    /**
+     * The number of files held until there is a network
+     *
+     * @return number of files waiting for a network
+     */
+    public synchronized int waitingForNetwork() {
+        load();
+        int waiting = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.waitingForNetwork) waiting++;
+        }
+        return waiting;
+    }
+
+    /**
+     * The earliest time a backed off file may be tried again
+     *
+     * @return time in milliseconds, 0 if no file is backed off
+     */
+    public synchronized long nextAttempt() {
+        load();
+        long next = 0;
+        for (Entry entry : entries.values()) {
+            if (!entry.waitingForNetwork && (next == 0 || entry.nextAttempt < next)) {
+                next = entry.nextAttempt;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * The backoff after a number of failed attempts, doubling from BASE_DELAY_MILLI up to
+     * MAX_DELAY_MILLI and jittered down by up to half
+     *
+     * @param attempts failed attempts, from 1
+     * @return delay in milliseconds
+     */
+    public long delay(int attempts) {
+        long delay = MAX_DELAY_MILLI;
+        if (attempts < 30) {
+            delay = Math.min(MAX_DELAY_MILLI, BASE_DELAY_MILLI << Math.max(0, attempts - 1));
+        }
+        return delay - (long) (random.nextDouble() * (delay / 2));
+    }
+
+    private Entry entry(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(name, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Reads the queue if the file changed since it was last read
+     */
+    private void load() {
+        long modified = queueFile.lastModified();
+        if (modified == queueModified) return;
+        entries.clear();
+        queueModified = modified;
+        if (modified == 0) return;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(queueFile));
+            try {
+                if (!HEADER.equals(reader.readLine())) return;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (fields.length != 4) continue;
+                    Entry entry = new Entry();
+                    entry.attempts = Integer.parseInt(fields[1]);
+                    entry.nextAttempt = Long.parseLong(fields[2]);
+                    entry.waitingForNetwork = "1".equals(fields[3]);
+                    entries.put(fields[0], entry);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | NumberFormatException ignore) {
+            // What could be read is kept, the rest is retried as if it never failed
+        }
+    }
+
+    private void save() {
+        File temp = new File(queueFile.getAbsolutePath() + ".tmp");
+        try {
+            Writer writer = new FileWriter(temp);
+            try {
+                writer.write(HEADER + "\n");
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    Entry value = entry.getValue();
+                    writer.write(entry.getKey() + "\t" + value.attempts + "\t" + value.nextAttempt + "\t" + (value.waitingForNetwork ? 1 : 0) + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            if (temp.renameTo(queueFile)) {
+                queueModified = queueFile.lastModified();
+            }
+        } catch (IOException ignore) {
+            // The queue still holds in this process
+        }
+    }
+
+    private static class Entry {
+        private int attempts;
+        private long nextAttempt;
+        private boolean waitingForNetwork;
+    }
+}
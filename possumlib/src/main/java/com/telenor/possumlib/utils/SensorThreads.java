@@ -0,0 +1,95 @@
+package com.telenor.possumlib.utils;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Library owned threads that sensor events and location updates are delivered on, so that neither
+ * the callbacks nor the storing they trigger ever run on the main thread. Threads are created the
+ * first time a name is asked for and shared by all detectors using the same name.
+ */
+public class SensorThreads {
+    /**
+     * The thread used by all detectors that do not ask for one of their own
+     */
+    public static final String DEFAULT = "PossumSensors";
+    private static final Map<String, Handler> handlers = new HashMap<>();
+
+    /**
+     * Gives a handler for the thread with the given name, starting the thread if needed
+     *
+     * @param name the name of the thread
+     * @return a handler posting to the thread
+     */
+    public static synchronized Handler handler(@NonNull String name) {
+        Handler handler = handlers.get(name);
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread(name, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+            handlers.put(name, handler);
+        }
+        return handler;
+    }
+
+    /**
+     * Waits until the thread has handled everything posted to it so far. Used after removing a
+     * listener, to be sure no callback is still running. Returns at once if called from the thread
+     * itself, since waiting would block forever.
+     *
+     * @param handler       handler for the thread to wait for
+     * @param timeoutMillis the longest time to wait
+     * @return true if the thread caught up in time
+     */
+    public static boolean drain(@NonNull Handler handler, long timeoutMillis) {
+        return runAndWait(handler, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, timeoutMillis);
+    }
+
+    /**
+     * Runs a task on the thread after everything posted to it so far, and waits for it to finish.
+     * Runs the task directly if called from the thread itself.
+     *
+     * @param handler       handler for the thread to run on
+     * @param task          the task
+     * @param timeoutMillis the longest time to wait
+     * @return true if the task ran in time, or the thread has quit and never will
+     */
+    public static boolean runAndWait(@NonNull Handler handler, @NonNull final Runnable task, long timeoutMillis) {
+        if (Looper.myLooper() == handler.getLooper()) {
+            task.run();
+            return true;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        if (!handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    latch.countDown();
+                }
+            }
+        })) {
+            // The thread has quit, there is nothing left to wait for
+            return true;
+        }
+        try {
+            return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
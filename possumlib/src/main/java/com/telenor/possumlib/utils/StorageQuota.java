@@ -0,0 +1,256 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+
+import com.telenor.possumlib.changeevents.MetaDataChangeEvent;
+import com.telenor.possumlib.constants.EvictionPolicy;
+import com.telenor.possumlib.models.PossumBus;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Bounds the space taken by files staged for upload, so that failing uploads cannot fill the
+ * device. Enforced every time a file is staged: first the staging detector's own budget, then the
+ * global budget, which is lowered when the free space on the device drops below minFreeSpace().
+ * Staged files are evicted by the eviction policy until both fit, and each eviction is reported
+ * as a MetaDataChangeEvent. Works off the UploadIndex, so when nothing needs evicting it costs a
+ * few lookups and one query of the free space.
+ * <p>
+ * The settings are kept in a file, since they are set from the app while the detectors stage
+ * files in the service's process. A change is picked up the next time the quota is enforced.
+ */
+public class StorageQuota {
+    private final UploadIndex index;
+    private final File directory;
+    private final File settingsFile;
+    private long settingsModified;
+    private final Map<String, Integer> priorities = new HashMap<>();
+    private long globalBudget = 100 * 1024 * 1024;
+    private long minFreeSpace = 50 * 1024 * 1024;
+    private int policy = EvictionPolicy.OLDEST_FIRST;
+    private int evictions;
+    private long evictedSize;
+
+    /**
+     * Constructor for the quota
+     *
+     * @param index        the index of the staged files
+     * @param directory    the upload directory, used to ask for the free space
+     * @param settingsFile the file the settings are kept in
+     */
+    public StorageQuota(@NonNull UploadIndex index, @NonNull File directory, @NonNull File settingsFile) {
+        this.index = index;
+        this.directory = directory;
+        this.settingsFile = settingsFile;
+    }
+
+    /**
+     * Sets the most the staged files of all detectors may take together. Default is 100 MB
+     *
+     * @param globalBudget budget in bytes, 0 for no limit
+     */
+    public synchronized void setGlobalBudget(long globalBudget) {
+        loadSettings();
+        this.globalBudget = globalBudget;
+        saveSettings();
+    }
+
+    public synchronized long globalBudget() {
+        loadSettings();
+        return globalBudget;
+    }
+
+    /**
+     * Sets the free space to leave on the device. Staged files are evicted rather than letting the
+     * free space drop below it. Default is 50 MB
+     *
+     * @param minFreeSpace free space in bytes, 0 to not look at the free space
+     */
+    public synchronized void setMinFreeSpace(long minFreeSpace) {
+        loadSettings();
+        this.minFreeSpace = minFreeSpace;
+        saveSettings();
+    }
+
+    public synchronized long minFreeSpace() {
+        loadSettings();
+        return minFreeSpace;
+    }
+
+    /**
+     * Sets the order files are evicted in when the global budget is exceeded. Default is
+     * EvictionPolicy.OLDEST_FIRST
+     *
+     * @param policy a constant from EvictionPolicy
+     */
+    public synchronized void setPolicy(int policy) {
+        loadSettings();
+        this.policy = policy;
+        saveSettings();
+    }
+
+    public synchronized int policy() {
+        loadSettings();
+        return policy;
+    }
+
+    /**
+     * The number of files evicted since the quota was created
+     *
+     * @return number of evicted files
+     */
+    public synchronized int evictions() {
+        return evictions;
+    }
+
+    /**
+     * The total size of the files evicted since the quota was created
+     *
+     * @return size in bytes
+     */
+    public synchronized long evictedSize() {
+        return evictedSize;
+    }
+
+    /**
+     * Evicts staged files until the detector is within its budget and all detectors are within
+     * the global budget
+     *
+     * @param eventBus       bus the evictions are reported on
+     * @param detectorName   the detector that staged a file
+     * @param detectorBudget the most the detector's staged files may take, 0 for no limit
+     * @param priority       the detector's storage priority, higher is kept longer
+     * @return the number of files evicted
+     */
+    public synchronized int enforce(@NonNull PossumBus eventBus, @NonNull String detectorName, long detectorBudget, int priority) {
+        loadSettings();
+        priorities.put(detectorName, priority);
+        int evicted = 0;
+        while (detectorBudget > 0 && index.size(detectorName) > detectorBudget) {
+            if (!evict(eventBus, detectorName, "DETECTOR BUDGET")) break;
+            evicted++;
+        }
+        long budget = effectiveGlobalBudget();
+        while (budget >= 0 && index.totalSize() > budget) {
+            String victim = nextVictim();
+            if (victim == null || !evict(eventBus, victim, "GLOBAL BUDGET")) break;
+            evicted++;
+        }
+        return evicted;
+    }
+
+    /**
+     * Reads the settings if the file changed since they were last read
+     */
+    private void loadSettings() {
+        long modified = settingsFile.lastModified();
+        if (modified == 0 || modified == settingsModified) return;
+        Properties properties = new Properties();
+        try {
+            InputStream inputStream = new FileInputStream(settingsFile);
+            try {
+                properties.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+            globalBudget = Long.parseLong(properties.getProperty("globalBudget", "" + globalBudget));
+            minFreeSpace = Long.parseLong(properties.getProperty("minFreeSpace", "" + minFreeSpace));
+            policy = Integer.parseInt(properties.getProperty("policy", "" + policy));
+        } catch (IOException | NumberFormatException ignore) {
+            // Keep the settings we have, the file is written again on the next change
+        }
+        settingsModified = modified;
+    }
+
+    private void saveSettings() {
+        Properties properties = new Properties();
+        properties.setProperty("globalBudget", "" + globalBudget);
+        properties.setProperty("minFreeSpace", "" + minFreeSpace);
+        properties.setProperty("policy", "" + policy);
+        try {
+            OutputStream outputStream = new FileOutputStream(settingsFile);
+            try {
+                properties.store(outputStream, null);
+            } finally {
+                outputStream.close();
+            }
+            settingsModified = settingsFile.lastModified();
+        } catch (IOException ignore) {
+            // The settings still hold in this process
+        }
+    }
+
+    /**
+     * The global budget, lowered by however much the free space is short of minFreeSpace()
+     *
+     * @return budget in bytes, -1 for no limit
+     */
+    private long effectiveGlobalBudget() {
+        long budget = globalBudget > 0 ? globalBudget : -1;
+        if (minFreeSpace > 0) {
+            long shortfall = minFreeSpace - directory.getUsableSpace();
+            if (shortfall > 0) {
+                long limit = Math.max(0, index.totalSize() - shortfall);
+                budget = budget < 0 ? limit : Math.min(budget, limit);
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * Picks the detector to evict a file from by the eviction policy
+     *
+     * @return name of the detector, null if there is nothing to evict
+     */
+    private String nextVictim() {
+        String victim = null;
+        int victimPriority = 0;
+        long victimOldest = 0;
+        for (String detector : index.detectors()) {
+            int detectorPriority = priority(detector);
+            long oldest = index.oldest(detector);
+            boolean better;
+            if (victim == null) {
+                better = true;
+            } else if (policy == EvictionPolicy.LOWEST_PRIORITY_FIRST && detectorPriority != victimPriority) {
+                better = detectorPriority < victimPriority;
+            } else {
+                better = oldest < victimOldest;
+            }
+            if (better) {
+                victim = detector;
+                victimPriority = detectorPriority;
+                victimOldest = oldest;
+            }
+        }
+        return victim;
+    }
+
+    private int priority(String detectorName) {
+        Integer priority = priorities.get(detectorName);
+        return priority == null ? 0 : priority;
+    }
+
+    private boolean evict(PossumBus eventBus, String detectorName, String reason) {
+        File file = index.oldestFile(detectorName);
+        if (file == null) return false;
+        long length = file.length();
+        if (file.exists() && !file.delete()) {
+            return false;
+        }
+        index.removed(file);
+        // Any checkpoint is left for the next upload, which aborts its multipart upload
+        evictions++;
+        evictedSize += length;
+        eventBus.post(new MetaDataChangeEvent(System.currentTimeMillis() + " STORAGE EVICTED (" + detectorName + ") " + reason + " " + file.getName() + " " + length));
+        return true;
+    }
+}
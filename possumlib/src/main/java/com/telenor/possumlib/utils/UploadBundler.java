@@ -0,0 +1,225 @@
+package com.telenor.possumlib.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs the small files staged for upload into bundles, so that the detectors producing a few
+ * hundred bytes per collection window do not each cost an upload of their own. A bundle is a zip
+ * with every bundled file as an entry named by its bucket key, and a manifest.json entry listing
+ * the entries and the number of files and bytes per detector. It is staged under the detector
+ * name "Bundle" with the version and user of the files in it. Files of MIN_FILE_SIZE or more, like
+ * the segments of the inertial detectors, are left to be uploaded on their own.
+ */
+public class UploadBundler {
+    public static final String DETECTOR_NAME = "Bundle";
+    public static final String MANIFEST = "manifest.json";
+    public static final int MANIFEST_VERSION = 1;
+    /**
+     * Staged files this size or larger are not bundled
+     */
+    public static final long MIN_FILE_SIZE = 64 * 1024;
+    /**
+     * A bundle is closed before its entries grow past this size
+     */
+    public static final long MAX_BUNDLE_SIZE = 4 * 1024 * 1024;
+    private static final String tag = UploadBundler.class.getName();
+    private static final int BUFFER = 16 * 1024;
+
+    /**
+     * Bundles the small files in the context's upload directory that are due for upload
+     *
+     * @param context an android context
+     * @return the number of bundles staged
+     */
+    public static int bundle(@NonNull Context context) {
+        return bundle(FileUtil.uploadIndex(context), FileUtil.retryQueue(context), FileUtil.getFilesReadyForUpload(context),
+                System.currentTimeMillis(), Has.network(context));
+    }
+
+    /**
+     * Bundles the small files among the staged files that are due for upload and not in the retry
+     * queue. A file that failed or waited for a network keeps its own backoff, instead of being
+     * uploaded early inside a bundle, so it is left out even once due. The retry entries of the
+     * bundled files are removed along with them.
+     *
+     * @param index            the index of the upload directory
+     * @param retryQueue       the retry queue of the upload directory
+     * @param staged           the files in the upload directory
+     * @param now              the present time in milliseconds
+     * @param networkAvailable whether there is a network
+     * @return the number of bundles staged
+     */
+    public static int bundle(@NonNull UploadIndex index, @NonNull RetryQueue retryQueue, @NonNull List<File> staged, long now, boolean networkAvailable) {
+        List<File> bundleable = new ArrayList<>();
+        for (File file : retryQueue.due(staged, now, networkAvailable)) {
+            if (!retryQueue.contains(file)) {
+                bundleable.add(file);
+            }
+        }
+        return bundle(index, retryQueue, bundleable);
+    }
+
+    /**
+     * Bundles the small files among the staged files. Files are grouped by the version and user of
+     * their bucket key, oldest first, and a group is only bundled if it has more than one file.
+     * The bundled files are removed from the upload directory and the index.
+     *
+     * @param index  the index of the upload directory
+     * @param staged the files in the upload directory
+     * @return the number of bundles staged
+     */
+    public static int bundle(@NonNull UploadIndex index, @NonNull List<File> staged) {
+        return bundle(index, null, staged);
+    }
+
+    private static int bundle(UploadIndex index, RetryQueue retryQueue, List<File> staged) {
+        Map<String, List<File>> groups = new LinkedHashMap<>();
+        for (File file : staged) {
+            String[] key = FileUtil.toBucketKey(file).split("/");
+            if (key.length < 5 || DETECTOR_NAME.equals(key[2]) || file.length() >= MIN_FILE_SIZE) {
+                continue;
+            }
+            String group = key[0] + "/" + key[1] + "/" + DETECTOR_NAME + "/" + key[3] + "/";
+            List<File> files = groups.get(group);
+            if (files == null) {
+                files = new ArrayList<>();
+                groups.put(group, files);
+            }
+            files.add(file);
+        }
+        int bundles = 0;
+        for (Map.Entry<String, List<File>> group : groups.entrySet()) {
+            List<File> files = group.getValue();
+            Collections.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File first, File second) {
+                    long difference = first.lastModified() - second.lastModified();
+                    return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+                }
+            });
+            List<File> bundle = new ArrayList<>();
+            long bundleSize = 0;
+            for (File file : files) {
+                if (!bundle.isEmpty() && bundleSize + file.length() > MAX_BUNDLE_SIZE) {
+                    bundles += stageBundle(index, retryQueue, group.getKey(), bundle) ? 1 : 0;
+                    bundle.clear();
+                    bundleSize = 0;
+                }
+                bundle.add(file);
+                bundleSize += file.length();
+            }
+            bundles += stageBundle(index, retryQueue, group.getKey(), bundle) ? 1 : 0;
+        }
+        return bundles;
+    }
+
+    /**
+     * Writes the files into a bundle next to the upload directory, moves it in and then removes
+     * the bundled files and their retry entries
+     *
+     * @return true if the bundle was staged
+     */
+    private static boolean stageBundle(UploadIndex index, RetryQueue retryQueue, String keyPrefix, List<File> files) {
+        if (files.size() < 2) return false;
+        File directory = files.get(0).getParentFile();
+        File temp = new File(directory.getParentFile(), "bundle.tmp");
+        try {
+            writeBundle(temp, files);
+        } catch (IOException e) {
+            Log.e(tag, "Failed to bundle " + files.size() + " files:", e);
+            FileUtil.deleteFile(temp);
+            return false;
+        }
+        long timestamp = System.currentTimeMillis();
+        File bundle;
+        do {
+            bundle = new File(directory, (keyPrefix + timestamp++ + ".zip").replace('/', '#'));
+        } while (bundle.exists());
+        if (!temp.renameTo(bundle)) {
+            Log.e(tag, "Unable to stage bundle: " + bundle.getName());
+            FileUtil.deleteFile(temp);
+            return false;
+        }
+        index.added(bundle);
+        for (File file : files) {
+            FileUtil.deleteFile(file);
+            index.removed(file);
+            if (retryQueue != null) {
+                retryQueue.succeeded(file);
+            }
+        }
+        return true;
+    }
+
+    private static void writeBundle(File bundle, List<File> files) throws IOException {
+        JsonArray entries = new JsonArray();
+        Map<String, JsonObject> detectors = new LinkedHashMap<>();
+        byte[] buffer = new byte[BUFFER];
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(bundle));
+        try {
+            for (File file : files) {
+                String key = FileUtil.toBucketKey(file);
+                String detector = UploadIndex.detectorName(file);
+                out.putNextEntry(new ZipEntry(key));
+                InputStream in = new FileInputStream(file);
+                try {
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                }
+                out.closeEntry();
+                JsonObject entry = new JsonObject();
+                entry.addProperty("key", key);
+                entry.addProperty("detector", detector);
+                entry.addProperty("size", file.length());
+                entry.addProperty("lastModified", file.lastModified());
+                entries.add(entry);
+                JsonObject summary = detectors.get(detector);
+                if (summary == null) {
+                    summary = new JsonObject();
+                    summary.addProperty("files", 0);
+                    summary.addProperty("bytes", 0);
+                    detectors.put(detector, summary);
+                }
+                summary.addProperty("files", summary.get("files").getAsInt() + 1);
+                summary.addProperty("bytes", summary.get("bytes").getAsLong() + file.length());
+            }
+            JsonObject manifest = new JsonObject();
+            manifest.addProperty("version", MANIFEST_VERSION);
+            manifest.addProperty("created", System.currentTimeMillis());
+            manifest.add("entries", entries);
+            JsonObject detectorObject = new JsonObject();
+            for (Map.Entry<String, JsonObject> detector : detectors.entrySet()) {
+                detectorObject.add(detector.getKey(), detector.getValue());
+            }
+            manifest.add("detectors", detectorObject);
+            out.putNextEntry(new ZipEntry(MANIFEST));
+            out.write(manifest.toString().getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+}
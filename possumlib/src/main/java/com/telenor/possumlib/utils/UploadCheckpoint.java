@@ -0,0 +1,255 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The parts of a staged file acknowledged by a multipart upload, so that an interrupted upload
+ * can resume from the last acknowledged part instead of sending the whole file again. Kept next to
+ * the staged file with CHECKPOINT_SUFFIX added to its name, as a log of lines:
+ * <pre>
+ * possum-upload-checkpoint 1
+ * uploadId	key	partSize	fileLength	lastModified
+ * partNumber	eTag
+ * </pre>
+ * with tabs between the fields and one line appended for every acknowledged part. A checkpoint
+ * for a file that has changed since the upload started is thrown away, as is one whose file is
+ * gone, but only once the multipart upload it recorded is aborted, since amazon keeps the parts of
+ * an upload never completed.
+ */
+public class UploadCheckpoint {
+    public static final String CHECKPOINT_SUFFIX = ".parts";
+    private static final String HEADER = "possum-upload-checkpoint 1";
+    private final File file;
+    private final String uploadId;
+    private final String key;
+    private final long partSize;
+    private final long fileLength;
+    private final long lastModified;
+    private final Map<Integer, String> parts = new TreeMap<>();
+
+    private UploadCheckpoint(File file, String uploadId, String key, long partSize, long fileLength, long lastModified) {
+        this.file = file;
+        this.uploadId = uploadId;
+        this.key = key;
+        this.partSize = partSize;
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * The checkpoint file belonging to a staged file
+     *
+     * @param staged the staged file
+     * @return the file its checkpoint is kept in
+     */
+    public static File checkpointFile(@NonNull File staged) {
+        return new File(staged.getParentFile(), staged.getName() + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Whether a file in the upload directory is a checkpoint rather than a staged file
+     *
+     * @param file a file in the upload directory
+     * @return true if it is a checkpoint
+     */
+    public static boolean isCheckpoint(@NonNull File file) {
+        return isCheckpoint(file.getName());
+    }
+
+    public static boolean isCheckpoint(@NonNull String name) {
+        return name.endsWith(CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Starts a checkpoint for a newly initiated multipart upload, replacing any earlier one
+     *
+     * @param staged   the file being uploaded
+     * @param uploadId the id of the multipart upload
+     * @param key      the bucket key uploaded to
+     * @param partSize the size of every part but the last
+     * @return the checkpoint
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public static UploadCheckpoint create(@NonNull File staged, @NonNull String uploadId, @NonNull String key, long partSize) throws IOException {
+        UploadCheckpoint checkpoint = new UploadCheckpoint(checkpointFile(staged), uploadId, key, partSize, staged.length(), staged.lastModified());
+        File temp = new File(checkpoint.file.getParentFile(), checkpoint.file.getName() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+        try {
+            writer.write(HEADER + "\n");
+            writer.write(uploadId + "\t" + key + "\t" + partSize + "\t" + checkpoint.fileLength + "\t" + checkpoint.lastModified + "\n");
+        } finally {
+            writer.close();
+        }
+        if (!temp.renameTo(checkpoint.file)) {
+            FileUtil.deleteFile(temp);
+            throw new IOException("Unable to store checkpoint: " + checkpoint.file.getName());
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Reads the checkpoint of a staged file
+     *
+     * @param staged   the file being uploaded
+     * @param key      the bucket key it is uploaded to
+     * @param partSize the part size the upload would use
+     * @return the checkpoint, or null if there is none or it does not match the file any more
+     */
+    public static UploadCheckpoint load(@NonNull File staged, @NonNull String key, long partSize) {
+        UploadCheckpoint checkpoint = read(checkpointFile(staged));
+        if (checkpoint == null || !checkpoint.key.equals(key) || checkpoint.partSize != partSize
+                || checkpoint.fileLength != staged.length() || checkpoint.lastModified != staged.lastModified()) {
+            return null;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Reads a checkpoint file as it was written, whether or not it still matches its staged file,
+     * so the upload it recorded can be aborted
+     *
+     * @param checkpointFile the checkpoint file
+     * @return the checkpoint, or null if there is none or it cannot be read
+     */
+    public static UploadCheckpoint read(@NonNull File checkpointFile) {
+        if (!checkpointFile.exists()) return null;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(checkpointFile));
+            try {
+                if (!HEADER.equals(reader.readLine())) return null;
+                String line = reader.readLine();
+                String[] fields = line == null ? new String[0] : line.split("\t");
+                if (fields.length != 5) return null;
+                UploadCheckpoint checkpoint = new UploadCheckpoint(checkpointFile, fields[0], fields[1],
+                        Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+                while ((line = reader.readLine()) != null) {
+                    String[] part = line.split("\t");
+                    // A line cut short by a crash is the last one, the part is simply sent again
+                    if (part.length != 2 || part[1].isEmpty()) break;
+                    checkpoint.parts.put(Integer.parseInt(part[0]), part[1]);
+                }
+                return checkpoint;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The checkpoints in the upload directory whose staged file is gone, like after it was evicted
+     * or bundled. Their uploads must be aborted before they are deleted.
+     *
+     * @param directory the upload directory
+     * @return the orphaned checkpoint files
+     */
+    public static List<File> orphans(@NonNull File directory) {
+        List<File> orphans = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) return orphans;
+        for (File file : files) {
+            if (!isCheckpoint(file)) continue;
+            String name = file.getName();
+            File staged = new File(directory, name.substring(0, name.length() - CHECKPOINT_SUFFIX.length()));
+            if (!staged.exists()) {
+                orphans.add(file);
+            }
+        }
+        return orphans;
+    }
+
+    /**
+     * Records a part as acknowledged, appending it to the checkpoint file
+     *
+     * @param partNumber the part number, from 1
+     * @param eTag       the ETag returned for the part
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public synchronized void partAcknowledged(int partNumber, @NonNull String eTag) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            outputStream.write((partNumber + "\t" + eTag + "\n").getBytes("UTF-8"));
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        parts.put(partNumber, eTag);
+    }
+
+    /**
+     * Removes the checkpoint, for when the upload is complete or no longer exists
+     */
+    public void delete() {
+        FileUtil.deleteFile(file);
+    }
+
+    public String uploadId() {
+        return uploadId;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public long partSize() {
+        return partSize;
+    }
+
+    /**
+     * The number of parts the file is split into
+     *
+     * @return number of parts
+     */
+    public int partCount() {
+        return (int) Math.max(1, (fileLength + partSize - 1) / partSize);
+    }
+
+    /**
+     * The acknowledged parts by part number
+     *
+     * @return map from part number to ETag
+     */
+    public synchronized Map<Integer, String> parts() {
+        return new TreeMap<>(parts);
+    }
+
+    public synchronized boolean isAcknowledged(int partNumber) {
+        return parts.containsKey(partNumber);
+    }
+
+    /**
+     * The bytes of the file already acknowledged
+     *
+     * @return size of the acknowledged parts
+     */
+    public synchronized long bytesAcknowledged() {
+        long bytes = 0;
+        for (int partNumber : parts.keySet()) {
+            bytes += partLength(partNumber);
+        }
+        return bytes;
+    }
+
+    /**
+     * The size of a part, which is partSize() for all but the last
+     *
+     * @param partNumber the part number, from 1
+     * @return size of the part in bytes
+     */
+    public long partLength(int partNumber) {
+        return Math.min(partSize, fileLength - (partNumber - 1) * partSize);
+    }
+}
@@ -0,0 +1,139 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.telenor.possumlib.models.UploadMetrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The metrics of the last MAX_RUNS upload runs, one json object per line, without the per-file
+ * lists. Written by the upload service and read by the app, so it is read from the file every
+ * time it is asked.
+ */
+public class UploadHistory {
+    public static final int MAX_RUNS = 50;
+    private final File historyFile;
+    private final JsonParser parser = new JsonParser();
+
+    public UploadHistory(@NonNull File historyFile) {
+        this.historyFile = historyFile;
+    }
+
+    /**
+     * Adds a run, dropping the oldest when there are more than MAX_RUNS
+     *
+     * @param metrics the metrics of the run
+     */
+    public synchronized void add(@NonNull UploadMetrics metrics) {
+        List<String> lines = readLines();
+        lines.add(metrics.toJson(false).toString());
+        while (lines.size() > MAX_RUNS) {
+            lines.remove(0);
+        }
+        File temp = new File(historyFile.getAbsolutePath() + ".tmp");
+        try {
+            Writer writer = new FileWriter(temp);
+            try {
+                for (String line : lines) {
+                    writer.write(line + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(historyFile)) {
+                FileUtil.deleteFile(temp);
+            }
+        } catch (IOException ignore) {
+            // A run missing from the history does not stop the uploads
+        }
+    }
+
+    /**
+     * The runs, oldest first
+     *
+     * @return jsonArray of the runs' metrics
+     */
+    public synchronized JsonArray runs() {
+        JsonArray runs = new JsonArray();
+        for (String line : readLines()) {
+            try {
+                JsonElement run = parser.parse(line);
+                if (run.isJsonObject()) {
+                    runs.add(run);
+                }
+            } catch (JsonParseException ignore) {
+                // Skip a damaged line
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * The runs summed up: the number of runs and files, the bytes, the effective throughput over
+     * the time spent uploading, the mean and max per-file latency and the retried files
+     *
+     * @return jsonObject with the aggregate
+     */
+    public synchronized JsonObject summary() {
+        long runs = 0, completed = 0, failed = 0, canceled = 0, retried = 0, bytes = 0, duration = 0;
+        long latencyCount = 0, latencyTotal = 0, latencyMax = 0;
+        for (JsonElement element : runs()) {
+            JsonObject run = element.getAsJsonObject();
+            runs++;
+            completed += run.get("completed").getAsLong();
+            failed += run.get("failed").getAsLong();
+            canceled += run.get("canceled").getAsLong();
+            retried += run.get("retriedFiles").getAsLong();
+            bytes += run.get("bytes").getAsLong();
+            duration += run.get("duration").getAsLong();
+            JsonObject latency = run.getAsJsonObject("latency");
+            latencyCount += latency.get("count").getAsLong();
+            latencyTotal += latency.get("total").getAsLong();
+            latencyMax = Math.max(latencyMax, latency.get("max").getAsLong());
+        }
+        JsonObject summary = new JsonObject();
+        summary.addProperty("runs", runs);
+        summary.addProperty("completed", completed);
+        summary.addProperty("failed", failed);
+        summary.addProperty("canceled", canceled);
+        summary.addProperty("retriedFiles", retried);
+        summary.addProperty("bytes", bytes);
+        summary.addProperty("duration", duration);
+        summary.addProperty("throughput", bytes * 1000.0 / Math.max(1, duration));
+        summary.addProperty("meanLatency", latencyCount == 0 ? 0 : (double) latencyTotal / latencyCount);
+        summary.addProperty("maxLatency", latencyMax);
+        return summary;
+    }
+
+    private List<String> readLines() {
+        List<String> lines = new ArrayList<>();
+        if (!historyFile.exists()) return lines;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(historyFile));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) lines.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ignore) {
+            // Treated as no history
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,415 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the files staged in the upload directory, kept per detector, so that asking for the
+ * number or size of a detector's staged files does not list the directory and stat every file in
+ * it. The index is updated as files are staged and uploaded, and persisted as a log of lines:
+ * <pre>
+ * possum-upload-index 1
+ * +	length	lastModified	name
+ * -	name
+ * </pre>
+ * with tabs between the fields. The log is compacted when it has grown to more than twice the
+ * entries it describes. When the log cannot be parsed, or the number of files in it does not
+ * match the directory, the index is rebuilt from the directory. The checkpoints of multipart
+ * uploads are not staged files and are left out.
+ */
+public class UploadIndex {
+    private static final String HEADER = "possum-upload-index 1";
+    private final File directory;
+    private final File indexFile;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Summary> summaries = new HashMap<>();
+    private boolean loaded;
+    private long totalSize;
+    private int logLines;
+    private int rebuilds;
+
+    /**
+     * Constructor for the index
+     *
+     * @param directory the upload directory
+     * @param indexFile the file the index is persisted in, must not be in the upload directory
+     */
+    public UploadIndex(@NonNull File directory, @NonNull File indexFile) {
+        this.directory = directory;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * The detector a staged file belongs to, taken from its bucket key
+     * "possumlibdata/version/detector/..."
+     *
+     * @param file a file in the upload directory
+     * @return the name of the detector or null if the file is not named after a bucket key
+     */
+    public static String detectorName(@NonNull File file) {
+        String[] nameSplit = FileUtil.toBucketKey(file).split("/");
+        return nameSplit.length < 3 ? null : nameSplit[2];
+    }
+
+    /**
+     * Registers a file just moved into the upload directory
+     *
+     * @param file the staged file
+     */
+    public synchronized void added(@NonNull File file) {
+        ensureLoaded();
+        Entry entry = new Entry(file.getName(), detectorName(file), file.length(), file.lastModified());
+        put(entry);
+        append(addLine(entry));
+    }
+
+    /**
+     * Registers a file removed from the upload directory, ie uploaded or discarded
+     *
+     * @param file the removed file
+     */
+    public synchronized void removed(@NonNull File file) {
+        ensureLoaded();
+        if (remove(file.getName())) {
+            append("-\t" + file.getName());
+        }
+    }
+
+    /**
+     * The staged files of a detector
+     *
+     * @param detectorName name of the detector
+     * @return list of files, empty if there are none
+     */
+    public synchronized List<File> files(@NonNull String detectorName) {
+        ensureLoaded();
+        List<File> files = new ArrayList<>();
+        Summary summary = summaries.get(detectorName);
+        if (summary != null) {
+            for (Entry entry : summary.entries.values()) {
+                files.add(new File(directory, entry.name));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * The number of staged files of a detector
+     *
+     * @param detectorName name of the detector
+     * @return number of files
+     */
+    public synchronized int count(@NonNull String detectorName) {
+        ensureLoaded();
+        Summary summary = summaries.get(detectorName);
+        return summary == null ? 0 : summary.entries.size();
+    }
+
+    /**
+     * The total size of the staged files of a detector
+     *
+     * @param detectorName name of the detector
+     * @return size in bytes
+     */
+    public synchronized long size(@NonNull String detectorName) {
+        ensureLoaded();
+        Summary summary = summaries.get(detectorName);
+        return summary == null ? 0 : summary.size;
+    }
+
+    /**
+     * The total size of all staged files
+     *
+     * @return size in bytes
+     */
+    public synchronized long totalSize() {
+        ensureLoaded();
+        return totalSize;
+    }
+
+    /**
+     * The detectors that have staged files
+     *
+     * @return list of detector names
+     */
+    public synchronized List<String> detectors() {
+        ensureLoaded();
+        return new ArrayList<>(summaries.keySet());
+    }
+
+    /**
+     * The least recently modified staged file of a detector
+     *
+     * @param detectorName name of the detector
+     * @return the file or null if there are none
+     */
+    public synchronized File oldestFile(@NonNull String detectorName) {
+        ensureLoaded();
+        Summary summary = summaries.get(detectorName);
+        if (summary == null) return null;
+        Entry oldest = null;
+        for (Entry entry : summary.entries.values()) {
+            if (oldest == null || entry.lastModified < oldest.lastModified) {
+                oldest = entry;
+            }
+        }
+        return oldest == null ? null : new File(directory, oldest.name);
+    }
+
+    /**
+     * When the oldest staged file of a detector was last modified
+     *
+     * @param detectorName name of the detector
+     * @return time in epoch millis, 0 if there are no files
+     */
+    public synchronized long oldest(@NonNull String detectorName) {
+        ensureLoaded();
+        Summary summary = summaries.get(detectorName);
+        if (summary == null) return 0;
+        summary.updateRange();
+        return summary.oldest;
+    }
+
+    /**
+     * When the newest staged file of a detector was last modified
+     *
+     * @param detectorName name of the detector
+     * @return time in epoch millis, 0 if there are no files
+     */
+    public synchronized long newest(@NonNull String detectorName) {
+        ensureLoaded();
+        Summary summary = summaries.get(detectorName);
+        if (summary == null) return 0;
+        summary.updateRange();
+        return summary.newest;
+    }
+
+    /**
+     * The number of times the index had to be rebuilt from the directory
+     *
+     * @return number of rebuilds
+     */
+    public synchronized int rebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * Makes the index read its file again the next time it is used. For when the upload directory
+     * is changed behind its back, like when it is cleared.
+     */
+    public synchronized void reload() {
+        loaded = false;
+    }
+
+    /**
+     * Throws away the index and builds it again by listing the upload directory
+     */
+    public synchronized void rebuild() {
+        entries.clear();
+        summaries.clear();
+        totalSize = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (UploadCheckpoint.isCheckpoint(file)) continue;
+                put(new Entry(file.getName(), detectorName(file), file.length(), file.lastModified()));
+            }
+        }
+        loaded = true;
+        rebuilds++;
+        compact();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        entries.clear();
+        summaries.clear();
+        totalSize = 0;
+        if (!load()) {
+            rebuild();
+            return;
+        }
+        loaded = true;
+        if (logLines > 2 * entries.size() + 64) {
+            compact();
+        }
+    }
+
+    /**
+     * Reads the persisted index
+     *
+     * @return false if it is missing, damaged or does not match the directory
+     */
+    private boolean load() {
+        if (!indexFile.exists()) return false;
+        logLines = 0;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(indexFile));
+            try {
+                if (!HEADER.equals(reader.readLine())) return false;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t", 4);
+                    if (parts.length == 4 && parts[0].equals("+")) {
+                        File file = new File(directory, parts[3]);
+                        put(new Entry(parts[3], detectorName(file), Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                    } else if (parts.length == 2 && parts[0].equals("-")) {
+                        remove(parts[1]);
+                    } else {
+                        return false;
+                    }
+                    logLines++;
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+        // Counting names is cheap, it is looking at every file that is not
+        String[] names = directory.list();
+        if (names == null) return false;
+        int staged = 0;
+        for (String name : names) {
+            if (!UploadCheckpoint.isCheckpoint(name)) staged++;
+        }
+        return staged == entries.size();
+    }
+
+    /**
+     * Writes the index anew with one line per entry
+     */
+    private void compact() {
+        File temp = new File(indexFile.getAbsolutePath() + ".tmp");
+        try {
+            Writer writer = new FileWriter(temp);
+            try {
+                writer.write(HEADER + "\n");
+                for (Entry entry : entries.values()) {
+                    writer.write(addLine(entry) + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            if (temp.renameTo(indexFile)) {
+                logLines = entries.size();
+                return;
+            }
+        } catch (IOException ignore) {
+        }
+        // Without a file the index is rebuilt the next time it is loaded
+        FileUtil.deleteFile(temp);
+        FileUtil.deleteFile(indexFile);
+    }
+
+    private static String addLine(Entry entry) {
+        return "+\t" + entry.length + "\t" + entry.lastModified + "\t" + entry.name;
+    }
+
+    private void append(String line) {
+        if (!indexFile.exists()) {
+            compact();
+            return;
+        }
+        try {
+            Writer writer = new FileWriter(indexFile, true);
+            try {
+                writer.write(line + "\n");
+            } finally {
+                writer.close();
+            }
+            logLines++;
+        } catch (IOException e) {
+            FileUtil.deleteFile(indexFile);
+        }
+    }
+
+    private void put(Entry entry) {
+        remove(entry.name);
+        entries.put(entry.name, entry);
+        totalSize += entry.length;
+        if (entry.detector == null) return;
+        Summary summary = summaries.get(entry.detector);
+        if (summary == null) {
+            summary = new Summary();
+            summaries.put(entry.detector, summary);
+        }
+        summary.add(entry);
+    }
+
+    private boolean remove(String name) {
+        Entry entry = entries.remove(name);
+        if (entry == null) return false;
+        totalSize -= entry.length;
+        Summary summary = entry.detector != null ? summaries.get(entry.detector) : null;
+        if (summary != null) {
+            summary.remove(entry);
+            if (summary.entries.isEmpty()) {
+                summaries.remove(entry.detector);
+            }
+        }
+        return true;
+    }
+
+    private static class Entry {
+        private final String name;
+        private final String detector;
+        private final long length;
+        private final long lastModified;
+
+        private Entry(String name, String detector, long length, long lastModified) {
+            this.name = name;
+            this.detector = detector;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * The staged files of one detector. The time range is only worked out again when asked for
+     * after an entry at either end of it was removed.
+     */
+    private static class Summary {
+        private final Map<String, Entry> entries = new HashMap<>();
+        private long size;
+        private long oldest;
+        private long newest;
+        private boolean rangeStale;
+
+        private void add(Entry entry) {
+            entries.put(entry.name, entry);
+            size += entry.length;
+            if (entries.size() == 1 || entry.lastModified < oldest) oldest = entry.lastModified;
+            if (entries.size() == 1 || entry.lastModified > newest) newest = entry.lastModified;
+        }
+
+        private void remove(Entry entry) {
+            entries.remove(entry.name);
+            size -= entry.length;
+            if (entry.lastModified == oldest || entry.lastModified == newest) {
+                rangeStale = true;
+            }
+        }
+
+        private void updateRange() {
+            if (!rangeStale) return;
+            oldest = Long.MAX_VALUE;
+            newest = Long.MIN_VALUE;
+            for (Entry entry : entries.values()) {
+                oldest = Math.min(oldest, entry.lastModified);
+                newest = Math.max(newest, entry.lastModified);
+            }
+            rangeStale = false;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
+
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Terminates detectors and prepares their data for upload on a small pool of worker threads, one
+ * detector per task, so that the time it takes is bounded by the largest detector rather than the
+ * sum of them all. Every detector has its own file and lock, and the shared upload bookkeeping is
+ * synchronized, so the detectors can safely be prepared side by side.
+ */
+public class UploadPreparation {
+    private static final String tag = UploadPreparation.class.getName();
+    private static final int MAX_WORKERS = 4;
+    private static ThreadPoolExecutor workers;
+
+    /**
+     * Terminates each detector and then prepares its upload, in parallel
+     *
+     * @param detectors the detectors to prepare
+     * @return a future completing when all detectors are done, giving the number of detectors
+     * prepared without an exception
+     */
+    public static Future<Integer> prepare(@NonNull Collection<AbstractDetector> detectors) {
+        return prepare(detectors, null);
+    }
+
+    /**
+     * Terminates each detector and then prepares its upload, in parallel, and tells when all are
+     * done
+     *
+     * @param detectors the detectors to prepare
+     * @param whenDone  run on the worker finishing the last detector, or at once on the calling
+     *                  thread if there are no detectors
+     * @return a future completing when all detectors are done, giving the number of detectors
+     * prepared without an exception
+     */
+    public static Future<Integer> prepare(@NonNull Collection<AbstractDetector> detectors, @Nullable Runnable whenDone) {
+        final Completion completion = new Completion(detectors.size(), whenDone);
+        ThreadPoolExecutor executor = workers();
+        for (final AbstractDetector detector : detectors) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean prepared = false;
+                    try {
+                        detector.terminate();
+                        detector.prepareUpload();
+                        prepared = true;
+                    } catch (RuntimeException e) {
+                        // One detector failing must not keep the others from being prepared
+                        Log.e(tag, "Failed to prepare " + detector.detectorName() + ":", e);
+                    } finally {
+                        completion.done(prepared);
+                    }
+                }
+            });
+        }
+        return completion;
+    }
+
+    private static synchronized ThreadPoolExecutor workers() {
+        if (workers == null) {
+            int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_WORKERS));
+            workers = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PossumPrepare-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            workers.allowCoreThreadTimeOut(true);
+        }
+        return workers;
+    }
+
+    /**
+     * Future counting down as the detectors finish
+     */
+    private static class Completion implements Future<Integer> {
+        private final CountDownLatch latch;
+        private final AtomicInteger prepared = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final Runnable whenDone;
+
+        private Completion(int detectors, Runnable whenDone) {
+            latch = new CountDownLatch(detectors);
+            remaining = new AtomicInteger(detectors);
+            this.whenDone = whenDone;
+            if (detectors == 0 && whenDone != null) {
+                whenDone.run();
+            }
+        }
+
+        private void done(boolean success) {
+            if (success) {
+                prepared.incrementAndGet();
+            }
+            latch.countDown();
+            if (remaining.decrementAndGet() == 0 && whenDone != null) {
+                whenDone.run();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        @Override
+        public Integer get() throws InterruptedException, ExecutionException {
+            latch.await();
+            return prepared.get();
+        }
+
+        @Override
+        public Integer get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!latch.await(timeout, unit)) {
+                throw new TimeoutException("Detectors still preparing:" + latch.getCount());
+            }
+            return prepared.get();
+        }
+    }
+}
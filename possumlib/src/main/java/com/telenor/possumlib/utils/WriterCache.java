@@ -0,0 +1,174 @@
+package com.telenor.possumlib.utils;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffered UTF-8 writers kept open per file, so that detectors storing after every event do not
+ * open, write and close their file each time. A writer is opened in append mode the first time a
+ * file is written to, and closed when it has been idle for IDLE_TIMEOUT_MILLI, or when close() is
+ * called. Anything reading, moving or deleting a file written through the cache must close its
+ * writer first, which FileUtil does for its own file operations.
+ */
+public class WriterCache {
+    /**
+     * How long a writer may go unused before it is flushed and closed
+     */
+    public static final long IDLE_TIMEOUT_MILLI = 5000;
+    private static final int BUFFER_SIZE = 8192;
+    private static final Map<String, CachedWriter> writers = new HashMap<>();
+    private static ScheduledExecutorService sweeper;
+    private static int opens;
+
+    /**
+     * Appends text to the file through its cached writer, opening one if needed. The text is
+     * buffered, use flush() or close() to be sure it is in the file.
+     *
+     * @param file the file to append to
+     * @param text the text to append
+     * @throws IOException if the file cannot be opened or written, the writer is closed
+     */
+    public static synchronized void append(@NonNull File file, @NonNull CharSequence text) throws IOException {
+        CachedWriter cached = writers.get(file.getAbsolutePath());
+        if (cached == null) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"), BUFFER_SIZE);
+            cached = new CachedWriter(writer);
+            writers.put(file.getAbsolutePath(), cached);
+            opens++;
+            startSweeper();
+        }
+        try {
+            cached.writer.append(text);
+        } catch (IOException e) {
+            close(file);
+            throw e;
+        }
+        cached.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes what is buffered for the file to it, keeping the writer open
+     *
+     * @param file the file to flush
+     * @throws IOException if the write fails, the writer is closed
+     */
+    public static synchronized void flush(@NonNull File file) throws IOException {
+        CachedWriter cached = writers.get(file.getAbsolutePath());
+        if (cached == null) return;
+        try {
+            cached.writer.flush();
+        } catch (IOException e) {
+            close(file);
+            throw e;
+        }
+    }
+
+    /**
+     * Flushes and closes the writer of the file, if it has one
+     *
+     * @param file the file to close
+     * @return false if the buffered text could not be written
+     */
+    public static synchronized boolean close(@NonNull File file) {
+        CachedWriter cached = writers.remove(file.getAbsolutePath());
+        return cached == null || cached.close();
+    }
+
+    /**
+     * Flushes and closes all writers
+     */
+    public static synchronized void closeAll() {
+        for (CachedWriter cached : writers.values()) {
+            cached.close();
+        }
+        writers.clear();
+    }
+
+    /**
+     * Flushes and closes the writers not used for the given time
+     *
+     * @param idleMillis how long a writer must have been unused
+     * @return the number of writers closed
+     */
+    public static synchronized int closeIdle(long idleMillis) {
+        long now = System.currentTimeMillis();
+        int closed = 0;
+        Iterator<CachedWriter> iterator = writers.values().iterator();
+        while (iterator.hasNext()) {
+            CachedWriter cached = iterator.next();
+            if (now - cached.lastUsed >= idleMillis) {
+                cached.close();
+                iterator.remove();
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * The number of writers presently open
+     *
+     * @return number of open writers
+     */
+    public static synchronized int openWriters() {
+        return writers.size();
+    }
+
+    /**
+     * The number of times a file was opened for writing since the process started
+     *
+     * @return number of opened writers
+     */
+    public static synchronized int opens() {
+        return opens;
+    }
+
+    private static void startSweeper() {
+        if (sweeper != null) return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "PossumWriterCache");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                closeIdle(IDLE_TIMEOUT_MILLI);
+            }
+        }, IDLE_TIMEOUT_MILLI, IDLE_TIMEOUT_MILLI / 2, TimeUnit.MILLISECONDS);
+    }
+
+    private static class CachedWriter {
+        private final Writer writer;
+        private long lastUsed;
+
+        private CachedWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        private boolean close() {
+            try {
+                writer.close();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
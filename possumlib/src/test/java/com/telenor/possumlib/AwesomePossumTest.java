@@ -13,7 +13,10 @@ import android.location.LocationManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.telenor.possumlib.exceptions.GatheringNotAuthorizedException;
+import com.telenor.possumlib.models.TrustScoreCache;
 
 import junit.framework.Assert;
 
@@ -28,6 +31,9 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.shadows.ShadowCamera;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
@@ -110,6 +116,58 @@ public class AwesomePossumTest {
         verify(mockedContext, times(3)).startService(any(Intent.class));
     }
 
+    private static Object staticField(String name) throws Exception {
+        Field field = AwesomePossum.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    private static void setStaticField(String name, Object value) throws Exception {
+        Field field = AwesomePossum.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(null, value);
+    }
+
+    private static void receiveTrust(String uniqueUserId, float score, boolean interim) throws Exception {
+        Intent intent = new Intent();
+        intent.putExtra("message", "{\"trustscore\":{\"score\":" + score + ",\"status\":\"OK\"},\"sensors\":{}}");
+        intent.putExtra("uniqueUserId", uniqueUserId);
+        intent.putExtra("interim", interim);
+        Method handleMethod = AwesomePossum.class.getDeclaredMethod("handleTrustIntent", Intent.class);
+        handleMethod.setAccessible(true);
+        handleMethod.invoke(null, intent);
+    }
+
+    @Test
+    public void testLatestTrustScoreFromCache() throws Exception {
+        if (staticField("parser") == null) {
+            setStaticField("parser", new JsonParser());
+        }
+        try {
+            receiveTrust("user", 0.5f, true);
+            JsonObject interim = AwesomePossum.latestTrustScore();
+            Assert.assertTrue(interim.get("interim").getAsBoolean());
+            Assert.assertFalse(interim.has("age"));
+
+            receiveTrust("user", 0.8f, false);
+            JsonObject latest = AwesomePossum.latestTrustScore();
+            Assert.assertEquals(0.8f, latest.getAsJsonObject("trustScore").get("score").getAsFloat(), 0);
+            Assert.assertTrue(latest.get("age").getAsLong() >= 0);
+            Assert.assertFalse(latest.get("stale").getAsBoolean());
+
+            // Every call gives a copy of its own
+            latest.getAsJsonObject("trustScore").addProperty("score", 0.1f);
+            latest.remove("age");
+            JsonObject again = AwesomePossum.latestTrustScore();
+            Assert.assertEquals(0.8f, again.getAsJsonObject("trustScore").get("score").getAsFloat(), 0);
+            Assert.assertTrue(again.has("age"));
+        } finally {
+            ((TrustScoreCache) staticField("trustScoreCache")).invalidate("user");
+            setStaticField("latestTrustScore", null);
+            setStaticField("trustScoreUserId", null);
+        }
+    }
+
     @Test
     public void testAuthenticate() throws Exception {
 
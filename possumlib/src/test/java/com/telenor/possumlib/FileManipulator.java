@@ -6,7 +6,9 @@ import junit.framework.Assert;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
 
 import com.telenor.possumlib.utils.FileUtil;
 
@@ -52,4 +54,39 @@ public class FileManipulator {
         }
         return file;
     }
+
+    /**
+     * Writes a file as it is staged for upload, named by its key with the slashes replaced
+     *
+     * @param directory    the upload directory
+     * @param key          the key the file is uploaded to
+     * @param lastModified when the file was staged
+     * @param length       the number of bytes in the file
+     * @return the staged file
+     */
+    public static File stagedFile(File directory, String key, long lastModified, int length) throws IOException {
+        File file = new File(directory, key.replace('/', '#'));
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[length]);
+        } finally {
+            outputStream.close();
+        }
+        Assert.assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    /**
+     * Writes the zip of a detector as it is staged for upload, staged at its timestamp
+     *
+     * @param directory the upload directory
+     * @param detector  the name of the detector
+     * @param user      the user the data is gathered for
+     * @param timestamp when the data was stored
+     * @param length    the number of bytes in the file
+     * @return the staged file
+     */
+    public static File stagedDetectorFile(File directory, String detector, String user, long timestamp, int length) throws IOException {
+        return stagedFile(directory, "possumlibdata/1.0/" + detector + "/" + user + "/" + timestamp + ".zip", timestamp, length);
+    }
 }
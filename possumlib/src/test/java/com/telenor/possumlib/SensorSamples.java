@@ -0,0 +1,99 @@
+package com.telenor.possumlib;
+
+import com.telenor.possumlib.constants.DetectorType;
+import com.telenor.possumlib.models.GorillaRecordWriter;
+import com.telenor.possumlib.models.SensorSampleBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Sample streams for the codec tests and benchmarks, and the two ways of encoding them
+ */
+public class SensorSamples {
+    /**
+     * Smooth synthetic movement with gaussian noise and perfectly regular timestamps
+     */
+    public static SensorSampleBuffer synthetic(int count) {
+        SensorSampleBuffer samples = new SensorSampleBuffer();
+        Random random = new Random(42);
+        long timestamp = 1500000000000L;
+        for (int i = 0; i < count; i++) {
+            samples.add(timestamp + i * 50,
+                    (float) (Math.sin(i / 10.0) + random.nextGaussian() * 0.05),
+                    (float) (Math.cos(i / 10.0) + random.nextGaussian() * 0.05),
+                    (float) (9.81 + random.nextGaussian() * 0.05));
+        }
+        return samples;
+    }
+
+    /**
+     * Imitates recorded accelerometer data: values quantized to the resolution of a 12 bit +-2g
+     * sensor, slow drift while the phone lies still, bursts of walking, timestamps with jitter and
+     * the occasional gap when the sensor was paused
+     */
+    public static SensorSampleBuffer recordedLike(int count) {
+        SensorSampleBuffer samples = new SensorSampleBuffer();
+        Random random = new Random(7);
+        float resolution = 0.0095768f;
+        long timestamp = 1500000000000L;
+        for (int i = 0; i < count; i++) {
+            boolean walking = (i / 2000) % 2 == 1;
+            double x = walking ? 3 * Math.sin(i / 3.0) + random.nextGaussian() * 0.5 : 0.02 + random.nextGaussian() * 0.01;
+            double y = walking ? 2 * Math.cos(i / 3.0) + random.nextGaussian() * 0.5 : -0.03 + random.nextGaussian() * 0.01;
+            double z = walking ? 9.81 + 4 * Math.sin(i / 1.5) + random.nextGaussian() * 0.5 : 9.78 + random.nextGaussian() * 0.01;
+            samples.add(timestamp,
+                    Math.round(x / resolution) * resolution,
+                    Math.round(y / resolution) * resolution,
+                    Math.round(z / resolution) * resolution);
+            timestamp += 50 + random.nextInt(5) - 2;
+            if (random.nextInt(5000) == 0) {
+                timestamp += 60000;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Encodes the samples as a gorilla record, written in batches as the detector does
+     */
+    public static byte[] encodeGorilla(SensorSampleBuffer samples, int batchSize) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        GorillaRecordWriter writer = new GorillaRecordWriter(outputStream, DetectorType.Accelerometer, 20, samples.timestamp(0));
+        SensorSampleBuffer batch = new SensorSampleBuffer(batchSize);
+        for (int i = 0; i < samples.size(); i++) {
+            batch.add(samples.timestamp(i), samples.x(i), samples.y(i), samples.z(i));
+            if (batch.size() == batchSize) {
+                writer.write(batch);
+                batch.clear();
+            }
+        }
+        writer.write(batch);
+        writer.close();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Encodes the samples as lines of text in a zip stream, written in batches as the detector does
+     */
+    public static byte[] encodeTextZip(SensorSampleBuffer samples, int batchSize) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ZipOutputStream zipStream = new ZipOutputStream(outputStream);
+        zipStream.putNextEntry(new ZipEntry("accelerometer"));
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < samples.size(); i++) {
+            samples.appendJson(i, builder);
+            builder.append("\r\n");
+            if ((i + 1) % batchSize == 0) {
+                zipStream.write(builder.toString().getBytes());
+                builder.setLength(0);
+            }
+        }
+        zipStream.write(builder.toString().getBytes());
+        zipStream.close();
+        return outputStream.toByteArray();
+    }
+}
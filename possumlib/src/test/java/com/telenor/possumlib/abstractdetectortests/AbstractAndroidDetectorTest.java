@@ -11,8 +11,10 @@ import com.telenor.possumlib.FileManipulator;
 import com.telenor.possumlib.JodaInit;
 import com.telenor.possumlib.PossumTestRunner;
 import com.telenor.possumlib.abstractdetectors.AbstractAndroidDetector;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.models.SensorSampleBuffer;
 import com.telenor.possumlib.utils.FileUtil;
 
 import org.junit.After;
@@ -27,6 +29,12 @@ import org.robolectric.Shadows;
 import org.robolectric.shadows.ShadowSensorManager;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
@@ -194,4 +202,163 @@ public class AbstractAndroidDetectorTest { // extends GeneralSensorTest
         abstractAndroidDetector.stopListening();
         Assert.assertFalse(abstractAndroidDetector.isListening());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStoreDataDoesNotWaitForSlowWrite() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int[] written = new int[1];
+        abstractAndroidDetector = new AbstractAndroidDetector(mockedContext, Sensor.TYPE_ACCELEROMETER, "fakeUnique", eventBus, false) {
+            @Override
+            protected int detectorRequestCode() {
+                return 0;
+            }
+
+            @Override
+            public int detectorType() {
+                return DetectorType.Accelerometer;
+            }
+
+            @Override
+            public String detectorName() {
+                return "Accelerometer";
+            }
+
+            @Override
+            public String requiredPermission() {
+                return null;
+            }
+
+            @Override
+            public File storedData() {
+                return mockedFile;
+            }
+
+            @Override
+            protected void writeSamples(File file, SensorSampleBuffer buffer) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                written[0] += buffer.size();
+            }
+        };
+        // Stored as from the sensor thread, which does not take the lock the writer holds
+        Method storeMethod = AbstractAndroidDetector.class.getDeclaredMethod("storeData", File.class);
+        storeMethod.setAccessible(true);
+        abstractAndroidDetector.samples().add(0, 1, 2, 3);
+        storeMethod.invoke(abstractAndroidDetector, mockedFile);
+        Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+        // The writer is blocked, yet storing returns and the samples are taken from the detector
+        Assert.assertTrue(abstractAndroidDetector.samples().isEmpty());
+        Assert.assertEquals(0, written[0]);
+
+        // With the only spare buffer in the writer, further samples are dropped, not queued
+        for (int i = 1; i < 3; i++) {
+            abstractAndroidDetector.samples().add(i, 1, 2, 3);
+            storeMethod.invoke(abstractAndroidDetector, mockedFile);
+            Assert.assertTrue(abstractAndroidDetector.samples().isEmpty());
+        }
+        Assert.assertEquals(2, abstractAndroidDetector.droppedSamples());
+        Assert.assertEquals(1, abstractAndroidDetector.flushQueueDepth().max());
+
+        release.countDown();
+        Method awaitMethod = AbstractAndroidDetector.class.getDeclaredMethod("awaitWrites");
+        awaitMethod.setAccessible(true);
+        Assert.assertTrue((Boolean) awaitMethod.invoke(abstractAndroidDetector));
+        Assert.assertEquals(1, written[0]);
+
+        abstractAndroidDetector.samples().add(3, 1, 2, 3);
+        abstractAndroidDetector.storeData();
+        Assert.assertTrue((Boolean) awaitMethod.invoke(abstractAndroidDetector));
+        Assert.assertEquals(2, written[0]);
+        Assert.assertEquals(2, abstractAndroidDetector.flushLatency().count());
+        Assert.assertEquals(2, abstractAndroidDetector.droppedSamples());
+    }
+
+    @Test
+    public void testTerminateShutsDownWriter() throws Exception {
+        abstractAndroidDetector.samples().add(0, 1, 2, 3);
+        abstractAndroidDetector.storeData();
+        Field writerField = AbstractAndroidDetector.class.getDeclaredField("writer");
+        writerField.setAccessible(true);
+        ExecutorService writer = (ExecutorService) writerField.get(abstractAndroidDetector);
+        Assert.assertNotNull(writer);
+        abstractAndroidDetector.terminate();
+        Assert.assertTrue(writer.isShutdown());
+    }
+
+    @Test
+    public void testFlushAfterLockTimeoutStillWrites() throws Exception {
+        final int[] written = new int[1];
+        final boolean[] timeOut = {true};
+        abstractAndroidDetector = new AbstractAndroidDetector(mockedContext, Sensor.TYPE_ACCELEROMETER, "fakeUnique", eventBus, false) {
+            @Override
+            protected int detectorRequestCode() {
+                return 0;
+            }
+
+            @Override
+            public int detectorType() {
+                return DetectorType.Accelerometer;
+            }
+
+            @Override
+            public String detectorName() {
+                return "Accelerometer";
+            }
+
+            @Override
+            public String requiredPermission() {
+                return null;
+            }
+
+            @Override
+            public File storedData() {
+                return mockedFile;
+            }
+
+            @Override
+            protected void lock() {
+                if (timeOut[0]) {
+                    // As lock() does once the lock has been held by another thread past the timeout
+                    throw new RuntimeException("Unable to acquire lock");
+                }
+                super.lock();
+            }
+
+            @Override
+            protected void writeSamples(File file, SensorSampleBuffer buffer) throws IOException {
+                written[0] += buffer.size();
+            }
+        };
+        Method lockMethod = AbstractDetector.class.getDeclaredMethod("lock");
+        lockMethod.setAccessible(true);
+        Method unlockMethod = AbstractDetector.class.getDeclaredMethod("unlock");
+        unlockMethod.setAccessible(true);
+        Method storeMethod = AbstractAndroidDetector.class.getDeclaredMethod("storeData", File.class);
+        storeMethod.setAccessible(true);
+        Method awaitMethod = AbstractAndroidDetector.class.getDeclaredMethod("awaitWrites");
+        awaitMethod.setAccessible(true);
+
+        // The lock is held by this thread while the writer times out waiting for it
+        timeOut[0] = false;
+        lockMethod.invoke(abstractAndroidDetector);
+        timeOut[0] = true;
+        abstractAndroidDetector.samples().add(0, 1, 2, 3);
+        storeMethod.invoke(abstractAndroidDetector, mockedFile);
+        Assert.assertTrue((Boolean) awaitMethod.invoke(abstractAndroidDetector));
+        Assert.assertEquals(0, written[0]);
+        unlockMethod.invoke(abstractAndroidDetector);
+
+        // The buffer was given back, so the next flush is written instead of dropped
+        timeOut[0] = false;
+        abstractAndroidDetector.samples().add(1, 1, 2, 3);
+        storeMethod.invoke(abstractAndroidDetector, mockedFile);
+        Assert.assertTrue((Boolean) awaitMethod.invoke(abstractAndroidDetector));
+        Assert.assertEquals(1, written[0]);
+        Assert.assertEquals(0, abstractAndroidDetector.droppedSamples());
+    }
+}
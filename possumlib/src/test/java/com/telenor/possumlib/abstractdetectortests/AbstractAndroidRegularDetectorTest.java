@@ -7,8 +7,12 @@ import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 
 import com.telenor.possumlib.FileManipulator;
 import com.telenor.possumlib.JodaInit;
@@ -20,6 +24,7 @@ import com.telenor.possumlib.changeevents.PossumEvent;
 import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.interfaces.IPossumEventListener;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.utils.SensorThreads;
 
 import org.joda.time.DateTime;
 import org.junit.After;
@@ -29,6 +34,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.Shadows;
 import org.robolectric.annotation.Config;
@@ -43,6 +50,7 @@ import java.lang.reflect.Method;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -149,14 +157,88 @@ public class AbstractAndroidRegularDetectorTest {
         Field nanoField = AbstractAndroidRegularDetector.class.getDeclaredField("MIN_INTERVAL_MICRO");
         nanoField.setAccessible(true);
         int nanoTime = (int) nanoField.getLong(androidRegularSensor);
-        verify(mockedSensorManager, times(1)).registerListener(any(SensorEventListener.class), eq(mockedSensor), eq(nanoTime));
+        verify(mockedSensorManager, times(1)).registerListener(any(SensorEventListener.class), eq(mockedSensor), eq(nanoTime), any(Handler.class));
 
         androidRegularSensor.stopListening();
         verify(mockedSensorManager, times(1)).unregisterListener(any(SensorEventListener.class), eq(mockedSensor));
     }
 
+    @Test
+    public void testBatchingRegistersWithReportLatencyAndFlushesOnStop() throws Exception {
+        when(mockedContext.getSystemService(Context.SENSOR_SERVICE)).thenReturn(mockedSensorManager);
+        when(mockedSensorManager.getDefaultSensor(anyInt())).thenReturn(mockedSensor);
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                ((SensorEventListener2) invocation.getArguments()[0]).onFlushCompleted(mockedSensor);
+                return true;
+            }
+        }).when(mockedSensorManager).flush(any(SensorEventListener.class));
+        androidRegularSensor = getDetector(mockedContext, eventBus, true);
+        Assert.assertTrue(androidRegularSensor.startListening());
+        Assert.assertTrue(androidRegularSensor.isBatching());
+        Field microField = AbstractAndroidRegularDetector.class.getDeclaredField("MIN_INTERVAL_MICRO");
+        microField.setAccessible(true);
+        int interval = (int) microField.getLong(androidRegularSensor);
+        verify(mockedSensorManager, times(1)).registerListener(any(SensorEventListener.class), eq(mockedSensor), eq(interval), eq(5000 * interval), any(Handler.class));
+
+        androidRegularSensor.stopListening();
+        verify(mockedSensorManager, times(1)).flush(any(SensorEventListener.class));
+        verify(mockedSensorManager, times(1)).unregisterListener(any(SensorEventListener.class), eq(mockedSensor));
+        Assert.assertFalse(androidRegularSensor.isBatching());
+    }
+
+    @Test
+    public void testBatchingNotUsedWithoutFifo() throws Exception {
+        when(mockedSensor.getFifoMaxEventCount()).thenReturn(0);
+        when(mockedContext.getSystemService(Context.SENSOR_SERVICE)).thenReturn(mockedSensorManager);
+        when(mockedSensorManager.getDefaultSensor(anyInt())).thenReturn(mockedSensor);
+        androidRegularSensor = getDetector(mockedContext, eventBus, true);
+        Assert.assertTrue(androidRegularSensor.startListening());
+        Assert.assertFalse(androidRegularSensor.isBatching());
+        verify(mockedSensorManager, times(1)).registerListener(any(SensorEventListener.class), eq(mockedSensor), anyInt(), any(Handler.class));
+    }
+
+    @Test
+    public void testBatchSizes() throws Exception {
+        SensorEvent event = SensorEvents.createSensorEvent(mockedSensor, System.currentTimeMillis(), 0, 10, 10, 10);
+        Assert.assertTrue(androidRegularSensor.startListening());
+        for (int i = 0; i < 3; i++) {
+            androidRegularSensor.onSensorChanged(event);
+        }
+        SystemClock.sleep(1000);
+        for (int i = 0; i < 2; i++) {
+            androidRegularSensor.onSensorChanged(event);
+        }
+        Assert.assertEquals(1, androidRegularSensor.batchSizes().count());
+        androidRegularSensor.stopListening();
+        Assert.assertEquals(2, androidRegularSensor.batchSizes().count());
+        Assert.assertEquals(5, androidRegularSensor.batchSizes().total());
+        Assert.assertEquals(3, androidRegularSensor.batchSizes().max());
+        Assert.assertEquals(2, androidRegularSensor.batchSizes().last());
+        Assert.assertEquals(2, androidRegularSensor.toJson().getAsJsonObject("batchSizes").get("count").getAsLong());
+    }
+
+    @Test
+    public void testEventsNotDeliveredOnMainThread() throws Exception {
+        Method handlerMethod = AbstractDetector.class.getDeclaredMethod("sensorHandler");
+        handlerMethod.setAccessible(true);
+        Handler handler = (Handler) handlerMethod.invoke(androidRegularSensor);
+        Assert.assertNotEquals(Looper.getMainLooper(), handler.getLooper());
+        Assert.assertEquals(SensorThreads.DEFAULT, handler.getLooper().getThread().getName());
+    }
+
     private AbstractAndroidRegularDetector getDetector(Context context, PossumBus eventBus) {
+        return getDetector(context, eventBus, false);
+    }
+
+    private AbstractAndroidRegularDetector getDetector(Context context, PossumBus eventBus, final boolean batching) {
         return new AbstractAndroidRegularDetector(context, Sensor.TYPE_ACCELEROMETER, "fakeUnique", eventBus, false) {
+            @Override
+            protected boolean batchingEnabled() {
+                return batching;
+            }
+
             @Override
             protected int detectorRequestCode() {
                 return requestCode;
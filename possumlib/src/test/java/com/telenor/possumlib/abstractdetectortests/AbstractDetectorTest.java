@@ -10,6 +10,7 @@ import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.interfaces.ISensorStatusUpdate;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.utils.WriterCache;
 
 import org.joda.time.DateTime;
 import org.junit.After;
@@ -59,6 +60,7 @@ public class AbstractDetectorTest {
     @After
     public void tearDown() throws Exception {
         abstractDetector = null;
+        WriterCache.close(fakedStoredData);
         if (fakedStoredData.exists()) {
             Assert.assertTrue(fakedStoredData.delete());
         }
@@ -138,6 +140,15 @@ public class AbstractDetectorTest {
         Assert.assertEquals(160, abstractDetector.fileSize());
     }
 
+    @Test
+    public void testFileSizeCountsBufferedWrites() throws Exception {
+        String line = "[\"1\",\"2\"]\r\n";
+        WriterCache.append(fakedStoredData, line);
+        Assert.assertEquals(0, fakedStoredData.length());
+        Assert.assertEquals(line.length(), abstractDetector.fileSize());
+        Assert.assertTrue(WriterCache.close(fakedStoredData));
+    }
+
     @Test
     public void testStartListeningWhenEnabled() throws Exception {
         Assert.assertTrue(abstractDetector.startListening());
@@ -9,6 +9,7 @@ import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.interfaces.IPossumEventListener;
 import com.telenor.possumlib.models.PossumBus;
 import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.WriterCache;
 
 import junit.framework.Assert;
 
@@ -159,6 +160,7 @@ public class AbstractEventDrivenDetectorTest {
         abstractEventDrivenDetector.startListening();
         eventBus.post(new TestChangeEvent("test"));
         Assert.assertEquals(0, abstractEventDrivenDetector.sessionValues().size());
+        WriterCache.flush(abstractEventDrivenDetector.storedData());
         Assert.assertTrue(abstractEventDrivenDetector.storedData().length() > 0);
     }
 
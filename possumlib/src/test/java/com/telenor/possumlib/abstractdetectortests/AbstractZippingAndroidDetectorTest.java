@@ -8,11 +8,19 @@ import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.os.PowerManager;
 
+import com.telenor.possumlib.AwesomePossum;
 import com.telenor.possumlib.JodaInit;
 import com.telenor.possumlib.PossumTestRunner;
 import com.telenor.possumlib.abstractdetectors.AbstractZippingAndroidDetector;
 import com.telenor.possumlib.constants.DetectorType;
+import com.telenor.possumlib.constants.StorageFormat;
+import com.telenor.possumlib.models.GorillaRecordWriter;
+import com.telenor.possumlib.models.JournalWriter;
+import com.telenor.possumlib.models.MappedOutputStream;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.models.SensorRecordWriter;
+import com.telenor.possumlib.models.SensorSampleBuffer;
+import com.telenor.possumlib.utils.FileUtil;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -24,6 +32,7 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.shadows.ShadowApplication;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
@@ -41,6 +50,7 @@ public class AbstractZippingAndroidDetectorTest {
     private boolean wakeLockActivated;
     private long authenticationListenInterval = 1000;
     private long sizeOfUpload;
+    private long stagedLength;
     private File fakeFile;
     @Mock
     private Context mockedContext;
@@ -68,6 +78,7 @@ public class AbstractZippingAndroidDetectorTest {
         JodaInit.initializeJodaTime();
 
         when(mockedContext.getString(anyInt())).thenReturn("Accelerometer");
+        when(mockedContext.getFilesDir()).thenReturn(RuntimeEnvironment.application.getFilesDir());
         when(mockedContext.checkPermission(anyString(), anyInt(), anyInt())).thenReturn(PackageManager.PERMISSION_GRANTED);
         when(mockedContext.getSystemService(Context.SENSOR_SERVICE)).thenReturn(mockedSensorManager);
         when(mockedContext.getSystemService(Context.POWER_SERVICE)).thenReturn(mockedPowerManager);
@@ -86,6 +97,7 @@ public class AbstractZippingAndroidDetectorTest {
 
             @Override
             public boolean stageForUpload(File file) {
+                stagedLength = file.length();
                 return file.length() > 0;
             }
 
@@ -114,6 +126,8 @@ public class AbstractZippingAndroidDetectorTest {
     @After
     public void tearDown() throws Exception {
         androidSensor = null;
+        FileUtil.detectorSettings(RuntimeEnvironment.application).setStorageFormat(DetectorType.Accelerometer, StorageFormat.TEXT_ZIP);
+        FileUtil.detectorSettings(RuntimeEnvironment.application).setMemoryMapped(DetectorType.Accelerometer, false);
     }
 
     @Test
@@ -216,4 +230,133 @@ public class AbstractZippingAndroidDetectorTest {
         Assert.assertNotSame(outerStream.get(androidSensor), zipStream);
         // It is recreated, should not be identical
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSegmentRotatedWhenFull() throws Exception {
+        final int[] staged = new int[1];
+        androidSensor = new AbstractZippingAndroidDetector(mockedContext, Sensor.TYPE_ACCELEROMETER, "fakeUnique", new PossumBus(), false) {
+            @Override
+            protected int detectorRequestCode() {
+                return 13371337;
+            }
+
+            @Override
+            public File storedData() {
+                return fakeFile;
+            }
+
+            @Override
+            public boolean stageForUpload(File file) {
+                staged[0]++;
+                return true;
+            }
+
+            @Override
+            protected long maxSegmentSize() {
+                return 1;
+            }
+
+            @Override
+            public int detectorType() {
+                return DetectorType.Accelerometer;
+            }
+
+            @Override
+            public String detectorName() {
+                return "Accelerometer";
+            }
+
+            @Override
+            public String requiredPermission() {
+                return null;
+            }
+        };
+        Assert.assertTrue(androidSensor.startListening());
+        Method awaitMethod = AbstractZippingAndroidDetector.class.getSuperclass().getSuperclass().getDeclaredMethod("awaitWrites");
+        awaitMethod.setAccessible(true);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 1000; j++) {
+                androidSensor.samples().add(j, j, j, j);
+            }
+            androidSensor.storeData();
+            // Samples stored while the previous write is still going are dropped
+            Assert.assertTrue((Boolean) awaitMethod.invoke(androidSensor));
+        }
+        Assert.assertEquals(3, androidSensor.segmentsStaged());
+        Assert.assertEquals(3, staged[0]);
+        androidSensor.stopListening();
+        Assert.assertEquals(4, androidSensor.segmentsStaged());
+    }
+
+    @Test
+    public void testUnfinishedJournalRecoveredOnStart() throws Exception {
+        JournalWriter writer = new JournalWriter(fakeFile, 0);
+        byte[] record = "[\"1\",\"1.0\",\"2.0\",\"3.0\"]\r\n".getBytes();
+        writer.append(record, 0, record.length);
+        // Never closed, as when the process is killed
+        Assert.assertEquals(0, androidSensor.segmentsRecovered());
+        Assert.assertTrue(androidSensor.startListening());
+        Assert.assertEquals(1, androidSensor.segmentsRecovered());
+        Assert.assertFalse(new File(fakeFile.getAbsolutePath() + ".zip").exists());
+    }
+
+    @Test
+    public void testUnfinishedMappedRecordTruncatedOnRecovery() throws Exception {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        SensorRecordWriter writer = new SensorRecordWriter(record, DetectorType.Accelerometer, 20, 1000);
+        SensorSampleBuffer samples = new SensorSampleBuffer();
+        samples.add(1000, 1, 2, 3);
+        samples.add(1050, 4, 5, 6);
+        writer.write(samples);
+        // Left as a mapped region is when the process is killed, with its unwritten part zero
+        OutputStream outputStream = new FileOutputStream(fakeFile);
+        outputStream.write(record.toByteArray());
+        outputStream.write(new byte[64 * 1024]);
+        outputStream.close();
+
+        Assert.assertTrue(androidSensor.startListening());
+        Assert.assertEquals(1, androidSensor.segmentsRecovered());
+        Assert.assertEquals(SensorRecordWriter.HEADER_SIZE + 2 * SensorRecordWriter.FRAME_SIZE, stagedLength);
+        androidSensor.stopListening();
+    }
+
+    @Test
+    public void testStorageFormatChosenInSettings() throws Exception {
+        Field outerStreamField = AbstractZippingAndroidDetector.class.getDeclaredField("outerStream");
+        outerStreamField.setAccessible(true);
+        Field recordWriterField = AbstractZippingAndroidDetector.class.getDeclaredField("recordWriter");
+        recordWriterField.setAccessible(true);
+        FileUtil.detectorSettings(RuntimeEnvironment.application).setStorageFormat(DetectorType.Accelerometer, StorageFormat.GORILLA);
+        Assert.assertTrue(androidSensor.startListening());
+        Assert.assertNull(outerStreamField.get(androidSensor));
+        Assert.assertTrue(recordWriterField.get(androidSensor) instanceof GorillaRecordWriter);
+        androidSensor.stopListening();
+
+        // The change is picked up by the next segment
+        FileUtil.detectorSettings(RuntimeEnvironment.application).setStorageFormat(DetectorType.Accelerometer, StorageFormat.TEXT_ZIP);
+        Assert.assertTrue(androidSensor.startListening());
+        Assert.assertNotNull(outerStreamField.get(androidSensor));
+        Assert.assertNull(recordWriterField.get(androidSensor));
+        androidSensor.stopListening();
+    }
+
+    @Test
+    public void testMemoryMappedChosenInSettings() throws Exception {
+        Field mappedStreamField = AbstractZippingAndroidDetector.class.getDeclaredField("mappedStream");
+        mappedStreamField.setAccessible(true);
+        AwesomePossum.setStorageFormat(RuntimeEnvironment.application, DetectorType.Accelerometer, StorageFormat.BINARY);
+        Assert.assertTrue(androidSensor.startListening());
+        Assert.assertNull(mappedStreamField.get(androidSensor));
+        androidSensor.stopListening();
+
+        AwesomePossum.setMemoryMapped(RuntimeEnvironment.application, DetectorType.Accelerometer, true);
+        Assert.assertTrue(androidSensor.startListening());
+        Assert.assertTrue(mappedStreamField.get(androidSensor) instanceof MappedOutputStream);
+        for (int i = 0; i < 100; i++) {
+            androidSensor.samples().add(i, i, i, i);
+        }
+        androidSensor.storeData();
+        androidSensor.stopListening();
+        Assert.assertNull(mappedStreamField.get(androidSensor));
+    }
+}
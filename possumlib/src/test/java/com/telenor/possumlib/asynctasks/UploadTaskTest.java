@@ -29,10 +29,10 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @RunWith(PossumTestRunner.class)
-public class AmazonAsyncUploadTest {
+public class UploadTaskTest {
     private Context mockedContext;
 
-    private AmazonAsyncUpload amazonAsyncUpload;
+    private UploadTask uploadTask;
     private IWrite mockedListener;
     private TransferUtility mockedTransferUtility;
     private File dataDir;
@@ -78,13 +78,13 @@ public class AmazonAsyncUploadTest {
 //            }
 //        }).when(mockedDetector2).prepareUpload();
 //
-//        amazonAsyncUpload = new InstrumentedConnection();
+//        uploadTask = new InstrumentedConnection();
         Robolectric.flushBackgroundThreadScheduler();
     }
 
     @After
     public void tearDown() throws Exception {
-        amazonAsyncUpload = null;
+        uploadTask = null;
         FileUtil.clearDirectory(RuntimeEnvironment.application, dataDir);
         Thread.sleep(100); // Fix for shadowApplication being dead on test, causing shadowAsync do give nullPointer
     }
@@ -97,10 +97,10 @@ public class AmazonAsyncUploadTest {
 //    @Test
 //    public void testInvalidInit() throws Exception {
 //        try {
-//            amazonAsyncUpload = new UploadConnection(null, mockedListener, mockedTransferUtility, null);
+//            uploadTask = new UploadConnection(null, mockedListener, mockedTransferUtility, null);
 //            Assert.fail("Should not accept missing context");
 //        } catch (Exception e) {
-//            Assert.assertEquals("Missing context on amazonAsyncUpload", e.getMessage());
+//            Assert.assertEquals("Missing context on uploadTask", e.getMessage());
 //        }
 //    }
 
@@ -128,7 +128,7 @@ public class AmazonAsyncUploadTest {
 //    }
 
 //    private void execute() {
-//        amazonAsyncUpload.execute((Void) null);
+//        uploadTask.execute((Void) null);
 //        ArgumentCaptor<Runnable> continuationCaptor = ArgumentCaptor.forClass(Runnable.class);
 //        continuationCaptor.getValue().run();
 //    }
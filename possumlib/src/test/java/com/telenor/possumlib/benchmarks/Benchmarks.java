@@ -0,0 +1,14 @@
+package com.telenor.possumlib.benchmarks;
+
+import java.util.Locale;
+
+/**
+ * The benchmarks are left out of the unit tests and only run when asked for, with
+ * ./gradlew :possumlib:testDebugUnitTest -Pbenchmarks --tests '*Benchmark'
+ * They report their numbers and assert nothing on time.
+ */
+public class Benchmarks {
+    public static void report(String format, Object... args) {
+        System.out.println(String.format(Locale.US, format, args));
+    }
+}
@@ -0,0 +1,53 @@
+package com.telenor.possumlib.benchmarks;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.SensorSamples;
+import com.telenor.possumlib.models.SensorSampleBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+/**
+ * Reports the time spent encoding with the gorilla codec against the text in zip stream it
+ * replaces. Only reports, as timings vary too much between machines to assert on.
+ */
+@RunWith(PossumTestRunner.class)
+public class GorillaCodecBenchmark {
+    private static final int SAMPLES = 20000;
+    private static final int BATCH = 500;
+    private static final int RUNS = 5;
+
+    private long bestEncodingTime(SensorSampleBuffer samples, boolean gorilla) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            if (gorilla) {
+                SensorSamples.encodeGorilla(samples, BATCH);
+            } else {
+                SensorSamples.encodeTextZip(samples, BATCH);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private void report(String name, SensorSampleBuffer samples) throws IOException {
+        // Warm up both paths before measuring
+        bestEncodingTime(samples, true);
+        bestEncodingTime(samples, false);
+        long gorilla = bestEncodingTime(samples, true);
+        long zip = bestEncodingTime(samples, false);
+        int gorillaSize = SensorSamples.encodeGorilla(samples, BATCH).length;
+        int zipSize = SensorSamples.encodeTextZip(samples, BATCH).length;
+        Benchmarks.report("GorillaCodec %s: gorilla %.2fms %d bytes, text zip %.2fms %d bytes, %.1fx faster, %.1fx smaller",
+                name, gorilla / 1e6, gorillaSize, zip / 1e6, zipSize, (double) zip / gorilla, (double) zipSize / gorillaSize);
+    }
+
+    @Test
+    public void encodingTime() throws Exception {
+        report("synthetic", SensorSamples.synthetic(SAMPLES));
+        report("recorded", SensorSamples.recordedLike(SAMPLES));
+    }
+}
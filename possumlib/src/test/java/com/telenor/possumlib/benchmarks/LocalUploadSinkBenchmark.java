@@ -0,0 +1,104 @@
+package com.telenor.possumlib.benchmarks;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.functionality.LocalUploadSink;
+import com.telenor.possumlib.functionality.UploadScheduler;
+import com.telenor.possumlib.interfaces.IUploadSchedulerListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reports the throughput of the upload scheduler over the local sink, the files and bytes per
+ * second and the heap it takes. Only reports, as timings vary too much between machines to assert
+ * on.
+ */
+@RunWith(PossumTestRunner.class)
+public class LocalUploadSinkBenchmark {
+    private static final String[] DETECTORS = {"accelerometer", "gyroscope", "position", "network", "MetaData"};
+    private static final int FILES = 3000;
+    private File staging;
+    private File bucket;
+
+    @Before
+    public void setUp() throws Exception {
+        staging = File.createTempFile("staging", null);
+        if (!staging.delete() || !staging.mkdir()) {
+            throw new IOException("Failed to create " + staging);
+        }
+        bucket = File.createTempFile("bucket", null);
+        if (!bucket.delete()) {
+            throw new IOException("Failed to delete " + bucket);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(staging);
+        delete(bucket);
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Test
+    public void throughput() throws Exception {
+        Random random = new Random(7);
+        List<File> staged = new ArrayList<>();
+        long bytes = 0;
+        for (int i = 0; i < FILES; i++) {
+            byte[] content = new byte[512 + random.nextInt(8 * 1024)];
+            random.nextBytes(content);
+            String key = "possumlibdata/1.0/" + DETECTORS[i % DETECTORS.length] + "/user/" + (1500000000000L + i);
+            File file = new File(staging, key.replace('/', '#'));
+            FileOutputStream outputStream = new FileOutputStream(file);
+            outputStream.write(content);
+            outputStream.close();
+            staged.add(file);
+            bytes += content.length;
+        }
+        final int[] completed = new int[1];
+        UploadScheduler scheduler = new UploadScheduler(new LocalUploadSink(bucket), new IUploadSchedulerListener() {
+            @Override
+            public void allUploadsFinished(int completedUploads, int failed, int canceled) {
+                completed[0] = completedUploads;
+            }
+
+            @Override
+            public void uploadProgress(File file, long bytesCurrent, long bytesTotal) {
+            }
+
+            @Override
+            public void uploadFinished(File file, int result) {
+            }
+        }, 4);
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        scheduler.schedule(staged);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
+        double seconds = elapsed / 1e9;
+        Benchmarks.report("LocalUploadSink: %d of %d files, %d bytes in %.3fs, %.0f files/s, %.0f KB/s, heap %+d KB",
+                completed[0], FILES, bytes, seconds, FILES / seconds, bytes / 1024.0 / seconds, (memoryAfter - memoryBefore) / 1024);
+    }
+}
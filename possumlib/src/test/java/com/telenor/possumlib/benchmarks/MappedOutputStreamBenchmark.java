@@ -0,0 +1,121 @@
+package com.telenor.possumlib.benchmarks;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.SensorSamples;
+import com.telenor.possumlib.constants.DetectorType;
+import com.telenor.possumlib.models.CountingOutputStream;
+import com.telenor.possumlib.models.GorillaRecordWriter;
+import com.telenor.possumlib.models.MappedOutputStream;
+import com.telenor.possumlib.models.SensorRecordWriter;
+import com.telenor.possumlib.models.SensorSampleBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Reports the time spent writing a segment of binary records to a memory mapped region against
+ * the text zip stream the detectors write by default, a ZipOutputStream over a
+ * CountingOutputStream over a FileOutputStream. Batches are written one by one as the detector
+ * does on each flush, including opening and closing the segment. Only reports, as timings vary
+ * too much between machines to assert on.
+ */
+@RunWith(PossumTestRunner.class)
+public class MappedOutputStreamBenchmark {
+    private static final int SAMPLES = 100000;
+    private static final int BATCH = 100;
+    private static final int RUNS = 5;
+    private static final int TEXT_ZIP = 0;
+    private static final int MAPPED_BINARY = 1;
+    private static final int MAPPED_GORILLA = 2;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("mapped", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (!file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    private SensorSampleBuffer[] batches(SensorSampleBuffer samples) {
+        SensorSampleBuffer[] batches = new SensorSampleBuffer[samples.size() / BATCH];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = new SensorSampleBuffer(BATCH);
+            for (int j = i * BATCH; j < (i + 1) * BATCH; j++) {
+                batches[i].add(samples.timestamp(j), samples.x(j), samples.y(j), samples.z(j));
+            }
+        }
+        return batches;
+    }
+
+    private void writeSegment(SensorSampleBuffer[] batches, int path) throws IOException {
+        if (path == TEXT_ZIP) {
+            ZipOutputStream zipStream = new ZipOutputStream(new CountingOutputStream(new FileOutputStream(file)));
+            zipStream.putNextEntry(new ZipEntry("accelerometer"));
+            StringBuilder builder = new StringBuilder();
+            for (SensorSampleBuffer batch : batches) {
+                builder.setLength(0);
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.appendJson(i, builder);
+                    builder.append("\r\n");
+                }
+                zipStream.write(builder.toString().getBytes());
+            }
+            zipStream.close();
+            return;
+        }
+        int size = SensorRecordWriter.HEADER_SIZE + batches.length * SensorRecordWriter.FRAME_SIZE * BATCH;
+        MappedOutputStream outputStream = new MappedOutputStream(file, size);
+        SensorRecordWriter writer = path == MAPPED_GORILLA
+                ? new GorillaRecordWriter(outputStream, DetectorType.Accelerometer, 200, batches[0].timestamp(0))
+                : new SensorRecordWriter(outputStream, DetectorType.Accelerometer, 200, batches[0].timestamp(0));
+        for (SensorSampleBuffer batch : batches) {
+            writer.write(batch);
+        }
+        writer.close();
+    }
+
+    private long bestWriteTime(SensorSampleBuffer[] batches, int path) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            writeSegment(batches, path);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private void report(String name, SensorSampleBuffer samples) throws IOException {
+        SensorSampleBuffer[] batches = batches(samples);
+        // Warm up every path before measuring
+        for (int path = TEXT_ZIP; path <= MAPPED_GORILLA; path++) {
+            bestWriteTime(batches, path);
+        }
+        long zip = bestWriteTime(batches, TEXT_ZIP);
+        long zipSize = file.length();
+        long binary = bestWriteTime(batches, MAPPED_BINARY);
+        long binarySize = file.length();
+        long gorilla = bestWriteTime(batches, MAPPED_GORILLA);
+        long gorillaSize = file.length();
+        Benchmarks.report("MappedOutputStream %s: text zip %.2fms %d bytes, mapped binary %.2fms %d bytes (%.1fx faster), mapped gorilla %.2fms %d bytes (%.1fx faster)",
+                name, zip / 1e6, zipSize, binary / 1e6, binarySize, (double) zip / binary, gorilla / 1e6, gorillaSize, (double) zip / gorilla);
+    }
+
+    @Test
+    public void writeTime() throws Exception {
+        report("synthetic", SensorSamples.synthetic(SAMPLES));
+        report("recorded", SensorSamples.recordedLike(SAMPLES));
+    }
+}
@@ -1,12 +1,20 @@
 package com.telenor.possumlib.detectortests;
 
 import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 
+import com.telenor.possumlib.AwesomePossum;
 import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
+import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.constants.ReqCodes;
+import com.telenor.possumlib.constants.StoragePriority;
 import com.telenor.possumlib.detectors.Accelerometer;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.utils.FileUtil;
 
 import org.joda.time.DateTime;
 import org.junit.After;
@@ -14,11 +22,22 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RuntimeEnvironment;
 
 import java.io.File;
 import java.lang.reflect.Method;
 
 import static com.telenor.possumlib.SensorEvents.createSensorEvent;
+import static org.mockito.AdditionalMatchers.gt;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @RunWith(PossumTestRunner.class)
 public class AccelerometerTest extends GeneralSensorTest {
@@ -50,6 +69,7 @@ public class AccelerometerTest extends GeneralSensorTest {
             accelerometer = null;
         }
         storingData = 0;
+        FileUtil.detectorSettings(RuntimeEnvironment.application).setBatching(DetectorType.Accelerometer, false);
     }
 
     @Test
@@ -62,18 +82,58 @@ public class AccelerometerTest extends GeneralSensorTest {
         Method reqCodeMethod = Accelerometer.class.getDeclaredMethod("detectorRequestCode");
         reqCodeMethod.setAccessible(true);
         Assert.assertEquals(ReqCodes.ACCELEROMETER, reqCodeMethod.invoke(accelerometer));
+        Method priorityMethod = AbstractDetector.class.getDeclaredMethod("storagePriority");
+        priorityMethod.setAccessible(true);
+        Assert.assertEquals(StoragePriority.BULK, priorityMethod.invoke(accelerometer));
     }
 
     @Test
     public void testSensorAddsLines() throws Exception {
         long timestamp = DateTime.now().getMillis();
-        Assert.assertEquals(0, accelerometer.sessionValues().size());
+        Assert.assertEquals(0, accelerometer.samples().size());
         accelerometer.onSensorChanged(createSensorEvent(mockedSensor, timestamp, 0, 0.1f, 0.1f, 0.1f));
-        Assert.assertEquals(1, accelerometer.sessionValues().size());
+        Assert.assertEquals(1, accelerometer.samples().size());
         accelerometer.onSensorChanged(createSensorEvent(mockedSensor, timestamp, 0, 0.1f, 0.1f, 0.1f));
-        Assert.assertEquals(1, accelerometer.sessionValues().size());
+        Assert.assertEquals(1, accelerometer.samples().size());
 
         accelerometer.onSensorChanged(createSensorEvent(mockedSensor, (timestamp+50000001L), 0, 0.1f, 0.1f, 0.1f));
-        Assert.assertEquals(2, accelerometer.sessionValues().size());
+        Assert.assertEquals(2, accelerometer.samples().size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBatchingChosenInSettings() throws Exception {
+        when(mockedSensor.getFifoMaxEventCount()).thenReturn(5000);
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                ((SensorEventListener2) invocation.getArguments()[0]).onFlushCompleted(mockedSensor);
+                return true;
+            }
+        }).when(mockedSensorManager).flush(any(SensorEventListener.class));
+        Assert.assertTrue(accelerometer.startListening());
+        Assert.assertFalse(accelerometer.isBatching());
+        accelerometer.stopListening();
+
+        AwesomePossum.setSensorBatching(RuntimeEnvironment.application, DetectorType.Accelerometer, true);
+        Assert.assertTrue(accelerometer.startListening());
+        Assert.assertTrue(accelerometer.isBatching());
+        verify(mockedSensorManager, times(1)).registerListener(any(SensorEventListener.class), eq(mockedSensor), anyInt(), gt(0), any(Handler.class));
+        accelerometer.stopListening();
+        verify(mockedSensorManager, times(1)).flush(any(SensorEventListener.class));
+    }
+
+    @Test
+    public void testNoBatchingWhileAuthenticating() throws Exception {
+        when(mockedSensor.getFifoMaxEventCount()).thenReturn(5000);
+        AwesomePossum.setSensorBatching(RuntimeEnvironment.application, DetectorType.Accelerometer, true);
+        Accelerometer authenticating = new Accelerometer(mockedContext, "fakeUnique", eventBus, true) {
+            @Override
+            public boolean isEnabled() {
+                return sensorIsEnabled;
+            }
+        };
+        Assert.assertTrue(authenticating.startListening());
+        Assert.assertFalse(authenticating.isBatching());
+        authenticating.terminate();
+    }
+}
@@ -6,6 +6,7 @@ import com.telenor.possumlib.PossumTestRunner;
 import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.detectors.GestureDetector;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.utils.WriterCache;
 
 import net.danlew.android.joda.JodaTimeAndroid;
 
@@ -55,6 +56,7 @@ public class GestureDetectorTest {
         Assert.assertTrue(gestureDetector.storedData().length() == 0);
         gestureDetector.onTouch(null, MotionEvent.obtain(10, 10, MotionEvent.ACTION_DOWN, 1, null, null, 0, 0, 0, 0, 0, 0, 0, 0));
         Assert.assertEquals(0, gestureDetector.sessionValues().size());
+        WriterCache.flush(gestureDetector.storedData());
         Assert.assertTrue(gestureDetector.storedData().length() > 0);
     }
 }
\ No newline at end of file
@@ -108,13 +108,13 @@ public class GyroScopeTest extends GeneralSensorTest {
     @Test
     public void testSensorAddsLines() throws Exception {
         long timestamp = DateTime.now().getMillis();
-        Assert.assertEquals(0, gyroScope.sessionValues().size());
+        Assert.assertEquals(0, gyroScope.samples().size());
         gyroScope.onSensorChanged(createSensorEvent(mockedSensor, timestamp, 0, 0.1f, 0.1f, 0.1f));
-        Assert.assertEquals(1, gyroScope.sessionValues().size());
+        Assert.assertEquals(1, gyroScope.samples().size());
         gyroScope.onSensorChanged(createSensorEvent(mockedSensor, timestamp, 0, 0.1f, 0.1f, 0.1f));
-        Assert.assertEquals(1, gyroScope.sessionValues().size());
+        Assert.assertEquals(1, gyroScope.samples().size());
 
         gyroScope.onSensorChanged(createSensorEvent(mockedSensor, (timestamp+50000001L), 0, 0.1f, 0.1f, 0.1f));
-        Assert.assertEquals(2, gyroScope.sessionValues().size());
+        Assert.assertEquals(2, gyroScope.samples().size());
     }
 }
\ No newline at end of file
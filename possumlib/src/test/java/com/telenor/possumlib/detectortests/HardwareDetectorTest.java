@@ -6,6 +6,7 @@ import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.detectors.HardwareDetector;
 import com.telenor.possumlib.models.PossumBus;
 import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.WriterCache;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -53,11 +54,13 @@ public class HardwareDetectorTest {
         Assert.assertTrue(hardwareDetector.isAvailable());
         Assert.assertEquals(DetectorType.Hardware, hardwareDetector.detectorType());
         Assert.assertEquals("Hardware", hardwareDetector.detectorName());
+        WriterCache.flush(fakeFile);
         Assert.assertTrue(fakeFile.length() > 0);
     }
 
     @Test
     public void testStoredData() throws Exception {
+        WriterCache.flush(fakeFile);
         List<String> content = CharStreams.readLines(new FileReader(fakeFile));
         Assert.assertEquals("HARDWARE_INFO START", content.get(0));
         Assert.assertTrue(content.get(1).startsWith("Board:"));
@@ -15,6 +15,7 @@ import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.detectors.LocationDetector;
 import com.telenor.possumlib.interfaces.ISensorStatusUpdate;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.utils.WriterCache;
 
 import junit.framework.Assert;
 
@@ -151,6 +152,7 @@ public class LocationDetectorTest {
         Assert.assertEquals(0, fakeFile.length());
         locationDetector.onLocationChanged(location);
         Assert.assertEquals(0, locationDetector.sessionValues().size());
+        WriterCache.flush(fakeFile);
         Assert.assertTrue(fakeFile.length() > 0);
         LineReader lineReader = new LineReader(new FileReader(fakeFile));
         String fileContent = lineReader.readLine();
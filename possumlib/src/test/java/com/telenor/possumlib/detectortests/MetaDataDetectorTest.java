@@ -6,6 +6,7 @@ import com.telenor.possumlib.changeevents.SatelliteChangeEvent;
 import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.detectors.MetaDataDetector;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.utils.WriterCache;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -91,6 +92,7 @@ public class MetaDataDetectorTest {
     }
 
     private List<String> readFile() throws Exception {
+        WriterCache.flush(fakeFile);
         BufferedReader bufferedReader = new BufferedReader(new FileReader(fakeFile));
         String line;
         List<String> output = new ArrayList<>();
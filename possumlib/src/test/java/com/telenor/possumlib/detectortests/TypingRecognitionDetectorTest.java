@@ -6,6 +6,7 @@ import com.telenor.possumlib.changeevents.TypingChangeEvent;
 import com.telenor.possumlib.constants.DetectorType;
 import com.telenor.possumlib.detectors.TypingRecognitionDetector;
 import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.utils.WriterCache;
 
 import junit.framework.Assert;
 
@@ -70,6 +71,7 @@ public class TypingRecognitionDetectorTest {
     public void testTypingEventWhenListening() throws Exception {
         typingRecognitionDetector.startListening();
         eventBus.post(new TypingChangeEvent("a"));
+        WriterCache.flush(typingRecognitionDetector.storedData());
         Assert.assertTrue(typingRecognitionDetector.storedData().length() > 0);
     }
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+package com.telenor.possumlib.functionalitytests;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.functionality.AmazonMultipartUploadSink;
+import com.telenor.possumlib.interfaces.IUploadListener;
+import com.telenor.possumlib.utils.UploadCheckpoint;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PossumTestRunner.class)
+public class AmazonMultipartUploadSinkTest {
+    private static final String KEY = "possumlibdata/1.0/gyroscope/user/1000.zip";
+    private File directory;
+    private File staged;
+    private AmazonS3Client mockedClient;
+    private AmazonMultipartUploadSink sink;
+    private final List<Integer> results = new ArrayList<>();
+    private final List<Long> progress = new ArrayList<>();
+    private final IUploadListener listener = new IUploadListener() {
+        @Override
+        public void uploadProgress(File file, long bytesCurrent, long bytesTotal) {
+            progress.add(bytesCurrent);
+        }
+
+        @Override
+        public void uploadFinished(File file, int result) {
+            results.add(result);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("upload", null);
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+        staged = new File(directory, KEY.replace('/', '#'));
+        FileOutputStream outputStream = new FileOutputStream(staged);
+        outputStream.write(new byte[2500]);
+        outputStream.close();
+        mockedClient = mock(AmazonS3Client.class);
+        InitiateMultipartUploadResult initiated = mock(InitiateMultipartUploadResult.class);
+        when(initiated.getUploadId()).thenReturn("upload-1", "upload-2");
+        when(mockedClient.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiated);
+        sink = new AmazonMultipartUploadSink(mockedClient, "bucket", new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        }, 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+        Assert.assertTrue(directory.delete());
+    }
+
+    private UploadPartResult part(String eTag) {
+        UploadPartResult result = mock(UploadPartResult.class);
+        when(result.getETag()).thenReturn(eTag);
+        return result;
+    }
+
+    @Test
+    public void testUploadsAllParts() throws Exception {
+        when(mockedClient.uploadPart(any(UploadPartRequest.class))).thenReturn(part("etag-1"), part("etag-2"), part("etag-3"));
+        sink.upload(staged, KEY, listener);
+        verify(mockedClient, times(3)).uploadPart(any(UploadPartRequest.class));
+        verify(mockedClient).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(UploadResult.COMPLETED, (int) results.get(0));
+        Assert.assertEquals(2500, (long) progress.get(progress.size() - 1));
+        Assert.assertFalse(UploadCheckpoint.checkpointFile(staged).exists());
+    }
+
+    @Test
+    public void testResumesAfterLastAcknowledgedPart() throws Exception {
+        when(mockedClient.uploadPart(any(UploadPartRequest.class)))
+                .thenReturn(part("etag-1"))
+                .thenThrow(new AmazonClientException("Connection lost"))
+                .thenReturn(part("etag-2"), part("etag-3"));
+        sink.upload(staged, KEY, listener);
+        Assert.assertEquals(UploadResult.FAILED, (int) results.get(0));
+        verify(mockedClient, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        UploadCheckpoint checkpoint = UploadCheckpoint.load(staged, KEY, 1000);
+        Assert.assertNotNull(checkpoint);
+        Assert.assertEquals(1000, checkpoint.bytesAcknowledged());
+
+        progress.clear();
+        sink.upload(staged, KEY, listener);
+        Assert.assertEquals(UploadResult.COMPLETED, (int) results.get(1));
+        // Part one was sent once, part two twice and part three once
+        verify(mockedClient, times(4)).uploadPart(any(UploadPartRequest.class));
+        verify(mockedClient, times(1)).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        // Progress counts what this upload sent, the two parts not acknowledged before
+        Assert.assertEquals(1500, (long) progress.get(progress.size() - 1));
+        Assert.assertFalse(UploadCheckpoint.checkpointFile(staged).exists());
+    }
+
+    @Test
+    public void testStartsOverWhenUploadExpired() throws Exception {
+        UploadCheckpoint.create(staged, "expired", KEY, 1000).partAcknowledged(1, "etag-1");
+        AmazonServiceException expired = new AmazonServiceException("The specified upload does not exist");
+        expired.setErrorCode("NoSuchUpload");
+        when(mockedClient.uploadPart(any(UploadPartRequest.class)))
+                .thenThrow(expired)
+                .thenReturn(part("etag-1"), part("etag-2"), part("etag-3"));
+        sink.upload(staged, KEY, listener);
+        Assert.assertEquals(UploadResult.COMPLETED, (int) results.get(0));
+        verify(mockedClient, times(1)).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        verify(mockedClient, times(4)).uploadPart(any(UploadPartRequest.class));
+    }
+
+    @Test
+    public void testAbortsUploadOfMismatchedCheckpoint() throws Exception {
+        UploadCheckpoint.create(staged, "changed", KEY, 1000).partAcknowledged(1, "etag-1");
+        FileOutputStream outputStream = new FileOutputStream(staged, true);
+        outputStream.write(new byte[10]);
+        outputStream.close();
+        Assert.assertNull(UploadCheckpoint.load(staged, KEY, 1000));
+        when(mockedClient.uploadPart(any(UploadPartRequest.class))).thenReturn(part("etag-1"), part("etag-2"), part("etag-3"));
+        sink.upload(staged, KEY, listener);
+        verify(mockedClient, times(1)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(mockedClient, times(1)).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        Assert.assertEquals(UploadResult.COMPLETED, (int) results.get(0));
+    }
+
+    @Test
+    public void testAbortsUploadOfOrphanedCheckpoint() throws Exception {
+        UploadCheckpoint.create(staged, "evicted", KEY, 1000);
+        Assert.assertTrue(staged.delete());
+        File checkpointFile = UploadCheckpoint.checkpointFile(staged);
+
+        // Kept to try again while amazon can not be reached
+        doThrow(new AmazonClientException("Connection lost")).when(mockedClient).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        sink.abortOrphans(UploadCheckpoint.orphans(directory));
+        Assert.assertTrue(checkpointFile.exists());
+
+        reset(mockedClient);
+        sink.abortOrphans(UploadCheckpoint.orphans(directory));
+        verify(mockedClient, times(1)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        Assert.assertFalse(checkpointFile.exists());
+        Assert.assertTrue(UploadCheckpoint.orphans(directory).isEmpty());
+        sink.abortOrphans(Collections.<File>emptyList());
+        verify(mockedClient, times(1)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+}
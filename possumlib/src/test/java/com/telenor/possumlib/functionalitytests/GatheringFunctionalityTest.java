@@ -4,6 +4,7 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 
 import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
 import com.telenor.possumlib.functionality.GatheringFunctionality;
 import com.telenor.possumlib.models.PossumBus;
 
@@ -12,10 +13,22 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RuntimeEnvironment;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 
 @RunWith(PossumTestRunner.class)
 public class GatheringFunctionalityTest {
@@ -51,21 +64,148 @@ public class GatheringFunctionalityTest {
     }
 
     @Test
-    public void testSettingKurtIdStopsGathering() throws Exception {
+    public void testSettingKurtIdRequiresStoppedDetectors() throws Exception {
         gatheringFunctionality = new GatheringFunctionality(){
-            @Override
-            public void stopGathering() {
-                methodCalled = true;
-            }
             @Override
             public void addDetectors(@NonNull Context context, @NonNull String uniqueUserId, boolean isAuthenticating) {
                 detectorsAdded = true;
             }
         };
-        Assert.assertFalse(methodCalled);
+        gatheringFunctionality.startGathering();
+        try {
+            gatheringFunctionality.setDetectorsWithId(RuntimeEnvironment.application, "uniqueUserId", false, null);
+            Assert.fail("Replaced detectors still gathering");
+        } catch (IllegalStateException ignore) {
+        }
         Assert.assertFalse(detectorsAdded);
-        gatheringFunctionality.setDetectorsWithId(RuntimeEnvironment.application, "uniqueUserId", false, null);
+        gatheringFunctionality.stopGatheringAsync(new Runnable() {
+            @Override
+            public void run() {
+                methodCalled = true;
+                gatheringFunctionality.setDetectorsWithId(RuntimeEnvironment.application, "uniqueUserId", false, null);
+            }
+        }).get(5, TimeUnit.SECONDS);
         Assert.assertTrue(methodCalled);
         Assert.assertTrue(detectorsAdded);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStopGatheringPreparesAllDetectors() throws Exception {
+        final AbstractDetector first = mock(AbstractDetector.class);
+        final AbstractDetector failing = mock(AbstractDetector.class);
+        final AbstractDetector last = mock(AbstractDetector.class);
+        doThrow(new RuntimeException("Broken")).when(failing).prepareUpload();
+        gatheringFunctionality = new GatheringFunctionality() {
+            @Override
+            public void addDetectors(@NonNull Context context, @NonNull String uniqueUserId, boolean isAuthenticating) {
+                detectors().addAll(Arrays.asList(first, failing, last));
+            }
+        };
+        gatheringFunctionality.setDetectorsWithId(RuntimeEnvironment.application, "uniqueUserId", false, null);
+        gatheringFunctionality.startGathering();
+        Future<Integer> preparation = gatheringFunctionality.stopGatheringAsync();
+        Assert.assertEquals(2, (int) preparation.get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(gatheringFunctionality.isGathering());
+        for (AbstractDetector detector : Arrays.asList(first, failing, last)) {
+            InOrder inOrder = inOrder(detector);
+            inOrder.verify(detector).terminate();
+            inOrder.verify(detector).prepareUpload();
+        }
+        // Nothing is gathering, so there is nothing more to prepare
+        Assert.assertEquals(0, (int) gatheringFunctionality.stopGatheringAsync().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStopGatheringTellsWhenDone() throws Exception {
+        final AbstractDetector detector = mock(AbstractDetector.class);
+        final CountDownLatch preparing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                preparing.countDown();
+                release.await();
+                return null;
+            }
+        }).when(detector).prepareUpload();
+        gatheringFunctionality = new GatheringFunctionality() {
+            @Override
+            public void addDetectors(@NonNull Context context, @NonNull String uniqueUserId, boolean isAuthenticating) {
+                detectors().add(detector);
+            }
+        };
+        gatheringFunctionality.setDetectorsWithId(RuntimeEnvironment.application, "uniqueUserId", true, null);
+        gatheringFunctionality.startGathering();
+        final CountDownLatch done = new CountDownLatch(1);
+        Runnable whenDone = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        Future<Integer> preparation = gatheringFunctionality.stopGatheringAsync(whenDone);
+        // Returns while the detector is still being prepared
+        Assert.assertTrue(preparing.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(preparation.isDone());
+        Assert.assertEquals(1, done.getCount());
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, (int) preparation.get(5, TimeUnit.SECONDS));
+
+        // Nothing is gathering, so it is done at once
+        final CountDownLatch doneAtOnce = new CountDownLatch(1);
+        gatheringFunctionality.stopGatheringAsync(new Runnable() {
+            @Override
+            public void run() {
+                doneAtOnce.countDown();
+            }
+        });
+        Assert.assertEquals(0, doneAtOnce.getCount());
+    }
+
+    @Test
+    public void testStopWhileStoppingWaitsForFirstStop() throws Exception {
+        final AbstractDetector detector = mock(AbstractDetector.class);
+        final CountDownLatch preparing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                preparing.countDown();
+                release.await();
+                return null;
+            }
+        }).when(detector).prepareUpload();
+        gatheringFunctionality = new GatheringFunctionality() {
+            @Override
+            public void addDetectors(@NonNull Context context, @NonNull String uniqueUserId, boolean isAuthenticating) {
+                detectors().add(detector);
+            }
+        };
+        gatheringFunctionality.setDetectorsWithId(RuntimeEnvironment.application, "uniqueUserId", false, null);
+        gatheringFunctionality.startGathering();
+        final CountDownLatch done = new CountDownLatch(2);
+        Runnable whenDone = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        Future<Integer> first = gatheringFunctionality.stopGatheringAsync(whenDone);
+        Assert.assertTrue(preparing.await(5, TimeUnit.SECONDS));
+        // The detector is still stored to, so a second stop waits for the first
+        Future<Integer> second = gatheringFunctionality.stopGatheringAsync(whenDone);
+        Assert.assertSame(first, second);
+        Assert.assertTrue(gatheringFunctionality.isStopping());
+        Assert.assertEquals(2, done.getCount());
+        try {
+            gatheringFunctionality.setDetectorsWithId(RuntimeEnvironment.application, "uniqueUserId", false, null);
+            Assert.fail("Replaced detectors still being stopped");
+        } catch (IllegalStateException ignore) {
+        }
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, (int) second.get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(gatheringFunctionality.isStopping());
+    }
+}
@@ -0,0 +1,141 @@
+package com.telenor.possumlib.functionalitytests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.functionality.LocalUploadSink;
+import com.telenor.possumlib.functionality.UploadScheduler;
+import com.telenor.possumlib.interfaces.IUploadListener;
+import com.telenor.possumlib.interfaces.IUploadSchedulerListener;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(PossumTestRunner.class)
+public class LocalUploadSinkTest {
+    private static final String[] DETECTORS = {"accelerometer", "gyroscope", "position", "network", "MetaData"};
+    private File staging;
+    private File bucket;
+    private LocalUploadSink sink;
+
+    @Before
+    public void setUp() throws Exception {
+        staging = File.createTempFile("staging", null);
+        Assert.assertTrue(staging.delete());
+        Assert.assertTrue(staging.mkdir());
+        bucket = File.createTempFile("bucket", null);
+        Assert.assertTrue(bucket.delete());
+        sink = new LocalUploadSink(bucket);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(staging);
+        delete(bucket);
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        Assert.assertTrue(!file.exists() || file.delete());
+    }
+
+    private File stage(String key, byte[] content) throws Exception {
+        File file = new File(staging, key.replace('/', '#'));
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(content);
+        outputStream.close();
+        return file;
+    }
+
+    private byte[] read(File file) throws Exception {
+        byte[] content = new byte[(int) file.length()];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            Assert.assertEquals(content.length, inputStream.read(content));
+        } finally {
+            inputStream.close();
+        }
+        return content;
+    }
+
+    @Test
+    public void testCopiesFileUnderItsKey() throws Exception {
+        byte[] content = new byte[200 * 1024];
+        new Random(1).nextBytes(content);
+        String key = "possumlibdata/1.0/accelerometer/user/1000.zip";
+        File file = stage(key, content);
+        final List<Long> progress = new ArrayList<>();
+        final List<Integer> results = new ArrayList<>();
+        sink.upload(file, key, new IUploadListener() {
+            @Override
+            public void uploadProgress(File file, long bytesCurrent, long bytesTotal) {
+                progress.add(bytesCurrent);
+            }
+
+            @Override
+            public void uploadFinished(File file, int result) {
+                results.add(result);
+            }
+        });
+        Assert.assertEquals(Arrays.asList(UploadResult.COMPLETED), results);
+        Assert.assertEquals(content.length, (long) progress.get(progress.size() - 1));
+        Assert.assertArrayEquals(content, read(sink.fileFor(key)));
+        Assert.assertFalse(new File(sink.fileFor(key).getAbsolutePath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testSchedulesEveryFileToTheBucket() throws Exception {
+        int files = 200;
+        Random random = new Random(7);
+        List<File> staged = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        long bytes = 0;
+        for (int i = 0; i < files; i++) {
+            byte[] content = new byte[512 + random.nextInt(8 * 1024)];
+            random.nextBytes(content);
+            String key = "possumlibdata/1.0/" + DETECTORS[i % DETECTORS.length] + "/user/" + (1500000000000L + i);
+            staged.add(stage(key, content));
+            keys.add(key);
+            bytes += content.length;
+        }
+        final int[] finished = new int[2];
+        UploadScheduler scheduler = new UploadScheduler(sink, new IUploadSchedulerListener() {
+            @Override
+            public void allUploadsFinished(int completed, int failed, int canceled) {
+                finished[0]++;
+                finished[1] = completed;
+            }
+
+            @Override
+            public void uploadProgress(File file, long bytesCurrent, long bytesTotal) {
+            }
+
+            @Override
+            public void uploadFinished(File file, int result) {
+            }
+        }, 4);
+        scheduler.schedule(staged);
+
+        Assert.assertEquals(1, finished[0]);
+        Assert.assertEquals(files, finished[1]);
+        Assert.assertEquals(bytes, scheduler.toJson().get("bytesCompleted").getAsLong());
+        for (String key : keys) {
+            Assert.assertTrue(sink.fileFor(key).exists());
+        }
+    }
+}
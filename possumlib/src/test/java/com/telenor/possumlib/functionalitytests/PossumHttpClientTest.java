@@ -0,0 +1,148 @@
+package com.telenor.possumlib.functionalitytests;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.functionality.PossumHttpClient;
+import com.telenor.possumlib.interfaces.IRequestBody;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+@RunWith(PossumTestRunner.class)
+public class PossumHttpClientTest {
+    private HttpServer server;
+    private URL url;
+    private PossumHttpClient client;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final Map<String, String> received = new HashMap<>();
+    private volatile int status = 200;
+    private volatile long delay;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                received.put(exchange.getRequestMethod(), read(exchange.getRequestBody()));
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(status, -1);
+                } else {
+                    byte[] body = ("{\"status\":" + status + "}").getBytes("UTF-8");
+                    exchange.sendResponseHeaders(status, body.length);
+                    exchange.getResponseBody().write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/score");
+        client = new PossumHttpClient(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, count);
+        }
+        return outputStream.toString("UTF-8");
+    }
+
+    private PossumHttpClient.Response post(final String body, boolean chunked) throws IOException {
+        final byte[] data = body.getBytes("UTF-8");
+        final long length = chunked ? -1 : data.length;
+        return client.post(url, Collections.singletonMap("x-api-key", "key"), new IRequestBody() {
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                outputStream.write(data);
+            }
+        });
+    }
+
+    @Test
+    public void testReusesConnection() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            PossumHttpClient.Response response = post("{\"request\":" + i + "}", i % 2 == 0);
+            Assert.assertTrue(response.isSuccessful());
+            Assert.assertEquals("{\"status\":200}", response.body());
+            Assert.assertEquals("{\"request\":" + i + "}", received.get("POST"));
+            Assert.assertTrue(response.timing().total() >= response.timing().firstByte());
+        }
+        Assert.assertEquals(1, clientPorts.size());
+        Assert.assertEquals(5, client.toJson().get("requests").getAsInt());
+    }
+
+    @Test
+    public void testErrorResponseIsReadAndConnectionReused() throws Exception {
+        status = 500;
+        PossumHttpClient.Response response = post("{}", false);
+        Assert.assertFalse(response.isSuccessful());
+        Assert.assertEquals("{\"status\":500}", response.body());
+        status = 200;
+        Assert.assertTrue(post("{}", false).isSuccessful());
+        Assert.assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testWarmOpensConnectionForNextRequest() throws Exception {
+        client.warm(url.toString());
+        Assert.assertTrue(received.containsKey("HEAD"));
+        Assert.assertTrue(post("{}", true).isSuccessful());
+        Assert.assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        client.setTimeouts(1000, 100);
+        delay = 500;
+        try {
+            post("{}", false);
+            Assert.fail("Expected timeout");
+        } catch (SocketTimeoutException ignore) {
+        }
+        Assert.assertEquals(1, client.toJson().get("failures").getAsInt());
+    }
+}
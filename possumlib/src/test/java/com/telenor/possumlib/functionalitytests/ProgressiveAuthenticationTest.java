@@ -0,0 +1,220 @@
+package com.telenor.possumlib.functionalitytests;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
+import com.telenor.possumlib.functionality.PossumHttpClient;
+import com.telenor.possumlib.functionality.ProgressiveAuthentication;
+import com.telenor.possumlib.interfaces.IProgressiveListener;
+import com.telenor.possumlib.models.DetectorWindow;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(PossumTestRunner.class)
+public class ProgressiveAuthenticationTest {
+    private static final float[] CONFIDENCE = {0.3f, 0.6f, 0.95f, 0.99f};
+    private HttpServer server;
+    private String url;
+    private PossumHttpClient httpClient;
+    private ScheduledExecutorService executor;
+    private final List<JsonObject> posted = new CopyOnWriteArrayList<>();
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final Set<Integer> failingWindows = Collections.synchronizedSet(new HashSet<Integer>());
+    private final List<Boolean> interim = new CopyOnWriteArrayList<>();
+    private final List<String> results = new CopyOnWriteArrayList<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final IProgressiveListener listener = new IProgressiveListener() {
+        @Override
+        public void interimTrust(String message, boolean confident) {
+            interim.add(confident);
+        }
+
+        @Override
+        public void successfullyPushed(String message) {
+            results.add(message);
+            finished.countDown();
+        }
+
+        @Override
+        public void failedToPush(Exception exception) {
+            finished.countDown();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                Assert.assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                JsonObject payload = new JsonParser().parse(read(new GZIPInputStream(exchange.getRequestBody()))).getAsJsonObject();
+                posted.add(payload);
+                if (failingWindows.contains(payload.get("window").getAsInt())) {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+                float confidence = CONFIDENCE[Math.min(payload.get("window").getAsInt(), CONFIDENCE.length - 1)];
+                byte[] body = ("{\"trustscore\":{\"score\":0.5,\"confidence\":" + confidence + ",\"status\":\"ok\"},\"sensors\":{}}").getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/auth";
+        httpClient = new PossumHttpClient(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        server.stop(0);
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, count);
+        }
+        return outputStream.toString("UTF-8");
+    }
+
+    private ProgressiveAuthentication authentication(float threshold) throws Exception {
+        return authentication(threshold, Collections.<AbstractDetector>emptyList());
+    }
+
+    private ProgressiveAuthentication authentication(float threshold, List<AbstractDetector> detectors) throws Exception {
+        return new ProgressiveAuthentication(listener, detectors, url, "user", "key",
+                30, threshold, executor, httpClient);
+    }
+
+    /**
+     * A detector giving one value per window, the number of the window it was cut in
+     */
+    private static AbstractDetector countingDetector() {
+        AbstractDetector detector = mock(AbstractDetector.class);
+        when(detector.detectorName()).thenReturn("accelerometer");
+        when(detector.takeWindow()).thenAnswer(new Answer<DetectorWindow>() {
+            private int cut;
+
+            @Override
+            public DetectorWindow answer(InvocationOnMock invocation) throws Throwable {
+                JsonArray value = new JsonArray();
+                value.add("" + cut++);
+                List<JsonArray> values = new ArrayList<>();
+                values.add(value);
+                return new DetectorWindow("accelerometer", values);
+            }
+        });
+        return detector;
+    }
+
+    @Test
+    public void testStopsWhenConfident() throws Exception {
+        ProgressiveAuthentication authentication = authentication(0.9f);
+        authentication.start();
+        executor.awaitTermination(400, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(authentication.isConfident());
+        Assert.assertEquals(3, posted.size());
+        Assert.assertEquals(Arrays.asList(false, false, true), interim);
+        Assert.assertEquals(1, clientPorts.size());
+        for (int i = 0; i < posted.size(); i++) {
+            Assert.assertEquals(i, posted.get(i).get("window").getAsInt());
+            Assert.assertEquals(authentication.session(), posted.get(i).get("session").getAsString());
+            Assert.assertEquals("user", posted.get(i).get("connectId").getAsString());
+            Assert.assertFalse(posted.get(i).get("final").getAsBoolean());
+        }
+
+        // Nothing more is posted once confident
+        authentication.finish();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        Assert.assertEquals(3, posted.size());
+        Assert.assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void testFinishPostsLastWindow() throws Exception {
+        ProgressiveAuthentication authentication = authentication(1f);
+        authentication.start();
+        Thread.sleep(100);
+        authentication.finish();
+        Assert.assertTrue(finished.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, results.size());
+        JsonObject last = posted.get(posted.size() - 1);
+        Assert.assertTrue(last.get("final").getAsBoolean());
+        Assert.assertEquals(posted.size() - 1, interim.size());
+        Assert.assertEquals(posted.size(), authentication.windows());
+        Assert.assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testFailedWindowSentWithNext() throws Exception {
+        failingWindows.add(1);
+        ProgressiveAuthentication authentication = authentication(1f, Collections.singletonList(countingDetector()));
+        authentication.start();
+        while (posted.size() < 3) {
+            Thread.sleep(10);
+        }
+        authentication.finish();
+        Assert.assertTrue(finished.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        Assert.assertEquals(1, posted.get(0).getAsJsonArray("accelerometer").size());
+        Assert.assertEquals("1", posted.get(1).getAsJsonArray("accelerometer").get(0).getAsJsonArray().get(0).getAsString());
+        // The failed window goes again ahead of the data of the next
+        JsonArray retried = posted.get(2).getAsJsonArray("accelerometer");
+        Assert.assertEquals(2, retried.size());
+        Assert.assertEquals("1", retried.get(0).getAsJsonArray().get(0).getAsString());
+        Assert.assertEquals("2", retried.get(1).getAsJsonArray().get(0).getAsString());
+        Assert.assertEquals(posted.size() - 2, interim.size());
+        int values = 0;
+        for (JsonObject payload : posted) {
+            values += payload.getAsJsonArray("accelerometer").size();
+        }
+        Assert.assertEquals(posted.size() + 1, values);
+    }
+}
@@ -0,0 +1,77 @@
+package com.telenor.possumlib.functionalitytests;
+
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.abstractdetectors.AbstractDetector;
+import com.telenor.possumlib.functionality.SufficiencyMonitor;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(PossumTestRunner.class)
+public class SufficiencyMonitorTest {
+    private static final long STARTED = 1500000000000L;
+    private AbstractDetector accelerometer;
+    private AbstractDetector network;
+    private AbstractDetector position;
+    private SufficiencyMonitor monitor;
+
+    @Before
+    public void setUp() throws Exception {
+        accelerometer = detector("accelerometer");
+        network = detector("network");
+        position = detector("position");
+        monitor = new SufficiencyMonitor(Arrays.asList(accelerometer, network, position), STARTED);
+    }
+
+    private AbstractDetector detector(String name) {
+        AbstractDetector detector = mock(AbstractDetector.class);
+        when(detector.detectorName()).thenReturn(name);
+        when(detector.isListening()).thenReturn(true);
+        return detector;
+    }
+
+    @Test
+    public void testCompletesWhenEveryDetectorIsSufficient() throws Exception {
+        Assert.assertFalse(monitor.check(STARTED + 250));
+        when(network.isSufficient()).thenReturn(true);
+        Assert.assertFalse(monitor.check(STARTED + 500));
+        when(accelerometer.isSufficient()).thenReturn(true);
+        when(position.isSufficient()).thenReturn(true);
+        Assert.assertTrue(monitor.check(STARTED + 3000));
+        Assert.assertTrue(monitor.isComplete());
+        Assert.assertEquals(3000, monitor.elapsed());
+        Assert.assertEquals(500, monitor.elapsed(network));
+
+        // A detector becoming insufficient again does not undo the completion
+        when(network.isSufficient()).thenReturn(false);
+        Assert.assertTrue(monitor.check(STARTED + 3250));
+        Assert.assertEquals(3000, monitor.elapsed());
+    }
+
+    @Test
+    public void testDetectorNotListeningIsNotWaitedFor() throws Exception {
+        when(accelerometer.isSufficient()).thenReturn(true);
+        when(network.isSufficient()).thenReturn(true);
+        Assert.assertFalse(monitor.check(STARTED + 1000));
+        when(position.isListening()).thenReturn(false);
+        Assert.assertTrue(monitor.check(STARTED + 2000));
+        Assert.assertEquals(-1, monitor.elapsed(position));
+
+        when(accelerometer.valuesGathered()).thenReturn(60);
+        JsonObject json = monitor.toJson();
+        Assert.assertTrue(json.get("complete").getAsBoolean());
+        Assert.assertEquals(2000, json.get("elapsed").getAsLong());
+        JsonObject detectors = json.getAsJsonObject("detectors");
+        Assert.assertEquals(1000, detectors.getAsJsonObject("accelerometer").get("sufficientAfter").getAsLong());
+        Assert.assertEquals(60, detectors.getAsJsonObject("accelerometer").get("values").getAsInt());
+        Assert.assertEquals(-1, detectors.getAsJsonObject("position").get("sufficientAfter").getAsLong());
+    }
+}
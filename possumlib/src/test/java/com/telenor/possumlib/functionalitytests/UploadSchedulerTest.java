@@ -0,0 +1,196 @@
+package com.telenor.possumlib.functionalitytests;
+
+import android.support.annotation.NonNull;
+
+import com.telenor.possumlib.FileManipulator;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.UploadPriority;
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.functionality.UploadScheduler;
+import com.telenor.possumlib.interfaces.IUploadListener;
+import com.telenor.possumlib.interfaces.IUploadSchedulerListener;
+import com.telenor.possumlib.interfaces.IUploadSink;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class UploadSchedulerTest {
+    private File directory;
+    private LocalSink sink;
+    private RecordingListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("upload", null);
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+        sink = new LocalSink();
+        listener = new RecordingListener();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+        Assert.assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testPriorityClasses() throws Exception {
+        Assert.assertEquals(UploadPriority.CONSENT, UploadScheduler.priorityOf(FileManipulator.stagedFile(directory, "consent/abc", 1000, 1)));
+        Assert.assertEquals(UploadPriority.AUTHENTICATION, UploadScheduler.priorityOf(FileManipulator.stagedFile(directory, "possumlibdata/1.0/position/user/1", 1000, 1)));
+        Assert.assertEquals(UploadPriority.AUTHENTICATION, UploadScheduler.priorityOf(FileManipulator.stagedFile(directory, "possumlibdata/1.0/Bundle/user/1.zip", 1000, 1)));
+        Assert.assertEquals(UploadPriority.BULK, UploadScheduler.priorityOf(FileManipulator.stagedFile(directory, "possumlibdata/1.0/accelerometer/user/1.zip", 1000, 1)));
+        Assert.assertEquals(UploadPriority.BULK, UploadScheduler.priorityOf(FileManipulator.stagedFile(directory, "possumlibdata/1.0/image/user/1.zip", 1000, 1)));
+    }
+
+    @Test
+    public void testUploadsByPriorityThenAge() throws Exception {
+        File oldBulk = FileManipulator.stagedFile(directory, "possumlibdata/1.0/gyroscope/user/1.zip", 1000000, 10);
+        File newContext = FileManipulator.stagedFile(directory, "possumlibdata/1.0/network/user/3", 3000000, 10);
+        File oldContext = FileManipulator.stagedFile(directory, "possumlibdata/1.0/position/user/2", 2000000, 10);
+        File consent = FileManipulator.stagedFile(directory, "consent/abc", 4000000, 10);
+        UploadScheduler scheduler = new UploadScheduler(sink, listener, 1);
+        scheduler.schedule(Arrays.asList(oldBulk, newContext, oldContext, consent));
+        while (!sink.started.isEmpty()) {
+            sink.finish(0, UploadResult.COMPLETED);
+        }
+        Assert.assertEquals(Arrays.asList(consent, oldContext, newContext, oldBulk), sink.uploaded);
+        Assert.assertEquals(Arrays.asList("consent/abc", "possumlibdata/1.0/position/user/2", "possumlibdata/1.0/network/user/3", "possumlibdata/1.0/gyroscope/user/1.zip"), sink.keys);
+    }
+
+    @Test
+    public void testNeverMoreThanMaxConcurrentInFlight() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            files.add(FileManipulator.stagedFile(directory, "possumlibdata/1.0/sound/user/" + i + ".zip", 1000000 + i * 1000, 100));
+        }
+        UploadScheduler scheduler = new UploadScheduler(sink, listener, 3);
+        scheduler.schedule(files);
+        Assert.assertEquals(3, scheduler.inFlight());
+        Assert.assertEquals(7, scheduler.queueDepth());
+        int finished = 0;
+        while (!sink.started.isEmpty()) {
+            Assert.assertTrue(sink.started.size() <= 3);
+            sink.finish(sink.started.size() - 1, finished % 4 == 3 ? UploadResult.FAILED : UploadResult.COMPLETED);
+            finished++;
+        }
+        Assert.assertEquals(3, scheduler.maxInFlight());
+        Assert.assertEquals(0, scheduler.inFlight());
+        Assert.assertEquals(0, scheduler.queueDepth());
+        Assert.assertEquals(8, scheduler.completed());
+        Assert.assertEquals(2, scheduler.failed());
+        Assert.assertEquals(0, scheduler.canceled());
+        Assert.assertEquals(1, listener.allFinished);
+        Assert.assertEquals(8, listener.completed);
+        Assert.assertEquals(2, listener.failed);
+        Assert.assertEquals(10, listener.finishedFiles.size());
+        Assert.assertEquals(800, scheduler.toJson().get("bytesCompleted").getAsLong());
+        Assert.assertTrue(scheduler.throughput() > 0);
+    }
+
+    @Test
+    public void testSynchronousSink() throws Exception {
+        sink.synchronous = UploadResult.CANCELED;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            files.add(FileManipulator.stagedFile(directory, "possumlibdata/1.0/Hardware/user/" + i, 1000000 + i * 1000, 1));
+        }
+        UploadScheduler scheduler = new UploadScheduler(sink, listener, 2);
+        scheduler.schedule(files);
+        Assert.assertEquals(files, sink.uploaded);
+        Assert.assertEquals(1, scheduler.maxInFlight());
+        Assert.assertEquals(50, scheduler.canceled());
+        Assert.assertEquals(1, listener.allFinished);
+        Assert.assertEquals(50, listener.canceled);
+    }
+
+    @Test
+    public void testNothingToUpload() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(sink, listener, 2);
+        scheduler.schedule(new ArrayList<File>());
+        Assert.assertEquals(1, listener.allFinished);
+        Assert.assertEquals(0, listener.completed);
+        Assert.assertTrue(sink.uploaded.isEmpty());
+        Assert.assertEquals(0, scheduler.throughput(), 0);
+    }
+
+    @Test
+    public void testInvalidConcurrency() throws Exception {
+        try {
+            new UploadScheduler(sink, listener, 0);
+            Assert.fail("Should not accept zero uploads at a time");
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    /**
+     * Stand-in for a remote bucket. Holds uploads until the test finishes them, or finishes them
+     * at once with the synchronous result if that is set.
+     */
+    private static class LocalSink implements IUploadSink {
+        private final List<File> started = new ArrayList<>();
+        private final List<IUploadListener> listeners = new ArrayList<>();
+        private final List<File> uploaded = new ArrayList<>();
+        private final List<String> keys = new ArrayList<>();
+        private int synchronous = -1;
+
+        @Override
+        public void upload(@NonNull File file, @NonNull String key, @NonNull IUploadListener listener) {
+            uploaded.add(file);
+            keys.add(key);
+            if (synchronous >= 0) {
+                listener.uploadProgress(file, file.length(), file.length());
+                listener.uploadFinished(file, synchronous);
+                return;
+            }
+            started.add(file);
+            listeners.add(listener);
+        }
+
+        private void finish(int position, int result) {
+            File file = started.remove(position);
+            IUploadListener listener = listeners.remove(position);
+            listener.uploadProgress(file, file.length(), file.length());
+            listener.uploadFinished(file, result);
+        }
+    }
+
+    private static class RecordingListener implements IUploadSchedulerListener {
+        private final List<File> finishedFiles = new ArrayList<>();
+        private int allFinished;
+        private int completed;
+        private int failed;
+        private int canceled;
+
+        @Override
+        public void allUploadsFinished(int completed, int failed, int canceled) {
+            allFinished++;
+            this.completed = completed;
+            this.failed = failed;
+            this.canceled = canceled;
+        }
+
+        @Override
+        public void uploadProgress(File file, long bytesCurrent, long bytesTotal) {
+        }
+
+        @Override
+        public void uploadFinished(File file, int result) {
+            finishedFiles.add(file);
+        }
+    }
+}
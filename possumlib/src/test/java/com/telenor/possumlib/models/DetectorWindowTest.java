@@ -0,0 +1,52 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonArray;
+import com.google.gson.stream.JsonWriter;
+import com.telenor.possumlib.PossumTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class DetectorWindowTest {
+    @Test
+    public void testWritesValuesThenSamplesAndReleasesBuffer() throws Exception {
+        DoubleBufferedSamples buffers = new DoubleBufferedSamples();
+        buffers.active().add(1000L, 1f, 2f, 3f);
+        List<JsonArray> values = new ArrayList<>();
+        JsonArray value = new JsonArray();
+        value.add("999");
+        value.add("<ssid>");
+        values.add(value);
+        DetectorWindow window = new DetectorWindow("accelerometer", values, buffers.swap(), buffers);
+        Assert.assertEquals(2, window.size());
+        Assert.assertEquals(1, buffers.pending());
+        Assert.assertTrue(buffers.active().isEmpty());
+
+        StringWriter output = new StringWriter();
+        JsonWriter writer = new JsonWriter(output);
+        window.writeJson(writer);
+        writer.close();
+        Assert.assertEquals("[[\"999\",\"<ssid>\"],[\"1000\",\"1.0\",\"2.0\",\"3.0\"]]", output.toString());
+
+        window.release();
+        Assert.assertEquals(0, buffers.pending());
+    }
+
+    @Test
+    public void testEmptyWindow() throws Exception {
+        DetectorWindow window = new DetectorWindow("network", new ArrayList<JsonArray>());
+        Assert.assertTrue(window.isEmpty());
+        StringWriter output = new StringWriter();
+        JsonWriter writer = new JsonWriter(output);
+        window.writeJson(writer);
+        writer.close();
+        Assert.assertEquals("[]", output.toString());
+        window.release();
+    }
+}
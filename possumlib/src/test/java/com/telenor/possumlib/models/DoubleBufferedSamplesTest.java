@@ -0,0 +1,57 @@
+package com.telenor.possumlib.models;
+
+import com.telenor.possumlib.PossumTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(PossumTestRunner.class)
+public class DoubleBufferedSamplesTest {
+    @Test
+    public void testSwapGivesFullBufferAndReusesReleased() throws Exception {
+        DoubleBufferedSamples buffers = new DoubleBufferedSamples();
+        SensorSampleBuffer first = buffers.active();
+        first.add(1, 1, 2, 3);
+        SensorSampleBuffer full = buffers.swap();
+        Assert.assertSame(first, full);
+        Assert.assertEquals(1, full.size());
+        Assert.assertNotSame(first, buffers.active());
+        Assert.assertTrue(buffers.active().isEmpty());
+        Assert.assertEquals(1, buffers.pending());
+
+        buffers.release(full);
+        Assert.assertEquals(0, buffers.pending());
+        Assert.assertTrue(full.isEmpty());
+        buffers.active().add(2, 1, 2, 3);
+        buffers.swap();
+        Assert.assertSame(first, buffers.active());
+    }
+
+    @Test
+    public void testSwapDoesNotWaitForSlowWriter() throws Exception {
+        DoubleBufferedSamples buffers = new DoubleBufferedSamples();
+        for (int i = 0; i < 5; i++) {
+            buffers.active().add(i, 1, 2, 3);
+            buffers.swap();
+        }
+        Assert.assertEquals(5, buffers.pending());
+        Assert.assertTrue(buffers.active().isEmpty());
+    }
+
+    @Test
+    public void testTrySwapRefusesWhileSpareIsBeingWritten() throws Exception {
+        DoubleBufferedSamples buffers = new DoubleBufferedSamples();
+        buffers.active().add(1, 1, 2, 3);
+        SensorSampleBuffer full = buffers.trySwap();
+        Assert.assertNotNull(full);
+        buffers.active().add(2, 1, 2, 3);
+        Assert.assertNull(buffers.trySwap());
+        Assert.assertEquals(1, buffers.pending());
+        Assert.assertEquals(1, buffers.active().size());
+
+        buffers.release(full);
+        Assert.assertNotNull(buffers.trySwap());
+        Assert.assertEquals(1, buffers.pending());
+    }
+}
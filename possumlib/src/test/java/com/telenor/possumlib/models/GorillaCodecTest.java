@@ -0,0 +1,89 @@
+package com.telenor.possumlib.models;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.SensorSamples;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Verifies the gorilla codec round trips exactly and compares it against the text in zip stream
+ * it replaces in size. The time spent encoding is compared by GorillaCodecBenchmark.
+ */
+@RunWith(PossumTestRunner.class)
+public class GorillaCodecTest {
+    private static final int SAMPLES = 20000;
+    private static final int BATCH = 500;
+
+    private SensorSampleBuffer syntheticSamples() {
+        return SensorSamples.synthetic(SAMPLES);
+    }
+
+    private SensorSampleBuffer recordedLikeSamples() {
+        return SensorSamples.recordedLike(SAMPLES);
+    }
+
+    private byte[] encodeGorilla(SensorSampleBuffer samples) throws IOException {
+        return SensorSamples.encodeGorilla(samples, BATCH);
+    }
+
+    private byte[] encodeTextZip(SensorSampleBuffer samples) throws IOException {
+        return SensorSamples.encodeTextZip(samples, BATCH);
+    }
+
+    private void assertRoundTrip(SensorSampleBuffer samples) throws IOException {
+        SensorRecordReader record = SensorRecordReader.read(new ByteArrayInputStream(encodeGorilla(samples)));
+        Assert.assertEquals(SensorRecordWriter.CODEC_GORILLA, record.codec());
+        SensorSampleBuffer decoded = record.samples();
+        Assert.assertEquals(samples.size(), decoded.size());
+        for (int i = 0; i < samples.size(); i++) {
+            Assert.assertEquals(samples.timestamp(i), decoded.timestamp(i));
+            Assert.assertEquals(Float.floatToIntBits(samples.x(i)), Float.floatToIntBits(decoded.x(i)));
+            Assert.assertEquals(Float.floatToIntBits(samples.y(i)), Float.floatToIntBits(decoded.y(i)));
+            Assert.assertEquals(Float.floatToIntBits(samples.z(i)), Float.floatToIntBits(decoded.z(i)));
+        }
+    }
+
+    @Test
+    public void testRoundTripSynthetic() throws Exception {
+        assertRoundTrip(syntheticSamples());
+    }
+
+    @Test
+    public void testRoundTripRecordedLike() throws Exception {
+        assertRoundTrip(recordedLikeSamples());
+    }
+
+    @Test
+    public void testRoundTripEdgeValues() throws Exception {
+        SensorSampleBuffer samples = new SensorSampleBuffer();
+        samples.add(0, 0f, -0f, Float.NaN);
+        samples.add(Long.MAX_VALUE / 2, Float.MAX_VALUE, Float.MIN_VALUE, Float.NEGATIVE_INFINITY);
+        samples.add(5, -Float.MAX_VALUE, 1f, Float.POSITIVE_INFINITY);
+        samples.add(5, -Float.MAX_VALUE, 1f, Float.POSITIVE_INFINITY);
+        samples.add(4, 1e-30f, -1e30f, 0f);
+        assertRoundTrip(samples);
+    }
+
+    @Test
+    public void testPartialBlockIsIgnored() throws Exception {
+        byte[] encoded = encodeGorilla(syntheticSamples());
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length - 10);
+        SensorSampleBuffer decoded = SensorRecordReader.read(new ByteArrayInputStream(truncated)).samples();
+        Assert.assertEquals(SAMPLES - SAMPLES % BATCH - BATCH, decoded.size() - SAMPLES % BATCH);
+    }
+
+    @Test
+    public void testBeatsTextZipOnSize() throws Exception {
+        for (SensorSampleBuffer samples : new SensorSampleBuffer[]{syntheticSamples(), recordedLikeSamples()}) {
+            int gorilla = encodeGorilla(samples).length;
+            int zip = encodeTextZip(samples).length;
+            Assert.assertTrue("gorilla:" + gorilla + " zip:" + zip, gorilla < zip);
+        }
+    }
+}
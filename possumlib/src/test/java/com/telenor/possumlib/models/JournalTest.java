@@ -0,0 +1,101 @@
+package com.telenor.possumlib.models;
+
+import com.telenor.possumlib.PossumTestRunner;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class JournalTest {
+    private File journal;
+
+    @Before
+    public void setUp() throws Exception {
+        journal = File.createTempFile("journal", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Assert.assertTrue(journal.delete());
+    }
+
+    private void writeRecords(int count) throws IOException {
+        JournalWriter writer = new JournalWriter(journal, 1000);
+        for (int i = 0; i < count; i++) {
+            byte[] record = ("[\"" + i + "\",\"1.0\",\"2.0\",\"3.0\"]\r\n").getBytes();
+            writer.append(record, 0, record.length);
+        }
+        Assert.assertEquals(count, writer.records());
+        Assert.assertEquals(journal.length(), writer.length());
+        writer.close();
+        Assert.assertTrue(writer.checkpoints() >= 2);
+    }
+
+    private List<String> readRecords() throws IOException {
+        List<String> records = new ArrayList<>();
+        JournalReader reader = new JournalReader(new FileInputStream(journal));
+        while (reader.next()) {
+            records.add(new String(reader.record(), 0, reader.recordLength()));
+        }
+        reader.close();
+        return records;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        writeRecords(10);
+        List<String> records = readRecords();
+        Assert.assertEquals(10, records.size());
+        Assert.assertEquals("[\"9\",\"1.0\",\"2.0\",\"3.0\"]\r\n", records.get(9));
+    }
+
+    @Test
+    public void testRecordCutShortIsDropped() throws Exception {
+        writeRecords(10);
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        file.setLength(journal.length() - 5);
+        file.close();
+        Assert.assertEquals(9, readRecords().size());
+    }
+
+    @Test
+    public void testReadingStopsAtDamagedRecord() throws Exception {
+        writeRecords(10);
+        int recordLength = "[\"0\",\"1.0\",\"2.0\",\"3.0\"]\r\n".length();
+        long damagedAt = JournalWriter.HEADER_SIZE + 4 * (JournalWriter.RECORD_OVERHEAD + recordLength) + JournalWriter.RECORD_OVERHEAD + 2;
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        file.seek(damagedAt);
+        file.write('X');
+        file.close();
+        JournalReader reader = new JournalReader(new FileInputStream(journal));
+        int records = 0;
+        while (reader.next()) {
+            records++;
+        }
+        reader.close();
+        Assert.assertEquals(4, records);
+        Assert.assertTrue(reader.isDamaged());
+        Assert.assertEquals(JournalWriter.HEADER_SIZE + 4 * (JournalWriter.RECORD_OVERHEAD + recordLength), reader.validLength());
+    }
+
+    @Test
+    public void testNotAJournal() throws Exception {
+        try {
+            new JournalReader(new ByteArrayInputStream("PK\u0003\u0004".getBytes()));
+            Assert.fail("Should not accept a zip");
+        } catch (IOException e) {
+            Assert.assertEquals("Not a journal", e.getMessage());
+        }
+    }
+}
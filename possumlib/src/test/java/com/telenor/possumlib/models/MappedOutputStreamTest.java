@@ -0,0 +1,134 @@
+package com.telenor.possumlib.models;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.DetectorType;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Verifies the memory mapped stream, that records written to it and to an unclosed region read
+ * back. MappedOutputStreamBenchmark compares its speed against the text zip stream.
+ */
+@RunWith(PossumTestRunner.class)
+public class MappedOutputStreamTest {
+    private static final int BATCH = 100;
+    private static final long CLOCK_BASE = 1500000000000L;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("mapped", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Assert.assertTrue(file.delete());
+    }
+
+    private SensorSampleBuffer batch(Random random, long timestamp) {
+        SensorSampleBuffer samples = new SensorSampleBuffer();
+        for (int i = 0; i < BATCH; i++) {
+            samples.add(timestamp + i * 5, random.nextFloat(), random.nextFloat(), 9.81f + random.nextFloat());
+        }
+        return samples;
+    }
+
+    @Test
+    public void testCloseTruncatesToPosition() throws Exception {
+        MappedOutputStream outputStream = new MappedOutputStream(file, 4096);
+        Assert.assertEquals(4096, file.length());
+        outputStream.write(new byte[]{1, 2, 3});
+        outputStream.write(4);
+        Assert.assertEquals(4, outputStream.position());
+        Assert.assertEquals(4092, outputStream.remaining());
+        outputStream.close();
+        Assert.assertEquals(4, file.length());
+    }
+
+    @Test
+    public void testWriteBeyondRegionFails() throws Exception {
+        MappedOutputStream outputStream = new MappedOutputStream(file, 8);
+        outputStream.write(new byte[6]);
+        try {
+            outputStream.write(new byte[3]);
+            Assert.fail("Write should not fit");
+        } catch (IOException ignore) {
+        }
+        Assert.assertEquals(6, outputStream.position());
+        outputStream.write(new byte[2]);
+        try {
+            outputStream.write(1);
+            Assert.fail("Write should not fit");
+        } catch (IOException ignore) {
+        }
+        outputStream.close();
+        Assert.assertEquals(8, file.length());
+    }
+
+    @Test
+    public void testRecordsRoundTrip() throws Exception {
+        for (boolean gorilla : new boolean[]{false, true}) {
+            Random random = new Random(3);
+            SensorSampleBuffer all = new SensorSampleBuffer();
+            MappedOutputStream outputStream = new MappedOutputStream(file, 1024 * 1024);
+            SensorRecordWriter writer = gorilla ? new GorillaRecordWriter(outputStream, DetectorType.Accelerometer, 200, CLOCK_BASE)
+                    : new SensorRecordWriter(outputStream, DetectorType.Accelerometer, 200, CLOCK_BASE);
+            for (int i = 0; i < 10; i++) {
+                SensorSampleBuffer samples = batch(random, CLOCK_BASE + i * BATCH * 5);
+                Assert.assertTrue(writer.maxWriteSize(samples.size()) <= outputStream.remaining());
+                writer.write(samples);
+                for (int j = 0; j < samples.size(); j++) {
+                    all.add(samples.timestamp(j), samples.x(j), samples.y(j), samples.z(j));
+                }
+            }
+            writer.close();
+            Assert.assertEquals(outputStream.position(), file.length());
+            assertSamples(all, read());
+        }
+    }
+
+    @Test
+    public void testUnclosedRegionReadsBack() throws Exception {
+        for (boolean gorilla : new boolean[]{false, true}) {
+            Random random = new Random(5);
+            MappedOutputStream outputStream = new MappedOutputStream(file, 64 * 1024);
+            SensorRecordWriter writer = gorilla ? new GorillaRecordWriter(outputStream, DetectorType.Accelerometer, 200, CLOCK_BASE)
+                    : new SensorRecordWriter(outputStream, DetectorType.Accelerometer, 200, CLOCK_BASE);
+            SensorSampleBuffer samples = batch(random, CLOCK_BASE);
+            writer.write(samples);
+            // As if the process was killed: the region is never truncated
+            outputStream.force();
+            Assert.assertEquals(64 * 1024, file.length());
+            assertSamples(samples, read());
+            writer.close();
+        }
+    }
+
+    private SensorSampleBuffer read() throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            return SensorRecordReader.read(inputStream).samples();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void assertSamples(SensorSampleBuffer expected, SensorSampleBuffer actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.timestamp(i), actual.timestamp(i));
+            Assert.assertEquals(expected.x(i), actual.x(i), 0);
+            Assert.assertEquals(expected.y(i), actual.y(i), 0);
+            Assert.assertEquals(expected.z(i), actual.z(i), 0);
+        }
+    }
+}
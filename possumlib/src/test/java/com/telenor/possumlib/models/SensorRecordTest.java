@@ -0,0 +1,120 @@
+package com.telenor.possumlib.models;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.DetectorType;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@RunWith(PossumTestRunner.class)
+public class SensorRecordTest {
+    private SensorSampleBuffer createSamples(int count) {
+        SensorSampleBuffer samples = new SensorSampleBuffer();
+        Random random = new Random(1);
+        long timestamp = 1500000000000L;
+        for (int i = 0; i < count; i++) {
+            samples.add(timestamp + i * 50,
+                    (float) (Math.sin(i / 10.0) + random.nextGaussian() * 0.05),
+                    (float) (Math.cos(i / 10.0) + random.nextGaussian() * 0.05),
+                    (float) (9.81 + random.nextGaussian() * 0.05));
+        }
+        return samples;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SensorSampleBuffer samples = createSamples(100);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        SensorRecordWriter writer = new SensorRecordWriter(outputStream, DetectorType.Accelerometer, 20, samples.timestamp(0));
+        writer.write(samples);
+        writer.close();
+        Assert.assertEquals(100, writer.frames());
+        Assert.assertEquals(SensorRecordWriter.HEADER_SIZE + 100 * SensorRecordWriter.FRAME_SIZE, outputStream.size());
+
+        SensorRecordReader record = SensorRecordReader.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assert.assertEquals(SensorRecordWriter.VERSION, record.version());
+        Assert.assertEquals(SensorRecordWriter.CODEC_FRAMES, record.codec());
+        Assert.assertEquals(DetectorType.Accelerometer, record.detectorType());
+        Assert.assertEquals(20, record.sampleRate());
+        Assert.assertEquals(samples.timestamp(0), record.clockBase());
+        Assert.assertEquals(samples.size(), record.samples().size());
+        for (int i = 0; i < samples.size(); i++) {
+            Assert.assertEquals(samples.timestamp(i), record.samples().timestamp(i));
+            Assert.assertEquals(samples.x(i), record.samples().x(i), 0);
+            Assert.assertEquals(samples.y(i), record.samples().y(i), 0);
+            Assert.assertEquals(samples.z(i), record.samples().z(i), 0);
+        }
+    }
+
+    @Test
+    public void testTruncatedFrameIsIgnored() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        SensorRecordWriter writer = new SensorRecordWriter(outputStream, DetectorType.Gyroscope, 20, 0);
+        writer.write(createSamples(10));
+        writer.close();
+        byte[] truncated = Arrays.copyOf(outputStream.toByteArray(), outputStream.size() - 5);
+        Assert.assertEquals(9, SensorRecordReader.read(new ByteArrayInputStream(truncated)).samples().size());
+    }
+
+    @Test
+    public void testZeroTailOfMappedRecordIsIgnored() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        SensorRecordWriter writer = new SensorRecordWriter(outputStream, DetectorType.Gyroscope, 20, 0);
+        writer.write(createSamples(10));
+        // Never closed, the rest of the mapped region is zero
+        byte[] mapped = Arrays.copyOf(outputStream.toByteArray(), 4096);
+        SensorRecordReader record = SensorRecordReader.read(new ByteArrayInputStream(mapped));
+        Assert.assertEquals(10, record.samples().size());
+        Assert.assertEquals(outputStream.size(), record.length());
+    }
+
+    @Test
+    public void testHeaderOnlyMappedRecordHasNoSamples() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new SensorRecordWriter(outputStream, DetectorType.Gyroscope, 20, 1500000000000L);
+        // Killed before the first flush, only the header was written to the mapped region
+        byte[] mapped = Arrays.copyOf(outputStream.toByteArray(), 4096);
+        SensorRecordReader record = SensorRecordReader.read(new ByteArrayInputStream(mapped));
+        Assert.assertEquals(0, record.samples().size());
+        Assert.assertEquals(SensorRecordWriter.HEADER_SIZE, record.length());
+    }
+
+    @Test
+    public void testRejectsUnknownData() throws Exception {
+        try {
+            SensorRecordReader.read(new ByteArrayInputStream("[\"1\",\"2\"]".getBytes()));
+            Assert.fail("Should not accept text as a record");
+        } catch (IOException ignore) {
+        }
+    }
+
+    @Test
+    public void testSmallerThanTextZip() throws Exception {
+        SensorSampleBuffer samples = createSamples(10000);
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        SensorRecordWriter writer = new SensorRecordWriter(binary, DetectorType.Accelerometer, 20, samples.timestamp(0));
+        writer.write(samples);
+        writer.close();
+
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        ZipOutputStream zipStream = new ZipOutputStream(zipped);
+        zipStream.putNextEntry(new ZipEntry("accelerometer"));
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < samples.size(); i++) {
+            samples.appendJson(i, builder);
+            builder.append("\r\n");
+        }
+        zipStream.write(builder.toString().getBytes());
+        zipStream.close();
+        Assert.assertTrue("binary:" + binary.size() + " zip:" + zipped.size(), binary.size() < zipped.size());
+    }
+}
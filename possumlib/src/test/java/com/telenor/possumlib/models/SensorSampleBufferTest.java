@@ -0,0 +1,73 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonArray;
+import com.google.gson.stream.JsonWriter;
+import com.telenor.possumlib.PossumTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringWriter;
+
+@RunWith(PossumTestRunner.class)
+public class SensorSampleBufferTest {
+    @Test
+    public void testAddAndRead() throws Exception {
+        SensorSampleBuffer buffer = new SensorSampleBuffer(4);
+        Assert.assertTrue(buffer.isEmpty());
+        buffer.add(1000L, 0.1f, 0.2f, 0.3f);
+        buffer.add(1050L, 1.1f, 1.2f, 1.3f);
+        Assert.assertEquals(2, buffer.size());
+        Assert.assertEquals(1050L, buffer.timestamp(1));
+        Assert.assertEquals(1.1f, buffer.x(1), 0);
+        Assert.assertEquals(1.2f, buffer.y(1), 0);
+        Assert.assertEquals(1.3f, buffer.z(1), 0);
+    }
+
+    @Test
+    public void testGrowsAndReusesArrays() throws Exception {
+        SensorSampleBuffer buffer = new SensorSampleBuffer(2);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(i, i, i, i);
+        }
+        Assert.assertEquals(100, buffer.size());
+        Assert.assertTrue(buffer.capacity() >= 100);
+        int growths = buffer.growths();
+        Assert.assertTrue(growths > 0);
+        Assert.assertEquals(buffer.capacity() * SensorSampleBuffer.BYTES_PER_SAMPLE, buffer.memoryFootprint());
+        buffer.clear();
+        Assert.assertEquals(0, buffer.size());
+        for (int i = 0; i < 100; i++) {
+            buffer.add(i, i, i, i);
+        }
+        // Refilling to the same size should not allocate anything new
+        Assert.assertEquals(growths, buffer.growths());
+    }
+
+    @Test
+    public void testJsonMatchesLegacyFormat() throws Exception {
+        SensorSampleBuffer buffer = new SensorSampleBuffer();
+        buffer.add(1500000000000L, 0.1f, -9.81f, 3f);
+        JsonArray legacy = new JsonArray();
+        legacy.add("" + 1500000000000L);
+        legacy.add("" + 0.1f);
+        legacy.add("" + -9.81f);
+        legacy.add("" + 3f);
+        StringBuilder builder = new StringBuilder();
+        buffer.appendJson(0, builder);
+        Assert.assertEquals(legacy.toString(), builder.toString());
+        Assert.assertEquals(legacy, buffer.toJsonArray(0));
+    }
+
+    @Test
+    public void testStreamedJsonMatchesJsonArray() throws Exception {
+        SensorSampleBuffer buffer = new SensorSampleBuffer();
+        buffer.add(1500000000000L, 0.1f, -9.81f, 3f);
+        StringWriter output = new StringWriter();
+        JsonWriter writer = new JsonWriter(output);
+        buffer.writeJson(0, writer);
+        writer.close();
+        Assert.assertEquals(buffer.toJsonArray(0).toString(), output.toString());
+    }
+}
@@ -0,0 +1,63 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonArray;
+import com.telenor.possumlib.PossumTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class StandbyBufferTest {
+    private static final long NOW = 1500000000000L;
+    private final DoubleBufferedSamples buffers = new DoubleBufferedSamples();
+
+    private List<DetectorWindow> chunk(int samples) {
+        for (int i = 0; i < samples; i++) {
+            buffers.active().add(i, 1, 2, 3);
+        }
+        return Collections.singletonList(new DetectorWindow("accelerometer", new ArrayList<JsonArray>(), buffers.swap(), buffers));
+    }
+
+    @Test
+    public void testKeepsOnlyTheWindow() throws Exception {
+        StandbyBuffer buffer = new StandbyBuffer(3000, 1024 * 1024);
+        for (int second = 1; second <= 10; second++) {
+            buffer.add(chunk(50), NOW + (second - 1) * 1000, NOW + second * 1000);
+        }
+        Assert.assertEquals(3000, buffer.coverage(NOW + 10000));
+        Assert.assertEquals(3, buffer.toJson(NOW + 10000).get("chunks").getAsInt());
+        Assert.assertEquals(0, buffer.evictedForMemory());
+        // Dropped chunks gave their sample buffers back
+        Assert.assertEquals(3, buffers.pending());
+
+        List<DetectorWindow> windows = buffer.drain();
+        Assert.assertEquals(3, windows.size());
+        Assert.assertEquals(0, buffer.bytes());
+        Assert.assertEquals(0, buffer.coverage(NOW + 10000));
+        for (DetectorWindow window : windows) {
+            window.release();
+        }
+        Assert.assertEquals(0, buffers.pending());
+    }
+
+    @Test
+    public void testKeepsWithinMemoryBudget() throws Exception {
+        long chunkBytes = chunk(100).get(0).memoryFootprint();
+        buffers.release(buffers.swap());
+        StandbyBuffer buffer = new StandbyBuffer(60000, chunkBytes * 2 + 1);
+        for (int second = 1; second <= 5; second++) {
+            buffer.add(chunk(100), NOW + (second - 1) * 1000, NOW + second * 1000);
+            Assert.assertTrue(buffer.bytes() <= buffer.memoryBudget());
+        }
+        Assert.assertEquals(3, buffer.evictedForMemory());
+        Assert.assertEquals(2000, buffer.coverage(NOW + 5000));
+        Assert.assertTrue(buffer.toJson(NOW + 5000).get("peakBytes").getAsLong() > buffer.memoryBudget());
+        buffer.clear();
+        Assert.assertEquals(0, buffer.bytes());
+    }
+}
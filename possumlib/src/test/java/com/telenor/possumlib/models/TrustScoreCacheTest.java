@@ -0,0 +1,116 @@
+package com.telenor.possumlib.models;
+
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.TrustScoreState;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(PossumTestRunner.class)
+public class TrustScoreCacheTest {
+    private static final long NOW = 1500000000000L;
+    private static final long TTL = 60000;
+    private static final long MAX_STALE = 300000;
+    private static final long IN_FLIGHT = 20000;
+    private TrustScoreCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new TrustScoreCache(TTL, MAX_STALE, IN_FLIGHT);
+    }
+
+    private JsonObject score(float value) {
+        JsonObject trustScore = new JsonObject();
+        trustScore.addProperty("score", value);
+        JsonObject score = new JsonObject();
+        score.add("trustScore", trustScore);
+        return score;
+    }
+
+    @Test
+    public void testFreshStaleAndMissing() throws Exception {
+        Assert.assertTrue(cache.startAuthentication("user", NOW, false));
+        cache.authenticationFinished("user", score(0.8f), NOW + 10000);
+
+        Assert.assertEquals(TrustScoreState.FRESH, cache.state("user", NOW + 10000 + TTL - 1));
+        Assert.assertFalse(cache.startAuthentication("user", NOW + 20000, false));
+        JsonObject fresh = cache.get("user", NOW + 20000);
+        Assert.assertNotNull(fresh);
+        Assert.assertEquals(10000, fresh.get("age").getAsLong());
+        Assert.assertFalse(fresh.get("stale").getAsBoolean());
+
+        long stale = NOW + 10000 + TTL;
+        Assert.assertEquals(TrustScoreState.STALE, cache.state("user", stale));
+        Assert.assertTrue(cache.get("user", stale).get("stale").getAsBoolean());
+        Assert.assertTrue(cache.startAuthentication("user", stale, false));
+        cache.authenticationFinished("user", null, stale + 1000);
+        // A failed attempt keeps the score held
+        Assert.assertEquals(TrustScoreState.STALE, cache.state("user", stale + 1000));
+
+        Assert.assertEquals(TrustScoreState.MISSING, cache.state("user", NOW + 10000 + MAX_STALE));
+        Assert.assertNull(cache.get("user", NOW + 10000 + MAX_STALE));
+        Assert.assertEquals(TrustScoreState.MISSING, cache.state("other", NOW));
+    }
+
+    @Test
+    public void testScoresAreCopied() throws Exception {
+        JsonObject received = score(0.8f);
+        cache.authenticationFinished("user", received, NOW);
+        received.addProperty("changed", true);
+        JsonObject first = cache.get("user", NOW + 1000);
+        Assert.assertFalse(first.has("changed"));
+        Assert.assertFalse(received.has("age"));
+
+        // Changing a score given out changes neither the one held nor those given later
+        first.getAsJsonObject("trustScore").addProperty("score", 0.1f);
+        first.remove("stale");
+        JsonObject second = cache.get("user", NOW + 2000);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(0.8f, second.getAsJsonObject("trustScore").get("score").getAsFloat(), 0);
+        Assert.assertFalse(second.get("stale").getAsBoolean());
+        Assert.assertEquals(1000, first.get("age").getAsLong());
+        Assert.assertEquals(2000, second.get("age").getAsLong());
+    }
+
+    @Test
+    public void testConcurrentAuthenticationsJoin() throws Exception {
+        Assert.assertTrue(cache.startAuthentication("user", NOW, false));
+        Assert.assertFalse(cache.startAuthentication("user", NOW + 100, false));
+        Assert.assertFalse(cache.startAuthentication("user", NOW + 200, true));
+        Assert.assertTrue(cache.isInFlight("user", NOW + 300));
+        // Another user has an attempt of its own
+        Assert.assertTrue(cache.startAuthentication("other", NOW + 300, false));
+
+        cache.authenticationFinished("user", score(0.5f), NOW + 10000);
+        Assert.assertFalse(cache.isInFlight("user", NOW + 10000));
+        Assert.assertTrue(cache.startAuthentication("user", NOW + 10000, true));
+
+        // An attempt whose end is never heard of is given up after the in-flight timeout
+        Assert.assertFalse(cache.startAuthentication("other", NOW + 300 + IN_FLIGHT - 1, false));
+        Assert.assertTrue(cache.startAuthentication("other", NOW + 300 + IN_FLIGHT, false));
+    }
+
+    @Test
+    public void testHitRate() throws Exception {
+        Assert.assertEquals(0, cache.hitRate(), 0);
+        cache.startAuthentication("user", NOW, false);
+        cache.authenticationFinished("user", score(0.9f), NOW);
+        for (int i = 1; i <= 3; i++) {
+            Assert.assertFalse(cache.startAuthentication("user", NOW + i * 1000, false));
+        }
+        Assert.assertTrue(cache.startAuthentication("user", NOW + TTL, false));
+        cache.invalidate("user");
+        cache.authenticationFinished("user", null, NOW + TTL);
+        Assert.assertEquals(TrustScoreState.MISSING, cache.state("user", NOW + TTL));
+
+        JsonObject statistics = cache.toJson();
+        Assert.assertEquals(3, statistics.get("hits").getAsInt());
+        Assert.assertEquals(1, statistics.get("staleHits").getAsInt());
+        Assert.assertEquals(1, statistics.get("misses").getAsInt());
+        Assert.assertEquals(0, statistics.get("joined").getAsInt());
+        Assert.assertEquals(0.8, statistics.get("hitRate").getAsDouble(), 1e-9);
+    }
+}
@@ -0,0 +1,63 @@
+package com.telenor.possumlib.models;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.UploadResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(PossumTestRunner.class)
+public class UploadMetricsTest {
+    private static final long NOW = 1500000000000L;
+    private final File first = new File("possumlibdata#1.0#gyroscope#user#1.zip");
+    private final File second = new File("possumlibdata#1.0#position#user#2");
+
+    @Test
+    public void testCumulativeProgressIsNotCountedTwice() throws Exception {
+        UploadMetrics metrics = new UploadMetrics();
+        metrics.started(first, NOW);
+        metrics.progress(first, 100);
+        metrics.progress(first, 300);
+        metrics.progress(first, 1000);
+        metrics.finished(first, UploadResult.COMPLETED, NOW + 500);
+        Assert.assertEquals(1000, metrics.bytes());
+        Assert.assertEquals(1, metrics.completed());
+        Assert.assertEquals(500, metrics.duration());
+        Assert.assertEquals(2000, metrics.throughput(), 0.001);
+    }
+
+    @Test
+    public void testRestartedUploadCountsWhatIsSentAgain() throws Exception {
+        UploadMetrics metrics = new UploadMetrics();
+        metrics.started(first, NOW);
+        metrics.progress(first, 600);
+        metrics.progress(first, 200);
+        metrics.progress(first, 1000);
+        metrics.finished(first, UploadResult.COMPLETED, NOW + 100);
+        Assert.assertEquals(1600, metrics.bytes());
+    }
+
+    @Test
+    public void testLatencyOverCompletedFilesAndRetries() throws Exception {
+        UploadMetrics metrics = new UploadMetrics();
+        metrics.retried(second, 2);
+        metrics.started(first, NOW);
+        metrics.started(second, NOW + 10);
+        metrics.progress(second, 50);
+        metrics.finished(first, UploadResult.COMPLETED, NOW + 200);
+        metrics.finished(second, UploadResult.FAILED, NOW + 400);
+        Assert.assertEquals(1, metrics.completed());
+        Assert.assertEquals(1, metrics.failed());
+        Assert.assertEquals(1, metrics.retriedFiles());
+        Assert.assertEquals(1, metrics.latency().count());
+        Assert.assertEquals(200, metrics.latency().max());
+        Assert.assertEquals(50, metrics.bytes());
+        Assert.assertEquals(400, metrics.duration());
+        Assert.assertEquals(2, metrics.toJson(true).getAsJsonArray("files").size());
+        Assert.assertEquals(2, metrics.toJson(true).getAsJsonArray("files").get(1).getAsJsonObject().get("retries").getAsInt());
+        Assert.assertFalse(metrics.toJson(false).has("files"));
+    }
+}
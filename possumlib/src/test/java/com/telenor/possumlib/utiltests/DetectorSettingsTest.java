@@ -0,0 +1,58 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.DetectorType;
+import com.telenor.possumlib.constants.StorageFormat;
+import com.telenor.possumlib.utils.DetectorSettings;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(PossumTestRunner.class)
+public class DetectorSettingsTest {
+    private File settingsFile;
+
+    @Before
+    public void setUp() throws Exception {
+        settingsFile = File.createTempFile("detector", ".settings");
+        Assert.assertTrue(settingsFile.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Assert.assertTrue(!settingsFile.exists() || settingsFile.delete());
+    }
+
+    @Test
+    public void testFallbackWhenNotSet() throws Exception {
+        DetectorSettings settings = new DetectorSettings(settingsFile);
+        Assert.assertEquals(StorageFormat.TEXT_ZIP, settings.storageFormat(DetectorType.Accelerometer, StorageFormat.TEXT_ZIP));
+        Assert.assertFalse(settings.memoryMapped(DetectorType.Accelerometer, false));
+        Assert.assertTrue(settings.batching(DetectorType.Gyroscope, true));
+    }
+
+    @Test
+    public void testSettingsSeenByAnotherInstance() throws Exception {
+        DetectorSettings app = new DetectorSettings(settingsFile);
+        DetectorSettings service = new DetectorSettings(settingsFile);
+        Assert.assertEquals(StorageFormat.TEXT_ZIP, service.storageFormat(DetectorType.Accelerometer, StorageFormat.TEXT_ZIP));
+
+        app.setStorageFormat(DetectorType.Accelerometer, StorageFormat.GORILLA);
+        app.setMemoryMapped(DetectorType.Accelerometer, true);
+        Assert.assertEquals(StorageFormat.GORILLA, service.storageFormat(DetectorType.Accelerometer, StorageFormat.TEXT_ZIP));
+        Assert.assertTrue(service.memoryMapped(DetectorType.Accelerometer, false));
+        // Other detector types are left alone
+        Assert.assertEquals(StorageFormat.TEXT_ZIP, service.storageFormat(DetectorType.Gyroscope, StorageFormat.TEXT_ZIP));
+        Assert.assertFalse(service.memoryMapped(DetectorType.Gyroscope, false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidStorageFormat() throws Exception {
+        new DetectorSettings(settingsFile).setStorageFormat(DetectorType.Accelerometer, 42);
+    }
+}
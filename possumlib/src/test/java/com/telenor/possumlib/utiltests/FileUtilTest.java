@@ -7,6 +7,7 @@ import com.google.common.io.CharStreams;
 import com.telenor.possumlib.FileManipulator;
 import com.telenor.possumlib.PossumTestRunner;
 import com.telenor.possumlib.abstractdetectors.AbstractDetector;
+import com.telenor.possumlib.models.JournalWriter;
 import com.telenor.possumlib.utils.FileUtil;
 
 import org.junit.After;
@@ -23,14 +24,21 @@ import org.robolectric.util.Transcript;
 import org.robolectric.util.concurrent.RoboExecutorService;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -263,4 +271,64 @@ public class FileUtilTest {
             Assert.assertEquals("FailFtw", e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRemoveIncompleteLine() throws Exception {
+        File file = FileManipulator.getFileWithName(RuntimeEnvironment.application, "Accelerometer");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write("[\"1\"]\r\n[\"2\"]\r\n[\"3".getBytes());
+        outputStream.close();
+        Assert.assertEquals(4, FileUtil.removeIncompleteLine(file));
+        Assert.assertEquals(14, file.length());
+        Assert.assertEquals(0, FileUtil.removeIncompleteLine(file));
+        Assert.assertEquals(14, file.length());
+        Assert.assertTrue(file.delete());
+    }
+
+    @Test
+    public void testSalvageUnfinishedZip() throws Exception {
+        File brokenZip = FileManipulator.getFileWithName(RuntimeEnvironment.application, "Accelerometer");
+        ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(brokenZip));
+        zipStream.putNextEntry(new ZipEntry("Accelerometer"));
+        for (int i = 0; i < 1000; i++) {
+            zipStream.write(("[\"" + i + "\",\"" + Math.random() + "\"]\r\n").getBytes());
+        }
+        zipStream.flush();
+        // The stream is never closed, like when the process is killed while recording
+        File salvaged = new File(dataDir, "salvaged.zip");
+        Assert.assertTrue(FileUtil.salvageZip(brokenZip, salvaged, "Accelerometer") > 0);
+        List<String> lines = readZipLines(salvaged);
+        Assert.assertTrue(lines.size() > 0);
+        for (int i = 0; i < lines.size(); i++) {
+            Assert.assertTrue(lines.get(i).startsWith("[\"" + i + "\","));
+            Assert.assertTrue(lines.get(i).endsWith("\"]"));
+        }
+    }
+
+    @Test
+    public void testJournalToZipKeepsCompleteRecords() throws Exception {
+        File journal = FileManipulator.getFileWithName(RuntimeEnvironment.application, "Accelerometer");
+        JournalWriter writer = new JournalWriter(journal, 0);
+        for (int i = 0; i < 10; i++) {
+            byte[] record = ("[\"" + i + "\"]\r\n").getBytes();
+            writer.append(record, 0, record.length);
+        }
+        writer.close();
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        file.setLength(journal.length() - 2);
+        file.close();
+        File zip = new File(dataDir, "journal.zip");
+        Assert.assertEquals(9, FileUtil.journalToZip(journal, zip, "Accelerometer"));
+        List<String> lines = readZipLines(zip);
+        Assert.assertEquals(9, lines.size());
+        Assert.assertEquals("[\"8\"]", lines.get(8));
+    }
+
+    private List<String> readZipLines(File zip) throws IOException {
+        ZipInputStream inputStream = new ZipInputStream(new FileInputStream(zip));
+        Assert.assertNotNull(inputStream.getNextEntry());
+        List<String> lines = CharStreams.readLines(new InputStreamReader(inputStream));
+        inputStream.close();
+        return lines;
+    }
+}
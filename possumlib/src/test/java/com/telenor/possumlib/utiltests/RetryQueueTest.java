@@ -0,0 +1,98 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.RetryQueue;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(PossumTestRunner.class)
+public class RetryQueueTest {
+    private static final long NOW = 1500000000000L;
+    private File queueFile;
+    private File first;
+    private File second;
+    private RetryQueue retryQueue;
+
+    @Before
+    public void setUp() throws Exception {
+        queueFile = File.createTempFile("upload", ".retry");
+        Assert.assertTrue(queueFile.delete());
+        first = new File("possumlibdata#1.0#gyroscope#user#1.zip");
+        second = new File("possumlibdata#1.0#position#user#2");
+        retryQueue = new RetryQueue(queueFile, new Random(42));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Assert.assertTrue(!queueFile.exists() || queueFile.delete());
+    }
+
+    @Test
+    public void testBackoffDoublesWithJitterUpToMax() throws Exception {
+        for (int attempts = 1; attempts <= 40; attempts++) {
+            long ceiling = Math.min(RetryQueue.MAX_DELAY_MILLI, RetryQueue.BASE_DELAY_MILLI << Math.min(attempts - 1, 20));
+            for (int i = 0; i < 20; i++) {
+                long delay = retryQueue.delay(attempts);
+                Assert.assertTrue("Attempt " + attempts + " delay " + delay, delay <= ceiling && delay >= ceiling / 2);
+            }
+        }
+        Assert.assertNotEquals(retryQueue.delay(3), retryQueue.delay(3));
+    }
+
+    @Test
+    public void testFailedFileIsHeldBack() throws Exception {
+        List<File> staged = Arrays.asList(first, second);
+        Assert.assertEquals(staged, retryQueue.due(staged, NOW, true));
+        long delay = retryQueue.failed(first, NOW);
+        Assert.assertEquals(1, retryQueue.attempts(first));
+        Assert.assertEquals(NOW + delay, retryQueue.nextAttempt());
+        Assert.assertEquals(Collections.singletonList(second), retryQueue.due(staged, NOW, true));
+        Assert.assertEquals(staged, retryQueue.due(staged, NOW + delay, true));
+        Assert.assertTrue(retryQueue.due(staged, NOW + delay, false).isEmpty());
+
+        long secondDelay = retryQueue.failed(first, NOW + delay);
+        Assert.assertEquals(2, retryQueue.attempts(first));
+        Assert.assertTrue(secondDelay >= RetryQueue.BASE_DELAY_MILLI);
+
+        retryQueue.succeeded(first);
+        Assert.assertEquals(0, retryQueue.attempts(first));
+        Assert.assertEquals(0, retryQueue.pending());
+        Assert.assertEquals(0, retryQueue.nextAttempt());
+    }
+
+    @Test
+    public void testWaitingForNetwork() throws Exception {
+        retryQueue.failed(first, NOW);
+        retryQueue.waitingForNetwork(first);
+        Assert.assertEquals(1, retryQueue.attempts(first));
+        Assert.assertEquals(1, retryQueue.waitingForNetwork());
+        Assert.assertEquals(0, retryQueue.nextAttempt());
+        Assert.assertEquals(Collections.singletonList(first), retryQueue.due(Collections.singletonList(first), NOW, true));
+        Assert.assertTrue(retryQueue.due(Collections.singletonList(first), NOW, false).isEmpty());
+    }
+
+    @Test
+    public void testPersistedAndPruned() throws Exception {
+        long delay = retryQueue.failed(first, NOW);
+        retryQueue.waitingForNetwork(second);
+        RetryQueue reloaded = new RetryQueue(queueFile);
+        Assert.assertEquals(2, reloaded.pending());
+        Assert.assertEquals(1, reloaded.attempts(first));
+        Assert.assertEquals(NOW + delay, reloaded.nextAttempt());
+        Assert.assertEquals(1, reloaded.waitingForNetwork());
+
+        Assert.assertEquals(1, reloaded.prune(Collections.singletonList(first)));
+        Assert.assertEquals(1, reloaded.pending());
+        Assert.assertEquals(0, new RetryQueue(queueFile).waitingForNetwork());
+    }
+}
@@ -0,0 +1,179 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.FileManipulator;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.changeevents.MetaDataChangeEvent;
+import com.telenor.possumlib.changeevents.PossumEvent;
+import com.telenor.possumlib.constants.EvictionPolicy;
+import com.telenor.possumlib.constants.StoragePriority;
+import com.telenor.possumlib.interfaces.IPossumEventListener;
+import com.telenor.possumlib.models.PossumBus;
+import com.telenor.possumlib.utils.StorageQuota;
+import com.telenor.possumlib.utils.UploadIndex;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(PossumTestRunner.class)
+public class StorageQuotaTest {
+    private File directory;
+    private File indexFile;
+    private File settingsFile;
+    private UploadIndex index;
+    private StorageQuota quota;
+    private PossumBus eventBus;
+    private final List<String> evictions = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("upload", null);
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+        indexFile = new File(directory.getAbsolutePath() + ".index");
+        settingsFile = new File(directory.getAbsolutePath() + ".quota");
+        index = new UploadIndex(directory, indexFile);
+        quota = new StorageQuota(index, directory, settingsFile);
+        quota.setMinFreeSpace(0);
+        eventBus = new PossumBus();
+        eventBus.register(new IPossumEventListener() {
+            @Override
+            public void eventReceived(PossumEvent event) {
+                if (event instanceof MetaDataChangeEvent) {
+                    evictions.add(event.message());
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(!indexFile.exists() || indexFile.delete());
+        Assert.assertTrue(!settingsFile.exists() || settingsFile.delete());
+    }
+
+    private File stage(String detector, long timestamp, int length) throws IOException {
+        File file = FileManipulator.stagedDetectorFile(directory, detector, "user", timestamp, length);
+        index.added(file);
+        return file;
+    }
+
+    @Test
+    public void testDetectorBudgetEvictsOldestOfDetector() throws Exception {
+        quota.setGlobalBudget(0);
+        File first = stage("Accelerometer", 1000000L, 100);
+        File second = stage("Accelerometer", 2000000L, 100);
+        File other = stage("Gyroscope", 500000L, 100);
+        Assert.assertEquals(0, quota.enforce(eventBus, "Accelerometer", 200, 0));
+        stage("Accelerometer", 3000000L, 100);
+        Assert.assertEquals(1, quota.enforce(eventBus, "Accelerometer", 200, 0));
+        Assert.assertFalse(first.exists());
+        Assert.assertTrue(second.exists());
+        Assert.assertTrue(other.exists());
+        Assert.assertEquals(200, index.size("Accelerometer"));
+        Assert.assertEquals(1, evictions.size());
+        Assert.assertTrue(evictions.get(0).contains("STORAGE EVICTED (Accelerometer)"));
+        Assert.assertEquals(1, quota.evictions());
+        Assert.assertEquals(100, quota.evictedSize());
+    }
+
+    @Test
+    public void testGlobalBudgetEvictsOldestFirst() throws Exception {
+        quota.setGlobalBudget(250);
+        File oldest = stage("Gyroscope", 1000000L, 100);
+        stage("Accelerometer", 2000000L, 100);
+        stage("Accelerometer", 3000000L, 100);
+        Assert.assertEquals(1, quota.enforce(eventBus, "Accelerometer", 0, 0));
+        Assert.assertFalse(oldest.exists());
+        Assert.assertEquals(200, index.totalSize());
+    }
+
+    @Test
+    public void testGlobalBudgetEvictsLowestPriorityFirst() throws Exception {
+        quota.setGlobalBudget(250);
+        quota.setPolicy(EvictionPolicy.LOWEST_PRIORITY_FIRST);
+        File important = stage("Gyroscope", 1000000L, 100);
+        quota.enforce(eventBus, "Gyroscope", 0, 10);
+        File firstCheap = stage("Accelerometer", 2000000L, 100);
+        File secondCheap = stage("Accelerometer", 3000000L, 100);
+        Assert.assertEquals(1, quota.enforce(eventBus, "Accelerometer", 0, 0));
+        Assert.assertTrue(important.exists());
+        Assert.assertFalse(firstCheap.exists());
+        Assert.assertTrue(secondCheap.exists());
+    }
+
+    @Test
+    public void testGlobalBudgetEvictsSensorSegmentsBeforeContextData() throws Exception {
+        quota.setGlobalBudget(450);
+        quota.setPolicy(EvictionPolicy.LOWEST_PRIORITY_FIRST);
+        File network = stage("network", 1000000L, 50);
+        quota.enforce(eventBus, "network", 0, StoragePriority.DEFAULT);
+        File position = stage("position", 1500000L, 50);
+        quota.enforce(eventBus, "position", 0, StoragePriority.DEFAULT);
+        File gyroscope = stage("gyroscope", 2000000L, 100);
+        quota.enforce(eventBus, "gyroscope", 0, StoragePriority.BULK);
+        File firstAccelerometer = stage("accelerometer", 2500000L, 100);
+        File secondAccelerometer = stage("accelerometer", 3000000L, 100);
+        Assert.assertEquals(0, quota.enforce(eventBus, "accelerometer", 0, StoragePriority.BULK));
+
+        // The oldest sensor segment goes, though the context data is older
+        stage("magnetometer", 3500000L, 100);
+        Assert.assertEquals(1, quota.enforce(eventBus, "magnetometer", 0, StoragePriority.BULK));
+        Assert.assertFalse(gyroscope.exists());
+        Assert.assertTrue(network.exists());
+        Assert.assertTrue(position.exists());
+
+        stage("magnetometer", 4000000L, 200);
+        Assert.assertEquals(2, quota.enforce(eventBus, "magnetometer", 0, StoragePriority.BULK));
+        Assert.assertFalse(firstAccelerometer.exists());
+        Assert.assertFalse(secondAccelerometer.exists());
+        Assert.assertTrue(network.exists());
+        Assert.assertTrue(position.exists());
+        Assert.assertEquals(400, index.totalSize());
+
+        // Context data only goes once every sensor segment is gone, oldest first
+        File lastPosition = stage("position", 5000000L, 400);
+        Assert.assertEquals(3, quota.enforce(eventBus, "position", 0, StoragePriority.DEFAULT));
+        Assert.assertEquals(0, index.size("magnetometer"));
+        Assert.assertFalse(network.exists());
+        Assert.assertTrue(position.exists());
+        Assert.assertTrue(lastPosition.exists());
+        Assert.assertEquals(450, index.totalSize());
+    }
+
+    @Test
+    public void testLowFreeSpaceEvicts() throws Exception {
+        quota.setGlobalBudget(0);
+        stage("Accelerometer", 1000000L, 100);
+        stage("Accelerometer", 2000000L, 100);
+        Assert.assertEquals(0, quota.enforce(eventBus, "Accelerometer", 0, 0));
+        // No device has this much free space, so everything staged must go
+        quota.setMinFreeSpace(Long.MAX_VALUE / 2);
+        Assert.assertEquals(2, quota.enforce(eventBus, "Accelerometer", 0, 0));
+        Assert.assertEquals(0, index.totalSize());
+    }
+
+    @Test
+    public void testSettingsSharedThroughFile() throws Exception {
+        quota.setGlobalBudget(1234);
+        quota.setPolicy(EvictionPolicy.LOWEST_PRIORITY_FIRST);
+        StorageQuota other = new StorageQuota(index, directory, settingsFile);
+        Assert.assertEquals(1234, other.globalBudget());
+        Assert.assertEquals(0, other.minFreeSpace());
+        Assert.assertEquals(EvictionPolicy.LOWEST_PRIORITY_FIRST, other.policy());
+    }
+}
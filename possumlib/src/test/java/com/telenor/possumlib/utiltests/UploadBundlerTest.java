@@ -0,0 +1,149 @@
+package com.telenor.possumlib.utiltests;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.telenor.possumlib.FileManipulator;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.FileUtil;
+import com.telenor.possumlib.utils.RetryQueue;
+import com.telenor.possumlib.utils.UploadBundler;
+import com.telenor.possumlib.utils.UploadIndex;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+@RunWith(PossumTestRunner.class)
+public class UploadBundlerTest {
+    private File parent;
+    private File directory;
+    private UploadIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        parent = File.createTempFile("data", null);
+        Assert.assertTrue(parent.delete());
+        Assert.assertTrue(parent.mkdir());
+        directory = new File(parent, "Upload");
+        Assert.assertTrue(directory.mkdir());
+        index = new UploadIndex(directory, new File(parent, "upload.index"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File dir : new File[]{directory, parent}) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Assert.assertTrue(file.isDirectory() || file.delete());
+                }
+            }
+        }
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(parent.delete());
+    }
+
+    private File stage(String detector, String user, long timestamp, int length) throws Exception {
+        File file = FileManipulator.stagedDetectorFile(directory, detector, user, timestamp, length);
+        index.added(file);
+        return file;
+    }
+
+    private List<File> staged() {
+        return Arrays.asList(directory.listFiles());
+    }
+
+    @Test
+    public void testSmallFilesBundledWithManifest() throws Exception {
+        stage("Position", "user", 1000000L, 100);
+        stage("Network", "user", 2000000L, 200);
+        stage("Network", "user", 3000000L, 300);
+        stage("MetaData", "user", 4000000L, 50);
+        File large = stage("Accelerometer", "user", 5000000L, (int) UploadBundler.MIN_FILE_SIZE);
+
+        Assert.assertEquals(1, UploadBundler.bundle(index, staged()));
+        Assert.assertEquals(2, directory.listFiles().length);
+        Assert.assertTrue(large.exists());
+        Assert.assertEquals(1, index.count(UploadBundler.DETECTOR_NAME));
+        Assert.assertEquals(0, index.count("Network"));
+        File bundle = index.files(UploadBundler.DETECTOR_NAME).get(0);
+        Assert.assertTrue(FileUtil.toBucketKey(bundle).startsWith("possumlibdata/1.0/Bundle/user/"));
+
+        List<String> names = new ArrayList<>();
+        JsonObject manifest = null;
+        ZipInputStream in = new ZipInputStream(new FileInputStream(bundle));
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+            names.add(entry.getName());
+            if (entry.getName().equals(UploadBundler.MANIFEST)) {
+                manifest = new JsonParser().parse(new InputStreamReader(in, "UTF-8")).getAsJsonObject();
+                break;
+            }
+        }
+        in.close();
+        Assert.assertEquals(Arrays.asList(
+                "possumlibdata/1.0/Position/user/1000000.zip",
+                "possumlibdata/1.0/Network/user/2000000.zip",
+                "possumlibdata/1.0/Network/user/3000000.zip",
+                "possumlibdata/1.0/MetaData/user/4000000.zip",
+                UploadBundler.MANIFEST), names);
+        Assert.assertNotNull(manifest);
+        Assert.assertEquals(4, manifest.getAsJsonArray("entries").size());
+        JsonObject network = manifest.getAsJsonObject("detectors").getAsJsonObject("Network");
+        Assert.assertEquals(2, network.get("files").getAsInt());
+        Assert.assertEquals(500, network.get("bytes").getAsLong());
+    }
+
+    @Test
+    public void testBundlesPerUserAndLoneFileLeftAlone() throws Exception {
+        stage("Position", "first", 1000000L, 100);
+        stage("Network", "first", 2000000L, 100);
+        File lone = stage("Position", "second", 3000000L, 100);
+        Assert.assertEquals(1, UploadBundler.bundle(index, staged()));
+        Assert.assertTrue(lone.exists());
+        Assert.assertEquals(2, directory.listFiles().length);
+        // A bundle is never bundled again
+        Assert.assertEquals(0, UploadBundler.bundle(index, staged()));
+    }
+
+    @Test
+    public void testFilesInRetryQueueNotBundled() throws Exception {
+        long now = 10000000L;
+        RetryQueue retryQueue = new RetryQueue(new File(parent, "upload.retry"), new Random(1));
+        File first = stage("Position", "user", 1000000L, 100);
+        File second = stage("Network", "user", 2000000L, 100);
+        File backedOff = stage("Network", "user", 3000000L, 100);
+        File retryDue = stage("MetaData", "user", 4000000L, 100);
+        retryQueue.failed(backedOff, now);
+        retryQueue.failed(retryDue, now - RetryQueue.MAX_DELAY_MILLI);
+
+        // Nothing is due without a network
+        Assert.assertEquals(0, UploadBundler.bundle(index, retryQueue, staged(), now, false));
+        Assert.assertEquals(4, directory.listFiles().length);
+
+        Assert.assertEquals(1, UploadBundler.bundle(index, retryQueue, staged(), now, true));
+        Assert.assertFalse(first.exists());
+        Assert.assertFalse(second.exists());
+        // The retried files keep their backoff and are uploaded on their own
+        Assert.assertTrue(backedOff.exists());
+        Assert.assertTrue(retryDue.exists());
+        Assert.assertEquals(1, retryQueue.attempts(backedOff));
+        Assert.assertEquals(1, retryQueue.attempts(retryDue));
+        Assert.assertEquals(2, retryQueue.pending());
+        Assert.assertEquals(3, directory.listFiles().length);
+        Assert.assertEquals(1, index.count(UploadBundler.DETECTOR_NAME));
+        Assert.assertEquals(1, index.count("Network"));
+    }
+}
@@ -0,0 +1,119 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.UploadCheckpoint;
+import com.telenor.possumlib.utils.UploadIndex;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+
+@RunWith(PossumTestRunner.class)
+public class UploadCheckpointTest {
+    private static final String KEY = "possumlibdata/1.0/accelerometer/user/1000.zip";
+    private File directory;
+    private File staged;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("upload", null);
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+        staged = new File(directory, KEY.replace('/', '#'));
+        FileOutputStream outputStream = new FileOutputStream(staged);
+        outputStream.write(new byte[2500]);
+        outputStream.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+        Assert.assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testResumesFromAcknowledgedParts() throws Exception {
+        Assert.assertNull(UploadCheckpoint.load(staged, KEY, 1000));
+        UploadCheckpoint checkpoint = UploadCheckpoint.create(staged, "upload-1", KEY, 1000);
+        Assert.assertEquals(3, checkpoint.partCount());
+        Assert.assertEquals(500, checkpoint.partLength(3));
+        checkpoint.partAcknowledged(1, "etag-1");
+        checkpoint.partAcknowledged(3, "etag-3");
+
+        UploadCheckpoint loaded = UploadCheckpoint.load(staged, KEY, 1000);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals("upload-1", loaded.uploadId());
+        Assert.assertTrue(loaded.isAcknowledged(1));
+        Assert.assertFalse(loaded.isAcknowledged(2));
+        Assert.assertEquals("etag-3", loaded.parts().get(3));
+        Assert.assertEquals(1500, loaded.bytesAcknowledged());
+
+        loaded.delete();
+        Assert.assertFalse(UploadCheckpoint.checkpointFile(staged).exists());
+    }
+
+    @Test
+    public void testIgnoresCheckpointNotMatchingFile() throws Exception {
+        UploadCheckpoint.create(staged, "upload-1", KEY, 1000);
+        Assert.assertNull(UploadCheckpoint.load(staged, KEY, 2000));
+        Assert.assertNull(UploadCheckpoint.load(staged, "consent/other", 1000));
+        Assert.assertTrue(staged.setLastModified(staged.lastModified() - 10000));
+        Assert.assertNull(UploadCheckpoint.load(staged, KEY, 1000));
+    }
+
+    @Test
+    public void testPartLineCutShortIsSentAgain() throws Exception {
+        UploadCheckpoint checkpoint = UploadCheckpoint.create(staged, "upload-1", KEY, 1000);
+        checkpoint.partAcknowledged(1, "etag-1");
+        FileWriter writer = new FileWriter(UploadCheckpoint.checkpointFile(staged), true);
+        writer.write("2\t");
+        writer.close();
+        UploadCheckpoint loaded = UploadCheckpoint.load(staged, KEY, 1000);
+        Assert.assertNotNull(loaded);
+        Assert.assertTrue(loaded.isAcknowledged(1));
+        Assert.assertFalse(loaded.isAcknowledged(2));
+    }
+
+    @Test
+    public void testCheckpointsAreNotStagedFiles() throws Exception {
+        UploadCheckpoint.create(staged, "upload-1", KEY, 1000);
+        File indexFile = new File(directory.getAbsolutePath() + ".index");
+        try {
+            UploadIndex index = new UploadIndex(directory, indexFile);
+            Assert.assertEquals(1, index.count("accelerometer"));
+            Assert.assertEquals(2500, index.totalSize());
+            index.reload();
+            Assert.assertEquals(1, index.count("accelerometer"));
+            Assert.assertEquals(1, index.rebuilds());
+        } finally {
+            Assert.assertTrue(indexFile.delete());
+        }
+    }
+
+    @Test
+    public void testOrphans() throws IOException {
+        UploadCheckpoint.create(staged, "upload-1", KEY, 1000);
+        Assert.assertTrue(UploadCheckpoint.orphans(directory).isEmpty());
+        Assert.assertTrue(staged.delete());
+        Assert.assertEquals(Collections.singletonList(UploadCheckpoint.checkpointFile(staged)), UploadCheckpoint.orphans(directory));
+        // The upload it recorded can still be read, to be aborted
+        UploadCheckpoint orphan = UploadCheckpoint.read(UploadCheckpoint.checkpointFile(staged));
+        Assert.assertNotNull(orphan);
+        Assert.assertEquals("upload-1", orphan.uploadId());
+        Assert.assertEquals(KEY, orphan.key());
+        Assert.assertTrue(UploadCheckpoint.checkpointFile(staged).delete());
+    }
+}
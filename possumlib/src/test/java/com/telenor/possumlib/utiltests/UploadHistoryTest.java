@@ -0,0 +1,67 @@
+package com.telenor.possumlib.utiltests;
+
+import com.google.gson.JsonObject;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.constants.UploadResult;
+import com.telenor.possumlib.models.UploadMetrics;
+import com.telenor.possumlib.utils.UploadHistory;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(PossumTestRunner.class)
+public class UploadHistoryTest {
+    private static final long NOW = 1500000000000L;
+    private File historyFile;
+
+    @Before
+    public void setUp() throws Exception {
+        historyFile = File.createTempFile("upload", ".history");
+        Assert.assertTrue(historyFile.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Assert.assertTrue(!historyFile.exists() || historyFile.delete());
+    }
+
+    private UploadMetrics run(long bytes, long latency) {
+        File file = new File("possumlibdata#1.0#position#user#" + bytes);
+        UploadMetrics metrics = new UploadMetrics();
+        metrics.started(file, NOW);
+        metrics.progress(file, bytes);
+        metrics.finished(file, UploadResult.COMPLETED, NOW + latency);
+        return metrics;
+    }
+
+    @Test
+    public void testSummaryAcrossRuns() throws Exception {
+        UploadHistory history = new UploadHistory(historyFile);
+        Assert.assertEquals(0, history.runs().size());
+        history.add(run(1000, 100));
+        new UploadHistory(historyFile).add(run(3000, 300));
+        Assert.assertEquals(2, history.runs().size());
+        JsonObject summary = history.summary();
+        Assert.assertEquals(2, summary.get("runs").getAsInt());
+        Assert.assertEquals(2, summary.get("completed").getAsInt());
+        Assert.assertEquals(4000, summary.get("bytes").getAsLong());
+        Assert.assertEquals(10000, summary.get("throughput").getAsDouble(), 0.001);
+        Assert.assertEquals(200, summary.get("meanLatency").getAsDouble(), 0.001);
+        Assert.assertEquals(300, summary.get("maxLatency").getAsLong());
+    }
+
+    @Test
+    public void testKeepsLatestRuns() throws Exception {
+        UploadHistory history = new UploadHistory(historyFile);
+        for (int i = 1; i <= UploadHistory.MAX_RUNS + 5; i++) {
+            history.add(run(i, 10));
+        }
+        Assert.assertEquals(UploadHistory.MAX_RUNS, history.runs().size());
+        Assert.assertEquals(6, history.runs().get(0).getAsJsonObject().get("bytes").getAsLong());
+    }
+}
@@ -0,0 +1,120 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.FileManipulator;
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.UploadIndex;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+@RunWith(PossumTestRunner.class)
+public class UploadIndexTest {
+    private File directory;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("upload", null);
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+        indexFile = new File(directory.getAbsolutePath() + ".index");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(!indexFile.exists() || indexFile.delete());
+    }
+
+    private File stage(String detector, long timestamp, int length) throws IOException {
+        return FileManipulator.stagedDetectorFile(directory, detector, "user", timestamp, length);
+    }
+
+    @Test
+    public void testKeepsCountSizeAndRange() throws Exception {
+        UploadIndex index = new UploadIndex(directory, indexFile);
+        File first = stage("Accelerometer", 1000000L, 10);
+        index.added(first);
+        index.added(stage("Accelerometer", 2000000L, 20));
+        index.added(stage("Accelerometer", 3000000L, 30));
+        index.added(stage("Gyroscope", 4000000L, 5));
+        Assert.assertEquals(3, index.count("Accelerometer"));
+        Assert.assertEquals(60, index.size("Accelerometer"));
+        Assert.assertEquals(1000000L, index.oldest("Accelerometer"));
+        Assert.assertEquals(3000000L, index.newest("Accelerometer"));
+        Assert.assertEquals(1, index.count("Gyroscope"));
+        Assert.assertEquals(0, index.count("Magnetometer"));
+        Assert.assertEquals(0, index.size("Magnetometer"));
+
+        Assert.assertTrue(first.delete());
+        index.removed(first);
+        Assert.assertEquals(2, index.count("Accelerometer"));
+        Assert.assertEquals(50, index.size("Accelerometer"));
+        Assert.assertEquals(2000000L, index.oldest("Accelerometer"));
+        Assert.assertEquals(2, index.files("Accelerometer").size());
+        // Nothing was there to begin with, so the empty directory was indexed once
+        Assert.assertEquals(1, index.rebuilds());
+    }
+
+    @Test
+    public void testLoadsPersistedIndexWithoutRebuild() throws Exception {
+        UploadIndex index = new UploadIndex(directory, indexFile);
+        for (int i = 0; i < 100; i++) {
+            index.added(stage("Accelerometer", 1000000L + i * 1000, i));
+        }
+        File last = stage("Gyroscope", 5000000L, 7);
+        index.added(last);
+        Assert.assertTrue(last.delete());
+        index.removed(last);
+
+        UploadIndex loaded = new UploadIndex(directory, indexFile);
+        Assert.assertEquals(100, loaded.count("Accelerometer"));
+        Assert.assertEquals(99 * 100 / 2, loaded.size("Accelerometer"));
+        Assert.assertEquals(1099000L, loaded.newest("Accelerometer"));
+        Assert.assertEquals(0, loaded.count("Gyroscope"));
+        Assert.assertEquals(0, loaded.rebuilds());
+    }
+
+    @Test
+    public void testRebuildsCorruptIndex() throws Exception {
+        UploadIndex index = new UploadIndex(directory, indexFile);
+        index.added(stage("Accelerometer", 1000000L, 10));
+        index.added(stage("Accelerometer", 2000000L, 20));
+        FileWriter writer = new FileWriter(indexFile, true);
+        writer.write("+\tten\t");
+        writer.close();
+
+        UploadIndex loaded = new UploadIndex(directory, indexFile);
+        Assert.assertEquals(2, loaded.count("Accelerometer"));
+        Assert.assertEquals(30, loaded.size("Accelerometer"));
+        Assert.assertEquals(1, loaded.rebuilds());
+        // The rebuild wrote a sound index
+        UploadIndex again = new UploadIndex(directory, indexFile);
+        Assert.assertEquals(2, again.count("Accelerometer"));
+        Assert.assertEquals(0, again.rebuilds());
+    }
+
+    @Test
+    public void testRebuildsWhenDirectoryChangedBehindItsBack() throws Exception {
+        UploadIndex index = new UploadIndex(directory, indexFile);
+        index.added(stage("Accelerometer", 1000000L, 10));
+        stage("Accelerometer", 2000000L, 20);
+
+        UploadIndex loaded = new UploadIndex(directory, indexFile);
+        Assert.assertEquals(2, loaded.count("Accelerometer"));
+        Assert.assertEquals(1, loaded.rebuilds());
+    }
+}
@@ -0,0 +1,77 @@
+package com.telenor.possumlib.utiltests;
+
+import com.telenor.possumlib.PossumTestRunner;
+import com.telenor.possumlib.utils.WriterCache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+@RunWith(PossumTestRunner.class)
+public class WriterCacheTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("writer", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        WriterCache.close(file);
+        Assert.assertTrue(file.delete());
+    }
+
+    private String read() throws Exception {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[1024];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, count);
+        }
+        reader.close();
+        return builder.toString();
+    }
+
+    @Test
+    public void testOneOpenForManyAppends() throws Exception {
+        int opens = WriterCache.opens();
+        for (int i = 0; i < 1000; i++) {
+            WriterCache.append(file, "line " + i + "\r\n");
+        }
+        Assert.assertEquals(opens + 1, WriterCache.opens());
+        // Still in the buffer
+        Assert.assertTrue(file.length() < 1000 * 8);
+        WriterCache.flush(file);
+        String content = read();
+        Assert.assertTrue(content.startsWith("line 0\r\n"));
+        Assert.assertTrue(content.endsWith("line 999\r\n"));
+    }
+
+    @Test
+    public void testAppendsAfterClose() throws Exception {
+        WriterCache.append(file, "first\r\n");
+        Assert.assertTrue(WriterCache.close(file));
+        Assert.assertEquals("first\r\n", read());
+        WriterCache.append(file, "second \u00f8\r\n");
+        WriterCache.flush(file);
+        Assert.assertEquals("first\r\nsecond \u00f8\r\n", read());
+    }
+
+    @Test
+    public void testIdleWritersClosed() throws Exception {
+        WriterCache.append(file, "idle\r\n");
+        Assert.assertEquals(0, WriterCache.closeIdle(60000));
+        Thread.sleep(20);
+        Assert.assertTrue(WriterCache.closeIdle(10) >= 1);
+        Assert.assertEquals("idle\r\n", read());
+    }
+}